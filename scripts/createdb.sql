@@ -35,8 +35,23 @@
 CREATE DATABASE greentree;
 USE greentree;
 
--- table for the JDBC ITokenService implementation
--- CREATE TABLE token (keyId VARCHAR(24) PRIMARY KEY, token BLOB);
+-- tables for the JDBC ITokenService implementation: each token row holds the
+-- Token as first committed and the height of its last Block; each block row
+-- holds one Block added since, so that a commit inserts only the new rows
+-- and a select reads them with one range scan of the primary key
+CREATE TABLE token (
+    keyId VARCHAR(24) PRIMARY KEY,
+    height INT NOT NULL,
+    token MEDIUMBLOB NOT NULL
+);
+
+CREATE TABLE block (
+    keyId VARCHAR(24) NOT NULL,
+    height INT NOT NULL,
+    record MEDIUMBLOB NOT NULL,
+    PRIMARY KEY (keyId, height),
+    FOREIGN KEY (keyId) REFERENCES token (keyId)
+);
 
 -- table for the Hibernate ITokenService implementation
 CREATE TABLE Token (
@@ -51,4 +66,6 @@ CREATE TABLE Token (
 CREATE USER 'ITokenService'@'localhost' 
     IDENTIFIED BY 'SSBhbSB0aGUgZXZlci1saXZpbmcgd29tYmF0Lg==';
 
-GRANT ALL ON greentree.Token TO 'ITokenService'@'localhost';
\ No newline at end of file
+GRANT ALL ON greentree.Token TO 'ITokenService'@'localhost';
+GRANT ALL ON greentree.token TO 'ITokenService'@'localhost';
+GRANT ALL ON greentree.block TO 'ITokenService'@'localhost';
\ No newline at end of file
@@ -1,382 +1,991 @@
-/**
- * This package defines the business management layer of the GreenTree application.
- */
-package com.greentree.model.business.manager;
-
-import java.security.interfaces.RSAPublicKey;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.GregorianCalendar;
-import java.util.Iterator;
-
-import com.greentree.model.exception.TokenServiceException;
-import com.greentree.model.domain.Block;
-import com.greentree.model.domain.Claim;
-import com.greentree.model.domain.Token;
-import com.greentree.model.exception.ServiceLoadException;
-import com.greentree.model.services.factory.ServiceFactory;
-import com.greentree.model.services.manager.JDBCPoolManager;
-import com.greentree.model.services.tokenservice.ITokenService;
-import java.sql.SQLException;
-import java.util.Arrays;
-import java.util.stream.Collectors;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-/**
- * GreenTreeManager defines methods used by the presentation layer to manage
- * <code>{@link Token}</code> objects with associated <code>{@link Block}</code>
- * and <code>{@link Claim}</code> objects.
- *
- * @author david5MX53G
- *
- */
-public class GreenTreeManager extends ManagerSuperType {
-    /**
-     * This {@link org.apache.logging.log4j.Logger} is good for logging!
-     */
-    private static final Logger LOG = LogManager.getLogger();
-    
-    /** 
-     * <code>{@link ServiceFactory}</code> for building services.
-     */
-    private final ServiceFactory factory = ServiceFactory.getInstance();
-
-    /**
-     * stores the <code>{@link Token}</code> for the session
-     */
-    private Token token = null;
-
-    /**
-     * stores the encrypted passphrase of the <code>Token</code> for this
-     * session
-     */
-    private String ciphertext;
-
-    /**
-     * Stores the <code>{@link ITokenService}</code> for storing and retrieving
-     * <code>{@link Token}</code> objects
-     */
-    private ITokenService tokenService;
-
-    /**
-     * Stores the singleton instance of this class.
-     */
-    private static GreenTreeManager _instance;
-
-    /**
-     * constructs the Singleton instance of <code>GreenTreeManager</code>. This 
-     * triggers the static init block in {@link ManagerSuperType}.
-     */
-    private GreenTreeManager() {}
-
-    /**
-     * Instantiates a new {@link GreenTreeManager} instance using the Singleton
-     * Design Pattern.
-     *
-     * @return the <code>GreenTreeManager</code> Singleton instance
-     */
-    public static GreenTreeManager getInstance() {
-        if (_instance == null) {
-            _instance = new GreenTreeManager();
-        }
-        LOG.debug("GreenTreeManager getInstance() returned _instance");
-        return _instance;
-    }
-    
-    /**
-     * This sets the {@link ITokenService} member of the class. This member is 
-     * used to create or modify {@link Token} objects.
-     * 
-     * @param tokenService to set on this class
-     */
-    public void setTokenService (ITokenService tokenService) {
-        this.tokenService = tokenService;
-        LOG.debug("setTokenService (ITokenService) " 
-            + (this.tokenService instanceof ITokenService));
-    }
-
-    /**
-     * Instantiates a new <code>{@link ITokenService}</code> for use by methods
-     * in this class.
-     *
-     * @throws ServiceLoadException when the <code>{@link ITokenService}</code>
-     * fails to load
-     */
-    private boolean registerTokenService() {
-        boolean success = false;
-        try {
-            this.tokenService = (ITokenService) factory.getService(ITokenService.NAME);
-            success = true;
-        } catch (ServiceLoadException e) {
-            String msg = "ServiceFactory failed to get " + ITokenService.NAME + ": "
-                + e.getMessage();
-            LOG.debug(this.getClass().getSimpleName() + ": "
-                + e.getClass().getSimpleName() + ": " + msg);
-        }
-        return success;
-    }
-
-    /**
-     * Instantiates a <code>{@link Token}</code>, adds an initial
-     * <code>{@link Block}</code> to it, commits it to storage via
-     * <code>{@link ITokenService}</code>, and saves it to this object.
-     *
-     * @param plaintext passphrase with which to create the <code>Token</code>
-     * @return boolean indicates whether the method was successful or not
-     */
-    public boolean registerToken(String plaintext) {
-        boolean success;
-
-        if (this.tokenService == null) {
-            this.registerService("TokenService");
-        }
-
-        try {
-            this.token = new Token(plaintext);
-            
-            if (this.token instanceof Token) {
-                success = this.getTokenService().commit(this.token);
-                this.ciphertext = token.encrypt(plaintext);
-            } else {
-                LOG.error("registerToken(" + plaintext + ") "
-                    + "failed to initialize Token");
-                success = false;
-            }
-        } catch (TokenServiceException e) {
-            LOG.error(
-                e.getClass().getSimpleName() + ": "
-                + e.getMessage()
-            );
-            success = false;
-        }
-        
-        return success;
-    }
-
-    /**
-     * Logs a logout event to the <code>{@link Token}</code>, saves it with <code>
-     * {@link ITokenService}</code>, and removes it from this object.
-     *
-     * @throws TokenServiceException when the input <code>Token</code> is bad
-     */
-    public void logOut() throws TokenServiceException {
-        String dateStamp = new Date().toString();
-        this.token.addBlock("logged out at " + dateStamp, this.ciphertext);
-        try {
-            getTokenService().commit(token);
-            LOG.debug("Token commit done");
-            this.token = null;
-            LOG.debug("Token is null");
-            JDBCPoolManager.shutDown();
-            LOG.debug("JDBC pool shut down");
-        } catch (TokenServiceException | SQLException e) {
-            LOG.error(e.getMessage());
-        }
-    }
-
-    /**
-     * Retrieves the <code>Token</code> corresponding to the given key,
-     * validates the passphrase, and registers the <code>Token</code> in the
-     * current {@link GreenTreeManager} instance, if the passphrase is valid.
-     *
-     * @param key used to locate the <code>Token</code> and decrypt the
-     * passphrase
-     * 
-     * @param ciphertext used to authenticate ownership of the
-     * <code>Token</code>
-     * 
-     * @return {@link boolean} for success (true) or failure (false)
-     */
-    public boolean registerToken(RSAPublicKey key, String ciphertext) {
-        boolean success = registerService("TokenService");
-        LOG.debug(
-            "registerService(\"TokenServce\") returned "
-            + String.valueOf(success)
-        );
-        if (!success) {
-            LOG.debug("registerService(\"TokenService\") FAILED");
-        } else {
-            try {
-                this.token = this.tokenService.selectToken(key);
-                if (this.token == null) {
-                    LOG.error("getTokenService().selectToken(key) FAILED");
-                } else if (token.checkPassphrase(ciphertext)) {
-                    LOG.debug("token.checkPassphrase(ciphertext) is true");
-                    this.ciphertext = ciphertext;
-                    token.addBlock(
-                        "authenticated at " + new Date().toString(), ciphertext
-                    );
-                    tokenService.commit(token);
-                    success = true;
-                } else {
-                    LOG.debug("token.checkPassphrase(ciphertext) is false");
-                    success = false;
-                }
-            } catch (TokenServiceException e) {
-                LOG.error(e.getMessage());
-                success = false;
-            }
-        }
-        return success;
-    }
-
-    /**
-     * retrieves an {@link IService} implementation
-     *
-     * @return true, if registration was successful
-     */
-    @Override
-    public boolean registerService(String name) {
-        boolean success = false;
-        if (name.equalsIgnoreCase("TokenService")) {
-            success = this.registerTokenService();
-            if (!success) {
-                String msg
-                    = this.getClass().getSimpleName() + ": registerTokenService() failed";
-                LOG.debug(msg);
-            } else {
-                success = true;
-            }
-        }
-        return success;
-    }
-
-    /**
-     * Instantiates a <code>{@link Token}</code>, adds an initial
-     * <code>{@link Block}</code>, commits it to storage via
-     * <code>{@link ITokenService}</code>, and saves it to this object. This
-     * uses <code>char[]</code> for input rather than
-     * <code>{@link String}</code> because the latter persists in memory longer
-     * than the former, increasing the window of opportunity for an attacker
-     * with read access to copy the pass in plaintext. See Stackoverflow <a href=
-     * "https://stackoverflow.com/questions/8881291/why-is-char-preferred-over-string-for-passwords">
-     * 8881291</a>.
-     *
-     * @param pass <code>{@link java.lang.Character}</code>
-     * <a href="https://docs.oracle.com/javase/tutorial/java/nutsandbolts/arrays.html">
-     * array</a> for building a new <code>Token</code>
-     */
-    public void registerToken(char[] pass) {
-        // TODO Auto-generated method stub
-
-    }
-
-    /**
-     * @return {@link RSAPublicKey} for the {@link Token} registered to this
-     * {@link GreenTreeManager}
-     */
-    public RSAPublicKey getPublicKey() {
-        return this.token.getPublicKey();
-    }
-
-    /**
-     * Returns the data from each <code>Block</code> in the block chain of the
-     * given <code>Token
-     * </code> where the <code>Block</code> contains at least one
-     * <code>Claim</code> valid for the requesting <code>Token</code>.
-     *
-     * @param key {@link RSAPublicKey} identifying the {@link Token} from which
-     * to retrieve data. Only data will be returned which its <code>Token</code>
-     * has authorized via {@link Claim} objects for the active
-     * {@link GreenTreeManager} <code>Token</code>.
-     * @return {@link ArrayList}<{@link String}> obtained from the {@link com.greentree.model.
-     *     domain.Block} objects in the <code>blockChain</code> of the given {@link com.greentree.
-     *     model.domain.Token} where at least one
-     * {@link com.greentree.model.domain.Claim} exists matching the
-     * <code>Token</code> of the active <code>GreenTreeManager</code>.
-     */
-    public ArrayList<String> getData(RSAPublicKey key) {
-        String methodName = "public ArrayList<String> getData(RSAPublicKey)";
-        ArrayList<String> stringData = new ArrayList<>();
-        if (this.token == null) {
-            LOG.error(methodName + " missing token for given key");
-        } else {
-            try {
-                // get the Token for the given RSAPublicKey
-                Token keyToken = getTokenService().selectToken(key);
-                
-                // get the list of Block objects for the given Token
-                ArrayList<Block> list = keyToken.getBlockChain();
-                
-                // set the current time
-                final Long start = new GregorianCalendar().getTimeInMillis();
-                
-                // get the data of each Block, assigning Claims as needed
-                list.stream()
-                   .map(blck -> {
-                       if (keyToken.equals(this.token)) { 
-                           blck.addClaim(
-                               new Claim(this.token, start, start + 60000), 
-                               this.ciphertext
-                           );
-                       }
-                       return blck.getData(token, this.ciphertext);
-                   })
-                   .forEach(str -> {
-                       if (str != null) {
-                           stringData.add(str);
-                       }
-                   });
-            } catch (TokenServiceException e) {
-                LOG.error(e.getClass().getSimpleName() + " " + e.getMessage());
-            }
-        }
-        return stringData;
-    }
-
-    /**
-     * adds a {@link Block} to the active <code>Token</code> with a
-     * {@link Claim} granting access to another <code>Token</code> for the given
-     * duration.
-     *
-     * @param data {@link String} to be stored in the new <code>Block</code>
-     * @param clientKey {@link RSAPublicKey} identifying the {@link Token} that
-     * will have access to this <code>Block</code>
-     * @param notBefore <code>long</code> specifies the earliest time in the
-     * number of millis since January 1, 1970, 00:00:00 GMT that access to this
-     * <code>Block</code> will be allowed
-     * @param notAfter <code>long</code> specifies the time after which
-     * access to this <code>
-     *     Block</code> will be denied in the number of millis since January 1,
-     * 1970, 00:00:00 GMT
-     * @return {@link Boolean} true, when execution is successful; otherwise,
-     * false
-     */
-    public boolean addBlock(String data, RSAPublicKey clientKey, long notBefore,
-        long notAfter) {
-        boolean result;
-        try {
-            Token clientToken = getTokenService().selectToken(clientKey);
-
-            Claim claim = new Claim(clientToken, notBefore, notAfter);
-
-            this.token.addBlock(data, this.ciphertext, claim);
-            getTokenService().commit(this.token);
-
-            LOG.debug("getTokenService().commit(this.token) PASSED");
-            result = true;
-        } catch (TokenServiceException e) {
-            LOG.debug(this.getClass().getSimpleName() + ": " + e.getClass().getName()
-                + ": " + e.getMessage());
-            result = false;
-        }
-        return result;
-    }
-
-    /**
-     * removes the {@link Token} from the current {@link GreenTreeManager}
-     * instance. This was originally done purely for testing the overloaded
-     * {@link GreenTreeManager#registerToken()} method.
-     */
-    public void deregisterToken() {
-        this.token = null;
-    }
-
-    /**
-     * @return {@link ITokenService} tokenService
-     */
-    public ITokenService getTokenService() {
-        return tokenService;
-    }
-}
+/**
+ * This package defines the business management layer of the GreenTree application.
+ */
+package com.greentree.model.business.manager;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+
+import com.greentree.model.exception.TokenServiceException;
+import com.greentree.model.domain.Block;
+import com.greentree.model.domain.Claim;
+import com.greentree.model.domain.Token;
+import com.greentree.model.exception.ServiceLoadException;
+import com.greentree.model.services.factory.ServiceFactory;
+import com.greentree.model.services.manager.JDBCPoolManager;
+import com.greentree.model.services.manager.KeyPairPoolManager;
+import com.greentree.model.services.tokenservice.ITokenService;
+import com.greentree.model.services.manager.PropertyManager;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import javax.xml.parsers.ParserConfigurationException;
+import org.xml.sax.SAXException;
+
+/**
+ * GreenTreeManager defines methods used by the presentation layer to manage
+ * <code>{@link Token}</code> objects with associated <code>{@link Block}</code>
+ * and <code>{@link Claim}</code> objects.
+ *
+ * @author david5MX53G
+ *
+ */
+public class GreenTreeManager extends ManagerSuperType {
+    /**
+     * This {@link org.apache.logging.log4j.Logger} is good for logging!
+     */
+    private static final Logger LOG = LogManager.getLogger();
+    
+    /** 
+     * <code>{@link ServiceFactory}</code> for building services.
+     */
+    private final ServiceFactory factory = ServiceFactory.getInstance();
+
+    /**
+     * stores the <code>{@link Token}</code> for callers which do not pass a
+     * {@link GreenTreeSession} of their own
+     */
+    private final GreenTreeSession session = new GreenTreeSession();
+
+    /**
+     * Stores the <code>{@link ITokenService}</code> for storing and retrieving
+     * <code>{@link Token}</code> objects
+     */
+    private volatile ITokenService tokenService;
+
+    /**
+     * This many locks are shared among the <code>Token</code> objects.
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * These locks make each addition to a <code>{@link Token}</code> and its
+     * commit happen together, before or after any other addition to the same
+     * <code>Token</code>. Each key id maps to one lock, so writes to
+     * different <code>Token</code> objects rarely wait on each other.
+     */
+    private final Object[] stripes = new Object[STRIPES];
+
+    /**
+     * This maps the key id of each <code>{@link Token}</code> held by a
+     * session to that <code>Token</code>, so that every session logged in
+     * with the same key appends to the one instance which its lock guards,
+     * instead of forking the chain on a copy of its own. An entry is dropped
+     * once no session, nor the write-behind queue, holds its
+     * <code>Token</code>. It is changed under the lock of the key id.
+     */
+    private final ConcurrentMap<String, SharedToken> shared
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The references in {@link GreenTreeManager#shared} are put here once
+     * their <code>Token</code> is no longer held.
+     */
+    private final ReferenceQueue<Token> released = new ReferenceQueue<>();
+
+    /**
+     * This queues the blocks recording logins and logouts, so that they are
+     * written after the reply, or is null when the <code>writebehind</code>
+     * property is missing or 0 and they are written before it.
+     */
+    private volatile GreenTreeWriteBehind writeBehind;
+
+    /**
+     * Stores the singleton instance of this class.
+     */
+    private static GreenTreeManager _instance;
+
+    /**
+     * constructs the Singleton instance of <code>GreenTreeManager</code>. This 
+     * triggers the static init block in {@link ManagerSuperType}.
+     */
+    private GreenTreeManager() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+
+        int capacity = 0;
+        try {
+            String value = PropertyManager.getProperty("writebehind");
+            if (value != null) {
+                capacity = Integer.parseInt(value);
+            }
+        } catch (IOException | SAXException | ParserConfigurationException
+            | NumberFormatException e) {
+            LOG.warn("writebehind unavailable, writing synchronously: "
+                + e.getMessage());
+        }
+        if (capacity > 0) {
+            this.writeBehind = newWriteBehind(capacity);
+        }
+    }
+
+    /**
+     * Instantiates a new {@link GreenTreeManager} instance using the Singleton
+     * Design Pattern.
+     *
+     * @return the <code>GreenTreeManager</code> Singleton instance
+     */
+    public static GreenTreeManager getInstance() {
+        if (_instance == null) {
+            _instance = new GreenTreeManager();
+        }
+        LOG.debug("GreenTreeManager getInstance() returned _instance");
+        return _instance;
+    }
+    
+    /**
+     * This sets the {@link ITokenService} member of the class. This member is 
+     * used to create or modify {@link Token} objects.
+     * 
+     * @param tokenService to set on this class
+     */
+    public void setTokenService (ITokenService tokenService) {
+        this.tokenService = tokenService;
+        // Tokens loaded from the old storage are not shared with the new
+        this.shared.clear();
+        LOG.debug("setTokenService (ITokenService) " 
+            + (this.tokenService instanceof ITokenService));
+    }
+
+    /**
+     * Instantiates a new <code>{@link ITokenService}</code> for use by methods
+     * in this class.
+     *
+     * @throws ServiceLoadException when the <code>{@link ITokenService}</code>
+     * fails to load
+     */
+    private boolean registerTokenService() {
+        boolean success = false;
+        try {
+            this.tokenService = (ITokenService) factory.getService(ITokenService.NAME);
+            success = true;
+        } catch (ServiceLoadException e) {
+            String msg = "ServiceFactory failed to get " + ITokenService.NAME + ": "
+                + e.getMessage();
+            LOG.debug(this.getClass().getSimpleName() + ": "
+                + e.getClass().getSimpleName() + ": " + msg);
+        }
+        return success;
+    }
+
+    /**
+     * Instantiates a <code>{@link Token}</code>, adds an initial
+     * <code>{@link Block}</code> to it, commits it to storage via
+     * <code>{@link ITokenService}</code>, and saves it to this object.
+     *
+     * @param plaintext passphrase with which to create the <code>Token</code>
+     * @return boolean indicates whether the method was successful or not
+     */
+    public boolean registerToken(String plaintext) {
+        return registerToken(this.session, plaintext);
+    }
+
+    /**
+     * Instantiates a <code>{@link Token}</code>, adds an initial
+     * <code>{@link Block}</code> to it, commits it to storage via
+     * <code>{@link ITokenService}</code>, and saves it to the given session.
+     * The key pair of the <code>Token</code> comes from the
+     * {@link KeyPairPoolManager}, so it is usually generated ahead of time.
+     *
+     * @param session {@link GreenTreeSession} which will hold the
+     * <code>Token</code>
+     * @param plaintext passphrase with which to create the <code>Token</code>
+     * @return boolean indicates whether the method was successful or not
+     */
+    public boolean registerToken(GreenTreeSession session, String plaintext) {
+        boolean success;
+
+        if (this.tokenService == null) {
+            this.registerService("TokenService");
+        }
+
+        try {
+            Token token = new Token(plaintext,
+                KeyPairPoolManager.getInstance().take());
+            
+            if (token instanceof Token) {
+                success = this.getTokenService().commit(token);
+                synchronized (lockFor(token)) {
+                    share(token);
+                }
+                session.setToken(token, token.encrypt(plaintext));
+            } else {
+                LOG.error("registerToken(" + plaintext + ") "
+                    + "failed to initialize Token");
+                success = false;
+            }
+        } catch (TokenServiceException e) {
+            LOG.error(
+                e.getClass().getSimpleName() + ": "
+                + e.getMessage()
+            );
+            success = false;
+        }
+        
+        return success;
+    }
+
+    /**
+     * Logs a logout event to the <code>{@link Token}</code>, saves it with <code>
+     * {@link ITokenService}</code>, and removes it from this object.
+     *
+     * @throws TokenServiceException when the input <code>Token</code> is bad
+     */
+    public void logOut() throws TokenServiceException {
+        logOut(this.session);
+        this.flush();
+        try {
+            JDBCPoolManager.shutDown();
+            LOG.debug("JDBC pool shut down");
+        } catch (SQLException e) {
+            LOG.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Logs a logout event to the <code>{@link Token}</code> of the given
+     * session, saves it with <code>{@link ITokenService}</code>, and removes
+     * it from the session. Unlike {@link GreenTreeManager#logOut()}, this
+     * leaves the JDBC pool open for the other sessions.
+     *
+     * @param session {@link GreenTreeSession} holding the <code>Token</code>
+     * @throws TokenServiceException when the input <code>Token</code> is bad
+     */
+    public void logOut(GreenTreeSession session) throws TokenServiceException {
+        Token token = session.getToken();
+        String dateStamp = new Date().toString();
+        try {
+            synchronized (lockFor(token)) {
+                token.addBlock("logged out at " + dateStamp,
+                    session.getCiphertext());
+                this.commitAudit(token);
+            }
+            LOG.debug("Token commit done");
+            session.setToken(null, null);
+            LOG.debug("Token is null");
+        } catch (TokenServiceException e) {
+            LOG.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Retrieves the <code>Token</code> corresponding to the given key,
+     * validates the passphrase, and registers the <code>Token</code> in the
+     * current {@link GreenTreeManager} instance, if the passphrase is valid.
+     *
+     * @param key used to locate the <code>Token</code> and decrypt the
+     * passphrase
+     * 
+     * @param ciphertext used to authenticate ownership of the
+     * <code>Token</code>
+     * 
+     * @return {@link boolean} for success (true) or failure (false)
+     */
+    public boolean registerToken(RSAPublicKey key, String ciphertext) {
+        return registerToken(this.session, key, ciphertext);
+    }
+
+    /**
+     * Retrieves the <code>Token</code> corresponding to the given key,
+     * validates the passphrase, and registers the <code>Token</code> in the
+     * given {@link GreenTreeSession}, if the passphrase is valid.
+     *
+     * @param session {@link GreenTreeSession} which will hold the
+     * <code>Token</code>
+     * @param key used to locate the <code>Token</code> and decrypt the
+     * passphrase
+     * @param ciphertext used to authenticate ownership of the
+     * <code>Token</code>
+     * @return {@link boolean} for success (true) or failure (false)
+     */
+    public boolean registerToken(GreenTreeSession session, RSAPublicKey key,
+        String ciphertext) {
+        boolean success = this.tokenService != null
+            || registerService("TokenService");
+        LOG.debug(
+            "registerService(\"TokenServce\") returned "
+            + String.valueOf(success)
+        );
+        if (!success) {
+            LOG.debug("registerService(\"TokenService\") FAILED");
+        } else {
+            try {
+                String keyId = Token.keyIdOf(key);
+                synchronized (lockFor(keyId)) {
+                    Token token = sharedToken(key);
+                    if (token == null) {
+                        LOG.error("getTokenService().selectToken(key) FAILED");
+                        success = false;
+                    } else if (token.checkPassphrase(ciphertext)) {
+                        LOG.debug("token.checkPassphrase(ciphertext) is true");
+                        session.setToken(token, ciphertext);
+                        token.addBlock(
+                            "authenticated at " + new Date().toString(),
+                            ciphertext
+                        );
+                        this.commitAudit(token);
+                        success = true;
+                    } else {
+                        LOG.debug("token.checkPassphrase(ciphertext) is false");
+                        success = false;
+                    }
+                }
+            } catch (TokenServiceException e) {
+                LOG.error(e.getMessage());
+                success = false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * retrieves an {@link IService} implementation
+     *
+     * @return true, if registration was successful
+     */
+    @Override
+    public boolean registerService(String name) {
+        boolean success = false;
+        if (name.equalsIgnoreCase("TokenService")) {
+            success = this.registerTokenService();
+            if (!success) {
+                String msg
+                    = this.getClass().getSimpleName() + ": registerTokenService() failed";
+                LOG.debug(msg);
+            } else {
+                success = true;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Instantiates a <code>{@link Token}</code>, adds an initial
+     * <code>{@link Block}</code>, commits it to storage via
+     * <code>{@link ITokenService}</code>, and saves it to this object. This
+     * uses <code>char[]</code> for input rather than
+     * <code>{@link String}</code> because the latter persists in memory longer
+     * than the former, increasing the window of opportunity for an attacker
+     * with read access to copy the pass in plaintext. See Stackoverflow <a href=
+     * "https://stackoverflow.com/questions/8881291/why-is-char-preferred-over-string-for-passwords">
+     * 8881291</a>.
+     *
+     * @param pass <code>{@link java.lang.Character}</code>
+     * <a href="https://docs.oracle.com/javase/tutorial/java/nutsandbolts/arrays.html">
+     * array</a> for building a new <code>Token</code>
+     */
+    public void registerToken(char[] pass) {
+        // TODO Auto-generated method stub
+
+    }
+
+    /**
+     * @return {@link RSAPublicKey} for the {@link Token} registered to this
+     * {@link GreenTreeManager}
+     */
+    public RSAPublicKey getPublicKey() {
+        return getPublicKey(this.session);
+    }
+
+    /**
+     * @param session {@link GreenTreeSession} holding the {@link Token}
+     * @return {@link RSAPublicKey} for the <code>Token</code> registered to
+     * the given session, or null when it has none
+     */
+    public RSAPublicKey getPublicKey(GreenTreeSession session) {
+        return session.getPublicKey();
+    }
+
+    /**
+     * Returns the data from each <code>Block</code> in the block chain of the
+     * given <code>Token
+     * </code> where the <code>Block</code> contains at least one
+     * <code>Claim</code> valid for the requesting <code>Token</code>.
+     *
+     * @param key {@link RSAPublicKey} identifying the {@link Token} from which
+     * to retrieve data. Only data will be returned which its <code>Token</code>
+     * has authorized via {@link Claim} objects for the active
+     * {@link GreenTreeManager} <code>Token</code>.
+     * @return {@link ArrayList}<{@link String}> obtained from the {@link com.greentree.model.
+     *     domain.Block} objects in the <code>blockChain</code> of the given {@link com.greentree.
+     *     model.domain.Token} where at least one
+     * {@link com.greentree.model.domain.Claim} exists matching the
+     * <code>Token</code> of the active <code>GreenTreeManager</code>.
+     */
+    public ArrayList<String> getData(RSAPublicKey key) {
+        return getData(this.session, key);
+    }
+
+    /**
+     * Returns the data from each <code>Block</code> in the block chain of the
+     * given <code>Token</code> which the <code>Token</code> of the given
+     * session may read, as {@link GreenTreeManager#getData(RSAPublicKey)}
+     * does for the default session.
+     *
+     * @param session {@link GreenTreeSession} holding the requesting
+     * {@link Token}
+     * @param key {@link RSAPublicKey} identifying the <code>Token</code> from
+     * which to retrieve data
+     * @return {@link ArrayList}<{@link String}> of the data the session may
+     * read
+     */
+    public ArrayList<String> getData(GreenTreeSession session,
+        RSAPublicKey key) {
+        String methodName = "public ArrayList<String> getData(RSAPublicKey)";
+        ArrayList<String> stringData = new ArrayList<>();
+        if (session.getToken() == null) {
+            LOG.error(methodName + " missing token for given key");
+        } else {
+            try {
+                // get the Token for the given RSAPublicKey
+                Token keyToken = getTokenService().selectToken(key);
+                
+                // get the list of Block objects for the given Token
+                ArrayList<Block> list = keyToken.getBlockChain();
+                
+                readData(session, keyToken, list, stringData);
+            } catch (TokenServiceException e) {
+                LOG.error(e.getClass().getSimpleName() + " " + e.getMessage());
+            }
+        }
+        return stringData;
+    }
+
+    /**
+     * Returns the data which the <code>Token</code> of the given session may
+     * read from the <code>Block</code> objects added to the given
+     * <code>Token</code> after the one with the given hash. Clients polling a
+     * <code>Token</code> pass the hash returned by their last poll, so each
+     * poll only reads the new <code>Block</code> objects, which
+     * {@link Token#getBlocksSince(String)} finds through its index.
+     *
+     * @param session {@link GreenTreeSession} holding the requesting
+     * {@link Token}
+     * @param key {@link RSAPublicKey} identifying the <code>Token</code> from
+     * which to retrieve data
+     * @param lastSeenHash hash of the newest <code>Block</code> seen by the
+     * last poll; null, empty, or unknown to read the whole chain
+     * @return {@link ArrayList}<{@link String}> whose first element is the
+     * hash to pass to the next poll, followed by the data the session may
+     * read; empty when the session or the <code>Token</code> is missing
+     */
+    public ArrayList<String> getDataSince(GreenTreeSession session,
+        RSAPublicKey key, String lastSeenHash) {
+        String methodName
+            = "public ArrayList<String> getDataSince(RSAPublicKey, String)";
+        ArrayList<String> stringData = new ArrayList<>();
+        if (session.getToken() == null) {
+            LOG.error(methodName + " missing token for given key");
+        } else {
+            try {
+                Token keyToken = getTokenService().selectToken(key);
+                if (keyToken == null) {
+                    LOG.error(methodName + " found no token for given key");
+                } else {
+                    ArrayList<Block> list
+                        = keyToken.getBlocksSince(lastSeenHash);
+                    stringData.add(list.isEmpty() ? lastSeenHash
+                        : list.get(list.size() - 1).getHash());
+                    readData(session, keyToken, list, stringData);
+                }
+            } catch (TokenServiceException e) {
+                LOG.error(e.getClass().getSimpleName() + " " + e.getMessage());
+            }
+        }
+        return stringData;
+    }
+
+    /**
+     * Returns one page of the data which the <code>Token</code> of the given
+     * session may read from the given <code>Token</code>, so that a client
+     * can read a long chain a page at a time.
+     *
+     * @param session {@link GreenTreeSession} holding the requesting
+     * {@link Token}
+     * @param key {@link RSAPublicKey} identifying the <code>Token</code> from
+     * which to retrieve data
+     * @param offset position in the chain of the first <code>Block</code> of
+     * the page, starting at 0
+     * @param limit number of <code>Block</code> objects in the page; the page
+     * holds fewer strings when some are not readable
+     * @return {@link ArrayList}<{@link String}> whose first element is the
+     * offset of the next page, or an empty string after the last page,
+     * followed by the data the session may read; empty when the session or
+     * the <code>Token</code> is missing or <code>limit</code> is less than 1
+     */
+    public ArrayList<String> getData(GreenTreeSession session,
+        RSAPublicKey key, int offset, int limit) {
+        String methodName
+            = "public ArrayList<String> getData(RSAPublicKey, int, int)";
+        ArrayList<String> stringData = new ArrayList<>();
+        if (session.getToken() == null) {
+            LOG.error(methodName + " missing token for given key");
+        } else if (limit < 1) {
+            LOG.error(methodName + " limit must be at least 1: " + limit);
+        } else {
+            try {
+                Token keyToken = getTokenService().selectToken(key);
+                if (keyToken == null) {
+                    LOG.error(methodName + " found no token for given key");
+                } else {
+                    ArrayList<Block> list = keyToken.getBlocks(offset, limit);
+                    stringData.add(list.size() < limit ? ""
+                        : String.valueOf(Math.max(offset, 0) + limit));
+                    readData(session, keyToken, list, stringData);
+                }
+            } catch (TokenServiceException e) {
+                LOG.error(e.getClass().getSimpleName() + " " + e.getMessage());
+            }
+        }
+        return stringData;
+    }
+
+    /**
+     * Hands the data which the <code>Token</code> of the given session may
+     * read from the given <code>Token</code> to the sink, one chunk of
+     * <code>Block</code> objects at a time, so that only one chunk of data is
+     * held at once no matter how long the chain is. Chunks without readable
+     * data are skipped.
+     *
+     * @param session {@link GreenTreeSession} holding the requesting
+     * {@link Token}
+     * @param key {@link RSAPublicKey} identifying the <code>Token</code> from
+     * which to retrieve data
+     * @param chunkSize number of <code>Block</code> objects read per chunk
+     * @param sink {@link Consumer} which receives each non-empty chunk
+     */
+    public void streamData(GreenTreeSession session, RSAPublicKey key,
+        int chunkSize, Consumer<ArrayList<String>> sink) {
+        String methodName = "public void streamData(RSAPublicKey, int, "
+            + "Consumer<ArrayList<String>>)";
+        if (session.getToken() == null) {
+            LOG.error(methodName + " missing token for given key");
+            return;
+        } else if (chunkSize < 1) {
+            LOG.error(methodName + " chunkSize must be at least 1: "
+                + chunkSize);
+            return;
+        }
+        try {
+            Token keyToken = getTokenService().selectToken(key);
+            if (keyToken == null) {
+                LOG.error(methodName + " found no token for given key");
+                return;
+            }
+            int offset = 0;
+            ArrayList<Block> list;
+            do {
+                list = keyToken.getBlocks(offset, chunkSize);
+                offset += list.size();
+                ArrayList<String> chunk = new ArrayList<>();
+                readData(session, keyToken, list, chunk);
+                if (!chunk.isEmpty()) {
+                    sink.accept(chunk);
+                }
+            } while (list.size() == chunkSize);
+        } catch (TokenServiceException e) {
+            LOG.error(e.getClass().getSimpleName() + " " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the data of each of the given <code>Block</code> objects which the
+     * <code>Token</code> of the session may read to the given list. The owner
+     * of a <code>Token</code> reads each of its own <code>Block</code>
+     * objects as their issuer, so reading adds no <code>Claim</code> to the
+     * <code>Token</code>, which other sessions may share.
+     *
+     * @param session {@link GreenTreeSession} holding the requesting
+     * {@link Token}
+     * @param keyToken <code>Token</code> which issued the blocks
+     * @param list {@link Block} objects to read
+     * @param stringData to which the readable data is added
+     */
+    private void readData(GreenTreeSession session, Token keyToken,
+        List<Block> list, ArrayList<String> stringData) {
+        final Token token = session.getToken();
+        final String ciphertext = session.getCiphertext();
+        final boolean owner = keyToken.equals(token);
+
+        // get the data of each Block, as its issuer or by a Claim
+        list.stream()
+           .map(blck -> owner
+               ? blck.getIssuedData(token, ciphertext)
+               : blck.getData(token, ciphertext))
+           .forEach(str -> {
+               if (str != null) {
+                   stringData.add(str);
+               }
+           });
+    }
+
+    /**
+     * Same as {@link GreenTreeManager#getDataSince(GreenTreeSession,
+     * RSAPublicKey, String)}, for the default session.
+     *
+     * @param key {@link RSAPublicKey} identifying the <code>Token</code> from
+     * which to retrieve data
+     * @param lastSeenHash hash of the newest <code>Block</code> seen by the
+     * last poll
+     * @return the hash for the next poll, followed by the readable data
+     */
+    public ArrayList<String> getDataSince(RSAPublicKey key,
+        String lastSeenHash) {
+        return getDataSince(this.session, key, lastSeenHash);
+    }
+
+    /**
+     * adds a {@link Block} to the active <code>Token</code> with a
+     * {@link Claim} granting access to another <code>Token</code> for the given
+     * duration.
+     *
+     * @param data {@link String} to be stored in the new <code>Block</code>
+     * @param clientKey {@link RSAPublicKey} identifying the {@link Token} that
+     * will have access to this <code>Block</code>
+     * @param notBefore <code>long</code> specifies the earliest time in the
+     * number of millis since January 1, 1970, 00:00:00 GMT that access to this
+     * <code>Block</code> will be allowed
+     * @param notAfter <code>long</code> specifies the time after which
+     * access to this <code>
+     *     Block</code> will be denied in the number of millis since January 1,
+     * 1970, 00:00:00 GMT
+     * @return {@link Boolean} true, when execution is successful; otherwise,
+     * false
+     */
+    public boolean addBlock(String data, RSAPublicKey clientKey, long notBefore,
+        long notAfter) {
+        return addBlock(this.session, data, clientKey, notBefore, notAfter);
+    }
+
+    /**
+     * adds a {@link Block} to the <code>Token</code> of the given session, as
+     * {@link GreenTreeManager#addBlock(String, RSAPublicKey, long, long)} does
+     * for the default session.
+     *
+     * @param session {@link GreenTreeSession} holding the {@link Token} which
+     * issues the <code>Block</code>
+     * @param data {@link String} to be stored in the new <code>Block</code>
+     * @param clientKey {@link RSAPublicKey} identifying the <code>Token</code>
+     * that will have access to this <code>Block</code>
+     * @param notBefore earliest time in millis that access will be allowed
+     * @param notAfter time in millis after which access will be denied
+     * @return {@link Boolean} true, when execution is successful; otherwise,
+     * false
+     */
+    public boolean addBlock(GreenTreeSession session, String data,
+        RSAPublicKey clientKey, long notBefore, long notAfter) {
+        boolean result;
+        try {
+            Token clientToken = getTokenService().selectToken(clientKey);
+
+            Claim claim = new Claim(clientToken, notBefore, notAfter);
+
+            Token token = session.getToken();
+            synchronized (lockFor(token)) {
+                token.addBlock(data, session.getCiphertext(), claim);
+                getTokenService().commit(token);
+            }
+
+            LOG.debug("getTokenService().commit(this.token) PASSED");
+            result = true;
+        } catch (TokenServiceException e) {
+            LOG.debug(this.getClass().getSimpleName() + ": " + e.getClass().getName()
+                + ": " + e.getMessage());
+            result = false;
+        }
+        return result;
+    }
+
+    /**
+     * adds a {@link Block} to the active <code>Token</code> with a
+     * {@link Claim} granting access to each of the given <code>Token</code>
+     * objects for the given duration, reading them all from storage at once.
+     *
+     * @param data {@link String} to be stored in the new <code>Block</code>
+     * @param clientKeys {@link Collection} of {@link RSAPublicKey} objects
+     * identifying the {@link Token} objects that will have access to this
+     * <code>Block</code>
+     * @param notBefore earliest time in millis that access will be allowed
+     * @param notAfter time in millis after which access will be denied
+     * @return {@link Boolean} true, when execution is successful; otherwise,
+     * false
+     */
+    public boolean addBlock(String data, Collection<RSAPublicKey> clientKeys,
+        long notBefore, long notAfter) {
+        return addBlock(this.session, data, clientKeys, notBefore, notAfter);
+    }
+
+    /**
+     * adds a {@link Block} granting access to several <code>Token</code>
+     * objects to the <code>Token</code> of the given session, as
+     * {@link GreenTreeManager#addBlock(String, Collection, long, long)} does
+     * for the default session. Nothing is added when a key has no
+     * <code>Token</code> in storage.
+     *
+     * @param session {@link GreenTreeSession} holding the {@link Token} which
+     * issues the <code>Block</code>
+     * @param data {@link String} to be stored in the new <code>Block</code>
+     * @param clientKeys {@link Collection} of {@link RSAPublicKey} objects
+     * identifying the <code>Token</code> objects that will have access to
+     * this <code>Block</code>
+     * @param notBefore earliest time in millis that access will be allowed
+     * @param notAfter time in millis after which access will be denied
+     * @return {@link Boolean} true, when execution is successful; otherwise,
+     * false
+     */
+    public boolean addBlock(GreenTreeSession session, String data,
+        Collection<RSAPublicKey> clientKeys, long notBefore, long notAfter) {
+        boolean result = false;
+        try {
+            Map<String, Token> clientTokens
+                = getTokenService().selectTokens(clientKeys);
+
+            List<Claim> claims = new ArrayList<>(clientKeys.size());
+            for (RSAPublicKey clientKey : clientKeys) {
+                Token clientToken = clientTokens.get(Token.keyIdOf(clientKey));
+                if (clientToken == null) {
+                    LOG.error("no Token for a claimant of addBlock");
+                    return false;
+                }
+                claims.add(new Claim(clientToken, notBefore, notAfter));
+            }
+
+            Token token = session.getToken();
+            synchronized (lockFor(token)) {
+                token.addBlock(data, session.getCiphertext(), claims);
+                getTokenService().commit(token);
+            }
+
+            LOG.debug("getTokenService().commit(this.token) PASSED");
+            result = true;
+        } catch (TokenServiceException e) {
+            LOG.debug(this.getClass().getSimpleName() + ": " + e.getClass().getName()
+                + ": " + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * removes the {@link Token} from the current {@link GreenTreeManager}
+     * instance. This was originally done purely for testing the overloaded
+     * {@link GreenTreeManager#registerToken()} method.
+     */
+    public void deregisterToken() {
+        deregisterToken(this.session);
+    }
+
+    /**
+     * removes the {@link Token} from the given {@link GreenTreeSession}.
+     *
+     * @param session {@link GreenTreeSession} holding the <code>Token</code>
+     */
+    public void deregisterToken(GreenTreeSession session) {
+        session.setToken(null, null);
+    }
+
+    /**
+     * @param token {@link Token} about to be changed
+     * @return the lock guarding changes to the given <code>Token</code>
+     */
+    private Object lockFor(Token token) {
+        return lockFor(token.getKeyId());
+    }
+
+    /**
+     * @param keyId of a {@link Token} about to be changed
+     * @return the lock guarding changes to the <code>Token</code>
+     */
+    private Object lockFor(String keyId) {
+        return stripes[stripeOf(keyId)];
+    }
+
+    /**
+     * @param token {@link Token} about to be changed
+     * @return the index of the lock guarding changes to it
+     */
+    private static int stripeOf(Token token) {
+        return stripeOf(token.getKeyId());
+    }
+
+    /**
+     * @param keyId of a {@link Token} about to be changed
+     * @return the index of the lock guarding changes to it
+     */
+    static int stripeOf(String keyId) {
+        return Math.floorMod(keyId.hashCode(), STRIPES);
+    }
+
+    /**
+     * This finds the <code>Token</code> of the given key which sessions
+     * share: the one a session already holds, else the one still queued for
+     * write-behind, which is newer than the one in storage, else the one in
+     * storage. The caller holds the lock of the key id.
+     *
+     * @param key {@link RSAPublicKey} of the <code>Token</code>
+     * @return the shared {@link Token}, or null when there is none
+     * @throws TokenServiceException when storage cannot be read
+     */
+    private Token sharedToken(RSAPublicKey key) throws TokenServiceException {
+        String keyId = Token.keyIdOf(key);
+        expunge();
+        SharedToken ref = shared.get(keyId);
+        Token token = ref == null ? null : ref.get();
+        if (token == null) {
+            GreenTreeWriteBehind queue = this.writeBehind;
+            token = queue == null ? null : queue.get(keyId);
+            if (token == null) {
+                token = this.tokenService.selectToken(key);
+            }
+            if (token != null) {
+                share(token);
+            }
+        }
+        return token;
+    }
+
+    /**
+     * This makes the given <code>Token</code> the one sessions share for its
+     * key id. The caller holds the lock of the key id.
+     *
+     * @param token {@link Token} to share
+     */
+    private void share(Token token) {
+        expunge();
+        shared.put(token.getKeyId(), new SharedToken(token, released));
+    }
+
+    /**
+     * This drops the entries of {@link GreenTreeManager#shared} whose
+     * <code>Token</code> is no longer held.
+     */
+    private void expunge() {
+        SharedToken ref;
+        while ((ref = (SharedToken) released.poll()) != null) {
+            shared.remove(ref.keyId, ref);
+        }
+    }
+
+    /**
+     * This refers to a shared <code>Token</code> without keeping it from
+     * being collected, and remembers its key id so that its entry can be
+     * dropped.
+     */
+    private static final class SharedToken extends WeakReference<Token> {
+
+        /**
+         * This is the key id of the <code>Token</code>.
+         */
+        private final String keyId;
+
+        /**
+         * @param token {@link Token} to refer to
+         * @param queue {@link ReferenceQueue} to put this on once the
+         * <code>Token</code> is collected
+         */
+        SharedToken(Token token, ReferenceQueue<Token> queue) {
+            super(token, queue);
+            this.keyId = token.getKeyId();
+        }
+    }
+
+    /**
+     * This commits a <code>Token</code> whose latest block only records a
+     * login or a logout: it is queued when write-behind is on and the queue
+     * has room, or committed now otherwise. The caller holds the lock of the
+     * <code>Token</code>.
+     *
+     * @param token {@link Token} to commit
+     * @throws TokenServiceException when committing now fails
+     */
+    private void commitAudit(Token token) throws TokenServiceException {
+        GreenTreeWriteBehind queue = this.writeBehind;
+        if (queue == null || !queue.offer(token)) {
+            getTokenService().commit(token);
+        }
+    }
+
+    /**
+     * This commits a batch taken from the write-behind queue a lock at a
+     * time: the <code>Token</code> objects under each lock are committed
+     * together while holding it, so that a slow commit only holds up
+     * changes to those <code>Token</code> objects.
+     *
+     * @param tokens {@link List} of <code>Token</code> objects to commit
+     * @throws TokenServiceException when they could not all be committed
+     */
+    private void commitQueued(List<Token> tokens) throws TokenServiceException {
+        Map<Integer, List<Token>> groups = tokens.stream().collect(
+            Collectors.groupingBy(GreenTreeManager::stripeOf, TreeMap::new,
+                Collectors.toList()));
+        boolean result = true;
+        for (Map.Entry<Integer, List<Token>> group : groups.entrySet()) {
+            synchronized (stripes[group.getKey()]) {
+                result &= getTokenService().commitAll(group.getValue());
+            }
+        }
+        if (!result) {
+            throw new TokenServiceException("commitAll returned false", LOG);
+        }
+    }
+
+    /**
+     * This waits until the blocks queued for write-behind so far are
+     * committed. It returns at once when write-behind is off.
+     */
+    public void flush() {
+        GreenTreeWriteBehind queue = this.writeBehind;
+        if (queue != null) {
+            try {
+                queue.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("flush() interrupted");
+            }
+        }
+    }
+
+    /**
+     * This replaces the write-behind queue, closing the old one once what it
+     * holds is committed.
+     *
+     * @param writeBehind {@link GreenTreeWriteBehind} queue, or null to
+     * commit every block before replying
+     */
+    void setWriteBehind(GreenTreeWriteBehind writeBehind) {
+        GreenTreeWriteBehind old = this.writeBehind;
+        this.writeBehind = writeBehind;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * @param capacity most <code>Token</code> objects waiting at once
+     * @return a write-behind queue committing through this manager
+     */
+    GreenTreeWriteBehind newWriteBehind(int capacity) {
+        return new GreenTreeWriteBehind(capacity, this::commitQueued);
+    }
+
+    /**
+     * @return {@link ITokenService} tokenService
+     */
+    public ITokenService getTokenService() {
+        return tokenService;
+    }
+}
@@ -0,0 +1,65 @@
+package com.greentree.model.business.manager;
+
+import com.greentree.model.domain.Token;
+import java.security.interfaces.RSAPublicKey;
+
+/**
+ * A <code>GreenTreeSession</code> holds the <code>{@link Token}</code> a
+ * client has registered with the {@link GreenTreeManager}, along with the
+ * encrypted passphrase which proves ownership of it. The server builds one
+ * session per connection, so that clients sharing the singleton
+ * <code>GreenTreeManager</code> never see or overwrite each other's
+ * <code>Token</code>, and requests of different clients can run at the same
+ * time.
+ *
+ * @author david5MX53G
+ */
+public class GreenTreeSession {
+
+    /**
+     * stores the <code>{@link Token}</code> for the session
+     */
+    private volatile Token token;
+
+    /**
+     * stores the encrypted passphrase of the <code>Token</code> for this
+     * session
+     */
+    private volatile String ciphertext;
+
+    /**
+     * @return the <code>{@link Token}</code> of this session, or null when
+     * none is registered
+     */
+    Token getToken() {
+        return this.token;
+    }
+
+    /**
+     * @return the encrypted passphrase of the <code>Token</code>
+     */
+    String getCiphertext() {
+        return this.ciphertext;
+    }
+
+    /**
+     * This registers a <code>{@link Token}</code> with this session.
+     *
+     * @param token registered with the session, or null to remove it
+     * @param ciphertext passphrase of the <code>Token</code>, encrypted with
+     * its public key
+     */
+    void setToken(Token token, String ciphertext) {
+        this.token = token;
+        this.ciphertext = ciphertext;
+    }
+
+    /**
+     * @return {@link RSAPublicKey} of the <code>{@link Token}</code> of this
+     * session, or null when none is registered
+     */
+    public RSAPublicKey getPublicKey() {
+        Token current = this.token;
+        return current == null ? null : current.getPublicKey();
+    }
+}
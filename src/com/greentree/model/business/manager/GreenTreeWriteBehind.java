@@ -0,0 +1,255 @@
+package com.greentree.model.business.manager;
+
+import com.greentree.model.domain.Token;
+import com.greentree.model.exception.TokenServiceException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This queues <code>{@link Token}</code> objects whose latest blocks only
+ * record what happened, such as a login or a logout, so that the
+ * {@link GreenTreeManager} can reply before they reach storage. A daemon
+ * thread writes the queued <code>Token</code> objects in batches. A
+ * <code>Token</code> queued again before it is written is written once, with
+ * every block added meanwhile. The queue holds at most its capacity of
+ * <code>Token</code> objects; when it is full, {@link #offer(Token)} refuses
+ * and the caller commits the <code>Token</code> itself. Whatever is queued is
+ * written when the queue is closed, which a shutdown hook does when the JVM
+ * exits.
+ *
+ * @author david5MX53G
+ */
+final class GreenTreeWriteBehind implements AutoCloseable {
+
+    /**
+     * This {@link org.apache.logging.log4j.Logger} is good for logging!
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * This many <code>Token</code> objects are written together at most.
+     */
+    private static final int BATCH = 64;
+
+    /**
+     * A batch which failed is tried again after this many milliseconds.
+     */
+    private static final long RETRY_MILLIS = 1000;
+
+    /**
+     * This writes a batch of <code>Token</code> objects to storage.
+     */
+    interface Flusher {
+
+        /**
+         * @param tokens {@link List} of <code>Token</code> objects to write
+         * @throws TokenServiceException when they could not all be written
+         */
+        void flush(List<Token> tokens) throws TokenServiceException;
+    }
+
+    /**
+     * These <code>Token</code> objects wait to be written, by key id, in the
+     * order they were first queued. It is guarded by the lock of this.
+     */
+    private final Map<String, Token> pending = new LinkedHashMap<>();
+
+    /**
+     * These <code>Token</code> objects are being written, by key id. It is
+     * guarded by the lock of this.
+     */
+    private final Map<String, Token> writing = new LinkedHashMap<>();
+
+    /**
+     * This is the most <code>Token</code> objects waiting at once.
+     */
+    private final int capacity;
+
+    /**
+     * This writes the batches.
+     */
+    private final Flusher flusher;
+
+    /**
+     * This thread takes batches from the queue and writes them.
+     */
+    private final Thread writer;
+
+    /**
+     * This writes what is queued when the JVM exits.
+     */
+    private final Thread hook;
+
+    /**
+     * This is true once the queue has been closed, guarded by the lock of
+     * this.
+     */
+    private boolean closed = false;
+
+    /**
+     * This starts the writer thread.
+     *
+     * @param capacity most <code>Token</code> objects waiting at once
+     * @param flusher {@link Flusher} which writes the batches
+     */
+    GreenTreeWriteBehind(int capacity, Flusher flusher) {
+        this.capacity = capacity;
+        this.flusher = flusher;
+        this.writer = new Thread(this::run, "GreenTreeWriteBehind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        this.hook = new Thread(this::close, "GreenTreeWriteBehindFlush");
+        Runtime.getRuntime().addShutdownHook(this.hook);
+    }
+
+    /**
+     * This queues a <code>Token</code> to be written, unless it is already
+     * waiting. Another instance waiting under the same key id is replaced,
+     * since the one offered was changed last.
+     *
+     * @param token {@link Token} to write
+     * @return false, if the queue is full or closed and the caller must
+     * commit the <code>Token</code> itself
+     */
+    synchronized boolean offer(Token token) {
+        if (closed) {
+            return false;
+        }
+        Token waiting = pending.get(token.getKeyId());
+        if (waiting == token) {
+            return true;
+        }
+        if (waiting != null) {
+            pending.put(token.getKeyId(), token);
+            return true;
+        }
+        if (pending.size() >= capacity) {
+            return false;
+        }
+        pending.put(token.getKeyId(), token);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * @param keyId of a <code>Token</code>
+     * @return the <code>Token</code> waiting or being written under the key
+     * id, which is newer than what storage holds, or null when there is none
+     */
+    synchronized Token get(String keyId) {
+        Token token = pending.get(keyId);
+        return token != null ? token : writing.get(keyId);
+    }
+
+    /**
+     * This waits until every <code>Token</code> queued so far is written, or
+     * given up on.
+     *
+     * @throws InterruptedException when the calling thread is interrupted
+     */
+    synchronized void flush() throws InterruptedException {
+        while (!pending.isEmpty() || !writing.isEmpty()) {
+            if (!writer.isAlive()) {
+                return;
+            }
+            wait();
+        }
+    }
+
+    /**
+     * This takes batches from the queue and writes them until the queue is
+     * closed and empty.
+     */
+    private void run() {
+        while (true) {
+            List<Token> batch = new ArrayList<>(BATCH);
+            synchronized (this) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        LOG.debug("write-behind writer interrupted");
+                    }
+                }
+                if (pending.isEmpty()) {
+                    notifyAll();
+                    return;
+                }
+                Iterator<Token> it = pending.values().iterator();
+                while (it.hasNext() && batch.size() < BATCH) {
+                    Token token = it.next();
+                    it.remove();
+                    writing.put(token.getKeyId(), token);
+                    batch.add(token);
+                }
+            }
+            write(batch);
+        }
+    }
+
+    /**
+     * This writes a batch, queueing it again to be tried later when writing
+     * fails, unless the queue is closed.
+     *
+     * @param batch {@link List} of <code>Token</code> objects to write
+     */
+    private void write(List<Token> batch) {
+        boolean failed = false;
+        try {
+            flusher.flush(batch);
+        } catch (TokenServiceException | RuntimeException ex) {
+            failed = true;
+            LOG.error("write-behind batch of " + batch.size() + " failed: "
+                + ex.getMessage());
+        }
+        synchronized (this) {
+            for (Token token : batch) {
+                writing.remove(token.getKeyId());
+                if (failed && !closed) {
+                    pending.putIfAbsent(token.getKeyId(), token);
+                }
+            }
+            notifyAll();
+            if (failed && !closed) {
+                try {
+                    wait(RETRY_MILLIS);
+                } catch (InterruptedException ex) {
+                    LOG.debug("write-behind retry interrupted");
+                }
+            }
+        }
+    }
+
+    /**
+     * This stops taking new <code>Token</code> objects and waits until those
+     * queued are written. Batches which fail now are not tried again.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOG.warn("close() interrupted before the queue was written");
+        }
+        if (Thread.currentThread() != hook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException ex) {
+                LOG.debug("JVM already shutting down");
+            }
+        }
+    }
+}
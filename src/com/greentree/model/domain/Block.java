@@ -1,359 +1,568 @@
-package com.greentree.model.domain;
-
-import java.io.Serializable;
-import java.security.MessageDigest;
-import java.util.Date;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.TreeSet;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-/**
- * A <code>Block</code> may be created, not modified. It is created by a
- * <code>User</code>, and only a <code>User</code> with a <code>Claim</code>
- * issued by the creator may read the <code>
- * Block</code>. The purpose of reading a <code>Block</code> is to see the
- * <code>message</code> it contains. Credit for significant portions of this
- * code is due to Kass for <a href=
- * "https://tinyurl.com/y7tuzl77">Creating Your First Blockchain with Java. Part
- * 1.</a>
- *
- * @author david5MX53G
- * @see com.greentree.model.domain.User
- * @see com.greentree.model.domain.Claim
- */
-public class Block implements Serializable, Comparable {
-    /** 
-     * {@link org.apache.logging.log4j.Logger} is for logging logs to the log
-     */
-    Logger logger = LogManager.getLogger();
-
-    /** <code>Array</code> of <code>{@link Claim}</code> objects which have
-     * access to this data.
-     */
-    private Set<Claim> claimSet;
-
-    /**
-     * Arbitrary contents stored in this <code>Block</code> for safety.
-     */
-    private final String data;
-
-    /**
-     * Identifies this <code>{@link Block}</code> object.
-     */
-    private final String hash;
-
-    /**
-     * The <code>{@link Token}</code> which initialized this.
-     */
-    private final Token issuer;
-
-    /**
-     * Identifies the <code>Block</code> from which this one derives its hash.
-     */
-    private final Block referee;
-
-    /**
-     * This is the <code>{@link Block}</code> from which all others derive their
-     * hash values.
-     */
-    public final static Block ROOT = new Block("I am root.");
-
-    /**
-     * ID for <code>{@link Serializable}</code>, auto-generated by Eclipse
-     */
-    private static final long serialVersionUID = -7535994912736400229L;
-
-    /**
-     * milliseconds since January 1, 1970, 00:00:00 GMT when this was created.
-     */
-    private final long timeStamp;
-
-    /**
-     * Constructs a new instance of the <code>Block</code> class.
-     *
-     * @param data secured by this <code>Block</code> from modification and
-     * unauthorized access
-     * @param referee identifies the <code>Block</code> from which this derives
-     * its hash
-     * @param issuer <code>Token</code> which can update the
-     * <code>Claim[]</code> of this
-     */
-    public Block(String data, Block referee, Token issuer) {
-        this.data = data;
-        this.hash = this.hash(data + referee.getHash());
-        this.issuer = issuer;
-        this.referee = referee;
-        this.timeStamp = new Date().getTime();
-        this.claimSet = new HashSet<Claim>();
-    }
-
-    /**
-     * Returns a new <code>Block</code> class. No <code>issuer</code> is
-     * defined, so there is no way to get the data of the resulting object. No
-     * <code>referee</code> is defined, so there is no assurance the resulting
-     * object is trustworthy. This constructor is useful only for starting a new
-     * <code>Block</code> chain.
-     *
-     * @param data secured by this <code>Block</code> from modification and
-     * unauthorized access
-     */
-    private Block(String data) {
-        this.data = data;
-        this.hash = this.hash(data);
-        this.issuer = null;
-        this.referee = null;
-        this.timeStamp = new Date().getTime();
-    }
-
-    /**
-     * Returns the data of this {@link Block}, if the requesting
-     * <code>Token</code> has a valid <code>
-     * Claim</code> in the <code>Set<Claim></code> of this <code>Block</code>
-     * and the <code>passphrase</code> is valid for the requester.
-     *
-     * @param requester {@link Token} identifies the <code>Token</code> to look
-     * for in the {@link
-     *     Set}<<code>Claim</code>> of this <code>Block</code>
-     * @param passphrase {@link String} must be encrypted and <code>true</code>
-     * for the <code>
-     *     {@link Token#checkPassphrase (String)}</code> of the given
-     * <code>Token</code>
-     * @return data {@link String} returned if the <code>Token</code> is found
-     * in the <code>Set
-     * <Claim></code> of non-expired <code>Claim</code> objects and the
-     * <code>passphrase</code> is valid for the requester
-     */
-    public String getData(Token requester, String passphrase) {
-        String data = null;
-        Long now = new Date().getTime();
-        if (!this.equals(ROOT)) {
-            if (requester.checkPassphrase((passphrase))) {
-                // does this requester exist for any valid Claim in the Set?
-                Iterator<Claim> it = claimSet.iterator();
-                Claim claim;
-                while (it.hasNext()) {
-                    claim = it.next();
-                    if (claim.getNotBefore() < now & claim.getExpirationTime() > now) {
-                        if (claim.getToken().equals(requester)) {
-                            data = this.data;
-                            break;
-                        }
-                    }
-                }
-            }
-        }
-        return data;
-    }
-
-    /**
-     * @return this SHA-256 hash <code>String</code> value
-     */
-    public String getHash() {
-        return this.hash;
-    }
-
-    /**
-     * @return <code>{@link Token}</code> which initialized this
-     */
-    public Token getIssuer() {
-        return this.issuer;
-    }
-
-    /**
-     * @return unique signature of the parent <code>Block</code> for this object
-     */
-    public Block getReferee() {
-        return this.referee;
-    }
-
-    /**
-     * @return this SHA-256 hash <code>String</code> value
-     */
-    public Long getTimeStamp() {
-        return this.timeStamp;
-    }
-
-    /**
-     * Checks the given <code>Block</code> to see if it is the same as this.
-     * They are the same when they share the same SHA-256 {@link MessageDigest}
-     * <code>String</code>.
-     *
-     * @param block to be checked for equality with this
-     * @return true, if the given <code>Block</code> equals this
-     */
-    @Override
-    public boolean equals(Object other) {
-        boolean result = false;
-        if (other instanceof Block) {
-            Block that = (Block) other;
-            if (this.hash.equals(that.getHash())) {
-                result = true;
-            }
-        }
-        return result;
-    }
-
-    /**
-     * @return integer version of <code>{@link Block#getHash()}</code>
-     */
-    @Override
-    public int hashCode() {
-        return this.hash.hashCode();
-    }
-
-    /**
-     * @return <code>{@link String}</code> value representing this
-     * <code>Block</code>
-     */
-    @Override
-    public String toString() {
-        String claims;
-        if (this.claimSet == null) {
-            claims = "0";
-        } else {
-            claims = String.valueOf(this.claimSet.size());
-        };
-
-        String issuer;
-        if (this.issuer == null) {
-            issuer = "none";
-        } else {
-            issuer = String.valueOf(this.issuer.hashCode());
-        }
-
-        String referee;
-        if (this.referee == null) {
-            referee = "none";
-        } else {
-            referee = this.referee.getHash();
-        }
-
-        String str = "ROOT: " + Block.ROOT.getHash() + "\n"
-            + "claims: " + claims + "\n"
-            + "hash: " + this.hash + "\n"
-            + "issuer: " + issuer + "\n"
-            + "referee: " + referee + "\n"
-            + "timestamp: " + String.valueOf(this.timeStamp);
-        return str;
-    }
-
-    /**
-     * @return true, if this <code>Block</code> is in working order.
-     */
-    public boolean validate() {
-        if (this.equals(ROOT)) {
-            return true;
-        } else {
-            if (this.hash == null) {
-                return false;
-            }
-            if (this.referee == null) {
-                return false;
-            }
-            if (this.data == null) {
-                return false;
-            }
-            if (this.timeStamp > new Date().getTime()) {
-                return false;
-            }
-            if (this.claimSet == null) {
-                return false;
-            }
-            return true;
-        }
-    }
-
-    /**
-     * Adds a <code>{@link Claim}</code> to this such that the
-     * <code>{@link Token}</code> in the <code>Claim</code> can access the the
-     * data in this object. Note that ROOT has no issuer, and the data is
-     * public, so checking the passphrase is both unnecessary and impossible.
-     *
-     * @param claim added to the <code>{@link Set}</code> of <code>Claim</code>
-     * objects allowed access to the <code>data</code> of this object.
-     * @param passphrase must successfully validate against the
-     * <code>issuer</code> for this <code>
-     * Block</code>
-     */
-    public void addClaim(Claim claim, String passphrase) {
-        if (this.equals(ROOT)) {
-            return;
-        } else if (this.issuer.checkPassphrase(passphrase)) {
-            claimSet.add(claim);
-        }
-    }
-
-    /**
-     * @return SHA-256 digest of the given input <code>String</code>
-     */
-    private String hash(String input) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(input.getBytes("UTF-8"));
-            StringBuffer hexString = new StringBuffer();
-            for (int i = 0; i < hash.length; i++) {
-                String hex = Integer.toHexString(0xff & hash[i]);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            return hexString.toString();
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-            throw new RuntimeException(e);
-        }
-    }
-
-    /** 
-     * 
-     * @param o the {@link Block} which is either less than, equal, or greater 
-     * than this
-     * @return "-1" if the given <code>Block</code> is among the set of those to
-     *  which this refers as a {@link Block#referee); "0" if the given <code>
-     * Block</code> is this; "1" if neither -1 nor 0 are true
-     */
-    @Override
-    public int compareTo(Object o) {
-        int result;
-        Block that = (Block) o;
-        logger.debug("This Block: " + this.getHash());
-        logger.debug("Parameter Block: " + that.getHash());
-        
-        if (this.equals(that)) {
-            result = 0;
-            logger.debug("The Blocks are the same.");
-        } else {
-            HashSet<Block> referees = new HashSet<>();
-            Block current = this.getReferee();
-            while (!current.equals(Block.ROOT)) {
-                referees.add(current);
-                current = current.getReferee();
-            }
-            
-            referees.add(current);
-            logger.debug(
-                "This Block has " + String.valueOf(referees.size()) 
-                    + " referees"
-            );
-            
-            if (referees.contains(that)) {
-                result = -1;
-                logger.debug(
-                    "Parameter Block is among the set of Blocks to which this "
-                        + "Block refers."
-                );
-            } else {
-                result = 1;
-                logger.debug(
-                    "Parameter Block is not among the set of Blocks to which "
-                        + "this Block refers."
-                );
-            }
-        }
-        return result;
-    }
-}
+package com.greentree.model.domain;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A <code>Block</code> may be created, not modified. It is created by a
+ * <code>User</code>, and only a <code>User</code> with a <code>Claim</code>
+ * issued by the creator may read the <code>
+ * Block</code>. The purpose of reading a <code>Block</code> is to see the
+ * <code>message</code> it contains. Credit for significant portions of this
+ * code is due to Kass for <a href=
+ * "https://tinyurl.com/y7tuzl77">Creating Your First Blockchain with Java. Part
+ * 1.</a>
+ *
+ * @author david5MX53G
+ * @see com.greentree.model.domain.User
+ * @see com.greentree.model.domain.Claim
+ */
+public class Block implements Serializable, Comparable {
+    /** 
+     * {@link org.apache.logging.log4j.Logger} is for logging logs to the log
+     */
+    Logger logger = LogManager.getLogger();
+
+    /** <code>Array</code> of <code>{@link Claim}</code> objects which have
+     * access to this data. It may be read and added to by several threads.
+     */
+    private Set<Claim> claimSet;
+
+    /**
+     * This maps the key id of each <code>{@link Token}</code> holding a
+     * <code>Claim</code> in the <code>{@link Block#claimSet}</code> to its
+     * unexpired <code>Claim</code> objects, so that
+     * {@link Block#getData(Token, String)} looks up the requester instead of
+     * comparing it with every <code>Claim</code>. Expired <code>Claim</code>
+     * objects are dropped from it as they are found. It is rebuilt when first
+     * needed after the <code>Block</code> is loaded.
+     */
+    private transient volatile ConcurrentMap<String, Set<Claim>> claimIndex;
+
+    /**
+     * Arbitrary contents stored in this <code>Block</code> for safety.
+     */
+    private final String data;
+
+    /**
+     * Identifies this <code>{@link Block}</code> object.
+     */
+    private final String hash;
+
+    /**
+     * The <code>{@link Token}</code> which initialized this.
+     */
+    private final Token issuer;
+
+    /**
+     * Identifies the <code>Block</code> from which this one derives its hash.
+     */
+    private final Block referee;
+
+    /**
+     * This is the number of <code>Block</code> objects between this and
+     * {@link Block#ROOT}, counting this, so that ROOT alone is 0. A
+     * <code>Block</code> read from a stream written before it was kept is
+     * also 0 until {@link Block#getHeight()} works it out.
+     */
+    private int height;
+
+    /**
+     * Identifies an earlier <code>Block</code> of the chain of this, at the
+     * height given by {@link Block#skipHeight(int)}, so that
+     * {@link Block#getAncestor(int)} jumps over most of the chain instead of
+     * walking it. It is null for ROOT and after the <code>Block</code> is
+     * read from a stream, when the <code>referee</code> is walked instead.
+     */
+    private transient Block skip;
+
+    /**
+     * This is the <code>{@link Block}</code> from which all others derive their
+     * hash values.
+     */
+    public final static Block ROOT = new Block("I am root.");
+
+    /**
+     * ID for <code>{@link Serializable}</code>, auto-generated by Eclipse
+     */
+    private static final long serialVersionUID = -7535994912736400229L;
+
+    /**
+     * milliseconds since January 1, 1970, 00:00:00 GMT when this was created.
+     */
+    private final long timeStamp;
+
+    /**
+     * Constructs a new instance of the <code>Block</code> class.
+     *
+     * @param data secured by this <code>Block</code> from modification and
+     * unauthorized access
+     * @param referee identifies the <code>Block</code> from which this derives
+     * its hash
+     * @param issuer <code>Token</code> which can update the
+     * <code>Claim[]</code> of this
+     */
+    public Block(String data, Block referee, Token issuer) {
+        this.data = data;
+        this.hash = this.hash(data + referee.getHash());
+        this.issuer = issuer;
+        this.referee = referee;
+        this.timeStamp = new Date().getTime();
+        this.claimSet = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        this.height = referee.getHeight() + 1;
+        this.skip = referee.getAncestor(skipHeight(this.height));
+    }
+
+    /**
+     * Rebuilds a <code>Block</code> read back from storage, keeping the time
+     * at which it was first created. Its <code>Claim</code> objects are added
+     * with {@link Block#restoreClaim(Claim)}.
+     *
+     * @param data secured by this <code>Block</code>
+     * @param referee identifies the <code>Block</code> from which this derives
+     * its hash
+     * @param issuer <code>Token</code> which created this
+     * @param timeStamp milliseconds since January 1, 1970, 00:00:00 GMT when
+     * this was first created
+     */
+    Block(String data, Block referee, Token issuer, long timeStamp) {
+        this.data = data;
+        this.hash = this.hash(data + referee.getHash());
+        this.issuer = issuer;
+        this.referee = referee;
+        this.timeStamp = timeStamp;
+        this.claimSet = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        this.height = referee.getHeight() + 1;
+        this.skip = referee.getAncestor(skipHeight(this.height));
+    }
+
+    /**
+     * Returns a new <code>Block</code> class. No <code>issuer</code> is
+     * defined, so there is no way to get the data of the resulting object. No
+     * <code>referee</code> is defined, so there is no assurance the resulting
+     * object is trustworthy. This constructor is useful only for starting a new
+     * <code>Block</code> chain.
+     *
+     * @param data secured by this <code>Block</code> from modification and
+     * unauthorized access
+     */
+    private Block(String data) {
+        this.data = data;
+        this.hash = this.hash(data);
+        this.issuer = null;
+        this.referee = null;
+        this.timeStamp = new Date().getTime();
+    }
+
+    /**
+     * Returns the data of this {@link Block}, if the requesting
+     * <code>Token</code> has a valid <code>
+     * Claim</code> in the <code>Set<Claim></code> of this <code>Block</code>
+     * and the <code>passphrase</code> is valid for the requester.
+     *
+     * @param requester {@link Token} identifies the <code>Token</code> to look
+     * for in the {@link
+     *     Set}<<code>Claim</code>> of this <code>Block</code>
+     * @param passphrase {@link String} must be encrypted and <code>true</code>
+     * for the <code>
+     *     {@link Token#checkPassphrase (String)}</code> of the given
+     * <code>Token</code>
+     * @return data {@link String} returned if the <code>Token</code> is found
+     * in the <code>Set
+     * <Claim></code> of non-expired <code>Claim</code> objects and the
+     * <code>passphrase</code> is valid for the requester
+     */
+    public String getData(Token requester, String passphrase) {
+        String data = null;
+        Long now = new Date().getTime();
+        if (!this.equals(ROOT)) {
+            if (requester.checkPassphrase((passphrase))) {
+                // does this requester hold a valid Claim?
+                Set<Claim> claims = claimIndex().get(requester.getKeyId());
+                if (claims != null) {
+                    for (Claim claim : claims) {
+                        if (claim.getExpirationTime() <= now) {
+                            claims.remove(claim);
+                        } else if (claim.getNotBefore() <= now
+                            && claim.getToken().equals(requester)) {
+                            data = this.data;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Returns the data of this {@link Block} to the <code>Token</code> which
+     * issued it, which may always read it, without adding a
+     * <code>Claim</code> for it.
+     *
+     * @param requester {@link Token} which issued this <code>Block</code>
+     * @param passphrase {@link String} must be encrypted and <code>true</code>
+     * for the <code>{@link Token#checkPassphrase(String)}</code> of the given
+     * <code>Token</code>
+     * @return data {@link String} returned if the <code>Token</code> issued
+     * this <code>Block</code> and the <code>passphrase</code> is valid for it
+     */
+    public String getIssuedData(Token requester, String passphrase) {
+        String data = null;
+        if (!this.equals(ROOT) && requester.equals(this.issuer)
+            && requester.checkPassphrase(passphrase)) {
+            data = this.data;
+        }
+        return data;
+    }
+
+    /**
+     * @return the data of this <code>Block</code> without checking any
+     * <code>Claim</code>, for writing it to storage
+     */
+    String getRawData() {
+        return this.data;
+    }
+
+    /**
+     * @return the <code>{@link Claim}</code> objects of this
+     * <code>Block</code>, which may not be changed through it; ROOT has none
+     */
+    public Set<Claim> getClaims() {
+        if (this.claimSet == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(this.claimSet);
+    }
+
+    /**
+     * @return this SHA-256 hash <code>String</code> value
+     */
+    public String getHash() {
+        return this.hash;
+    }
+
+    /**
+     * @return <code>{@link Token}</code> which initialized this
+     */
+    public Token getIssuer() {
+        return this.issuer;
+    }
+
+    /**
+     * @return unique signature of the parent <code>Block</code> for this object
+     */
+    public Block getReferee() {
+        return this.referee;
+    }
+
+    /**
+     * @return the number of <code>Block</code> objects between this and
+     * {@link Block#ROOT}, counting this, so that ROOT alone is 0
+     */
+    public int getHeight() {
+        if (this.height == 0 && this.referee != null) {
+            // read from a stream written before Blocks kept their height
+            List<Block> unknown = new ArrayList<>();
+            Block walk = this;
+            while (walk.height == 0 && walk.referee != null) {
+                unknown.add(walk);
+                walk = walk.referee;
+            }
+            int known = walk.height;
+            for (int i = unknown.size() - 1; i >= 0; i--) {
+                unknown.get(i).height = ++known;
+            }
+        }
+        return this.height;
+    }
+
+    /**
+     * Finds the <code>Block</code> at the given height in the chain of this,
+     * following the <code>skip</code> pointers where they do not overshoot,
+     * which takes about as many steps as the logarithm of the height.
+     *
+     * @param height of the <code>Block</code> to find
+     * @return the <code>Block</code> at the given height to which this refers
+     * through its referees, this itself at its own height, or null if the
+     * height is below 0 or above that of this
+     */
+    Block getAncestor(int height) {
+        int walkHeight = this.getHeight();
+        if (height < 0 || height > walkHeight) {
+            return null;
+        }
+        Block walk = this;
+        while (walkHeight > height) {
+            int skipHeight = skipHeight(walkHeight);
+            int nextSkipHeight = skipHeight(walkHeight - 1);
+            if (walk.skip != null && (skipHeight == height
+                || (skipHeight > height && !(nextSkipHeight < skipHeight - 2
+                && nextSkipHeight >= height)))) {
+                walk = walk.skip;
+                walkHeight = skipHeight;
+            } else {
+                walk = walk.referee;
+                walkHeight--;
+            }
+        }
+        return walk;
+    }
+
+    /**
+     * @param other <code>Block</code> which may be among the referees of this
+     * @return true, if this refers to the given <code>Block</code>, directly
+     * or through its referees
+     */
+    public boolean descendsFrom(Block other) {
+        int otherHeight = other.getHeight();
+        return otherHeight < this.getHeight()
+            && other.equals(this.getAncestor(otherHeight));
+    }
+
+    /**
+     * @return this SHA-256 hash <code>String</code> value
+     */
+    public Long getTimeStamp() {
+        return this.timeStamp;
+    }
+
+    /**
+     * Checks the given <code>Block</code> to see if it is the same as this.
+     * They are the same when they share the same SHA-256 {@link MessageDigest}
+     * <code>String</code>.
+     *
+     * @param block to be checked for equality with this
+     * @return true, if the given <code>Block</code> equals this
+     */
+    @Override
+    public boolean equals(Object other) {
+        boolean result = false;
+        if (other instanceof Block) {
+            Block that = (Block) other;
+            if (this.hash.equals(that.getHash())) {
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return integer version of <code>{@link Block#getHash()}</code>
+     */
+    @Override
+    public int hashCode() {
+        return this.hash.hashCode();
+    }
+
+    /**
+     * @return <code>{@link String}</code> value representing this
+     * <code>Block</code>
+     */
+    @Override
+    public String toString() {
+        String claims;
+        if (this.claimSet == null) {
+            claims = "0";
+        } else {
+            claims = String.valueOf(this.claimSet.size());
+        };
+
+        String issuer;
+        if (this.issuer == null) {
+            issuer = "none";
+        } else {
+            issuer = String.valueOf(this.issuer.hashCode());
+        }
+
+        String referee;
+        if (this.referee == null) {
+            referee = "none";
+        } else {
+            referee = this.referee.getHash();
+        }
+
+        String str = "ROOT: " + Block.ROOT.getHash() + "\n"
+            + "claims: " + claims + "\n"
+            + "hash: " + this.hash + "\n"
+            + "issuer: " + issuer + "\n"
+            + "referee: " + referee + "\n"
+            + "timestamp: " + String.valueOf(this.timeStamp);
+        return str;
+    }
+
+    /**
+     * @return true, if this <code>Block</code> is in working order.
+     */
+    public boolean validate() {
+        if (this.equals(ROOT)) {
+            return true;
+        } else {
+            if (this.hash == null) {
+                return false;
+            }
+            if (this.referee == null) {
+                return false;
+            }
+            if (this.data == null) {
+                return false;
+            }
+            if (this.timeStamp > new Date().getTime()) {
+                return false;
+            }
+            if (this.claimSet == null) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Adds a <code>{@link Claim}</code> to this such that the
+     * <code>{@link Token}</code> in the <code>Claim</code> can access the the
+     * data in this object. Note that ROOT has no issuer, and the data is
+     * public, so checking the passphrase is both unnecessary and impossible.
+     *
+     * @param claim added to the <code>{@link Set}</code> of <code>Claim</code>
+     * objects allowed access to the <code>data</code> of this object.
+     * @param passphrase must successfully validate against the
+     * <code>issuer</code> for this <code>
+     * Block</code>
+     */
+    public void addClaim(Claim claim, String passphrase) {
+        if (this.equals(ROOT)) {
+            return;
+        } else if (this.issuer.checkPassphrase(passphrase)) {
+            claimSet.add(claim);
+            index(claimIndex(), claim, new Date().getTime());
+        }
+    }
+
+    /**
+     * Adds a <code>{@link Claim}</code> read back from storage. The issuer
+     * granted it when it was first added, so no passphrase is checked.
+     *
+     * @param claim added to the <code>{@link Set}</code> of <code>Claim</code>
+     * objects allowed access to the <code>data</code> of this object
+     */
+    void restoreClaim(Claim claim) {
+        claimSet.add(claim);
+        index(claimIndex(), claim, new Date().getTime());
+    }
+
+    /**
+     * @return the <code>{@link Block#claimIndex}</code>, built from the
+     * <code>{@link Block#claimSet}</code> if this <code>Block</code> was
+     * loaded since it was last needed
+     */
+    private ConcurrentMap<String, Set<Claim>> claimIndex() {
+        ConcurrentMap<String, Set<Claim>> index = this.claimIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = this.claimIndex;
+                if (index == null) {
+                    index = new ConcurrentHashMap<>();
+                    long now = new Date().getTime();
+                    for (Claim claim : claimSet) {
+                        index(index, claim, now);
+                    }
+                    this.claimIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds the given <code>{@link Claim}</code> to the given index under the
+     * key id of its <code>{@link Token}</code>, unless it has expired.
+     */
+    private static void index(ConcurrentMap<String, Set<Claim>> index,
+        Claim claim, long now) {
+        if (claim.getToken() != null && claim.getExpirationTime() > now) {
+            index.computeIfAbsent(claim.getToken().getKeyId(),
+                k -> Collections.newSetFromMap(new ConcurrentHashMap<>())
+            ).add(claim);
+        }
+    }
+
+    /**
+     * @return SHA-256 digest of the given input <code>String</code>
+     */
+    private String hash(String input) {
+        try {
+            MessageDigest digest = Crypto.sha256();
+            byte[] hash = digest.digest(input.getBytes("UTF-8"));
+            StringBuffer hexString = new StringBuffer();
+            for (int i = 0; i < hash.length; i++) {
+                String hex = Integer.toHexString(0xff & hash[i]);
+                if (hex.length() == 1) {
+                    hexString.append('0');
+                }
+                hexString.append(hex);
+            }
+            return hexString.toString();
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Orders <code>Block</code> objects from the highest to the lowest, as
+     * given by {@link Block#getHeight()}, and those of the same height by
+     * hash, so a <code>Block</code> comes before each <code>Block</code> to
+     * which it refers. It takes the same time however long the chains are.
+     * Use {@link Block#descendsFrom(Block)} to learn whether one
+     * <code>Block</code> really refers to another.
+     *
+     * @param o the {@link Block} which is either less than, equal, or greater
+     * than this
+     * @return "-1" if the given <code>Block</code> is lower than this, or as
+     * high with a lesser hash; "0" if the given <code>Block</code> is this;
+     * "1" otherwise
+     */
+    @Override
+    public int compareTo(Object o) {
+        Block that = (Block) o;
+        int result = Integer.compare(that.getHeight(), this.getHeight());
+        if (result == 0) {
+            result = Integer.signum(this.hash.compareTo(that.getHash()));
+        }
+        return result;
+    }
+
+    /**
+     * Picks the height of the <code>Block</code> to which the
+     * <code>skip</code> of a <code>Block</code> at the given height points.
+     * The heights are spread so that any earlier height is reached in a
+     * number of jumps near its logarithm.
+     *
+     * @param height of the <code>Block</code> whose <code>skip</code> is set
+     * @return height of the <code>Block</code> it points to
+     */
+    private static int skipHeight(int height) {
+        if (height < 2) {
+            return 0;
+        }
+        return (height & 1) == 0 ? clearLowestBit(height)
+            : clearLowestBit(clearLowestBit(height - 1)) + 1;
+    }
+
+    /**
+     * @return the given number without its lowest bit which is set
+     */
+    private static int clearLowestBit(int n) {
+        return n & (n - 1);
+    }
+}
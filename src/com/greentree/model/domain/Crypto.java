@@ -0,0 +1,88 @@
+package com.greentree.model.domain;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+
+/**
+ * <code>Crypto</code> hands out the {@link Cipher}, {@link MessageDigest} and
+ * {@link Mac} objects used by <code>{@link Token}</code> and
+ * <code>{@link Block}</code>. Each <code>getInstance</code> call searches the
+ * security providers and allocates a new object, which costs more than the
+ * work done on the small inputs of this package, so each thread keeps one of
+ * each and reuses it. Callers must <code>init</code> a <code>Cipher</code> or
+ * <code>Mac</code> before every use and must not hold on to any of them
+ * across calls to other methods of this class.
+ *
+ * @author david5MX53G
+ */
+final class Crypto {
+
+    /**
+     * one "RSA" <code>Cipher</code> per thread
+     */
+    private static final ThreadLocal<Cipher> RSA
+        = ThreadLocal.withInitial(() -> {
+            try {
+                return Cipher.getInstance("RSA");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+    /**
+     * one "SHA-256" <code>MessageDigest</code> per thread
+     */
+    private static final ThreadLocal<MessageDigest> SHA256
+        = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+    /**
+     * one "HmacSHA256" <code>Mac</code> per thread
+     */
+    private static final ThreadLocal<Mac> HMAC_SHA256
+        = ThreadLocal.withInitial(() -> {
+            try {
+                return Mac.getInstance("HmacSHA256");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+    /**
+     * This class only has static methods.
+     */
+    private Crypto() {}
+
+    /**
+     * @return the "RSA" {@link Cipher} of this thread, which must be
+     * initialized before use
+     */
+    static Cipher rsa() {
+        return RSA.get();
+    }
+
+    /**
+     * @return the "SHA-256" {@link MessageDigest} of this thread, reset and
+     * ready for use
+     */
+    static MessageDigest sha256() {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        return digest;
+    }
+
+    /**
+     * @return the "HmacSHA256" {@link Mac} of this thread, which must be
+     * initialized before use
+     */
+    static Mac hmacSha256() {
+        return HMAC_SHA256.get();
+    }
+}
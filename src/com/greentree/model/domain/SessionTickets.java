@@ -0,0 +1,118 @@
+package com.greentree.model.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.codec.binary.Base64;
+
+/**
+ * <code>SessionTickets</code> remembers, for a short while, which encrypted
+ * passphrases a <code>{@link Token}</code> has already accepted, so that
+ * {@link Token#checkPassphrase(String)} can skip the RSA decryption when the
+ * same ciphertext comes back, as it does for every <code>Block</code> a
+ * session reads or writes. A ticket is an HMAC of the public key and the
+ * ciphertext under a key drawn at random when the class loads; neither the
+ * ciphertext nor the passphrase is kept, and tickets die with the JVM.
+ *
+ * @author david5MX53G
+ */
+final class SessionTickets {
+
+    /**
+     * A ticket is good for this many milliseconds after it is issued.
+     */
+    static final long TTL = 60000;
+
+    /**
+     * Expired tickets are swept out once this many have been issued.
+     */
+    private static final int MAX_TICKETS = 10000;
+
+    /**
+     * This keys the HMAC of every ticket.
+     */
+    private static final SecretKeySpec KEY;
+
+    static {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        KEY = new SecretKeySpec(secret, "HmacSHA256");
+    }
+
+    /**
+     * This maps each ticket to the time in millis at which it expires.
+     */
+    private static final Map<String, Long> TICKETS = new ConcurrentHashMap<>();
+
+    /**
+     * This class only has static methods.
+     */
+    private SessionTickets() {}
+
+    /**
+     * @param key {@link RSAPublicKey} of the <code>Token</code>
+     * @param ciphertext passphrase encrypted with <code>key</code>
+     * @return true, if the <code>Token</code> accepted this ciphertext less
+     * than {@link #TTL} milliseconds ago
+     */
+    static boolean verify(RSAPublicKey key, String ciphertext) {
+        String ticket = ticket(key, ciphertext);
+        if (ticket == null) {
+            return false;
+        }
+        Long expires = TICKETS.get(ticket);
+        if (expires == null) {
+            return false;
+        } else if (expires < System.currentTimeMillis()) {
+            TICKETS.remove(ticket, expires);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * This issues a ticket once the <code>Token</code> has accepted the
+     * ciphertext the slow way.
+     *
+     * @param key {@link RSAPublicKey} of the <code>Token</code>
+     * @param ciphertext passphrase encrypted with <code>key</code>
+     */
+    static void issue(RSAPublicKey key, String ciphertext) {
+        String ticket = ticket(key, ciphertext);
+        if (ticket == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (TICKETS.size() >= MAX_TICKETS) {
+            TICKETS.values().removeIf(expires -> expires < now);
+        }
+        TICKETS.put(ticket, now + TTL);
+    }
+
+    /**
+     * @return HMAC of the encoded key and the ciphertext, or null when either
+     * is missing or HMAC-SHA256 is not available
+     */
+    private static String ticket(RSAPublicKey key, String ciphertext) {
+        if (key == null || ciphertext == null) {
+            return null;
+        }
+        try {
+            Mac mac = Crypto.hmacSha256();
+            mac.init(KEY);
+            mac.update(key.getEncoded());
+            return Base64.encodeBase64String(
+                mac.doFinal(ciphertext.getBytes(StandardCharsets.UTF_8))
+            );
+        } catch (GeneralSecurityException e) {
+            Token.LOG.error("SessionTickets ticket(RSAPublicKey, String) "
+                + e.getClass().getSimpleName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -1,361 +1,597 @@
-package com.greentree.model.domain;
-
-import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
-import java.security.InvalidKeyException;
-import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
-import java.security.PublicKey;
-import java.security.interfaces.RSAPrivateKey;
-import java.security.interfaces.RSAPublicKey;
-import java.util.ArrayList;
-import java.util.Date;
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.NoSuchPaddingException;
-import javax.persistence.Column;
-import javax.persistence.Id;
-import javax.persistence.Table;
-import javax.persistence.Entity;
-
-// http://www.baeldung.com/hibernate-mappingexception-unknown-entity
-// import org.hibernate.annotations.Entity;
-
-import org.apache.commons.codec.binary.Base64;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import javax.persistence.Transient;
-
-/**
- * <code>Token</code> objects are used to validate <code>{@link Claim}</code>
- * objects, which grant access to data contained in <code>{@link Block}</code>
- * objects. Much of the code for this class comes from marilena.panagiotidou and
- * is available here: <a href="https://www.mkyong.com/java/
- * java-asymmetric-cryptography-example/">Java – Asymmetric Cryptography
- * example</a>.
- *
- * @author david5MX53G
- */
-@Entity
-@Table(name="Token")
-public class Token implements Serializable {    
-    /** 
-     * {@link org.apache.logging.log4j.Logger} is for logging logs to the log
-     */
-    @Transient
-    protected static final Logger LOG = LogManager.getLogger();
-
-    /**
-     * generated by Eclipse ID for implementing {@link Serializable}.
-     */
-    @Transient
-    private static final long serialVersionUID = -6888536819846215415L;
-
-    /**
-     * This is used by {@link Token#encrypt(java.lang.String)} to encrypt data 
-     * which can be later de-crypted using {@link Token#privateKey}.
-     *
-     * TODO: make these private!
-     */
-    @Column(name="publicKey")
-    RSAPublicKey publicKey;
-    
-    /**
-     * This is used to look up the {@link Token} instance by its 
-     * {@link Token#publicKey} in storage (e.g., storage or system file).
-     */
-    @Id
-    @Column(name="keyId")
-    String keyId;
-    /** 
-     * NOTE: "The @Column annotation is purely optional, and is there to let 
-     * you override the auto-generated column name." (skaffman, 2011, 
-     * https://stackoverflow.com/questions/4662582/make-hibernate-ignore-class-variables-that-are-not-mapped)
-     */
-    
-    /**
-     * This is used by {@link Token#checkPassphrase(java.lang.String)}, among 
-     * other things.
-     */
-    @Column(name="privateKey")
-    RSAPrivateKey privateKey;
-    
-    /** 
-     * This uniquely identifies the {@link Token} instance in the database for 
-     * {@link org.hibernate}
-     */
-    @Transient
-    private Integer id;
-
-    /**
-     * This is used by {@link Token#checkPassphrase(java.lang.String) 
-     */
-    @Column(name="passphrase")
-    private String passphrase;
-
-    /**
-     * This stores all {@link Block} objects issued by this {@link Token}.
-     */
-    @Column(name="blockChain")
-    private ArrayList<Block> blockChain = new ArrayList<>();
-    
-    /**
-     * This default constructor is used by Hibernate.
-     */
-    public Token() {}
-
-    /**
-     * Creates a new <code>Token</code> instance with a 2048-bit RSA
-     * <code>{@link KeyPair}</code>, secret <code>passphrase</code> with which
-     * to validate users, and <code>{@link Cipher}</code> to decrypt ciphertext
-     * sent to this object via <code>{@link PublicKey}</code> cryptography.
-     *
-     * @param passphrase keep it secret; keep it safe
-     */
-    public Token(String passphrase) {
-        this.passphrase = passphrase;
-        LOG.debug("passphrase = " + passphrase);
-        
-        KeyPairGenerator keyGen;
-        try {
-            keyGen = KeyPairGenerator.getInstance("RSA");
-            keyGen.initialize(2048);
-            KeyPair pair = keyGen.genKeyPair();
-            LOG.debug("keyPair: " + pair.toString());
-            
-            this.privateKey = (RSAPrivateKey) pair.getPrivate();
-            LOG.debug("privateKey: " + privateKey.toString());
-
-            this.publicKey = (RSAPublicKey) pair.getPublic();
-            LOG.debug("publicKey: " + publicKey.getAlgorithm());
-        } catch (NoSuchAlgorithmException e) {
-            LOG.error("keyGen = KeyPairGenerator.getInstance(\"RSA\");" 
-                + e.getClass().getSimpleName() + ": " + e.getMessage());
-        }
-        
-        String tempId = String.valueOf(
-            this.publicKey.getModulus()
-        );
-        
-        this.keyId = tempId.substring(0, 9)
-            + tempId.substring(tempId.length()-9);
-        LOG.debug("keyId: " + this.keyId);
-        
-        String msg = "token instantiated at " + new Date().toString();
-        this.blockChain.add(Block.ROOT);
-        this.addBlock(msg, this.encrypt(this.passphrase));
-        LOG.debug(msg);
-    }
-
-    /**
-     * This method is used to look up {@link com.greentree.model.domain.Token}
-     * objects in the database.
-     * @return {@link String} derived from the modulus of the 
-     * {@link Token#publicKey}
-     */
-    public String getKeyId() {
-        return this.keyId;
-    }
-    
-    /** 
-     * getter for {@link Token#id}
-     * @return 
-     */
-    public Integer getId() {
-        return this.id;
-    } 
-    
-    /**
-     * This sets the {@link Token#id} value.
-     * 
-     * @param id {@link Integer} which will be the new id.
-     */
-    public void setId(Integer id) {
-        this.id = id;
-    }
-
-    /**
-     * @return <code>{@link ArrayList}</code> of <code>{@link Block}</code>
-     * objects issued by this
-     */
-    public ArrayList<Block> getBlockChain() {
-        return this.blockChain;
-    }
-
-    /**
-     * Adds a new {@link Block} to the <code>{@link Token#blockChain}</code>.
-     *
-     * @param msg {@link String} to be stored in a new
-     * <code>{@link Block}</code> in the <code>
-     *     blockChain</code> of this {@link Token}
-     * @param pass {@link String} should be encrypted with the
-     * {@link RSAPublicKey} of this <code>
-     *     Token</code> and return true from {@link Token#checkPassphrase(String)}
-     */
-    public void addBlock(String msg, String pass) {
-        if (this.checkPassphrase(pass)) {
-            this.blockChain.add(
-                new Block(msg, this.blockChain.get(this.blockChain.size() - 1), this)
-            );
-        }
-    }
-
-    /**
-     * Returns the <code>PublicKey</code> of the <code>Token</code>. This is
-     * used to send securely encrypted <code>String</code> objects back to the
-     * <code>Token</code> for validation against the <code>Token</code>
-     * passphrase.
-     *
-     * @return RSAPublicKey used for sending encrypted messages which only this
-     * object can decrypt
-     */
-    public RSAPublicKey getPublicKey() {
-        return this.publicKey;
-    }
-
-    /**
-     * Returns the input encrypted by this <code>{@link Token#publicKey}</code>.
-     *
-     * @param plaintext to be encrypted with the <code>RSAPublicKey</code> of
-     * this <code>Token
-     * </code>
-     * @return input encrypted by this <code>{@link Token#publicKey}</code>
-     */
-    public String encrypt(String plaintext) {
-        Cipher cipher;
-        String ciphertext = null;
-        try {
-            cipher = Cipher.getInstance("RSA");
-            cipher.init(Cipher.ENCRYPT_MODE, this.getPublicKey());
-            ciphertext = Base64.encodeBase64String(cipher.doFinal(plaintext.getBytes("UTF-8")));
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException 
-            | InvalidKeyException | IllegalBlockSizeException 
-            | BadPaddingException | UnsupportedEncodingException e) {
-            LOG.error("String encrypt(" + plaintext + ") " 
-                + e.getClass().getName() + " " + e.getMessage());
-        }
-        return ciphertext;
-    }
-
-    /**
-     * Confirms whether the given <code>{@link Token}</code> has the same value
-     * as this. The method should only return true if both variables refer to
-     * the same object because each <code>Token
-     * </code> is initialized with a unique <code>{@link KeyPair}</code>.
-     *
-     * @param other will be compared with this <code>Token</code> based on the
-     * Base64-encoded <code>{@link RSAPublicKey}</code> values of each
-     * @return true when the given <code>Token</code> has the same value as this
-     * <code>Token</code>
-     */
-    public boolean equals(Object other) {
-        boolean result = false;
-        if (other instanceof Token) {
-            Token that = (Token) other;
-            if (Base64.encodeBase64String(this.getPublicKey().getEncoded()).equals(Base64.encodeBase64String(that.getPublicKey().getEncoded()))) {
-                result = true;
-            }
-        }
-        return result;
-    }
-
-    @Override
-    public int hashCode() {
-        return this.getPublicKey().getModulus().hashCode();
-    }
-
-    @Override
-    public String toString() {
-        String blocks = String.valueOf(this.blockChain.size());
-        Integer pass = this.passphrase.length();
-        String publicKey = this.publicKey.toString();
-        String privateKey = this.privateKey.toString();
-
-        return "blocks: " + blocks + "\n"
-            + "passphrase: " + pass + "\n"
-            + "publicKey: " + publicKey + "\n"
-            + "privateKey: " + privateKey + "\n";
-    }
-
-    /**
-     * Decrypts the given ciphertext <code>String</code> using the private key
-     * of the object, then checks the resulting plaintext against the passphrase
-     * and returns true or false.
-     *
-     * @param ciphertext to be decrypted
-     * @return true, if ciphertext matches the passphrase of this
-     * <code>{@link Token}</code>
-     */
-    public Boolean checkPassphrase(String ciphertext) {
-        try {
-            Cipher cipher;
-            String plaintext = null;
-            try {
-                cipher = Cipher.getInstance("RSA");
-                cipher.init(Cipher.DECRYPT_MODE, this.privateKey);
-                plaintext = new String(cipher.doFinal(Base64.decodeBase64(ciphertext)), "UTF-8");
-            } catch (NoSuchAlgorithmException e) {
-                LOG.debug(
-                    "NoSuchAlgorithmException on getting RSA cipher instance: " + e.getMessage()
-                );
-            } catch (NoSuchPaddingException e) {
-                LOG.debug(
-                    "NoSuchPaddingException on getting RSA cipher instance: " + e.getMessage()
-                );
-            }
-
-            if (plaintext.equals(this.passphrase)) {
-                return true;
-            } else {
-                return false;
-            }
-        } catch (InvalidKeyException | UnsupportedEncodingException
-            | IllegalBlockSizeException | BadPaddingException e) {
-            LOG.debug(e.getMessage());
-            return false;
-        }
-    }
-
-    /**
-     * Encrypts the passphrase using the public key of the <code>Token</code>,
-     * decrypts the <code>
-     * Token</code> with the corresponding private key, and returns true, if the
-     * decrypted text matches the passphrase. This simulates the process of a
-     * <code>User</code> sending the encrypted passphrase to the
-     * <code>Token</code> for validation, ensuring the <code>Token
-     * </code> is in good working order.
-     *
-     * @return True if the <code>Token</code> is able to encrypt and decrypt its
-     * passphrase
-     */
-    public boolean validate() {
-        if (this.publicKey == null | this.privateKey == null | this.passphrase == null
-            | this.blockChain == null | this.keyId == null) {
-            return false;
-        }
-
-        else return this.checkPassphrase(this.encrypt(this.passphrase));
-    }
-
-    /**
-     * adds a <code>Block</code> to this {@link Token#blockChain}, granting
-     * access to some other <code>Token</code> per the given <code>Claim</code>.
-     *
-     * @param data {@link String} stored in the new {@link Block} and accessible
-     * only to the given
-     * <cide>claim</code>
-     * @param ciphertext {@link String} encrypted with the
-     * {@link Token#publicKey} of this object
-     * @param claim {@link Claim} specifying some other {@link Token} that is
-     * allowed read access on the new <code>Block</code>
-     */
-    public void addBlock(String data, String ciphertext, Claim claim) {
-        if (this.checkPassphrase(ciphertext)) {
-            Block block = new Block(data, this.blockChain.get(this.blockChain.size() - 1), this);
-            block.addClaim(claim, ciphertext);
-            this.blockChain.add(block);
-        }
-    }
-}
+package com.greentree.model.domain;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.persistence.Column;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Entity;
+
+// http://www.baeldung.com/hibernate-mappingexception-unknown-entity
+// import org.hibernate.annotations.Entity;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import javax.persistence.Transient;
+
+/**
+ * <code>Token</code> objects are used to validate <code>{@link Claim}</code>
+ * objects, which grant access to data contained in <code>{@link Block}</code>
+ * objects. Much of the code for this class comes from marilena.panagiotidou and
+ * is available here: <a href="https://www.mkyong.com/java/
+ * java-asymmetric-cryptography-example/">Java – Asymmetric Cryptography
+ * example</a>.
+ *
+ * @author david5MX53G
+ */
+@Entity
+@Table(name="Token")
+public class Token implements Serializable {    
+    /** 
+     * {@link org.apache.logging.log4j.Logger} is for logging logs to the log
+     */
+    @Transient
+    protected static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * generated by Eclipse ID for implementing {@link Serializable}.
+     */
+    @Transient
+    private static final long serialVersionUID = -6888536819846215415L;
+
+    /**
+     * This is used by {@link Token#encrypt(java.lang.String)} to encrypt data 
+     * which can be later de-crypted using {@link Token#privateKey}.
+     *
+     * TODO: make these private!
+     */
+    @Column(name="publicKey")
+    RSAPublicKey publicKey;
+    
+    /**
+     * This is used to look up the {@link Token} instance by its 
+     * {@link Token#publicKey} in storage (e.g., storage or system file).
+     */
+    @Id
+    @Column(name="keyId")
+    String keyId;
+    /** 
+     * NOTE: "The @Column annotation is purely optional, and is there to let 
+     * you override the auto-generated column name." (skaffman, 2011, 
+     * https://stackoverflow.com/questions/4662582/make-hibernate-ignore-class-variables-that-are-not-mapped)
+     */
+    
+    /**
+     * This is used by {@link Token#checkPassphrase(java.lang.String)}, among 
+     * other things.
+     */
+    @Column(name="privateKey")
+    RSAPrivateKey privateKey;
+    
+    /** 
+     * This uniquely identifies the {@link Token} instance in the database for 
+     * {@link org.hibernate}
+     */
+    @Transient
+    private Integer id;
+
+    /**
+     * This is used by {@link Token#checkPassphrase(java.lang.String) 
+     */
+    @Column(name="passphrase")
+    private String passphrase;
+
+    /**
+     * This stores all {@link Block} objects issued by this {@link Token}.
+     */
+    @Column(name="blockChain")
+    private ArrayList<Block> blockChain = new ArrayList<>();
+    
+    /**
+     * This maps the hash of each {@link Block} in the
+     * <code>{@link Token#blockChain}</code> to its position, so that
+     * {@link Token#getBlocksSince(String)} need not search the chain. It is
+     * rebuilt when first needed after the <code>Token</code> is loaded.
+     */
+    @Transient
+    private transient Map<String, Integer> blockIndex;
+
+    /**
+     * This default constructor is used by Hibernate.
+     */
+    public Token() {}
+
+    /**
+     * Creates a new <code>Token</code> instance with a 2048-bit RSA
+     * <code>{@link KeyPair}</code>, secret <code>passphrase</code> with which
+     * to validate users, and <code>{@link Cipher}</code> to decrypt ciphertext
+     * sent to this object via <code>{@link PublicKey}</code> cryptography.
+     *
+     * @param passphrase keep it secret; keep it safe
+     */
+    public Token(String passphrase) {
+        this(passphrase, generateKeyPair());
+    }
+
+    /**
+     * Creates a new <code>Token</code> instance with the given RSA
+     * <code>{@link KeyPair}</code>, which should come from
+     * {@link Token#generateKeyPair()} and must never be given to another
+     * <code>Token</code>. This lets the pair be generated ahead of time, off
+     * the thread creating the <code>Token</code>.
+     *
+     * @param passphrase keep it secret; keep it safe
+     * @param pair {@link KeyPair} of RSA keys for this <code>Token</code>
+     */
+    public Token(String passphrase, KeyPair pair) {
+        this.passphrase = passphrase;
+        LOG.debug("passphrase = " + passphrase);
+        
+        this.privateKey = (RSAPrivateKey) pair.getPrivate();
+        LOG.debug("privateKey: " + privateKey.toString());
+
+        this.publicKey = (RSAPublicKey) pair.getPublic();
+        LOG.debug("publicKey: " + publicKey.getAlgorithm());
+        
+        this.keyId = keyIdOf(this.publicKey);
+        LOG.debug("keyId: " + this.keyId);
+        
+        String msg = "token instantiated at " + new Date().toString();
+        this.blockChain.add(Block.ROOT);
+        this.addBlock(msg, this.encrypt(this.passphrase));
+        LOG.debug(msg);
+    }
+
+    /**
+     * Creates a <code>Token</code> standing for the holder of a
+     * {@link Claim} read back from storage. It carries only the public key
+     * and key id, which is all a <code>Claim</code> compares, so the private
+     * key, passphrase and chain of the holder are never copied into the
+     * storage of another <code>Token</code>. Look the holder up by its key
+     * to get the whole <code>Token</code>.
+     *
+     * @param publicKey {@link RSAPublicKey} of the holder
+     * @return a <code>Token</code> equal to the holder, which cannot be
+     * authenticated
+     */
+    static Token claimant(RSAPublicKey publicKey) {
+        Token token = new Token();
+        token.publicKey = publicKey;
+        token.keyId = keyIdOf(publicKey);
+        return token;
+    }
+
+    /**
+     * Generates the 2048-bit RSA <code>{@link KeyPair}</code> of a new
+     * <code>Token</code>. This takes tens to hundreds of milliseconds.
+     *
+     * @return a new <code>KeyPair</code>, or null when RSA is not available
+     */
+    public static KeyPair generateKeyPair() {
+        KeyPair pair = null;
+        try {
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+            keyGen.initialize(2048);
+            pair = keyGen.genKeyPair();
+            LOG.debug("keyPair: " + pair.toString());
+        } catch (NoSuchAlgorithmException e) {
+            LOG.error("keyGen = KeyPairGenerator.getInstance(\"RSA\");" 
+                + e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        return pair;
+    }
+
+    /**
+     * This method is used to look up {@link com.greentree.model.domain.Token}
+     * objects in the database.
+     * @return {@link String} fingerprint of the {@link Token#publicKey}, as
+     * given by {@link Token#keyIdOf(RSAPublicKey)}
+     */
+    public String getKeyId() {
+        return this.keyId;
+    }
+
+    /**
+     * Computes the key id of the <code>Token</code> with the given public key:
+     * the first 18 bytes of the SHA-256 digest of the encoded key, as 24
+     * URL-safe Base64 characters. Storage services call this to look up a
+     * <code>Token</code> by its key.
+     *
+     * @param key {@link RSAPublicKey} of a <code>Token</code>
+     * @return {@link String} key id, which is the same for equal keys
+     */
+    public static String keyIdOf(RSAPublicKey key) {
+        byte[] digest = Crypto.sha256().digest(key.getEncoded());
+        return Base64.encodeBase64URLSafeString(Arrays.copyOf(digest, 18));
+    }
+
+    /**
+     * Computes the key id a <code>Token</code> with the given public key had
+     * before {@link Token#keyIdOf(RSAPublicKey)}: the first and last nine
+     * decimal digits of its modulus. Storage services look a
+     * <code>Token</code> up by this id when it is not stored under its key
+     * id, and store it again under its key id.
+     *
+     * @param key {@link RSAPublicKey} of a <code>Token</code>
+     * @return {@link String} legacy key id of the <code>Token</code>
+     */
+    public static String legacyKeyIdOf(RSAPublicKey key) {
+        String modulus = String.valueOf(key.getModulus());
+        return modulus.substring(0, 9)
+            + modulus.substring(modulus.length() - 9);
+    }
+    
+    /** 
+     * getter for {@link Token#id}
+     * @return 
+     */
+    public Integer getId() {
+        return this.id;
+    } 
+    
+    /**
+     * This sets the {@link Token#id} value.
+     * 
+     * @param id {@link Integer} which will be the new id.
+     */
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    /**
+     * @return <code>{@link ArrayList}</code> of <code>{@link Block}</code>
+     * objects issued by this, copied so that callers may read it while other
+     * threads add to this <code>Token</code>
+     */
+    public synchronized ArrayList<Block> getBlockChain() {
+        return new ArrayList<>(this.blockChain);
+    }
+
+    /**
+     * @param hash of a {@link Block} in the <code>blockChain</code>, as
+     * returned by {@link Block#getHash()}
+     * @return <code>{@link ArrayList}</code> of the <code>Block</code>
+     * objects added after the one with the given hash, or the whole
+     * <code>blockChain</code> when the hash is null or not in it
+     */
+    public synchronized ArrayList<Block> getBlocksSince(String hash) {
+        Integer index = hash == null ? null : this.index().get(hash);
+        int from = index == null ? 0 : index + 1;
+        return new ArrayList<>(
+            this.blockChain.subList(from, this.blockChain.size())
+        );
+    }
+
+    /**
+     * @param offset position in the <code>blockChain</code> of the first
+     * {@link Block} to return
+     * @param limit most <code>Block</code> objects to return
+     * @return <code>{@link ArrayList}</code> of up to <code>limit</code>
+     * <code>Block</code> objects starting at <code>offset</code>, which is
+     * shorter than <code>limit</code> only at the end of the chain
+     */
+    public synchronized ArrayList<Block> getBlocks(int offset, int limit) {
+        int size = this.blockChain.size();
+        int from = Math.min(Math.max(offset, 0), size);
+        int to = (int) Math.min(size, (long) from + Math.max(limit, 0));
+        return new ArrayList<>(this.blockChain.subList(from, to));
+    }
+
+    /**
+     * Writes one {@link Block} of this <code>Token</code> as a record which
+     * {@link Token#restoreBlock(byte[])} reads back, so that storage services
+     * can append new <code>Block</code> objects rather than rewrite the whole
+     * <code>Token</code>.
+     *
+     * @param block {@link Block} in the <code>blockChain</code> of this
+     * @return the record of the <code>Block</code> and its {@link Claim}
+     * objects
+     * @throws IOException when the record cannot be written
+     */
+    public byte[] encodeBlock(Block block) throws IOException {
+        return TokenRecordCodec.encode(block, this);
+    }
+
+    /**
+     * Appends the {@link Block} of a record written by
+     * {@link Token#encodeBlock(Block)} to the <code>blockChain</code>, unless
+     * it is already there.
+     *
+     * @param record of a <code>Block</code> of this <code>Token</code>
+     * @return true, if the <code>Block</code> was appended; false, if it was
+     * already in the <code>blockChain</code>
+     * @throws java.io.StreamCorruptedException when the record does not
+     * follow the last <code>Block</code> or does not match its hash
+     * @throws IOException when the record cannot be read
+     */
+    public synchronized boolean restoreBlock(byte[] record)
+        throws IOException {
+        Block block = TokenRecordCodec.decode(record, this,
+            this.blockChain.get(this.blockChain.size() - 1),
+            this.index().keySet());
+        if (block == null) {
+            return false;
+        }
+        this.append(block);
+        return true;
+    }
+
+    /**
+     * This appends a {@link Block} to the <code>blockChain</code> and the
+     * index. The caller must hold the lock of this <code>Token</code>.
+     *
+     * @param block {@link Block} to append
+     */
+    private void append(Block block) {
+        this.blockChain.add(block);
+        if (this.blockIndex != null) {
+            this.blockIndex.put(block.getHash(), this.blockChain.size() - 1);
+        }
+    }
+
+    /**
+     * @return {@link Token#blockIndex}, built from the
+     * <code>blockChain</code> if need be. The caller must hold the lock of
+     * this <code>Token</code>.
+     */
+    private Map<String, Integer> index() {
+        if (this.blockIndex == null) {
+            this.blockIndex = new HashMap<>();
+            for (int i = 0; i < this.blockChain.size(); i++) {
+                this.blockIndex.put(this.blockChain.get(i).getHash(), i);
+            }
+        }
+        return this.blockIndex;
+    }
+
+    /**
+     * Adds a new {@link Block} to the <code>{@link Token#blockChain}</code>.
+     *
+     * @param msg {@link String} to be stored in a new
+     * <code>{@link Block}</code> in the <code>
+     *     blockChain</code> of this {@link Token}
+     * @param pass {@link String} should be encrypted with the
+     * {@link RSAPublicKey} of this <code>
+     *     Token</code> and return true from {@link Token#checkPassphrase(String)}
+     */
+    public void addBlock(String msg, String pass) {
+        if (this.checkPassphrase(pass)) {
+            synchronized (this) {
+                this.append(
+                    new Block(msg, this.blockChain.get(this.blockChain.size() - 1), this)
+                );
+            }
+        }
+    }
+
+    /**
+     * Returns the <code>PublicKey</code> of the <code>Token</code>. This is
+     * used to send securely encrypted <code>String</code> objects back to the
+     * <code>Token</code> for validation against the <code>Token</code>
+     * passphrase.
+     *
+     * @return RSAPublicKey used for sending encrypted messages which only this
+     * object can decrypt
+     */
+    public RSAPublicKey getPublicKey() {
+        return this.publicKey;
+    }
+
+    /**
+     * Returns the input encrypted by this <code>{@link Token#publicKey}</code>.
+     *
+     * @param plaintext to be encrypted with the <code>RSAPublicKey</code> of
+     * this <code>Token
+     * </code>
+     * @return input encrypted by this <code>{@link Token#publicKey}</code>
+     */
+    public String encrypt(String plaintext) {
+        Cipher cipher;
+        String ciphertext = null;
+        try {
+            cipher = Crypto.rsa();
+            cipher.init(Cipher.ENCRYPT_MODE, this.getPublicKey());
+            ciphertext = Base64.encodeBase64String(cipher.doFinal(plaintext.getBytes("UTF-8")));
+        } catch (InvalidKeyException | IllegalBlockSizeException 
+            | BadPaddingException | UnsupportedEncodingException e) {
+            LOG.error("String encrypt(" + plaintext + ") " 
+                + e.getClass().getName() + " " + e.getMessage());
+        }
+        return ciphertext;
+    }
+
+    /**
+     * Confirms whether the given <code>{@link Token}</code> has the same value
+     * as this. The method should only return true if both variables refer to
+     * the same object because each <code>Token
+     * </code> is initialized with a unique <code>{@link KeyPair}</code>.
+     *
+     * @param other will be compared with this <code>Token</code> based on the
+     * key id of each, which is a fingerprint of its
+     * <code>{@link RSAPublicKey}</code>
+     * @return true when the given <code>Token</code> has the same value as this
+     * <code>Token</code>
+     */
+    public boolean equals(Object other) {
+        boolean result = false;
+        if (other instanceof Token) {
+            Token that = (Token) other;
+            if (this.keyId.equals(that.keyId)) {
+                result = true;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.keyId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        String blocks = String.valueOf(this.blockChain.size());
+        // a stand-in for a claimant has neither passphrase nor private key
+        Integer pass = this.passphrase == null ? 0 : this.passphrase.length();
+        String publicKey = this.publicKey.toString();
+        String privateKey = this.privateKey == null ? "none"
+            : this.privateKey.toString();
+
+        return "blocks: " + blocks + "\n"
+            + "passphrase: " + pass + "\n"
+            + "publicKey: " + publicKey + "\n"
+            + "privateKey: " + privateKey + "\n";
+    }
+
+    /**
+     * Decrypts the given ciphertext <code>String</code> using the private key
+     * of the object, then checks the resulting plaintext against the passphrase
+     * and returns true or false. Once a ciphertext has been accepted, a
+     * {@link SessionTickets} ticket lets the same ciphertext through again
+     * without decrypting it, until the ticket expires.
+     *
+     * @param ciphertext to be decrypted
+     * @return true, if ciphertext matches the passphrase of this
+     * <code>{@link Token}</code>
+     */
+    public Boolean checkPassphrase(String ciphertext) {
+        if (SessionTickets.verify(this.publicKey, ciphertext)) {
+            return true;
+        }
+        try {
+            Cipher cipher = Crypto.rsa();
+            cipher.init(Cipher.DECRYPT_MODE, this.privateKey);
+            String plaintext = new String(cipher.doFinal(Base64.decodeBase64(ciphertext)), "UTF-8");
+
+            if (plaintext.equals(this.passphrase)) {
+                SessionTickets.issue(this.publicKey, ciphertext);
+                return true;
+            } else {
+                return false;
+            }
+        } catch (InvalidKeyException | UnsupportedEncodingException
+            | IllegalBlockSizeException | BadPaddingException e) {
+            LOG.debug(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Encrypts the passphrase using the public key of the <code>Token</code>,
+     * decrypts the <code>
+     * Token</code> with the corresponding private key, and returns true, if the
+     * decrypted text matches the passphrase. This simulates the process of a
+     * <code>User</code> sending the encrypted passphrase to the
+     * <code>Token</code> for validation, ensuring the <code>Token
+     * </code> is in good working order.
+     *
+     * @return True if the <code>Token</code> is able to encrypt and decrypt its
+     * passphrase
+     */
+    public boolean validate() {
+        if (this.publicKey == null | this.privateKey == null | this.passphrase == null
+            | this.blockChain == null | this.keyId == null) {
+            return false;
+        }
+
+        else return this.checkPassphrase(this.encrypt(this.passphrase));
+    }
+
+    /**
+     * adds a <code>Block</code> to this {@link Token#blockChain}, granting
+     * access to some other <code>Token</code> per the given <code>Claim</code>.
+     *
+     * @param data {@link String} stored in the new {@link Block} and accessible
+     * only to the given
+     * <cide>claim</code>
+     * @param ciphertext {@link String} encrypted with the
+     * {@link Token#publicKey} of this object
+     * @param claim {@link Claim} specifying some other {@link Token} that is
+     * allowed read access on the new <code>Block</code>
+     */
+    public void addBlock(String data, String ciphertext, Claim claim) {
+        this.addBlock(data, ciphertext, Arrays.asList(claim));
+    }
+
+    /**
+     * adds a <code>Block</code> to this {@link Token#blockChain}, granting
+     * access to each of the other <code>Token</code> objects of the given
+     * <code>Claim</code> objects.
+     *
+     * @param data {@link String} stored in the new {@link Block} and
+     * accessible only to the given <code>claims</code>
+     * @param ciphertext {@link String} encrypted with the
+     * {@link Token#publicKey} of this object
+     * @param claims {@link Collection} of {@link Claim} objects, each
+     * specifying some other {@link Token} that is allowed read access on the
+     * new <code>Block</code>
+     */
+    public void addBlock(String data, String ciphertext,
+        Collection<Claim> claims) {
+        if (this.checkPassphrase(ciphertext)) {
+            synchronized (this) {
+                Block block = new Block(data, this.blockChain.get(this.blockChain.size() - 1), this);
+                for (Claim claim : claims) {
+                    block.addClaim(claim, ciphertext);
+                }
+                this.append(block);
+            }
+        }
+    }
+
+    /**
+     * This reads a <code>Token</code> and derives its key id from its public
+     * key, so that a <code>Token</code> written under its legacy key id, as
+     * given by {@link Token#legacyKeyIdOf(RSAPublicKey)}, is read with the
+     * current one.
+     *
+     * @param in {@link ObjectInputStream} from which this is read
+     * @throws IOException when the stream fails
+     * @throws ClassNotFoundException when a field cannot be read
+     */
+    private void readObject(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (this.publicKey != null) {
+            this.keyId = keyIdOf(this.publicKey);
+        }
+    }
+
+    /**
+     * This writes a copy of the <code>{@link Token#blockChain}</code>, so
+     * that other threads may keep adding to it while this is serialized.
+     *
+     * @param out {@link ObjectOutputStream} to which this is written
+     * @throws IOException when the stream fails
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("publicKey", this.publicKey);
+        fields.put("keyId", this.keyId);
+        fields.put("privateKey", this.privateKey);
+        fields.put("id", this.id);
+        fields.put("passphrase", this.passphrase);
+        fields.put("blockChain", this.getBlockChain());
+        out.writeFields();
+    }
+}
@@ -0,0 +1,188 @@
+package com.greentree.model.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Set;
+
+/**
+ * This class writes one {@link Block} of a {@link Token} as a compact record
+ * and reads it back, so that storage services can append each new
+ * <code>Block</code> instead of writing the whole <code>Token</code> again.
+ * A record holds the hash of the <code>Block</code> it follows, so a record
+ * read out of order is refused rather than linked to the wrong
+ * <code>Block</code>. A {@link Claim} of another <code>Token</code> names it
+ * by its public key only, so that neither its secrets nor its chain are
+ * copied into the records of this one.
+ *
+ * @author david5MX53G
+ */
+final class TokenRecordCodec {
+
+    /**
+     * This marks a record holding one <code>Block</code>, written before
+     * claimants were named by key, in which each <code>Claim</code> of
+     * another <code>Token</code> carries that <code>Token</code> serialized.
+     * Such records are still read.
+     */
+    private static final byte BLOCK = 1;
+
+    /**
+     * This marks a record holding one <code>Block</code>, in which each
+     * <code>Claim</code> of another <code>Token</code> carries the DER
+     * (X.509) encoding of its public key.
+     */
+    private static final byte BLOCK_KEYS = 2;
+
+    /**
+     * This is not instantiated.
+     */
+    private TokenRecordCodec() {
+    }
+
+    /**
+     * @param block {@link Block} issued by the given <code>Token</code>
+     * @param owner {@link Token} which issued the <code>Block</code>; a
+     * {@link Claim} of the owner is written as a reference to it, while a
+     * <code>Claim</code> of another <code>Token</code> carries the public
+     * key of that <code>Token</code>
+     * @return the record of the <code>Block</code>
+     * @throws IOException when the record cannot be written
+     */
+    static byte[] encode(Block block, Token owner) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(BLOCK_KEYS);
+            out.writeUTF(block.getReferee().getHash());
+            out.writeUTF(block.getHash());
+            out.writeLong(block.getTimeStamp());
+            byte[] data = block.getRawData().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(data.length);
+            out.write(data);
+
+            Claim[] list = block.getClaims().toArray(new Claim[0]);
+            out.writeInt(list.length);
+            for (Claim claim : list) {
+                out.writeLong(claim.getNotBefore());
+                out.writeLong(claim.getExpirationTime());
+                out.writeLong(claim.getIssuedAt());
+                boolean own = owner.equals(claim.getToken());
+                out.writeBoolean(own);
+                if (!own) {
+                    byte[] key = claim.getToken().getPublicKey().getEncoded();
+                    out.writeInt(key.length);
+                    out.write(key);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param record written by {@link TokenRecordCodec#encode(Block, Token)}
+     * @param owner {@link Token} which issued the <code>Block</code>
+     * @param last {@link Block} at the end of the chain of the owner
+     * @param known hashes of the <code>Block</code> objects already in the
+     * chain of the owner
+     * @return the <code>Block</code> of the record, following
+     * <code>last</code>, or null if it is already in the chain; a
+     * <code>Claim</code> of another <code>Token</code> holds the stand-in
+     * given by {@link Token#claimant(RSAPublicKey)}
+     * @throws StreamCorruptedException when the record does not follow
+     * <code>last</code> or its hash does not match its data
+     * @throws IOException when the record cannot be read
+     */
+    static Block decode(byte[] record, Token owner, Block last,
+        Set<String> known) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(record))) {
+            byte type = in.readByte();
+            if (type != BLOCK && type != BLOCK_KEYS) {
+                throw new StreamCorruptedException("unknown record type");
+            }
+            String referee = in.readUTF();
+            String hash = in.readUTF();
+            if (known.contains(hash)) {
+                return null;
+            } else if (!referee.equals(last.getHash())) {
+                throw new StreamCorruptedException(
+                    "record " + hash + " does not follow " + last.getHash());
+            }
+            long timeStamp = in.readLong();
+            byte[] data = new byte[length(in)];
+            in.readFully(data);
+            Block block = new Block(new String(data, StandardCharsets.UTF_8),
+                last, owner, timeStamp);
+            if (!block.getHash().equals(hash)) {
+                throw new StreamCorruptedException(
+                    "record " + hash + " does not match its data");
+            }
+
+            int claims = in.readInt();
+            for (int i = 0; i < claims; i++) {
+                long notBefore = in.readLong();
+                long expirationTime = in.readLong();
+                long issuedAt = in.readLong();
+                Token token = owner;
+                if (!in.readBoolean()) {
+                    byte[] bytes = new byte[length(in)];
+                    in.readFully(bytes);
+                    token = type == BLOCK ? deserialize(bytes)
+                        : Token.claimant(publicKey(bytes));
+                }
+                block.restoreClaim(
+                    new Claim(token, notBefore, expirationTime, issuedAt));
+            }
+            return block;
+        }
+    }
+
+    /**
+     * @return a length read from the record, which must not exceed the bytes
+     * left in it
+     * @throws StreamCorruptedException when it does
+     */
+    private static int length(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new StreamCorruptedException("length " + length
+                + " does not fit the record");
+        }
+        return length;
+    }
+
+    /**
+     * @return the {@link RSAPublicKey} of the given DER (X.509) encoding
+     * @throws StreamCorruptedException when it is not an RSA public key
+     */
+    private static RSAPublicKey publicKey(byte[] bytes)
+        throws StreamCorruptedException {
+        try {
+            return (RSAPublicKey) KeyFactory.getInstance("RSA")
+                .generatePublic(new X509EncodedKeySpec(bytes));
+        } catch (GeneralSecurityException | ClassCastException e) {
+            throw new StreamCorruptedException("invalid claimant key");
+        }
+    }
+
+    /**
+     * @return the <code>Token</code> serialized in the given bytes
+     */
+    private static Token deserialize(byte[] bytes) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes))) {
+            return (Token) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+    }
+}
@@ -1,15 +1,15 @@
-/**
- * 
- */
-package com.greentree.model.services;
-
-/**
- * This decouples <code>{@link ServiceFactory}</code> from the services it provides. These services
- * are named in <code>config\application.properties</code>
- * 
- * @author david5MX53G
- *
- */
-public interface IService {
-
-}
+/**
+ * 
+ */
+package com.greentree.model.services;
+
+/**
+ * This decouples <code>{@link ServiceFactory}</code> from the services it provides. These services
+ * are named in <code>config\application.properties</code>
+ * 
+ * @author david5MX53G
+ *
+ */
+public interface IService {
+
+}
@@ -106,6 +106,16 @@ public class JDBCPoolManager {
             int poolSizeMax = 
                 Integer.valueOf(PropertyManager.getProperty("jdbc.maxpoolsize"));
             cpds.setMaxPoolSize(poolSizeMax);
+
+            /**
+             * This many {@link java.sql.PreparedStatement} objects are kept
+             * open on each pooled connection, so that preparing the same SQL
+             * again costs no round trip to the database.
+             */
+            String statements = PropertyManager.getProperty("jdbc.maxstatements");
+            if (statements != null) {
+                cpds.setMaxStatementsPerConnection(Integer.valueOf(statements));
+            }
             
         } catch (PropertyVetoException | ParserConfigurationException ex) {
             LOGGER.error(ex.getClass().getSimpleName() + " " + ex.getMessage());
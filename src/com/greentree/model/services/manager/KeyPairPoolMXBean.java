@@ -0,0 +1,64 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.model.services.manager;
+
+/**
+ * This is the JMX view of the {@link KeyPairPoolManager}.
+ *
+ * @author david5MX53G
+ */
+public interface KeyPairPoolMXBean {
+
+    /**
+     * @return number of key pairs ready to be taken
+     */
+    int getSize();
+
+    /**
+     * @return number of key pairs the pool keeps ready
+     */
+    int getCapacity();
+
+    /**
+     * @return number of key pairs generated in the background
+     */
+    long getGeneratedCount();
+
+    /**
+     * @return number of key pairs taken from the pool
+     */
+    long getTakenCount();
+
+    /**
+     * @return number of key pairs generated inline because the pool was
+     * empty
+     */
+    long getMissCount();
+
+    /**
+     * @return key pairs the background thread generates per second while it
+     * is refilling the pool
+     */
+    double getRefillRate();
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.model.services.manager;
+
+import com.greentree.model.domain.Token;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.security.KeyPair;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.xml.parsers.ParserConfigurationException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * This class keeps RSA key pairs for new {@link Token} objects ready in
+ * memory. Generating a 2048-bit pair takes tens to hundreds of milliseconds,
+ * so a daemon thread generates them ahead of time, up to the
+ * <code>keypoolsize</code> property, and {@link KeyPairPoolManager#take()}
+ * only generates one inline when the pool is empty. Each pair is handed out
+ * once. The pool registers itself with the platform {@link MBeanServer} as
+ * {@link KeyPairPoolManager#OBJECT_NAME}.
+ *
+ * @author david5MX53G
+ */
+public class KeyPairPoolManager implements KeyPairPoolMXBean {
+
+    /**
+     * log4j Logger for logging logs to the log
+     */
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    /**
+     * This names the pool in JMX.
+     */
+    public static final String OBJECT_NAME
+        = "com.greentree.model.services:type=KeyPairPool";
+
+    /**
+     * This many pairs are kept ready when the <code>keypoolsize</code>
+     * property is missing.
+     */
+    private static final int DEFAULT_SIZE = 16;
+
+    /**
+     * This is the Singleton instance of this class.
+     */
+    private static KeyPairPoolManager _instance;
+
+    /**
+     * These pairs are ready to be taken.
+     */
+    private final BlockingQueue<KeyPair> pairs;
+
+    /**
+     * This is the number of pairs kept ready.
+     */
+    private final int capacity;
+
+    /**
+     * This generates pairs until the pool is shut down, or is null when the
+     * capacity is 0.
+     */
+    private final Thread generator;
+
+    /**
+     * These count the pairs generated in the background, taken from the
+     * pool, and generated inline.
+     */
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong taken = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * This is the time in nanoseconds the generator spent generating pairs.
+     */
+    private final AtomicLong generatingNanos = new AtomicLong();
+
+    /**
+     * This is the name under which the pool was registered, or null if it
+     * could not be.
+     */
+    private ObjectName name;
+
+    /**
+     * This starts the generator thread and registers the pool with JMX.
+     *
+     * @param capacity number of pairs to keep ready; 0 generates every pair
+     * inline
+     */
+    KeyPairPoolManager(int capacity) {
+        this.capacity = capacity;
+        this.pairs = new ArrayBlockingQueue<>(Math.max(1, capacity));
+
+        if (capacity > 0) {
+            this.generator = new Thread(this::generate, "GreenTreeKeyPairPool");
+            this.generator.setDaemon(true);
+            this.generator.setPriority(Thread.MIN_PRIORITY);
+            this.generator.start();
+        } else {
+            this.generator = null;
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+                this.name = objectName;
+            }
+        } catch (JMException ex) {
+            LOGGER.warn("KeyPairPoolManager() could not register with JMX: "
+                + ex.getMessage());
+        }
+    }
+
+    /**
+     * This returns the Singleton pool, starting it with the
+     * <code>keypoolsize</code> property the first time.
+     *
+     * @return the <code>KeyPairPoolManager</code> Singleton instance
+     */
+    public static synchronized KeyPairPoolManager getInstance() {
+        if (_instance == null) {
+            int size = DEFAULT_SIZE;
+            try {
+                String value = PropertyManager.getProperty("keypoolsize");
+                if (value != null) {
+                    size = Integer.parseInt(value);
+                }
+            } catch (IOException | SAXException | ParserConfigurationException
+                | NumberFormatException ex) {
+                LOGGER.warn("keypoolsize unavailable, using " + size + ": "
+                    + ex.getMessage());
+            }
+            _instance = new KeyPairPoolManager(size);
+        }
+        return _instance;
+    }
+
+    /**
+     * This takes a ready pair from the pool, or generates one inline when
+     * the pool is empty.
+     *
+     * @return {@link KeyPair} which no other caller receives
+     */
+    public KeyPair take() {
+        KeyPair pair = pairs.poll();
+        if (pair != null) {
+            taken.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            pair = Token.generateKeyPair();
+        }
+        return pair;
+    }
+
+    /**
+     * This keeps the pool full until the generator thread is interrupted.
+     */
+    private void generate() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long start = System.nanoTime();
+                KeyPair pair = Token.generateKeyPair();
+                if (pair == null) {
+                    return;
+                }
+                generatingNanos.addAndGet(System.nanoTime() - start);
+                generated.incrementAndGet();
+                pairs.put(pair);
+            }
+        } catch (InterruptedException ex) {
+            LOGGER.debug("key pair generator stopped");
+        }
+    }
+
+    /**
+     * This stops the generator, drops the ready pairs and removes the pool
+     * from JMX. The next {@link KeyPairPoolManager#getInstance()} starts a
+     * new pool.
+     */
+    public static synchronized void shutDown() {
+        if (_instance != null) {
+            _instance.close();
+            _instance = null;
+        }
+    }
+
+    /**
+     * This stops the generator of this pool and unregisters it.
+     */
+    void close() {
+        if (generator != null) {
+            generator.interrupt();
+        }
+        pairs.clear();
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(name);
+            } catch (JMException ex) {
+                LOGGER.warn("close() could not unregister from JMX: "
+                    + ex.getMessage());
+            }
+            name = null;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return pairs.size();
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public long getGeneratedCount() {
+        return generated.get();
+    }
+
+    @Override
+    public long getTakenCount() {
+        return taken.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public double getRefillRate() {
+        long nanos = generatingNanos.get();
+        return nanos == 0 ? 0 : generated.get() * 1e9 / nanos;
+    }
+}
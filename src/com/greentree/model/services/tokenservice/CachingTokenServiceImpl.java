@@ -0,0 +1,387 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.model.services.tokenservice;
+
+import com.greentree.model.domain.Token;
+import com.greentree.model.exception.TokenServiceException;
+import java.lang.management.ManagementFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This <code>{@link ITokenService}</code> keeps recently used
+ * {@link Token} objects in memory in front of another
+ * <code>ITokenService</code>, so that reading the same <code>Token</code>
+ * again does not go back to storage and deserialize it. Each
+ * <code>Token</code> weighs the length of its chain; once the cached
+ * <code>Token</code> objects weigh more than the maximum weight, the least
+ * recently used are evicted. Commits are passed to storage first and cached
+ * once they succeed; a failed commit drops the <code>Token</code> from the
+ * cache, so that the next read gets what storage holds.
+ * <p>
+ * Every reader of a cached <code>Token</code> gets the same instance, so
+ * this must be the only writer to its storage. The cache registers itself
+ * with the platform {@link MBeanServer} as
+ * {@link CachingTokenServiceImpl#OBJECT_NAME}.
+ *
+ * @author david5MX53G
+ */
+public class CachingTokenServiceImpl implements ITokenService,
+    CachingTokenServiceMXBean {
+
+    /**
+     * {@link org.apache.logging.log4j.Logger} is for logging logs to the log
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * This names the cache in JMX.
+     */
+    public static final String OBJECT_NAME
+        = "com.greentree.model.services:type=TokenCache";
+
+    /**
+     * This stores the <code>Token</code> objects.
+     */
+    private final ITokenService delegate;
+
+    /**
+     * This is the total chain length above which <code>Token</code> objects
+     * are evicted.
+     */
+    private final long maxWeight;
+
+    /**
+     * This maps the key id of each cached <code>Token</code> to it, least
+     * recently used first. It is guarded by the lock of this.
+     */
+    private final LinkedHashMap<String, Entry> entries
+        = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * This is the total weight of the <code>entries</code>, guarded by the
+     * lock of this.
+     */
+    private long weight;
+
+    /**
+     * These count the reads answered from the cache and from storage, the
+     * <code>Token</code> objects evicted, and the loads from storage and the
+     * time they took.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    /**
+     * This is the name under which the cache was registered, or null if it
+     * could not be.
+     */
+    private ObjectName name;
+
+    /**
+     * This builds a cache in front of the given service and registers it
+     * with JMX.
+     *
+     * @param delegate {@link ITokenService} storing the <code>Token</code>
+     * objects
+     * @param maxWeight total chain length of the <code>Token</code> objects
+     * to keep in memory
+     */
+    public CachingTokenServiceImpl(ITokenService delegate, long maxWeight) {
+        this.delegate = delegate;
+        this.maxWeight = maxWeight;
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+                this.name = objectName;
+            }
+        } catch (JMException ex) {
+            LOG.warn("CachingTokenServiceImpl() could not register with JMX: "
+                + ex.getMessage());
+        }
+    }
+
+    /**
+     * overrides {@link ITokenService#commit(Token)} by committing to storage,
+     * then caching the <code>Token</code>.
+     */
+    @Override
+    public boolean commit(Token token) throws TokenServiceException {
+        boolean result;
+        try {
+            result = delegate.commit(token);
+        } catch (TokenServiceException e) {
+            this.invalidate(token.getKeyId());
+            throw e;
+        }
+        if (result) {
+            this.put(token, true);
+        } else {
+            this.invalidate(token.getKeyId());
+        }
+        return result;
+    }
+
+    /**
+     * overrides {@link ITokenService#commitAll(Collection)} by committing to
+     * storage, then caching the <code>Token</code> objects.
+     */
+    @Override
+    public boolean commitAll(Collection<Token> tokens)
+        throws TokenServiceException {
+        boolean result;
+        try {
+            result = delegate.commitAll(tokens);
+        } catch (TokenServiceException e) {
+            tokens.forEach(token -> this.invalidate(token.getKeyId()));
+            throw e;
+        }
+        for (Token token : tokens) {
+            if (result) {
+                this.put(token, true);
+            } else {
+                this.invalidate(token.getKeyId());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * overrides {@link ITokenService#selectToken(RSAPublicKey)} by answering
+     * from the cache, or reading from storage and caching the result.
+     */
+    @Override
+    public Token selectToken(RSAPublicKey key) throws TokenServiceException {
+        Token token = this.get(Token.keyIdOf(key));
+        if (token == null) {
+            long start = System.nanoTime();
+            token = delegate.selectToken(key);
+            this.loaded(start);
+            if (token != null) {
+                token = this.put(token, false);
+            }
+        }
+        return token;
+    }
+
+    /**
+     * overrides {@link ITokenService#selectTokens(Collection)} by answering
+     * what it can from the cache and reading the rest from storage at once.
+     */
+    @Override
+    public Map<String, Token> selectTokens(Collection<RSAPublicKey> keys)
+        throws TokenServiceException {
+        Map<String, Token> result = new HashMap<>();
+        List<RSAPublicKey> missing = new ArrayList<>();
+        for (RSAPublicKey key : keys) {
+            String keyId = Token.keyIdOf(key);
+            Token token = this.get(keyId);
+            if (token != null) {
+                result.put(keyId, token);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long start = System.nanoTime();
+            Map<String, Token> selected = delegate.selectTokens(missing);
+            this.loaded(start);
+            for (Token token : selected.values()) {
+                result.put(token.getKeyId(), this.put(token, false));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param keyId of a <code>Token</code>
+     * @return the cached <code>Token</code>, or null when it is not cached
+     */
+    private synchronized Token get(String keyId) {
+        Entry entry = entries.get(keyId);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.token;
+    }
+
+    /**
+     * This caches a <code>Token</code>, then evicts the least recently used
+     * ones until the cache is within its maximum weight.
+     *
+     * @param token {@link Token} to cache
+     * @param replace true, if the <code>Token</code> replaces one cached
+     * under its key id, as it does when committed; false, if one already
+     * cached is kept, as it is when another reader loaded it first
+     * @return the cached <code>Token</code> of the key id
+     */
+    private Token put(Token token, boolean replace) {
+        // measured outside the lock, since it copies the chain
+        int tokenWeight = token.getBlockChain().size();
+        synchronized (this) {
+            Entry entry = entries.get(token.getKeyId());
+            if (entry == null) {
+                entries.put(token.getKeyId(), new Entry(token, tokenWeight));
+                weight += tokenWeight;
+            } else if (replace || entry.token == token) {
+                weight += tokenWeight - entry.weight;
+                entry.token = token;
+                entry.weight = tokenWeight;
+            } else {
+                token = entry.token;
+            }
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (weight > maxWeight && eldest.hasNext()) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        return token;
+    }
+
+    /**
+     * This drops a <code>Token</code> from the cache.
+     *
+     * @param keyId of the <code>Token</code>
+     */
+    private synchronized void invalidate(String keyId) {
+        Entry entry = entries.remove(keyId);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+    }
+
+    /**
+     * This counts a load from storage.
+     *
+     * @param start {@link System#nanoTime()} when the load started
+     */
+    private void loaded(long start) {
+        loadNanos.addAndGet(System.nanoTime() - start);
+        loads.incrementAndGet();
+    }
+
+    /**
+     * This removes the cache from JMX. Spring calls it when the context
+     * closes.
+     */
+    public void close() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(name);
+            } catch (JMException ex) {
+                LOG.warn("close() could not unregister from JMX: "
+                    + ex.getMessage());
+            }
+            name = null;
+        }
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate() {
+        long hit = hits.get();
+        long total = hit + misses.get();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public double getAverageLoadMillis() {
+        long count = loads.get();
+        return count == 0 ? 0 : loadNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * This is one cached <code>Token</code> and its weight.
+     */
+    private static final class Entry {
+
+        /** cached <code>Token</code> */
+        private Token token;
+
+        /** length of its chain when it was cached */
+        private int weight;
+
+        /**
+         * @param token cached <code>Token</code>
+         * @param weight length of its chain
+         */
+        private Entry(Token token, int weight) {
+            this.token = token;
+            this.weight = weight;
+        }
+    }
+}
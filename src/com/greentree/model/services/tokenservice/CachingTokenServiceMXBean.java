@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.model.services.tokenservice;
+
+/**
+ * This is the JMX view of the {@link CachingTokenServiceImpl}.
+ *
+ * @author david5MX53G
+ */
+public interface CachingTokenServiceMXBean {
+
+    /**
+     * @return number of <code>Token</code> objects in the cache
+     */
+    int getSize();
+
+    /**
+     * @return total length of the chains of the cached <code>Token</code>
+     * objects
+     */
+    long getWeight();
+
+    /**
+     * @return total chain length above which the least recently used
+     * <code>Token</code> objects are evicted
+     */
+    long getMaxWeight();
+
+    /**
+     * @return number of reads answered from the cache
+     */
+    long getHitCount();
+
+    /**
+     * @return number of reads passed to the storage service
+     */
+    long getMissCount();
+
+    /**
+     * @return share of reads answered from the cache, from 0 to 1
+     */
+    double getHitRate();
+
+    /**
+     * @return number of <code>Token</code> objects evicted to stay under the
+     * maximum weight
+     */
+    long getEvictionCount();
+
+    /**
+     * @return average time in milliseconds the storage service took to read
+     * a <code>Token</code> missing from the cache
+     */
+    double getAverageLoadMillis();
+}
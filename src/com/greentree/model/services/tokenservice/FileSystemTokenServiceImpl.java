@@ -1,117 +1,699 @@
-package com.greentree.model.services.tokenservice;
-
-import com.greentree.model.exception.TokenServiceException;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.security.interfaces.RSAPublicKey;
-import com.greentree.model.domain.Token;
-import com.greentree.model.services.manager.PropertyManager;
-import javax.xml.parsers.ParserConfigurationException;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.xml.sax.SAXException;
-
-/**
- * Implements <code>{@link ITokenService}</code> using the local filesystem for
- * storage. Each <code>{@link Token}</code> is saved to a separate file named
- * after the hashcode of the <code>
- * {@link RSAPublicKey}</code> for the <code>Token</code>.
- *
- * @author david5MX53G
- *
- */
-public class FileSystemTokenServiceImpl implements ITokenService {
-
-    /**
-     * {@link org.apache.logging.log4j.Logger} is for logging logs to the log
-     */
-    private static final Logger LOG = LogManager.getLogger();
-
-    /**
-     * overrides {@link ITokenService#commit(Token)}
-     *
-     * @return boolean to indicate success or failure
-     * @throws com.greentree.model.exception.TokenServiceException 
-     * when the input {@link com.greentree.model.domain.Token} does not validate
-     */
-    @Override
-    public boolean commit(Token token) throws TokenServiceException {
-        boolean result = false;
-        try {
-            if (token.validate() == false) {
-                LOG.error("commit(Token) could not validate Token");
-            } else {
-                String filename = this.getFilename(token.getPublicKey());
-                try (ObjectOutputStream out
-                    = new ObjectOutputStream(new FileOutputStream(filename))) {
-                    out.writeObject(token);
-                result = true;
-                } catch (IOException e) {
-                    LOG.error("Error writing to file " + filename + ": " 
-                        + e.getMessage());
-                }
-            }
-        } catch (IOException | ParserConfigurationException | 
-            SAXException e) {
-            throw new TokenServiceException(e.getMessage(), LOG, e);
-        }
-        return result;
-    }
-
-    /**
-     * The filename of a <code>{@link RSAPublicKey}</code> allows us to save and
-     * restore the <code>{@link Token}</code> of the given
-     * <code>RSAPublicKey</code> from file IO. The
-     * <code>{@link Java.util.Properties}</code> file is expected to have a key
-     * named " TokenFilesLocation".
-     *
-     * @param key used to generate the filename
-     * @return the unique, consistent filename of this <code>RSAPublicKey</code>
-     * @throws IOException when the {@link Properties} file does not load
-     * 
-     * @throws javax.xml.parsers.ParserConfigurationException when {@link 
-     *         PropertyManager#getProperty(java.lang.String)} fails
-     * 
-     * @throws org.xml.sax.SAXException when {@link 
-     *         PropertyManager#getProperty(java.lang.String)} fails
-     */
-    public String getFilename(RSAPublicKey key) 
-        throws IOException, ParserConfigurationException, SAXException {
-        String filename = String.valueOf(key.getModulus());
-        
-        filename = filename.substring(0, 9) 
-                 + filename.substring(filename.length() - 9);
-        
-        filename = 
-            PropertyManager.getProperty("tokenfilepath") 
-            + "/" + filename + ".token";
-        
-        return filename;
-    }
-
-    /**
-     * overrides {@link ITokenService#selectToken(RSAPublicKey)}
-     */
-    @Override
-    public Token selectToken(RSAPublicKey key) throws TokenServiceException {
-        String filename;
-        Token token = null;
-        
-        try {
-            filename = this.getFilename(key);
-            ObjectInputStream input = 
-                new ObjectInputStream(new FileInputStream(filename));
-            token = (Token) input.readObject();
-        } 
-        
-        catch (IOException | ClassNotFoundException | 
-            ParserConfigurationException | SAXException e) {
-            throw new TokenServiceException(e.getMessage(), LOG, e);
-        }
-        
-        return token;
-    }
-}
+package com.greentree.model.services.tokenservice;
+
+import com.greentree.model.exception.TokenServiceException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import com.greentree.model.domain.Block;
+import com.greentree.model.domain.Token;
+import com.greentree.model.services.manager.PropertyManager;
+import javax.xml.parsers.ParserConfigurationException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * Implements <code>{@link ITokenService}</code> using the local filesystem for
+ * storage. Each <code>{@link Token}</code> is saved to a snapshot file named
+ * after the key id of its <code>{@link RSAPublicKey}</code>, with a ".token"
+ * extension. Once a <code>Token</code> has a snapshot, each commit appends
+ * only the new {@link Block} records to a log file beside it, with a ".log"
+ * extension, so the cost of a commit does not grow with the chain. After the
+ * number of records given by the <code>tokenlogcompaction</code> property,
+ * the next commit compacts the log into a new snapshot.
+ * <p>
+ * A snapshot is written to a temporary file and renamed over the old one, and
+ * the log is deleted afterwards, so a crash leaves either the old snapshot
+ * and log or the new snapshot. Records already in the snapshot are skipped
+ * when the log is read. A record cut short by a crash ends the log; the first
+ * commit after a restart writes a new snapshot.
+ * <p>
+ * Commits are made durable by a {@link WriteAheadLog} in the
+ * <code>tokenfilepath</code> directory, which is shared by every instance of
+ * this service using that directory. Each commit appends its records to the
+ * write-ahead log as well as to the log of its <code>Token</code>, and returns
+ * once the write-ahead log has forced them to disk together with those of
+ * other commits: after the <code>tokenwalbatch</code> property's number of
+ * records, or the <code>tokenwalmillis</code> property's number of
+ * milliseconds. The logs of the <code>Token</code> objects are only forced
+ * to disk when the write-ahead log is emptied at a checkpoint. After a crash,
+ * the records still in the write-ahead log are appended again to the logs of
+ * their <code>Token</code> objects before anything is read. Snapshots are
+ * forced to disk before they are renamed into place.
+ * <p>
+ * Only the <code>{@link com.greentree.model.domain.Claim}</code> objects a
+ * <code>Block</code> has when it is appended are in its record. Claims added
+ * later, such as those granted while reading, reach the disk with the next
+ * snapshot.
+ *
+ * @author david5MX53G
+ *
+ */
+public class FileSystemTokenServiceImpl implements ITokenService {
+
+    /**
+     * {@link org.apache.logging.log4j.Logger} is for logging logs to the log
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * This many records are appended to a log before it is compacted when
+     * the <code>tokenlogcompaction</code> property is missing.
+     */
+    private static final int DEFAULT_COMPACTION = 256;
+
+    /**
+     * A batch of the write-ahead log is forced to disk once it holds this
+     * many records when the <code>tokenwalbatch</code> property is missing.
+     */
+    private static final int DEFAULT_WAL_BATCH = 64;
+
+    /**
+     * A batch of the write-ahead log is forced to disk once its first record
+     * has waited this many milliseconds when the <code>tokenwalmillis</code>
+     * property is missing.
+     */
+    private static final int DEFAULT_WAL_MILLIS = 2;
+
+    /**
+     * The write-ahead log is emptied at a checkpoint once it holds this many
+     * bytes.
+     */
+    private static final long WAL_CHECKPOINT_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * This maps each <code>tokenfilepath</code> directory to its write-ahead
+     * log.
+     */
+    private static final ConcurrentMap<String, WriteAheadLog> WALS
+        = new ConcurrentHashMap<>();
+
+    /**
+     * These logs of <code>Token</code> objects have been written since the
+     * last checkpoint, so they must be forced to disk before a write-ahead
+     * log is emptied.
+     */
+    private static final Set<String> DIRTY = ConcurrentHashMap.newKeySet();
+
+    /**
+     * This maps the key id of each <code>Token</code> committed by this
+     * service to what its files hold.
+     */
+    private final ConcurrentMap<String, LogState> logs
+        = new ConcurrentHashMap<>();
+
+    /**
+     * This many records are appended to a log before it is compacted, or 0
+     * until the property has been read.
+     */
+    private volatile int compaction;
+
+    /**
+     * This makes commits durable, or is null until this service is first
+     * used.
+     */
+    private volatile WriteAheadLog wal;
+
+    /**
+     * overrides {@link ITokenService#commit(Token)}
+     *
+     * @return boolean to indicate success or failure
+     * @throws com.greentree.model.exception.TokenServiceException 
+     * when the input {@link com.greentree.model.domain.Token} does not validate
+     */
+    @Override
+    public boolean commit(Token token) throws TokenServiceException {
+        boolean result = false;
+        try {
+            WriteAheadLog wal = this.open();
+            if (token.validate() == false) {
+                LOG.error("commit(Token) could not validate Token");
+            } else {
+                String filename = this.getFilename(token.getPublicKey());
+                LogState state = logs.computeIfAbsent(token.getKeyId(),
+                    k -> new LogState());
+                synchronized (state) {
+                    try {
+                        ArrayList<Block> added = state.lastHash == null
+                            ? null : token.getBlocksSince(state.lastHash);
+                        if (added == null
+                            || (!added.isEmpty()
+                                && added.get(0).equals(Block.ROOT))
+                            || state.records + added.size() > compaction()) {
+                            this.snapshot(token, filename, state);
+                        } else if (!added.isEmpty()) {
+                            this.append(token, added, filename, state, wal);
+                        }
+                        result = true;
+                    } catch (IOException e) {
+                        state.lastHash = null;
+                        LOG.error("Error writing to file " + filename + ": " 
+                            + e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException | ParserConfigurationException | 
+            SAXException e) {
+            throw new TokenServiceException(e.getMessage(), LOG, e);
+        }
+        return result;
+    }
+
+    /**
+     * overrides {@link ITokenService#commitAll(Collection)} by committing the
+     * given <code>Token</code> objects from up to the
+     * <code>tokenwalbatch</code> property's number of threads at once, so
+     * that their records are forced to disk together by the
+     * {@link WriteAheadLog} instead of one commit after another.
+     *
+     * @return true, if every <code>Token</code> was committed
+     * @throws com.greentree.model.exception.TokenServiceException when a
+     * commit fails or the calling thread is interrupted
+     */
+    @Override
+    public boolean commitAll(Collection<Token> tokens)
+        throws TokenServiceException {
+        List<Callable<Boolean>> commits = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            commits.add(() -> this.commit(token));
+        }
+        boolean result = true;
+        for (boolean committed : inParallel(commits)) {
+            result &= committed;
+        }
+        return result;
+    }
+
+    /**
+     * overrides {@link ITokenService#selectTokens(Collection)} by reading the
+     * files of the <code>Token</code> objects from up to the
+     * <code>tokenwalbatch</code> property's number of threads at once. Keys
+     * without a snapshot have no entry in the result.
+     */
+    @Override
+    public Map<String, Token> selectTokens(Collection<RSAPublicKey> keys)
+        throws TokenServiceException {
+        List<Callable<Token>> reads = new ArrayList<>(keys.size());
+        try {
+            for (RSAPublicKey key : keys) {
+                if (this.migrate(key, this.getFilename(key))) {
+                    reads.add(() -> this.selectToken(key));
+                }
+            }
+        } catch (IOException | ParserConfigurationException
+            | SAXException e) {
+            throw new TokenServiceException(e.getMessage(), LOG, e);
+        }
+        Map<String, Token> result = new HashMap<>();
+        for (Token token : inParallel(reads)) {
+            result.put(token.getKeyId(), token);
+        }
+        return result;
+    }
+
+    /**
+     * This runs the given tasks on up to the <code>tokenwalbatch</code>
+     * property's number of threads at once, so that the commits among them
+     * are forced to disk together by the {@link WriteAheadLog}.
+     *
+     * @param tasks {@link Callable} objects to run
+     * @return the result of each task, in the order of the tasks
+     * @throws TokenServiceException when a task fails, once every task has
+     * finished, or when the calling thread is interrupted
+     */
+    private static <T> List<T> inParallel(List<Callable<T>> tasks)
+        throws TokenServiceException {
+        List<T> result = new ArrayList<>(tasks.size());
+        int threads = Math.min(tasks.size(),
+            property("tokenwalbatch", DEFAULT_WAL_BATCH));
+        if (threads <= 1) {
+            for (Callable<T> task : tasks) {
+                try {
+                    result.add(task.call());
+                } catch (TokenServiceException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new TokenServiceException(e);
+                }
+            }
+            return result;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+            task -> {
+                Thread thread = new Thread(task, "GreenTreeTokenService");
+                thread.setDaemon(true);
+                return thread;
+            });
+        try {
+            List<Future<T>> futures = executor.invokeAll(tasks);
+            TokenServiceException failure = null;
+            for (Future<T> future : futures) {
+                try {
+                    result.add(future.get());
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof TokenServiceException
+                            ? (TokenServiceException) e.getCause()
+                            : new TokenServiceException(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TokenServiceException("interrupted", LOG, e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * This writes the whole <code>Token</code> to a temporary file, renames
+     * it over the snapshot and deletes the log, which the snapshot now holds.
+     *
+     * @param token {@link Token} to write
+     * @param filename of the snapshot
+     * @param state {@link LogState} of the <code>Token</code>, which this
+     * updates
+     * @throws IOException when a file cannot be written
+     */
+    private void snapshot(Token token, String filename, LogState state)
+        throws IOException {
+        ArrayList<Block> chain = token.getBlockChain();
+        Path file = Paths.get(filename);
+        Path temp = Paths.get(filename + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+            ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(stream))) {
+            out.writeObject(token);
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(Paths.get(this.getLogFilename(filename)));
+        state.lastHash = chain.get(chain.size() - 1).getHash();
+        state.records = 0;
+    }
+
+    /**
+     * This appends a record of each given <code>Block</code> to the log,
+     * each preceded by its length, and waits until the write-ahead log has
+     * made them durable.
+     *
+     * @param token {@link Token} which issued the <code>Block</code> objects
+     * @param added {@link Block} objects added since the last commit
+     * @param filename of the snapshot
+     * @param state {@link LogState} of the <code>Token</code>, which this
+     * updates
+     * @param wal {@link WriteAheadLog} which makes the records durable
+     * @throws IOException when the log cannot be written
+     */
+    private void append(Token token, ArrayList<Block> added, String filename,
+        LogState state, WriteAheadLog wal) throws IOException {
+        String log = this.getLogFilename(filename);
+        List<byte[]> entries = new ArrayList<>(added.size());
+        DIRTY.add(log);
+        try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(log, true)))) {
+            for (Block block : added) {
+                byte[] record = token.encodeBlock(block);
+                out.writeInt(record.length);
+                out.write(record);
+                entries.add(walEntry(token.getKeyId(), record));
+            }
+        }
+        wal.append(entries);
+        state.lastHash = added.get(added.size() - 1).getHash();
+        state.records += added.size();
+    }
+
+    /**
+     * The filename of a <code>{@link RSAPublicKey}</code> allows us to save and
+     * restore the <code>{@link Token}</code> of the given
+     * <code>RSAPublicKey</code> from file IO. The
+     * <code>{@link Java.util.Properties}</code> file is expected to have a key
+     * named " TokenFilesLocation".
+     *
+     * @param key used to generate the filename
+     * @return the unique, consistent filename of this <code>RSAPublicKey</code>
+     * @throws IOException when the {@link Properties} file does not load
+     * 
+     * @throws javax.xml.parsers.ParserConfigurationException when {@link 
+     *         PropertyManager#getProperty(java.lang.String)} fails
+     * 
+     * @throws org.xml.sax.SAXException when {@link 
+     *         PropertyManager#getProperty(java.lang.String)} fails
+     */
+    public String getFilename(RSAPublicKey key) 
+        throws IOException, ParserConfigurationException, SAXException {
+        String filename = 
+            PropertyManager.getProperty("tokenfilepath") 
+            + "/" + Token.keyIdOf(key) + ".token";
+        
+        return filename;
+    }
+
+    /**
+     * @param filename of the snapshot of a <code>Token</code>, as given by
+     * {@link FileSystemTokenServiceImpl#getFilename(RSAPublicKey)}
+     * @return the filename of the log beside the snapshot
+     */
+    String getLogFilename(String filename) {
+        return filename.substring(0, filename.length() - ".token".length())
+            + ".log";
+    }
+
+    /**
+     * overrides {@link ITokenService#selectToken(RSAPublicKey)}
+     */
+    @Override
+    public Token selectToken(RSAPublicKey key) throws TokenServiceException {
+        String filename;
+        Token token = null;
+        
+        try {
+            this.open();
+            filename = this.getFilename(key);
+            this.migrate(key, filename);
+            try (ObjectInputStream input = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(filename)))) {
+                token = (Token) input.readObject();
+            }
+            File log = new File(this.getLogFilename(filename));
+            if (log.exists()) {
+                this.replay(token, log);
+            }
+        } 
+        
+        catch (IOException | ClassNotFoundException | 
+            ParserConfigurationException | SAXException e) {
+            throw new TokenServiceException(e.getMessage(), LOG, e);
+        }
+        
+        return token;
+    }
+
+    /**
+     * This renames the snapshot of the <code>Token</code> with the given key
+     * from its legacy key id, as given by
+     * {@link Token#legacyKeyIdOf(RSAPublicKey)}, to the given filename, when
+     * there is one and the <code>Token</code> has no snapshot there yet.
+     * Snapshots written before {@link Token#keyIdOf(RSAPublicKey)} are named
+     * after their legacy key id and have no log.
+     *
+     * @param key {@link RSAPublicKey} of the <code>Token</code>
+     * @param filename of its snapshot, as given by
+     * {@link FileSystemTokenServiceImpl#getFilename(RSAPublicKey)}
+     * @return true, if the <code>Token</code> has a snapshot at the filename
+     * @throws IOException when the snapshot cannot be renamed
+     */
+    private boolean migrate(RSAPublicKey key, String filename)
+        throws IOException {
+        Path file = Paths.get(filename);
+        if (Files.exists(file)) {
+            return true;
+        }
+        Path legacy = file.resolveSibling(
+            Token.legacyKeyIdOf(key) + ".token");
+        try {
+            Files.move(legacy, file, StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("renamed " + legacy + " to " + file);
+        } catch (NoSuchFileException e) {
+            // no legacy snapshot, or another thread renamed it first
+        }
+        return Files.exists(file);
+    }
+
+    /**
+     * This appends the <code>Block</code> of each record in the log to the
+     * given <code>Token</code>, stopping at a record cut short or at a length
+     * which does not fit in what is left of the file, as a torn tail may
+     * hold.
+     *
+     * @param token {@link Token} read from the snapshot
+     * @param log {@link File} of records appended since the snapshot
+     * @throws IOException when the log cannot be read or a record does not
+     * belong to the <code>Token</code>
+     */
+    private void replay(Token token, File log) throws IOException {
+        long left = log.length();
+        try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(log)))) {
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    left -= 4;
+                    if (length < 0 || length > left) {
+                        LOG.warn("replay ignored a record of length " + length
+                            + " with " + left + " bytes left in " + log);
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    left -= length;
+                } catch (EOFException e) {
+                    break;
+                }
+                token.restoreBlock(record);
+            }
+        }
+    }
+
+    /**
+     * @return the number of records appended to a log before it is
+     * compacted, read from the <code>tokenlogcompaction</code> property
+     */
+    private int compaction() {
+        if (compaction == 0) {
+            compaction = property("tokenlogcompaction", DEFAULT_COMPACTION);
+        }
+        return compaction;
+    }
+
+    /**
+     * This opens the write-ahead log of the <code>tokenfilepath</code>
+     * directory the first time any instance of this service uses it, after
+     * appending the records left in it by a crash to the logs of their
+     * <code>Token</code> objects.
+     *
+     * @return the {@link WriteAheadLog} of the directory
+     * @throws IOException when the log cannot be opened or recovered
+     * @throws ParserConfigurationException when the properties cannot be read
+     * @throws SAXException when the properties cannot be read
+     */
+    private WriteAheadLog open()
+        throws IOException, ParserConfigurationException, SAXException {
+        WriteAheadLog result = this.wal;
+        if (result == null) {
+            File directory = new File(
+                PropertyManager.getProperty("tokenfilepath"));
+            try {
+                result = WALS.computeIfAbsent(directory.getCanonicalPath(),
+                    path -> {
+                        try {
+                            return recover(directory);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            this.wal = result;
+        }
+        return result;
+    }
+
+    /**
+     * This opens the write-ahead log of the given directory and appends each
+     * record left in it to the log of its <code>Token</code>, after cutting
+     * off any record which a crash left incomplete there. Records already in
+     * a log are skipped when it is read.
+     *
+     * @param directory {@link File} holding the <code>Token</code> files
+     * @return the {@link WriteAheadLog}, empty and ready for commits
+     * @throws IOException when the logs cannot be read or written
+     */
+    static WriteAheadLog recover(File directory) throws IOException {
+        directory.mkdirs();
+        WriteAheadLog result = new WriteAheadLog(
+            new File(directory, "tokens.wal"),
+            property("tokenwalbatch", DEFAULT_WAL_BATCH),
+            property("tokenwalmillis", DEFAULT_WAL_MILLIS),
+            WAL_CHECKPOINT_BYTES, FileSystemTokenServiceImpl::sync);
+        List<byte[]> entries = result.replay();
+        Set<String> repaired = new HashSet<>();
+        for (byte[] entry : entries) {
+            try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(entry))) {
+                String keyId = in.readUTF();
+                byte[] record = new byte[in.available()];
+                in.readFully(record);
+                File snapshot = new File(directory, keyId + ".token");
+                if (!snapshot.exists()) {
+                    continue;
+                }
+                String log = new File(directory, keyId + ".log").getPath();
+                if (repaired.add(log)) {
+                    repair(log);
+                }
+                DIRTY.add(log);
+                try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(log, true)))) {
+                    out.writeInt(record.length);
+                    out.write(record);
+                }
+            }
+        }
+        if (!entries.isEmpty()) {
+            LOG.info("recovered " + entries.size() + " records into "
+                + repaired.size() + " Token logs");
+            sync();
+            result.clear();
+        }
+        return result;
+    }
+
+    /**
+     * This cuts a log of records off after its last complete record.
+     *
+     * @param log filename of the log
+     * @throws IOException when the log cannot be read or truncated
+     */
+    private static void repair(String log) throws IOException {
+        if (!new File(log).exists()) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            long size = file.length();
+            long position = 0;
+            while (position + 4 <= size) {
+                file.seek(position);
+                int length = file.readInt();
+                if (length < 0 || position + 4 + length > size) {
+                    break;
+                }
+                position += 4 + length;
+            }
+            if (position < size) {
+                LOG.warn("cutting " + (size - position)
+                    + " bytes of an incomplete record off " + log);
+                file.setLength(position);
+            }
+        }
+    }
+
+    /**
+     * This forces to disk each log of a <code>Token</code> written since the
+     * last checkpoint. It is the {@link WriteAheadLog.Checkpoint} of every
+     * write-ahead log.
+     *
+     * @throws IOException when a log cannot be forced to disk
+     */
+    private static void sync() throws IOException {
+        Iterator<String> it = DIRTY.iterator();
+        while (it.hasNext()) {
+            String log = it.next();
+            it.remove();
+            try (FileChannel channel = FileChannel.open(Paths.get(log),
+                StandardOpenOption.WRITE)) {
+                channel.force(false);
+            } catch (NoSuchFileException e) {
+                // compacted into a snapshot, which was forced to disk
+            } catch (IOException e) {
+                DIRTY.add(log);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @param keyId of the <code>Token</code> of the record
+     * @param record of a <code>Block</code>
+     * @return the entry of the write-ahead log for the record
+     */
+    private static byte[] walEntry(String keyId, byte[] record)
+        throws IOException {
+        ByteArrayOutputStream bytes
+            = new ByteArrayOutputStream(record.length + 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(keyId);
+            out.write(record);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param name of an integer property
+     * @param fallback used when the property is missing or not a number
+     * @return the value of the property, at least 1
+     */
+    private static int property(String name, int fallback) {
+        int value = fallback;
+        try {
+            String property = PropertyManager.getProperty(name);
+            if (property != null) {
+                value = Math.max(1, Integer.parseInt(property));
+            }
+        } catch (IOException | SAXException | ParserConfigurationException
+            | NumberFormatException ex) {
+            LOG.warn(name + " unavailable, using " + value + ": "
+                + ex.getMessage());
+        }
+        return value;
+    }
+
+    /**
+     * This is what the files of one <code>Token</code> hold, as written by
+     * this service.
+     */
+    private static final class LogState {
+
+        /** hash of the last <code>Block</code> written, or null if unknown */
+        private String lastHash;
+
+        /** number of records in the log */
+        private int records;
+    }
+}
@@ -27,7 +27,11 @@ import com.greentree.model.domain.Token;
 import com.greentree.model.exception.TokenServiceException;
 import com.greentree.model.services.factory.HibernateSessionFactory;
 import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hibernate.Session;
@@ -44,6 +48,13 @@ public class HibernateTokenServiceImpl implements ITokenService {
     /** log4j 2 logger */
     private static final Logger LOGGER = LogManager.getLogger();
 
+    /**
+     * {@link HibernateTokenServiceImpl#commitAll(Collection)} flushes the
+     * session after this many <code>Token</code> objects, matching
+     * <code>hibernate.jdbc.batch_size</code> in hibernate.cfg.xml.
+     */
+    private static final int BATCH_SIZE = 50;
+
     @Override
     public boolean commit(Token token) throws TokenServiceException {
         boolean result = false;
@@ -63,11 +74,47 @@ public class HibernateTokenServiceImpl implements ITokenService {
         return result;
     };
 
+    /**
+     * overrides {@link ITokenService#commitAll(Collection)} by saving every
+     * <code>Token</code> in one session and one transaction. The session is
+     * flushed and cleared after each {@link HibernateTokenServiceImpl#BATCH_SIZE}
+     * <code>Token</code> objects, so that their statements go out as JDBC
+     * batches and the session does not hold every <code>Token</code> at once.
+     */
+    @Override
+    public boolean commitAll(Collection<Token> tokens)
+        throws TokenServiceException {
+        boolean result = false;
+        Session sess = null;
+        Transaction tx = null;
+        try {
+            sess = HibernateSessionFactory.currentSession();
+            tx = sess.beginTransaction();
+            int count = 0;
+            for (Token token : tokens) {
+                sess.saveOrUpdate(token);
+                if (++count % BATCH_SIZE == 0) {
+                    sess.flush();
+                    sess.clear();
+                }
+            }
+            tx.commit();
+            result = tx.getStatus() == TransactionStatus.COMMITTED;
+        } catch (Exception e) {
+            LOGGER.error(e.getMessage());
+            if (tx != null && tx.isActive()) {
+                tx.rollback();
+            }
+        } finally {
+            if (sess != null) { sess.close(); }
+        }
+        return result;
+    }
+
     @Override
     public Token selectToken(RSAPublicKey key) throws TokenServiceException {
         Token result = null;
-        String keyId = String.valueOf(key.getModulus());
-        keyId = keyId.substring(0, 9) + keyId.substring(keyId.length() - 9);
+        String keyId = Token.keyIdOf(key);
         Session sess = null;
         Transaction tx;
         try {
@@ -81,6 +128,11 @@ public class HibernateTokenServiceImpl implements ITokenService {
             List resultList = sess.createQuery(query)
                 .setParameter("keyId", keyId)
                 .list();
+            if (resultList.isEmpty() && migrate(sess, key)) {
+                resultList = sess.createQuery(query)
+                    .setParameter("keyId", keyId)
+                    .list();
+            }
             
             for (Token tk : (List<Token>) resultList) {
                 if (tk instanceof Token) {
@@ -111,4 +163,89 @@ public class HibernateTokenServiceImpl implements ITokenService {
         }
         return result;
     };
+
+    /**
+     * overrides {@link ITokenService#selectTokens(Collection)} by reading
+     * every <code>Token</code> with one query on their keyIds. The rows of
+     * <code>Token</code> objects not found are then moved from their legacy
+     * keyIds, where there are any, and read as well.
+     */
+    @Override
+    public Map<String, Token> selectTokens(Collection<RSAPublicKey> keys)
+        throws TokenServiceException {
+        Map<String, Token> result = new HashMap<>();
+        if (keys.isEmpty()) {
+            return result;
+        }
+        List<String> keyIds = new ArrayList<>(keys.size());
+        for (RSAPublicKey key : keys) {
+            keyIds.add(Token.keyIdOf(key));
+        }
+        Session sess = null;
+        Transaction tx;
+        try {
+            sess = HibernateSessionFactory.currentSession();
+            tx = sess.beginTransaction();
+
+            List<Token> resultList = sess
+                .createQuery("from Token t where t.keyId in (:keyIds)",
+                    Token.class)
+                .setParameterList("keyIds", keyIds)
+                .list();
+            for (Token tk : resultList) {
+                result.put(tk.getKeyId(), tk);
+            }
+            keyIds.clear();
+            for (RSAPublicKey key : keys) {
+                String keyId = Token.keyIdOf(key);
+                if (!result.containsKey(keyId) && migrate(sess, key)) {
+                    keyIds.add(keyId);
+                }
+            }
+            if (!keyIds.isEmpty()) {
+                for (Token tk : sess
+                    .createQuery("from Token t where t.keyId in (:keyIds)",
+                        Token.class)
+                    .setParameterList("keyIds", keyIds)
+                    .list()) {
+                    result.put(tk.getKeyId(), tk);
+                }
+            }
+
+            tx.commit();
+            LOGGER.debug(result.size() + " Tokens returned");
+        } catch (Exception e) {
+            LOGGER.error(e.getMessage());
+        } finally {
+            if (sess != null) {
+                sess.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This moves the row of the <code>Token</code> with the given key from
+     * its legacy keyId, as given by {@link Token#legacyKeyIdOf(RSAPublicKey)},
+     * to its keyId, when there is one.
+     *
+     * @param sess {@link Session} whose transaction is open
+     * @param key {@link RSAPublicKey} of the <code>Token</code>
+     * @return true, if a row was moved
+     */
+    private static boolean migrate(Session sess, RSAPublicKey key) {
+        String keyId = Token.keyIdOf(key);
+        String legacy = Token.legacyKeyIdOf(key);
+        int moved = sess
+            .createQuery("update Token t set t.keyId = :keyId "
+                + "where t.keyId = :legacy")
+            .setParameter("keyId", keyId)
+            .setParameter("legacy", legacy)
+            .executeUpdate();
+        if (moved > 0) {
+            LOGGER.info("moved Token row from keyId " + legacy + " to "
+                + keyId);
+        }
+        return moved > 0;
+    }
 }
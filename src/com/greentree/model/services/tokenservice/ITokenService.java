@@ -1,47 +1,98 @@
-package com.greentree.model.services.tokenservice;
-
-import java.security.interfaces.RSAPublicKey;
-import com.greentree.model.exception.TokenServiceException;
-import com.greentree.model.domain.Token;
-import com.greentree.model.services.IService;
-
-/**
- * This is the separated interface class used for saving and loading
- * <code>{@link Token}</code> objects from storage services as defined by
- * implementation classes.
- *
- * @author david5MX53G
- *
- */
-public interface ITokenService extends IService {
-
-    /**
-     * This is used by the <code>{@link ServiceFactory}</code> to build this
-     * <code>{@link IService}</code>.
-     */
-    public final String NAME = "ITokenService";
-
-    /**
-     * Saves the token {@link com.greentree.model.domain.Token} to storage for
-     * later use.
-     *
-     * @param token {@link com.greentree.model.domain.Token} to be saved in
-     * storage
-     * @throws com.greentree.model.exception.TokenServiceException when
-     * the underlying implementation class has trouble.
-     */
-    public boolean commit(Token token) throws TokenServiceException;
-
-    /**
-     * Finds the <code>Token</code> matching the given <code>RSAPublickey</code>
-     * in storage and returns it.
-     *
-     * @param key used to locate the <code>Token</code>
-     * @return the {@link com.greentree.model.domain.Token} corresponding with
-     * the given {@link java.security.interfaces.RSAPublicKey}
-     *
-     * @throws com.greentree.model.exception.TokenServiceException when
-     * the underlying implementation class has trouble.
-     */
-    public Token selectToken(RSAPublicKey key) throws TokenServiceException;
-}
+package com.greentree.model.services.tokenservice;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import com.greentree.model.exception.TokenServiceException;
+import com.greentree.model.domain.Token;
+import com.greentree.model.services.IService;
+
+/**
+ * This is the separated interface class used for saving and loading
+ * <code>{@link Token}</code> objects from storage services as defined by
+ * implementation classes.
+ *
+ * @author david5MX53G
+ *
+ */
+public interface ITokenService extends IService {
+
+    /**
+     * This is used by the <code>{@link ServiceFactory}</code> to build this
+     * <code>{@link IService}</code>.
+     */
+    public final String NAME = "ITokenService";
+
+    /**
+     * Saves the token {@link com.greentree.model.domain.Token} to storage for
+     * later use.
+     *
+     * @param token {@link com.greentree.model.domain.Token} to be saved in
+     * storage
+     * @throws com.greentree.model.exception.TokenServiceException when
+     * the underlying implementation class has trouble.
+     */
+    public boolean commit(Token token) throws TokenServiceException;
+
+    /**
+     * Saves each of the given {@link com.greentree.model.domain.Token}
+     * objects to storage, as {@link ITokenService#commit(Token)} does for
+     * one. Implementations override this to store them together rather than
+     * paying a round trip and a transaction for each.
+     *
+     * @param tokens {@link Collection} of <code>Token</code> objects to be
+     * saved in storage
+     * @return true, if every <code>Token</code> was saved
+     * @throws com.greentree.model.exception.TokenServiceException when
+     * the underlying implementation class has trouble.
+     */
+    public default boolean commitAll(Collection<Token> tokens)
+        throws TokenServiceException {
+        boolean result = true;
+        for (Token token : tokens) {
+            result &= this.commit(token);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the <code>Token</code> matching the given <code>RSAPublickey</code>
+     * in storage and returns it.
+     *
+     * @param key used to locate the <code>Token</code>
+     * @return the {@link com.greentree.model.domain.Token} corresponding with
+     * the given {@link java.security.interfaces.RSAPublicKey}
+     *
+     * @throws com.greentree.model.exception.TokenServiceException when
+     * the underlying implementation class has trouble.
+     */
+    public Token selectToken(RSAPublicKey key) throws TokenServiceException;
+
+    /**
+     * Finds the <code>Token</code> matching each of the given
+     * <code>RSAPublicKey</code> objects in storage, as
+     * {@link ITokenService#selectToken(RSAPublicKey)} does for one.
+     * Implementations override this to read them together rather than one
+     * query or file at a time.
+     *
+     * @param keys {@link Collection} of keys used to locate the
+     * <code>Token</code> objects
+     * @return {@link Map} from the key id of each <code>Token</code> found, as
+     * given by {@link Token#keyIdOf(RSAPublicKey)}, to the <code>Token</code>
+     *
+     * @throws com.greentree.model.exception.TokenServiceException when
+     * the underlying implementation class has trouble.
+     */
+    public default Map<String, Token> selectTokens(
+        Collection<RSAPublicKey> keys) throws TokenServiceException {
+        Map<String, Token> result = new HashMap<>();
+        for (RSAPublicKey key : keys) {
+            Token token = this.selectToken(key);
+            if (token != null) {
+                result.put(token.getKeyId(), token);
+            }
+        }
+        return result;
+    }
+}
@@ -24,6 +24,7 @@
 package com.greentree.model.services.tokenservice;
 
 import com.greentree.model.exception.TokenServiceException;
+import com.greentree.model.domain.Block;
 import com.greentree.model.domain.Token;
 import com.greentree.model.services.manager.JDBCPoolManager;
 import java.beans.PropertyVetoException;
@@ -37,7 +38,17 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.logging.Level;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.xml.parsers.ParserConfigurationException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -48,6 +59,16 @@ import org.xml.sax.SAXException;
  * serialize and deserialize {@link com.greentree.model.domain.Token} from a
  * database.
  *
+ * The <code>token</code> table holds one row per <code>Token</code>: the
+ * <code>Token</code> serialized when it was first committed, and the height
+ * of the last {@link Block} in it. The <code>block</code> table holds a row
+ * for each <code>Block</code> added since, keyed by the keyId of the
+ * <code>Token</code> and the height of the <code>Block</code>, which is its
+ * position in the <code>blockChain</code>. Each row holds the record written
+ * by {@link Token#encodeBlock(Block)}. A commit inserts only the rows of the
+ * <code>Block</code> objects added since the last commit, in one batch, and
+ * a select reads them back with one range query on the primary key.
+ *
  * TODO: stop using the BLOB field type; storing binary data in the database
  * will drive your DBA up the wall for reasons including, but not limited to,
  * the fact that this data cannot be easily ported from one DBMS to another.
@@ -61,9 +82,74 @@ public class JDBCTokenServiceImpl implements ITokenService {
      */
     private static final Logger LOGGER = LogManager.getLogger();
 
+    /**
+     * This inserts the header of a <code>Token</code> committed for the first
+     * time.
+     */
+    private static final String SQL_INSERT_TOKEN
+        = "INSERT INTO token (keyId, height, token) VALUES (?, ?, ?)";
+
+    /**
+     * This inserts one <code>Block</code> of a <code>Token</code>.
+     */
+    private static final String SQL_INSERT_BLOCK
+        = "INSERT INTO block (keyId, height, record) VALUES (?, ?, ?)";
+
+    /**
+     * This finds the height of the last <code>Block</code> stored for a
+     * <code>Token</code>.
+     */
+    private static final String SQL_SELECT_HEIGHT
+        = "SELECT t.height, MAX(b.height) FROM token t "
+        + "LEFT JOIN block b ON b.keyId = t.keyId "
+        + "WHERE t.keyId = ? GROUP BY t.height";
+
+    /**
+     * This reads the header of a <code>Token</code>.
+     */
+    private static final String SQL_SELECT_TOKEN
+        = "SELECT token FROM token WHERE keyId = ?";
+
+    /**
+     * This moves the header of a <code>Token</code> from its legacy keyId to
+     * its keyId. Headers stored under a legacy keyId predate the
+     * <code>block</code> table, so they have no block rows.
+     */
+    private static final String SQL_MIGRATE_TOKEN
+        = "UPDATE token SET keyId = ? WHERE keyId = ?";
+
+    /**
+     * This reads the <code>Block</code> objects of a <code>Token</code> above
+     * the given height, in order.
+     */
+    private static final String SQL_SELECT_BLOCKS
+        = "SELECT record FROM block WHERE keyId = ? AND height > ? "
+        + "ORDER BY height";
+
+    /**
+     * {@link JDBCTokenServiceImpl#commitAll(Collection)} commits this many
+     * <code>Token</code> objects in each transaction.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * This maps the keyId of each <code>Token</code> committed through this
+     * service to the height of the last <code>Block</code> stored for it, so
+     * that a commit need not ask the database what it already holds.
+     */
+    private final ConcurrentMap<String, Height> heights
+        = new ConcurrentHashMap<>();
+
     /**
      * This method stores the given {@link com.greentree.model.domain.Token} in
-     * the database using a JDBC connection.
+     * the database using a JDBC connection. A <code>Token</code> seen for the
+     * first time is inserted whole; after that, only the <code>Block</code>
+     * objects added since the last commit are inserted. Either way the commit
+     * is one statement, run in its own transaction by the auto-commit of the
+     * connection, so it costs one round trip. Should a batch be split by the
+     * driver and fail part way, the rows stored are still a prefix of the
+     * chain: the stored height is forgotten and read again on the next
+     * commit, which inserts the rest.
      *
      * @param token {@link com.greentree.model.domain.Token} to be stored in the
      * database via JDBC
@@ -76,106 +162,358 @@ public class JDBCTokenServiceImpl implements ITokenService {
      */
     @Override
     public boolean commit(Token token) throws TokenServiceException {
-        boolean valid;
-        try {
-            valid = token.validate();
+        if (!token.validate()) {
+            LOGGER.error("Token param did not validate");
+            return false;
+        }
+        LOGGER.debug("Token is valid");
 
-            if (valid) {
-                LOGGER.debug("Token is valid");
-            } else {
-                valid = false;
-                LOGGER.error("Token param did not validate");
+        String keyId = this.getKeyId(token.getPublicKey());
+        Height height = heights.computeIfAbsent(keyId, k -> new Height());
+        height.lock.lock();
+        try {
+            try (Connection conn = JDBCPoolManager.getConn()) {
+                LOGGER.debug("JDBC Connection acquired");
+                try {
+                    int stored = height.value;
+                    if (stored >= 0) {
+                        stored = this.insertBlocks(conn, token, stored);
+                    } else {
+                        // a Token stored before this service saw it needs
+                        // its height read before its Blocks are inserted
+                        stored = this.insertToken(conn, token);
+                        if (stored < 0) {
+                            stored = this.insertBlocks(conn, token,
+                                this.selectHeight(conn, keyId));
+                        }
+                    }
+                    height.value = stored;
+                } catch (SQLException | IOException ex) {
+                    height.value = -1;
+                    throw ex;
+                }
+                LOGGER.debug("committed keyId " + keyId + " at height "
+                    + height.value);
+            } catch (IOException | SQLException | PropertyVetoException
+                | SAXException | ParserConfigurationException ex) {
+                throw new TokenServiceException(
+                    ex.getClass().getSimpleName() + " " + ex.getMessage(),
+                    LOGGER
+                );
             }
+        } finally {
+            height.lock.unlock();
+        }
+        return true;
+    }
 
-            // serialize the Token to a byte[]
-            byte[] byteArray = null;
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutputStream out = new ObjectOutputStream(bos);
-            out.writeObject(token);
-            out.flush();
-            byteArray = bos.toByteArray();
-            bos.close();
-            out.close();
-            
-            // serialize the byte[] in an InputStream
-            if (byteArray == null) {
-                LOGGER.error("failed to initialized byteArray");
+    /**
+     * overrides {@link ITokenService#commitAll(Collection)} by committing the
+     * given <code>Token</code> objects {@link JDBCTokenServiceImpl#BATCH_SIZE}
+     * at a time, each group in one transaction: one query reads the heights
+     * not yet known, one batch inserts the rows of the new <code>Token</code>
+     * objects and one batch inserts the new <code>Block</code> rows of the
+     * others.
+     *
+     * @return true, if every <code>Token</code> validated and was committed
+     * @throws TokenServiceException when the database gets in trouble, in
+     * which case the groups before the failing one stay committed
+     */
+    @Override
+    public boolean commitAll(Collection<Token> tokens)
+        throws TokenServiceException {
+        boolean result = true;
+        // sorted by keyId, so that groups lock their Tokens in the same order
+        TreeMap<String, Token> valid = new TreeMap<>();
+        for (Token token : tokens) {
+            if (token.validate()) {
+                valid.put(token.getKeyId(), token);
             } else {
-                LOGGER.debug("byte[] created from token");
+                LOGGER.error("Token " + token.getKeyId() + " did not validate");
+                result = false;
             }
+        }
 
-            ByteArrayInputStream boas = new ByteArrayInputStream(byteArray);
-            LOGGER.debug("ByteArrayInputStream created from Token");
-
-            Connection conn = JDBCPoolManager.getConn();
-            LOGGER.debug("JDBC Connection acquired");
-            conn.setAutoCommit(false);
-
-            // create a new keyId, if none exists
-            String sqlIns = "INSERT INTO token (keyId) VALUES (?) "
-                + "ON DUPLICATE KEY UPDATE keyId=keyId";
-
-            PreparedStatement stmtIns
-                = conn.prepareStatement(sqlIns);
+        List<Token> group = new ArrayList<>(BATCH_SIZE);
+        for (Token token : valid.values()) {
+            group.add(token);
+            if (group.size() == BATCH_SIZE) {
+                this.commitGroup(group);
+                group.clear();
+            }
+        }
+        if (!group.isEmpty()) {
+            this.commitGroup(group);
+        }
+        return result;
+    }
 
-            stmtIns.setString(
-                1, this.getKeyId(token.getPublicKey())
-            );
+    /**
+     * This commits the given <code>Token</code> objects in one transaction,
+     * holding the lock of each until it ends.
+     *
+     * @param group {@link List} of <code>Token</code> objects sorted by keyId
+     * @throws TokenServiceException when the database gets in trouble
+     */
+    private void commitGroup(List<Token> group) throws TokenServiceException {
+        List<Height> locked = new ArrayList<>(group.size());
+        try {
+            for (Token token : group) {
+                Height height = heights.computeIfAbsent(token.getKeyId(),
+                    k -> new Height());
+                height.lock.lock();
+                locked.add(height);
+            }
 
-            stmtIns.executeUpdate();
-            stmtIns.close();
+            try (Connection conn = JDBCPoolManager.getConn()) {
+                conn.setAutoCommit(false);
+                try {
+                    Map<String, Integer> stored = this.selectHeights(conn,
+                        group, locked);
+                    int[] committed = new int[group.size()];
+                    try (PreparedStatement tokenStmt
+                        = conn.prepareStatement(SQL_INSERT_TOKEN);
+                        PreparedStatement blockStmt
+                        = conn.prepareStatement(SQL_INSERT_BLOCK)) {
+                        boolean newTokens = false;
+                        boolean newBlocks = false;
+                        for (int i = 0; i < group.size(); i++) {
+                            Token token = group.get(i);
+                            Integer height = stored.get(token.getKeyId());
+                            if (height == null) {
+                                committed[i] = this.bindToken(tokenStmt, token);
+                                tokenStmt.addBatch();
+                                newTokens = true;
+                            } else {
+                                committed[i] = this.bindBlocks(blockStmt,
+                                    token, height);
+                                newBlocks |= committed[i] > height;
+                            }
+                        }
+                        if (newTokens) {
+                            tokenStmt.executeBatch();
+                        }
+                        if (newBlocks) {
+                            blockStmt.executeBatch();
+                        }
+                    }
+                    conn.commit();
+                    for (int i = 0; i < group.size(); i++) {
+                        locked.get(i).value = committed[i];
+                    }
+                } catch (SQLException | IOException ex) {
+                    conn.rollback();
+                    for (Height height : locked) {
+                        height.value = -1;
+                    }
+                    throw ex;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                LOGGER.debug("committed " + group.size() + " tokens");
+            } catch (IOException | SQLException | PropertyVetoException
+                | SAXException | ParserConfigurationException ex) {
+                throw new TokenServiceException(
+                    ex.getClass().getSimpleName() + " " + ex.getMessage(),
+                    LOGGER
+                );
+            }
+        } finally {
+            for (Height height : locked) {
+                height.lock.unlock();
+            }
+        }
+    }
 
-            conn.commit();
+    /**
+     * @param conn {@link Connection} to the database
+     * @param group {@link List} of <code>Token</code> objects
+     * @param heights {@link Height} of each <code>Token</code> in the group
+     * @return a map from the keyId of each <code>Token</code> in the database
+     * to the height of the last <code>Block</code> stored for it, reading
+     * with one query those not yet known
+     * @throws SQLException when the query fails
+     */
+    private Map<String, Integer> selectHeights(Connection conn,
+        List<Token> group, List<Height> heights) throws SQLException {
+        Map<String, Integer> result = new HashMap<>();
+        List<String> unknown = new ArrayList<>();
+        for (int i = 0; i < group.size(); i++) {
+            if (heights.get(i).value >= 0) {
+                result.put(group.get(i).getKeyId(), heights.get(i).value);
+            } else {
+                unknown.add(group.get(i).getKeyId());
+            }
+        }
+        if (unknown.isEmpty()) {
+            return result;
+        }
 
-            LOGGER.debug(
-                "keyId upsert complete "
-                + String.valueOf(
-                    this.getKeyId(token.getPublicKey())
-                )
-            );
+        String sql = "SELECT t.keyId, t.height, MAX(b.height) FROM token t "
+            + "LEFT JOIN block b ON b.keyId = t.keyId WHERE t.keyId IN ("
+            + String.join(", ", Collections.nCopies(unknown.size(), "?"))
+            + ") GROUP BY t.keyId, t.height";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < unknown.size(); i++) {
+                stmt.setString(i + 1, unknown.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int header = rs.getInt(2);
+                    int last = rs.getInt(3);
+                    result.put(rs.getString(1), rs.wasNull() ? header : last);
+                }
+            }
+        }
+        return result;
+    }
 
-            // update the new key record with Token binary
-            String sqlUpd = "UPDATE token SET token = ? WHERE keyId = ?";
+    /**
+     * @param conn {@link Connection} to the database
+     * @param keyId of the <code>Token</code>
+     * @return the height of the last <code>Block</code> stored for the
+     * <code>Token</code>
+     * @throws SQLException when the query fails or the <code>Token</code>
+     * has no row in the database
+     */
+    private int selectHeight(Connection conn, String keyId)
+        throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(SQL_SELECT_HEIGHT)) {
+            stmt.setString(1, keyId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("no token row for keyId " + keyId);
+                }
+                int header = rs.getInt(1);
+                int last = rs.getInt(2);
+                return rs.wasNull() ? header : last;
+            }
+        }
+    }
 
-            PreparedStatement stmtUpd = conn.prepareStatement(sqlUpd);
-            stmtUpd.setBinaryStream(1, boas);
+    /**
+     * This inserts the row of a <code>Token</code> committed for the first
+     * time, holding the whole <code>Token</code>.
+     *
+     * @param conn {@link Connection} to the database
+     * @param token {@link Token} to insert
+     * @return the height of the last <code>Block</code> inserted, or -1 when
+     * the <code>Token</code> already has a row
+     * @throws SQLException when the insert fails
+     * @throws IOException when the <code>Token</code> cannot be serialized
+     */
+    private int insertToken(Connection conn, Token token)
+        throws SQLException, IOException {
+        int height;
+        try (PreparedStatement stmt = conn.prepareStatement(SQL_INSERT_TOKEN)) {
+            height = this.bindToken(stmt, token);
+            stmt.executeUpdate();
+        } catch (SQLIntegrityConstraintViolationException ex) {
+            LOGGER.debug("token row exists for keyId " + token.getKeyId());
+            return -1;
+        }
+        LOGGER.debug("token row inserted for keyId " + token.getKeyId());
+        return height;
+    }
 
-            stmtUpd.setString(
-                2, this.getKeyId(token.getPublicKey())
-            );
+    /**
+     * This inserts a row for each <code>Block</code> above the given height,
+     * in one batch.
+     *
+     * @param conn {@link Connection} to the database
+     * @param token {@link Token} whose <code>Block</code> objects are inserted
+     * @param stored height of the last <code>Block</code> already stored,
+     * which must not be -1
+     * @return the height of the last <code>Block</code> stored
+     * @throws SQLException when the insert fails
+     * @throws IOException when a <code>Block</code> cannot be encoded
+     */
+    private int insertBlocks(Connection conn, Token token, int stored)
+        throws SQLException, IOException {
+        int height;
+        try (PreparedStatement stmt = conn.prepareStatement(SQL_INSERT_BLOCK)) {
+            height = this.bindBlocks(stmt, token, stored);
+            if (height > stored) {
+                stmt.executeBatch();
+            }
+        }
+        LOGGER.debug((height - stored) + " block rows inserted for keyId "
+            + token.getKeyId());
+        return height;
+    }
 
-            stmtUpd.executeUpdate();
+    /**
+     * This sets the parameters of {@link JDBCTokenServiceImpl#SQL_INSERT_TOKEN}
+     * to the row of the given <code>Token</code>.
+     *
+     * @param stmt {@link PreparedStatement} inserting a token row
+     * @param token {@link Token} to insert
+     * @return the height of the last <code>Block</code> in the row
+     * @throws SQLException when a parameter cannot be set
+     * @throws IOException when the <code>Token</code> cannot be serialized
+     */
+    private int bindToken(PreparedStatement stmt, Token token)
+        throws SQLException, IOException {
+        // serialize under the lock of the Token, so that its height matches
+        int height;
+        byte[] byteArray;
+        synchronized (token) {
+            height = token.getBlockChain().size() - 1;
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+                out.writeObject(token);
+            }
+            byteArray = bos.toByteArray();
+        }
+        LOGGER.debug("byte[] created from token");
 
-            conn.commit();
-            
-            stmtUpd.close();
-            conn.close();
-            boas.close();
+        stmt.setString(1, token.getKeyId());
+        stmt.setInt(2, height);
+        stmt.setBytes(3, byteArray);
+        return height;
+    }
 
-            LOGGER.debug("token binary upsert complete");
-        } catch (IOException | SQLException | PropertyVetoException 
-            | SAXException | ParserConfigurationException ex) {
-            valid = false;
-            throw new TokenServiceException(
-                ex.getClass().getSimpleName() + " " + ex.getMessage(),
-                LOGGER
-            );
+    /**
+     * This adds a row to the batch of {@link JDBCTokenServiceImpl#SQL_INSERT_BLOCK}
+     * for each <code>Block</code> above the given height.
+     *
+     * @param stmt {@link PreparedStatement} inserting block rows
+     * @param token {@link Token} whose <code>Block</code> objects are added
+     * @param stored height of the last <code>Block</code> already stored,
+     * which must not be -1
+     * @return the height of the last <code>Block</code> added
+     * @throws SQLException when a row cannot be added
+     * @throws IOException when a <code>Block</code> cannot be encoded
+     */
+    private int bindBlocks(PreparedStatement stmt, Token token, int stored)
+        throws SQLException, IOException {
+        int height = stored;
+        for (Block block : token.getBlocks(stored + 1, Integer.MAX_VALUE)) {
+            stmt.setString(1, token.getKeyId());
+            stmt.setInt(2, ++height);
+            stmt.setBytes(3, token.encodeBlock(block));
+            stmt.addBatch();
         }
-        return valid;
+        return height;
     }
 
     /**
      * This method retrieves a {@link com.greentree.model.domain.Token} from the
      * database using a {@link java.sql.DriverManager}. Many thanks are due to
      * java2s.com for the tutorial Storeandretrieveanobjectfromatable.htm.
+     * The <code>Token</code> is read from its row, then each
+     * <code>Block</code> stored since is appended to it in order. A row
+     * stored under the legacy keyId of the <code>Token</code> is moved to its
+     * keyId first.
      *
      * @param key {@link RSAPublicKey} uniquely identifying the <code>Token
      * </code> to be returned
      *
      * @return <code>Token</code> corresponding with the given <code>
-     * RSAPublicKey</code>
+     * RSAPublicKey</code>, or null when there is none
      *
-     * @throws TokenServiceException
+     * @throws TokenServiceException when the database or a record cannot be
+     * read
      */
     @Override
     public Token selectToken(RSAPublicKey key) throws TokenServiceException {
@@ -185,40 +523,193 @@ public class JDBCTokenServiceImpl implements ITokenService {
 
         try (Connection conn = JDBCPoolManager.getConn()) {
             LOGGER.debug("Connection initialized");
-            String sql = "SELECT token FROM token WHERE keyId = ?";
-
-            try (PreparedStatement stmt
-                = conn.prepareStatement(sql)) {
-                LOGGER.debug("PreparedStatement initialized: " + sql);
-
-                stmt.setString(1, keyId);
-                ResultSet rs = stmt.executeQuery();
-                LOGGER.debug("ResultSet retrieved");
 
-                while (rs.next()) {
-                    byte[] st = (byte[]) rs.getObject(1);
-                    LOGGER.debug("byte[] initialized");
-
-                    try (ByteArrayInputStream baip
-                        = new ByteArrayInputStream(st)) {
-                        LOGGER.debug("ByteArrayInputStream initialized");
+            token = this.selectHeader(conn, keyId);
+            if (token == null && this.migrate(conn, key)) {
+                token = this.selectHeader(conn, keyId);
+            }
 
-                        try (ObjectInputStream ois
-                            = new ObjectInputStream(baip)) {
-                            token = (Token) ois.readObject();
-                            LOGGER.debug("Token initialized");
+            if (token != null) {
+                try (PreparedStatement stmt
+                    = conn.prepareStatement(SQL_SELECT_BLOCKS)) {
+                    stmt.setString(1, keyId);
+                    stmt.setInt(2, token.getBlockChain().size() - 1);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            token.restoreBlock(rs.getBytes(1));
                         }
                     }
                 }
             }
         } catch (ClassNotFoundException ex) {
             throw new TokenServiceException(ex.getMessage(), LOGGER, ex);
-        } catch (PropertyVetoException | IOException | SQLException | SAXException | ParserConfigurationException ex) {
-            java.util.logging.Logger.getLogger(JDBCTokenServiceImpl.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (PropertyVetoException | IOException | SQLException
+            | SAXException | ParserConfigurationException ex) {
+            throw new TokenServiceException(
+                ex.getClass().getSimpleName() + " " + ex.getMessage(),
+                LOGGER
+            );
+        }
+        return token;
+    }
+
+    /**
+     * This reads the <code>Token</code> in the header row of the given keyId.
+     *
+     * @param conn {@link Connection} to the database
+     * @param keyId of the <code>Token</code>
+     * @return the <code>Token</code> as first committed, or null when it has
+     * no row
+     * @throws SQLException when the query fails
+     * @throws IOException when the row cannot be read
+     * @throws ClassNotFoundException when the row cannot be deserialized
+     */
+    private Token selectHeader(Connection conn, String keyId)
+        throws SQLException, IOException, ClassNotFoundException {
+        Token token = null;
+        try (PreparedStatement stmt
+            = conn.prepareStatement(SQL_SELECT_TOKEN)) {
+            stmt.setString(1, keyId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    try (ObjectInputStream ois = new ObjectInputStream(
+                        new ByteArrayInputStream(rs.getBytes(1)))) {
+                        token = (Token) ois.readObject();
+                        LOGGER.debug("Token initialized");
+                    }
+                }
+            }
         }
         return token;
     }
 
+    /**
+     * This moves the header row of the <code>Token</code> with the given key
+     * from its legacy keyId, as given by
+     * {@link Token#legacyKeyIdOf(RSAPublicKey)}, to its keyId, when there is
+     * one.
+     *
+     * @param conn {@link Connection} to the database
+     * @param key {@link RSAPublicKey} of the <code>Token</code>
+     * @return true, if a row was moved
+     * @throws SQLException when the update fails
+     */
+    private boolean migrate(Connection conn, RSAPublicKey key)
+        throws SQLException {
+        String keyId = this.getKeyId(key);
+        String legacy = Token.legacyKeyIdOf(key);
+        try (PreparedStatement stmt
+            = conn.prepareStatement(SQL_MIGRATE_TOKEN)) {
+            stmt.setString(1, keyId);
+            stmt.setString(2, legacy);
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        LOGGER.info("moved token row from keyId " + legacy + " to " + keyId);
+        return true;
+    }
+
+    /**
+     * overrides {@link ITokenService#selectTokens(Collection)} by reading the
+     * given <code>Token</code> objects {@link JDBCTokenServiceImpl#BATCH_SIZE}
+     * at a time: one query with an IN list reads their token rows, and one
+     * more reads the block rows stored since, in order. The rows of
+     * <code>Token</code> objects not found are then moved from their legacy
+     * keyIds, where there are any, and read as well.
+     *
+     * @throws TokenServiceException when the database or a record cannot be
+     * read
+     */
+    @Override
+    public Map<String, Token> selectTokens(Collection<RSAPublicKey> keys)
+        throws TokenServiceException {
+        Map<String, Token> result = new HashMap<>();
+        List<String> group = new ArrayList<>(BATCH_SIZE);
+        try (Connection conn = JDBCPoolManager.getConn()) {
+            for (RSAPublicKey key : keys) {
+                group.add(this.getKeyId(key));
+                if (group.size() == BATCH_SIZE) {
+                    this.selectGroup(conn, group, result);
+                    group.clear();
+                }
+            }
+            if (!group.isEmpty()) {
+                this.selectGroup(conn, group, result);
+                group.clear();
+            }
+            for (RSAPublicKey key : keys) {
+                String keyId = this.getKeyId(key);
+                if (!result.containsKey(keyId) && this.migrate(conn, key)) {
+                    group.add(keyId);
+                }
+            }
+            if (!group.isEmpty()) {
+                this.selectGroup(conn, group, result);
+            }
+        } catch (ClassNotFoundException ex) {
+            throw new TokenServiceException(ex.getMessage(), LOGGER, ex);
+        } catch (PropertyVetoException | IOException | SQLException
+            | SAXException | ParserConfigurationException ex) {
+            throw new TokenServiceException(
+                ex.getClass().getSimpleName() + " " + ex.getMessage(),
+                LOGGER
+            );
+        }
+        return result;
+    }
+
+    /**
+     * This reads the <code>Token</code> objects of the given keyIds.
+     *
+     * @param conn {@link Connection} to the database
+     * @param keyIds {@link List} of keyIds to read
+     * @param result {@link Map} to which each <code>Token</code> found is
+     * added by its keyId
+     * @throws SQLException when a query fails
+     * @throws IOException when a record cannot be read
+     * @throws ClassNotFoundException when a token row cannot be deserialized
+     */
+    private void selectGroup(Connection conn, List<String> keyIds,
+        Map<String, Token> result)
+        throws SQLException, IOException, ClassNotFoundException {
+        String in = String.join(", ", Collections.nCopies(keyIds.size(), "?"));
+        Map<String, Token> found = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+            "SELECT keyId, token FROM token WHERE keyId IN (" + in + ")")) {
+            for (int i = 0; i < keyIds.size(); i++) {
+                stmt.setString(i + 1, keyIds.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    try (ObjectInputStream ois = new ObjectInputStream(
+                        new ByteArrayInputStream(rs.getBytes(2)))) {
+                        found.put(rs.getString(1), (Token) ois.readObject());
+                    }
+                }
+            }
+        }
+        if (found.isEmpty()) {
+            return;
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement(
+            "SELECT b.keyId, b.record FROM block b "
+            + "JOIN token t ON t.keyId = b.keyId "
+            + "WHERE b.keyId IN (" + in + ") AND b.height > t.height "
+            + "ORDER BY b.keyId, b.height")) {
+            for (int i = 0; i < keyIds.size(); i++) {
+                stmt.setString(i + 1, keyIds.get(i));
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    found.get(rs.getString(1)).restoreBlock(rs.getBytes(2));
+                }
+            }
+        }
+        result.putAll(found);
+    }
+
     /**
      * This method is used to look up {@link com.greentree.model.domain.Token}
      * objects in the database.
@@ -227,8 +718,20 @@ public class JDBCTokenServiceImpl implements ITokenService {
      * @return string uniquely identifying the given key
      */
     private String getKeyId(RSAPublicKey key) {
-        String result = String.valueOf(key.getModulus());
-        result = result.substring(0, 9) + result.substring(result.length() - 9);
-        return result;
+        return Token.keyIdOf(key);
+    }
+
+    /**
+     * This is the height of the last <code>Block</code> stored for one
+     * <code>Token</code>, or -1 when it is not known. Commits of the
+     * <code>Token</code> hold its lock.
+     */
+    private static final class Height {
+
+        /** held while the <code>Token</code> is committed */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** height of the last <code>Block</code> stored */
+        private int value = -1;
     }
 }
@@ -0,0 +1,553 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.model.services.tokenservice;
+
+import com.greentree.model.domain.Block;
+import com.greentree.model.domain.Token;
+import com.greentree.model.exception.TokenServiceException;
+import com.greentree.model.services.manager.PropertyManager;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.xml.parsers.ParserConfigurationException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.xml.sax.SAXException;
+
+/**
+ * Implements <code>{@link ITokenService}</code> with a few large, memory-mapped
+ * segment files under the <code>tokenfilepath</code> directory, instead of one
+ * file per {@link Token}. Each segment is allocated at the size given by the
+ * <code>tokensegmentsize</code> property and filled with entries one after
+ * another. An entry is either a snapshot of a whole <code>Token</code> or the
+ * record of one {@link Block} added since, written by
+ * {@link Token#encodeBlock(Block)}. After the number of records given by the
+ * <code>tokenlogcompaction</code> property, the next commit writes a new
+ * snapshot.
+ * <p>
+ * An in-memory index maps the key id of each <code>Token</code> to the
+ * positions of its latest snapshot and later records. The index and the
+ * segments are kept per directory and shared by every instance of this
+ * service, as the {@link com.greentree.model.services.factory.ServiceFactory}
+ * builds a new one each time. The index is rebuilt by scanning the segments
+ * the first time any instance uses the directory. Each entry is forced to
+ * disk before its length is written and forced in turn, so the scan stops at
+ * an entry cut short by a crash, and the next entry is written over it.
+ * <p>
+ * Entries replaced by a newer snapshot are not reclaimed; the segments only
+ * grow.
+ *
+ * @author david5MX53G
+ */
+public class MappedSegmentTokenServiceImpl implements ITokenService {
+
+    /**
+     * {@link org.apache.logging.log4j.Logger} is for logging logs to the log
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Segments are allocated at this many bytes when the
+     * <code>tokensegmentsize</code> property is missing.
+     */
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * This many records follow a snapshot before the next one is written when
+     * the <code>tokenlogcompaction</code> property is missing.
+     */
+    private static final int DEFAULT_COMPACTION = 256;
+
+    /**
+     * This marks an entry holding a whole <code>Token</code>.
+     */
+    private static final byte SNAPSHOT = 1;
+
+    /**
+     * This marks an entry holding one <code>Block</code>.
+     */
+    private static final byte BLOCK = 2;
+
+    /**
+     * This maps each directory to its segments.
+     */
+    private static final ConcurrentMap<String, Segments> SEGMENTS
+        = new ConcurrentHashMap<>();
+
+    /**
+     * This directory holds the segment files, or null until this service is
+     * first used.
+     */
+    private File directory;
+
+    /**
+     * This is the size of a new segment, in bytes.
+     */
+    private int segmentSize;
+
+    /**
+     * This many records follow a snapshot before the next one is written.
+     */
+    private int compaction;
+
+    /**
+     * These are the segments of the directory, or null until this service is
+     * first used.
+     */
+    private volatile Segments store;
+
+    /**
+     * This builds a service which reads its directory and sizes from the
+     * application properties when first used, as the
+     * {@link com.greentree.model.services.factory.ServiceFactory} requires.
+     */
+    public MappedSegmentTokenServiceImpl() {
+    }
+
+    /**
+     * This builds a service with the given directory and sizes. The segment
+     * size is ignored when another instance already uses the directory.
+     *
+     * @param directory {@link File} holding the segment files
+     * @param segmentSize of a new segment, in bytes
+     * @param compaction records which follow a snapshot before the next one
+     */
+    MappedSegmentTokenServiceImpl(File directory, int segmentSize,
+        int compaction) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compaction = compaction;
+    }
+
+    /**
+     * overrides {@link ITokenService#commit(Token)}
+     *
+     * @return boolean to indicate success or failure
+     * @throws com.greentree.model.exception.TokenServiceException when the
+     * segments cannot be opened
+     */
+    @Override
+    public boolean commit(Token token) throws TokenServiceException {
+        boolean result = false;
+        Segments segments = this.open();
+        if (token.validate() == false) {
+            LOG.error("commit(Token) could not validate Token");
+            return result;
+        }
+        String keyId = token.getKeyId();
+        Entries entries = segments.index.computeIfAbsent(keyId,
+            k -> new Entries());
+        synchronized (entries) {
+            try {
+                ArrayList<Block> added = entries.lastHash == null
+                    ? null : token.getBlocksSince(entries.lastHash);
+                if (added == null
+                    || (!added.isEmpty() && added.get(0).equals(Block.ROOT))
+                    || entries.records + added.size() > compaction) {
+                    ArrayList<Block> chain = token.getBlockChain();
+                    long at = segments.write(SNAPSHOT, keyId,
+                        serialize(token));
+                    entries.locations = new long[] {at};
+                    entries.lastHash = chain.get(chain.size() - 1).getHash();
+                    entries.records = 0;
+                } else if (!added.isEmpty()) {
+                    long[] locations = Arrays.copyOf(entries.locations,
+                        entries.locations.length + added.size());
+                    for (int i = 0; i < added.size(); i++) {
+                        locations[entries.locations.length + i]
+                            = segments.write(BLOCK, keyId,
+                                token.encodeBlock(added.get(i)));
+                    }
+                    entries.locations = locations;
+                    entries.lastHash = added.get(added.size() - 1).getHash();
+                    entries.records += added.size();
+                }
+                result = true;
+            } catch (IOException e) {
+                entries.lastHash = null;
+                LOG.error("Error writing Token " + keyId + " to segment: "
+                    + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * overrides {@link ITokenService#selectToken(RSAPublicKey)}
+     */
+    @Override
+    public Token selectToken(RSAPublicKey key) throws TokenServiceException {
+        Segments segments = this.open();
+        String keyId = Token.keyIdOf(key);
+        Entries entries = segments.index.get(keyId);
+        long[] locations = entries == null ? null : entries.locations;
+        if (locations == null) {
+            throw new TokenServiceException(
+                "no Token stored for key id " + keyId, LOG);
+        }
+        Token token;
+        try (ObjectInputStream in = new ObjectInputStream(
+            new BufferInputStream(segments.body(locations[0])))) {
+            token = (Token) in.readObject();
+            for (int i = 1; i < locations.length; i++) {
+                ByteBuffer body = segments.body(locations[i]);
+                byte[] record = new byte[body.remaining()];
+                body.get(record);
+                token.restoreBlock(record);
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new TokenServiceException(e.getMessage(), LOG, e);
+        }
+        return token;
+    }
+
+    /**
+     * This reads the properties and finds the segments of the directory the
+     * first time this service is used, mapping the segments and rebuilding
+     * their index the first time any instance uses the directory.
+     *
+     * @return the {@link Segments} of the directory
+     * @throws TokenServiceException when the properties cannot be read or a
+     * segment cannot be mapped
+     */
+    private Segments open() throws TokenServiceException {
+        Segments result = this.store;
+        if (result != null) {
+            return result;
+        }
+        synchronized (this) {
+            if (this.store != null) {
+                return this.store;
+            }
+            try {
+                if (directory == null) {
+                    directory = new File(
+                        PropertyManager.getProperty("tokenfilepath"));
+                    segmentSize = property("tokensegmentsize",
+                        DEFAULT_SEGMENT_SIZE);
+                    compaction = property("tokenlogcompaction",
+                        DEFAULT_COMPACTION);
+                }
+                result = SEGMENTS.computeIfAbsent(directory.getCanonicalPath(),
+                    path -> {
+                        try {
+                            return new Segments(directory, segmentSize);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            } catch (UncheckedIOException e) {
+                throw new TokenServiceException(e.getCause().getMessage(),
+                    LOG, e.getCause());
+            } catch (IOException | ParserConfigurationException
+                | SAXException e) {
+                throw new TokenServiceException(e.getMessage(), LOG, e);
+            }
+            this.store = result;
+        }
+        return result;
+    }
+
+    /**
+     * This forgets the segments of the given directory, as a restart would,
+     * so that the next instance to use it scans them again. Instances which
+     * already use the directory keep their segments.
+     *
+     * @param directory {@link File} holding the segment files
+     * @throws IOException when the path of the directory cannot be resolved
+     */
+    static void close(File directory) throws IOException {
+        SEGMENTS.remove(directory.getCanonicalPath());
+    }
+
+    /**
+     * @param name of an integer property
+     * @param fallback used when the property is missing or not a number
+     * @return the value of the property, at least 1
+     */
+    private static int property(String name, int fallback) {
+        int value = fallback;
+        try {
+            String property = PropertyManager.getProperty(name);
+            if (property != null) {
+                value = Math.max(1, Integer.parseInt(property));
+            }
+        } catch (IOException | SAXException | ParserConfigurationException
+            | NumberFormatException ex) {
+            LOG.warn(name + " unavailable, using " + value + ": "
+                + ex.getMessage());
+        }
+        return value;
+    }
+
+    /**
+     * @return the given <code>Token</code>, serialized
+     */
+    private static byte[] serialize(Token token) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(token);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * These are the segment files of one directory and the index of their
+     * entries.
+     */
+    private static final class Segments {
+
+        /** the directory holding the segment files */
+        private final File directory;
+
+        /** the size of a new segment, in bytes */
+        private final int segmentSize;
+
+        /** the entries of each stored <code>Token</code>, by key id */
+        private final ConcurrentMap<String, Entries> index
+            = new ConcurrentHashMap<>();
+
+        /**
+         * the segments, in the order they were allocated; entries are only
+         * added to the last one
+         */
+        private final List<MappedByteBuffer> segments
+            = new CopyOnWriteArrayList<>();
+
+        /** where the next entry is written in the last segment */
+        private int position;
+
+        /**
+         * This maps the existing segments of the directory and rebuilds the
+         * index from their entries.
+         *
+         * @param directory {@link File} holding the segment files
+         * @param segmentSize of a new segment, in bytes
+         * @throws IOException when a segment cannot be mapped
+         */
+        private Segments(File directory, int segmentSize) throws IOException {
+            this.directory = directory;
+            this.segmentSize = segmentSize;
+            directory.mkdirs();
+            for (int i = 0;; i++) {
+                File file = new File(directory,
+                    String.format("segment-%06d.seg", i));
+                if (!file.exists()) {
+                    break;
+                }
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    segments.add(raf.getChannel().map(
+                        FileChannel.MapMode.READ_WRITE, 0, raf.length()));
+                }
+                this.scan(i);
+            }
+            LOG.debug("opened " + segments.size() + " segments holding "
+                + index.size() + " Tokens in " + directory);
+        }
+
+        /**
+         * This appends an entry to the last segment, allocating a new
+         * segment when it does not fit. The entry is forced to disk before
+         * its length is written, and the length is forced in turn.
+         *
+         * @param type {@link MappedSegmentTokenServiceImpl#SNAPSHOT} or
+         * {@link MappedSegmentTokenServiceImpl#BLOCK}
+         * @param keyId of the <code>Token</code> the entry belongs to
+         * @param body of the entry
+         * @return the location of the entry: the number of its segment in
+         * the high 32 bits and its offset in the low 32 bits
+         * @throws IOException when a new segment cannot be allocated
+         */
+        private synchronized long write(byte type, String keyId, byte[] body)
+            throws IOException {
+            byte[] id = keyId.getBytes(StandardCharsets.UTF_8);
+            int length = 1 + 2 + id.length + body.length;
+            MappedByteBuffer segment = segments.isEmpty()
+                ? null : segments.get(segments.size() - 1);
+            if (segment == null
+                || position + 4 + length + 4 > segment.capacity()) {
+                segment = this.allocate(Math.max(segmentSize,
+                    4 + length + 4));
+            }
+            int offset = position;
+            ByteBuffer buffer = segment.duplicate();
+            buffer.position(offset + 4);
+            buffer.put(type).putShort((short) id.length).put(id).put(body);
+            segment.force();
+            segment.putInt(offset, length);
+            segment.force();
+            position = offset + 4 + length;
+            return ((long) (segments.size() - 1) << 32) | offset;
+        }
+
+        /**
+         * @param location of an entry, as returned by
+         * {@link Segments#write(byte, String, byte[])}
+         * @return a {@link ByteBuffer} over the body of the entry, read
+         * straight from its segment
+         */
+        private ByteBuffer body(long location) {
+            MappedByteBuffer segment = segments.get((int) (location >>> 32));
+            int offset = (int) location;
+            int length = segment.getInt(offset);
+            ByteBuffer buffer = segment.duplicate();
+            buffer.position(offset + 4 + 1);
+            int id = buffer.getShort();
+            buffer.position(buffer.position() + id);
+            buffer.limit(offset + 4 + length);
+            return buffer.slice();
+        }
+
+        /**
+         * This maps a new segment file and makes it the last segment.
+         *
+         * @param size of the segment, in bytes
+         * @return the new segment
+         * @throws IOException when the file cannot be created or mapped
+         */
+        private MappedByteBuffer allocate(int size) throws IOException {
+            File file = new File(directory,
+                String.format("segment-%06d.seg", segments.size()));
+            MappedByteBuffer segment;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(size);
+                segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+                    0, size);
+            }
+            segments.add(segment);
+            position = 0;
+            LOG.debug("allocated segment " + file + " of " + size + " bytes");
+            return segment;
+        }
+
+        /**
+         * This adds the entries of one segment to the index, stopping at the
+         * first entry whose length was never written.
+         *
+         * @param number of the segment
+         */
+        private void scan(int number) {
+            MappedByteBuffer segment = segments.get(number);
+            int offset = 0;
+            while (offset + 4 <= segment.capacity()) {
+                int length = segment.getInt(offset);
+                if (length <= 0 || offset + 4 + length > segment.capacity()) {
+                    break;
+                }
+                byte type = segment.get(offset + 4);
+                byte[] id = new byte[segment.getShort(offset + 5)];
+                ByteBuffer buffer = segment.duplicate();
+                buffer.position(offset + 7);
+                buffer.get(id);
+                String keyId = new String(id, StandardCharsets.UTF_8);
+                long location = ((long) number << 32) | offset;
+
+                Entries entries = index.computeIfAbsent(keyId,
+                    k -> new Entries());
+                if (type == SNAPSHOT) {
+                    entries.locations = new long[] {location};
+                } else if (entries.locations != null) {
+                    long[] locations = Arrays.copyOf(entries.locations,
+                        entries.locations.length + 1);
+                    locations[locations.length - 1] = location;
+                    entries.locations = locations;
+                }
+                offset += 4 + length;
+            }
+            position = offset;
+        }
+    }
+
+    /**
+     * These are the entries of one <code>Token</code>.
+     */
+    private static final class Entries {
+
+        /**
+         * locations of the latest snapshot and the records after it, or null
+         * before the first snapshot; replaced rather than changed, so
+         * readers need no lock
+         */
+        private volatile long[] locations;
+
+        /** hash of the last <code>Block</code> written, or null if unknown */
+        private String lastHash;
+
+        /** number of records after the latest snapshot */
+        private int records;
+    }
+
+    /**
+     * This reads a {@link ByteBuffer} as an {@link InputStream}, so that a
+     * snapshot is deserialized straight from its segment.
+     */
+    private static final class BufferInputStream extends InputStream {
+
+        /** the bytes left to read */
+        private final ByteBuffer buffer;
+
+        /**
+         * @param buffer {@link ByteBuffer} to read
+         */
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return len == 0 ? 0 : -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.model.services.tokenservice;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class is a write-ahead log with group commit. Callers of
+ * {@link WriteAheadLog#append(List)} from many threads are collected into one
+ * batch, which a flusher thread writes and makes durable with a single
+ * <code>fsync</code>, either once the batch holds the configured number of
+ * entries or once the configured delay has passed since the first of them
+ * arrived. Each caller returns only after the batch holding its entries is
+ * durable, or gets the {@link IOException} which kept it from being so. A
+ * batch also stops waiting once as many callers are waiting as were in the
+ * previous batch, so a lone caller is not delayed and a steady group of
+ * callers is written as soon as all of them are back.
+ * <p>
+ * Each entry is written with its length and a CRC32 of its bytes, so
+ * {@link WriteAheadLog#replay()} stops at an entry cut short by a crash. Once
+ * the log grows past the checkpoint size, the flusher runs the
+ * {@link Checkpoint} given to the constructor, which must make durable
+ * whatever the entries so far describe, and then empties the log.
+ *
+ * @author david5MX53G
+ */
+final class WriteAheadLog implements AutoCloseable {
+
+    /**
+     * log4j Logger for logging logs to the log
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Each entry starts with its length and CRC32, taking this many bytes.
+     */
+    private static final int HEADER = 4 + 8;
+
+    /**
+     * This makes durable whatever the entries of the log describe, so that
+     * the log can be emptied.
+     */
+    interface Checkpoint {
+
+        /**
+         * @throws IOException when the data cannot be made durable; the log
+         * is then kept
+         */
+        void sync() throws IOException;
+    }
+
+    /**
+     * This holds the entries of one caller until they are durable.
+     */
+    private static final class Pending {
+
+        /** entries to write */
+        private final List<byte[]> entries;
+
+        /** completed once the entries are durable */
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        /**
+         * @param entries to write
+         */
+        private Pending(List<byte[]> entries) {
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * This is the log file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * This makes the log redundant before it is emptied.
+     */
+    private final Checkpoint checkpoint;
+
+    /**
+     * A batch is written once it holds this many entries.
+     */
+    private final int maxBatch;
+
+    /**
+     * A batch is written once its first entry has waited this long.
+     */
+    private final long maxDelayNanos;
+
+    /**
+     * The log is emptied by a checkpoint once it holds this many bytes.
+     */
+    private final long checkpointBytes;
+
+    /**
+     * These callers wait for the next batch. Guarded by this.
+     */
+    private List<Pending> queue = new ArrayList<>();
+
+    /**
+     * This is the number of entries in the queue. Guarded by this.
+     */
+    private int queued;
+
+    /**
+     * This is the number of callers in the previous batch. Guarded by this.
+     */
+    private int lastCallers = 1;
+
+    /**
+     * This is true once the log is closed. Guarded by this.
+     */
+    private boolean closed;
+
+    /**
+     * This writes the batches.
+     */
+    private final Thread flusher;
+
+    /**
+     * These count the batches made durable and the entries in them. They are
+     * only written by the flusher.
+     */
+    private volatile long syncs;
+    private volatile long entries;
+
+    /**
+     * This opens the log, keeping the entries already in it for
+     * {@link WriteAheadLog#replay()}, and starts the flusher.
+     *
+     * @param file {@link File} of the log
+     * @param maxBatch entries after which a batch is written at once
+     * @param maxDelayMillis milliseconds after which a batch is written
+     * @param checkpointBytes size after which the log is emptied
+     * @param checkpoint {@link Checkpoint} run before the log is emptied
+     * @throws IOException when the file cannot be opened
+     */
+    WriteAheadLog(File file, int maxBatch, long maxDelayMillis,
+        long checkpointBytes, Checkpoint checkpoint) throws IOException {
+        this.channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(
+            Math.max(0, maxDelayMillis));
+        this.checkpointBytes = checkpointBytes;
+        this.checkpoint = checkpoint;
+        this.flusher = new Thread(this::flush, "GreenTreeWriteAheadLog");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * This reads the complete entries in the log and drops anything after
+     * them. It must be called once, before the first
+     * {@link WriteAheadLog#append(List)}.
+     *
+     * @return the entries, oldest first
+     * @throws IOException when the log cannot be read
+     */
+    List<byte[]> replay() throws IOException {
+        List<byte[]> result = new ArrayList<>();
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        CRC32 crc = new CRC32();
+        while (position + HEADER <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            long sum = header.getLong();
+            if (length < 0 || position + HEADER + length > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            while (body.hasRemaining()) {
+                channel.read(body, position + HEADER + body.position());
+            }
+            crc.reset();
+            crc.update(body.array());
+            if (crc.getValue() != sum) {
+                break;
+            }
+            result.add(body.array());
+            position += HEADER + length;
+        }
+        if (position < size) {
+            LOG.warn("dropping " + (size - position)
+                + " bytes after the last complete entry of the log");
+            channel.truncate(position);
+        }
+        channel.position(position);
+        if (!flusher.isAlive()) {
+            flusher.start();
+        }
+        return result;
+    }
+
+    /**
+     * This empties the log, once whatever its entries describe is durable.
+     *
+     * @throws IOException when the log cannot be truncated
+     */
+    synchronized void clear() throws IOException {
+        channel.truncate(0);
+        channel.force(false);
+    }
+
+    /**
+     * This adds entries to the next batch and waits until it is durable.
+     *
+     * @param entries to write, in order
+     * @throws IOException when the batch could not be made durable or the
+     * log is closed
+     */
+    void append(List<byte[]> entries) throws IOException {
+        Pending pending = new Pending(entries);
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("write-ahead log is closed");
+            }
+            if (!flusher.isAlive()) {
+                flusher.start();
+            }
+            queue.add(pending);
+            queued += entries.size();
+            notifyAll();
+        }
+        try {
+            pending.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                "interrupted waiting for the write-ahead log");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException
+                ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * @return the number of batches made durable
+     */
+    long getSyncCount() {
+        return syncs;
+    }
+
+    /**
+     * @return the number of entries made durable
+     */
+    long getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * This writes the waiting batch, stops the flusher and closes the file.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            if (flusher.isAlive()) {
+                flusher.join();
+            }
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.warn("could not close the write-ahead log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * This is run by the flusher: it waits for a batch to fill or its delay
+     * to pass, writes it, forces it to disk and releases its callers.
+     */
+    private void flush() {
+        while (true) {
+            List<Pending> batch;
+            synchronized (this) {
+                try {
+                    while (queue.isEmpty() && !closed) {
+                        wait();
+                    }
+                    long deadline = System.nanoTime() + maxDelayNanos;
+                    long left;
+                    while (queued < maxBatch && queue.size() < lastCallers
+                        && !closed
+                        && (left = deadline - System.nanoTime()) > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+                batch = queue;
+                lastCallers = batch.size();
+                queue = new ArrayList<>();
+                queued = 0;
+            }
+            IOException failure = null;
+            try {
+                this.write(batch);
+            } catch (IOException e) {
+                LOG.error("write-ahead log failed: " + e.getMessage());
+                failure = e;
+            }
+            for (Pending pending : batch) {
+                if (failure == null) {
+                    pending.done.complete(null);
+                } else {
+                    pending.done.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+
+    /**
+     * This writes the entries of a batch, forces them to disk and runs a
+     * checkpoint once the log is big enough.
+     *
+     * @param batch callers whose entries to write
+     * @throws IOException when the log cannot be written or forced
+     */
+    private void write(List<Pending> batch) throws IOException {
+        int size = 0;
+        int count = 0;
+        for (Pending pending : batch) {
+            for (byte[] entry : pending.entries) {
+                size += HEADER + entry.length;
+                count++;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (Pending pending : batch) {
+            for (byte[] entry : pending.entries) {
+                crc.reset();
+                crc.update(entry);
+                buffer.putInt(entry.length).putLong(crc.getValue()).put(entry);
+            }
+        }
+        buffer.flip();
+        long start = channel.position();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            channel.truncate(start);
+            throw e;
+        }
+        syncs++;
+        entries += count;
+
+        if (channel.size() > checkpointBytes) {
+            try {
+                checkpoint.sync();
+                this.clear();
+            } catch (IOException e) {
+                LOG.warn("checkpoint failed, keeping the write-ahead log: "
+                    + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,609 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class encodes and decodes the binary wire protocol, the fast
+ * alternative to sending {@link GreenTreeRequest} commands through
+ * {@link java.io.ObjectOutputStream}. Every message is a frame: a 4-byte
+ * big-endian length followed by that many bytes of body.
+ * <p>
+ * A request body is a varint request id, a one-byte opcode and the arguments
+ * of the command. A response body is the varint id of its request, a
+ * one-byte status and the result. A client may send up to
+ * {@link GreenTreeBinaryProtocol#MAX_PIPELINE} requests before reading any
+ * reply, and must match replies to requests by id, since requests touching
+ * different {@link com.greentree.model.domain.Token} objects may finish in any
+ * order. A streamed request, such as {@link GreenTreeRequest#STREAM_DATA},
+ * is answered by any number of {@link GreenTreeBinaryProtocol#STATUS_MORE}
+ * frames followed by one final frame, all carrying its id.
+ * <p>
+ * Each argument or result is a one-byte type followed by its value: a
+ * boolean is one byte; a long is a zigzag varint; a {@link String} is a varint
+ * length followed by UTF-8 bytes; an {@link RSAPublicKey} is a varint length
+ * followed by its DER (X.509) encoding; a list is a varint count followed by
+ * its strings.
+ * <p>
+ * Since frames are far shorter than 16 MiB, the first byte of a binary
+ * connection is always 0, while an <code>ObjectOutputStream</code> always
+ * begins with 0xAC. The server tells the two protocols apart this way, so both
+ * share a port.
+ *
+ * @author david5MX53G
+ */
+final class GreenTreeBinaryProtocol {
+
+    /**
+     * Frames longer than this many bytes are refused.
+     */
+    static final int MAX_FRAME = 1 << 20;
+
+    /**
+     * The server stops reading from a client which has this many requests
+     * waiting for a reply.
+     */
+    static final int MAX_PIPELINE = 64;
+
+    /** the request succeeded; the result follows */
+    static final byte STATUS_OK = 0;
+
+    /** the request failed; a {@link String} describing why follows */
+    static final byte STATUS_ERROR = 1;
+
+    /**
+     * the server was too busy to run the request, which may be sent again
+     * later; a {@link String} describing why follows
+     */
+    static final byte STATUS_BUSY = 2;
+
+    /**
+     * part of the result of a streamed request follows; more frames with the
+     * same id follow it
+     */
+    static final byte STATUS_MORE = 3;
+
+    /** type of a null argument or result */
+    private static final byte TYPE_NULL = 0;
+
+    /** type of a {@link Boolean} argument or result */
+    private static final byte TYPE_BOOLEAN = 1;
+
+    /** type of a {@link Long} argument or result */
+    private static final byte TYPE_LONG = 2;
+
+    /** type of a {@link String} argument or result */
+    private static final byte TYPE_STRING = 3;
+
+    /** type of an {@link RSAPublicKey} argument or result */
+    private static final byte TYPE_KEY = 4;
+
+    /** type of a {@link List} of {@link String} argument or result */
+    private static final byte TYPE_LIST = 5;
+
+    /**
+     * These are the {@link GreenTreeRequest} commands, indexed by opcode.
+     * Opcodes must never be reused, so new commands are added at the end.
+     */
+    private static final String[] COMMANDS = {
+        GreenTreeRequest.CLOSE,
+        GreenTreeRequest.REGISTER_TOKEN_KEY,
+        GreenTreeRequest.REGISTER_SERVICE,
+        GreenTreeRequest.REGISTER_TOKEN,
+        GreenTreeRequest.GET_PUBLIC_KEY,
+        GreenTreeRequest.GET_DATA,
+        GreenTreeRequest.ADD_BLOCK,
+        GreenTreeRequest.GET_DATA_SINCE,
+        GreenTreeRequest.GET_DATA_PAGE,
+        GreenTreeRequest.STREAM_DATA
+    };
+
+    /**
+     * These are the argument types of each command, indexed by opcode.
+     */
+    private static final byte[][] ARGUMENTS = {
+        {},
+        {TYPE_KEY, TYPE_STRING},
+        {TYPE_STRING},
+        {TYPE_STRING},
+        {},
+        {TYPE_KEY},
+        {TYPE_STRING, TYPE_KEY, TYPE_LONG, TYPE_LONG},
+        {TYPE_KEY, TYPE_STRING},
+        {TYPE_KEY, TYPE_LONG, TYPE_LONG},
+        {TYPE_KEY}
+    };
+
+    /**
+     * {@link KeyFactory} is not thread-safe, so each thread keeps its own.
+     */
+    private static final ThreadLocal<KeyFactory> KEY_FACTORY
+        = ThreadLocal.withInitial(() -> {
+            try {
+                return KeyFactory.getInstance("RSA");
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+
+    /**
+     * This class only has static methods.
+     */
+    private GreenTreeBinaryProtocol() {}
+
+    /**
+     * @param first byte received on a new connection
+     * @return true, if the client speaks this protocol rather than
+     * {@link java.io.ObjectOutputStream}
+     */
+    static boolean isBinary(byte first) {
+        return first != (byte) 0xAC;
+    }
+
+    /**
+     * @param command one of the {@link GreenTreeRequest} commands
+     * @return the opcode of the command
+     * @throws IllegalArgumentException when the command has no opcode
+     */
+    static byte opcode(String command) {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            if (COMMANDS[i].equals(command)) {
+                return (byte) i;
+            }
+        }
+        throw new IllegalArgumentException("no opcode for " + command);
+    }
+
+    /**
+     * This reads one whole frame from a blocking stream.
+     *
+     * @param in {@link DataInputStream} from the other side
+     * @return the body of the frame
+     * @throws IOException when the stream fails, ends early, or announces a
+     * frame longer than {@link GreenTreeBinaryProtocol#MAX_FRAME}
+     */
+    static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return ByteBuffer.wrap(body);
+    }
+
+    /**
+     * This takes one whole frame from the front of a buffer which is being
+     * filled from a channel, if all of it has arrived.
+     *
+     * @param buffer {@link ByteBuffer} in write mode, i.e. its position is the
+     * number of bytes received
+     * @return the body of the frame, or null when more bytes are needed
+     * @throws IOException when the frame is longer than
+     * {@link GreenTreeBinaryProtocol#MAX_FRAME}
+     */
+    static ByteBuffer nextFrame(ByteBuffer buffer) throws IOException {
+        if (buffer.position() < 4) {
+            return null;
+        }
+        int length = buffer.getInt(0);
+        checkLength(length);
+        if (buffer.position() < 4 + length) {
+            return null;
+        }
+
+        byte[] body = new byte[length];
+        buffer.flip();
+        buffer.position(4);
+        buffer.get(body);
+        buffer.compact();
+        return ByteBuffer.wrap(body);
+    }
+
+    /**
+     * @param length announced by a frame
+     * @throws ProtocolException when the length is negative or too long
+     */
+    private static void checkLength(int length) throws ProtocolException {
+        if (length < 0 || length > MAX_FRAME) {
+            throw new ProtocolException("frame length " + length
+                + " exceeds " + MAX_FRAME + " bytes");
+        }
+    }
+
+    /**
+     * This decodes the body of a request frame.
+     *
+     * @param frame body of the frame
+     * @return the {@link GreenTreeRequest}
+     * @throws ProtocolException when the opcode is unknown or the arguments
+     * do not match it
+     */
+    static GreenTreeRequest decodeRequest(ByteBuffer frame)
+        throws ProtocolException {
+        try {
+            long id = readVarLong(frame);
+            int opcode = frame.get();
+            if (opcode < 0 || opcode >= COMMANDS.length) {
+                throw new ProtocolException("unknown opcode " + opcode);
+            }
+
+            byte[] types = ARGUMENTS[opcode];
+            Object[] args = new Object[types.length];
+            for (int i = 0; i < types.length; i++) {
+                byte type = frame.get();
+                if (type != types[i]) {
+                    throw new ProtocolException("argument " + i + " of "
+                        + COMMANDS[opcode] + " has type " + type);
+                }
+                args[i] = readValue(type, frame);
+            }
+            if (frame.hasRemaining()) {
+                throw new ProtocolException(frame.remaining()
+                    + " bytes left after " + COMMANDS[opcode]);
+            }
+
+            return new GreenTreeRequest(id, COMMANDS[opcode], true, args);
+        } catch (BufferUnderflowException ex) {
+            throw new ProtocolException("request frame ends early");
+        } catch (RuntimeException ex) {
+            // whatever else a malformed frame trips over is still malformed
+            throw new ProtocolException("malformed request frame: "
+                + ex.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * This encodes a request as a whole frame, ready to be written.
+     *
+     * @param id tagging the reply
+     * @param command one of the {@link GreenTreeRequest} commands
+     * @param args passed to the {@link GreenTreeRequest} command, in order
+     * @return {@link ByteBuffer} holding the frame
+     */
+    static ByteBuffer encodeRequest(long id, String command, Object... args) {
+        FrameWriter frame = new FrameWriter();
+        frame.writeVarLong(id);
+        frame.writeByte(opcode(command));
+        for (Object arg : args) {
+            frame.writeValue(arg);
+        }
+        return frame.finish();
+    }
+
+    /**
+     * This encodes the result of a successful request as a whole frame, or
+     * an error frame when the result would not fit in
+     * {@link GreenTreeBinaryProtocol#MAX_FRAME} bytes, since the client would
+     * refuse it.
+     *
+     * @param id of the request
+     * @param result returned by {@link GreenTreeRequest#execute}
+     * @return {@link ByteBuffer} holding the frame
+     */
+    static ByteBuffer encodeResponse(long id, Object result) {
+        FrameWriter frame = new FrameWriter();
+        frame.writeVarLong(id);
+        frame.writeByte(STATUS_OK);
+        frame.writeValue(result);
+        return fitting(id, frame.finish());
+    }
+
+    /**
+     * This encodes part of the result of a streamed request as a whole
+     * frame, or an error frame ending the stream when the part would not fit
+     * in {@link GreenTreeBinaryProtocol#MAX_FRAME} bytes.
+     *
+     * @param id of the request
+     * @param result part of what the request returned
+     * @return {@link ByteBuffer} holding the frame
+     */
+    static ByteBuffer encodePartial(long id, Object result) {
+        FrameWriter frame = new FrameWriter();
+        frame.writeVarLong(id);
+        frame.writeByte(STATUS_MORE);
+        frame.writeValue(result);
+        return fitting(id, frame.finish());
+    }
+
+    /**
+     * @param id of the request
+     * @param reply {@link ByteBuffer} holding a whole reply frame
+     * @return the reply, or an error frame pointing to
+     * {@link GreenTreeRequest#GET_DATA_PAGE} and
+     * {@link GreenTreeRequest#STREAM_DATA} when the reply is longer than
+     * {@link GreenTreeBinaryProtocol#MAX_FRAME} bytes
+     */
+    private static ByteBuffer fitting(long id, ByteBuffer reply) {
+        int length = reply.limit() - 4;
+        if (length <= MAX_FRAME) {
+            return reply;
+        }
+        return encodeError(id, STATUS_ERROR, "reply of " + length
+            + " bytes exceeds " + MAX_FRAME + " bytes; read it with "
+            + GreenTreeRequest.GET_DATA_PAGE + " or "
+            + GreenTreeRequest.STREAM_DATA);
+    }
+
+    /**
+     * This encodes a failed request as a whole frame.
+     *
+     * @param id of the request
+     * @param status why the request failed
+     * @param message describing the failure
+     * @return {@link ByteBuffer} holding the frame
+     */
+    static ByteBuffer encodeError(long id, byte status, String message) {
+        FrameWriter frame = new FrameWriter();
+        frame.writeVarLong(id);
+        frame.writeByte(status);
+        frame.writeValue(message);
+        return frame.finish();
+    }
+
+    /**
+     * This reads the request id of a response frame without consuming it, so
+     * that a client with several requests outstanding can tell which one the
+     * response answers before decoding it.
+     *
+     * @param frame body of the frame
+     * @return the id of the request
+     * @throws ProtocolException when the frame is malformed
+     */
+    static long responseId(ByteBuffer frame) throws ProtocolException {
+        try {
+            return readVarLong(frame.duplicate());
+        } catch (BufferUnderflowException ex) {
+            throw new ProtocolException("response frame ends early");
+        }
+    }
+
+    /**
+     * This tells, without consuming the frame, whether a response frame holds
+     * only part of the result of a streamed request.
+     *
+     * @param frame body of the frame
+     * @return true, if more frames with the same id follow
+     * @throws ProtocolException when the frame is malformed
+     */
+    static boolean isPartial(ByteBuffer frame) throws ProtocolException {
+        try {
+            ByteBuffer peek = frame.duplicate();
+            readVarLong(peek);
+            return peek.get() == STATUS_MORE;
+        } catch (BufferUnderflowException ex) {
+            throw new ProtocolException("response frame ends early");
+        }
+    }
+
+    /**
+     * This decodes the body of a response frame.
+     *
+     * @param frame body of the frame
+     * @return the result of the request, or part of it
+     * @throws IOException when the request failed or the frame is malformed
+     */
+    static Object decodeResponse(ByteBuffer frame) throws IOException {
+        try {
+            readVarLong(frame);
+            byte status = frame.get();
+            Object result = readValue(frame.get(), frame);
+            if (status != STATUS_OK && status != STATUS_MORE) {
+                throw new IOException("request failed with status " + status
+                    + ": " + result);
+            }
+            return result;
+        } catch (BufferUnderflowException ex) {
+            throw new ProtocolException("response frame ends early");
+        }
+    }
+
+    /**
+     * This reads one value of the given type.
+     */
+    private static Object readValue(byte type, ByteBuffer in)
+        throws ProtocolException {
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_BOOLEAN:
+                return in.get() != 0;
+            case TYPE_LONG:
+                long zigzag = readVarLong(in);
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            case TYPE_STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case TYPE_KEY:
+                try {
+                    return KEY_FACTORY.get().generatePublic(
+                        new X509EncodedKeySpec(readBytes(in))
+                    );
+                } catch (GeneralSecurityException | ClassCastException ex) {
+                    throw new ProtocolException("invalid RSA public key");
+                }
+            case TYPE_LIST:
+                int count = readLength(in);
+                ArrayList<String> list = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    list.add(new String(readBytes(in), StandardCharsets.UTF_8));
+                }
+                return list;
+            default:
+                throw new ProtocolException("unknown type " + type);
+        }
+    }
+
+    /**
+     * This reads a varint length followed by that many bytes.
+     */
+    private static byte[] readBytes(ByteBuffer in) throws ProtocolException {
+        byte[] bytes = new byte[readLength(in)];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * This reads a varint which must be neither negative, as a 10-byte
+     * varint may be, nor exceed the bytes left in the frame.
+     */
+    private static int readLength(ByteBuffer in) throws ProtocolException {
+        long length = readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new ProtocolException("length " + length
+                + " does not fit the frame");
+        }
+        return (int) length;
+    }
+
+    /**
+     * This reads an unsigned varint: seven bits per byte, least significant
+     * first, with the high bit set on every byte but the last.
+     */
+    private static long readVarLong(ByteBuffer in) throws ProtocolException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new ProtocolException("varint is too long");
+    }
+
+    /**
+     * This builds one frame in a growable array, leaving room at the front
+     * for the length, which {@link FrameWriter#finish()} fills in.
+     */
+    private static final class FrameWriter {
+
+        /**
+         * This holds the frame written so far.
+         */
+        private byte[] bytes = new byte[64];
+
+        /**
+         * This is the number of bytes written so far, including the length.
+         */
+        private int size = 4;
+
+        /**
+         * This makes room for <code>more</code> bytes.
+         */
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                byte[] larger = new byte[Math.max(bytes.length * 2,
+                    size + more)];
+                System.arraycopy(bytes, 0, larger, 0, size);
+                bytes = larger;
+            }
+        }
+
+        /**
+         * This writes one byte.
+         */
+        private void writeByte(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        /**
+         * This writes an unsigned varint.
+         */
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        /**
+         * This writes a varint length followed by the given bytes.
+         */
+        private void writeBytes(byte[] value) {
+            writeVarLong(value.length);
+            ensure(value.length);
+            System.arraycopy(value, 0, bytes, size, value.length);
+            size += value.length;
+        }
+
+        /**
+         * This writes the type of a value followed by the value itself.
+         *
+         * @throws IllegalArgumentException when the value has no type
+         */
+        private void writeValue(Object value) {
+            if (value == null) {
+                writeByte(TYPE_NULL);
+            } else if (value instanceof Boolean) {
+                writeByte(TYPE_BOOLEAN);
+                writeByte((Boolean) value ? 1 : 0);
+            } else if (value instanceof Long || value instanceof Integer) {
+                long l = ((Number) value).longValue();
+                writeByte(TYPE_LONG);
+                writeVarLong((l << 1) ^ (l >> 63));
+            } else if (value instanceof String) {
+                writeByte(TYPE_STRING);
+                writeBytes(((String) value).getBytes(StandardCharsets.UTF_8));
+            } else if (value instanceof RSAPublicKey) {
+                writeByte(TYPE_KEY);
+                writeBytes(((RSAPublicKey) value).getEncoded());
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                writeByte(TYPE_LIST);
+                writeVarLong(list.size());
+                for (Object item : list) {
+                    writeBytes(String.valueOf(item)
+                        .getBytes(StandardCharsets.UTF_8));
+                }
+            } else {
+                throw new IllegalArgumentException("cannot encode "
+                    + value.getClass().getName());
+            }
+        }
+
+        /**
+         * This fills in the length of the frame.
+         *
+         * @return {@link ByteBuffer} holding the whole frame, ready to write
+         */
+        private ByteBuffer finish() {
+            ByteBuffer frame = ByteBuffer.wrap(bytes, 0, size);
+            frame.putInt(0, size - 4);
+            return frame;
+        }
+    }
+}
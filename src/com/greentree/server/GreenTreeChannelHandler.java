@@ -0,0 +1,648 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.server;
+
+import com.greentree.model.business.manager.GreenTreeManager;
+import com.greentree.model.business.manager.GreenTreeSession;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.SequenceInputStream;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class does for one {@link SocketChannel} of the
+ * {@link GreenTreeSelectorServer} what {@link GreenTreeServerHandler} does for
+ * one {@link java.net.Socket}. It speaks the same two protocols, the
+ * {@link ObjectInputStream}/{@link ObjectOutputStream} one and
+ * {@link GreenTreeBinaryProtocol}, but never blocks: bytes are collected as
+ * they arrive and a {@link GreenTreeRequest} is parsed only once all of it is
+ * here, then run on a worker thread. Binary clients may pipeline requests,
+ * which a {@link GreenTreeRequestScheduler} runs concurrently where they touch
+ * different tokens. The connection stays open for further requests until the
+ * client sends {@link GreenTreeRequest#CLOSE}, closes its end, or goes idle.
+ * Every method except {@link GreenTreeChannelHandler#respond} runs on the
+ * owning {@link GreenTreeSelectorServer.IoLoop} thread.
+ *
+ * @author david5MX53G
+ */
+class GreenTreeChannelHandler {
+
+    /**
+     * This {@link org.apache.logging.log4j.Logger} is good for logging!
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * A streamed reply waits for its chunks to be written once this many
+     * are queued.
+     */
+    static final int MAX_QUEUED_CHUNKS = 2;
+
+    /**
+     * This is the header which begins every {@link ObjectOutputStream}. The
+     * client sends it once per connection, so it is put back in front of the
+     * buffered bytes each time a request is parsed.
+     */
+    private static final byte[] STREAM_HEADER = {
+        (byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8),
+        (byte) ObjectStreamConstants.STREAM_MAGIC,
+        (byte) (ObjectStreamConstants.STREAM_VERSION >>> 8),
+        (byte) ObjectStreamConstants.STREAM_VERSION
+    };
+
+    /**
+     * Requests larger than this many bytes are refused.
+     */
+    private static final int MAX_REQUEST
+        = GreenTreeBinaryProtocol.MAX_FRAME + 4;
+
+    /**
+     * An {@link ObjectOutputStream} request still incomplete after this many
+     * bytes is refused. Such a request carries no length, so it is parsed
+     * again from its first byte whenever more of it arrives; this bounds the
+     * work of parsing one.
+     */
+    static final int MAX_OBJECT_REQUEST = 64 * 1024;
+
+    /**
+     * This is the client connection.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * This registers {@link GreenTreeChannelHandler#channel} with the
+     * {@link java.nio.channels.Selector} of its I/O thread.
+     */
+    private final SelectionKey key;
+
+    /**
+     * This is the I/O thread which owns {@link GreenTreeChannelHandler#key}.
+     */
+    private final GreenTreeSelectorServer.IoLoop loop;
+
+    /**
+     * This runs requests off the I/O thread.
+     */
+    private final Executor workers;
+
+    /**
+     * This {@link GreenTreeManager} interfaces with all other layers of the
+     * application.
+     */
+    private final GreenTreeManager mngr;
+
+    /**
+     * This {@link GreenTreeSession} holds the <code>Token</code> registered
+     * over this connection.
+     */
+    private final GreenTreeSession session = new GreenTreeSession();
+
+    /**
+     * This runs the pipelined requests of a binary client.
+     */
+    private final GreenTreeRequestScheduler scheduler;
+
+    /**
+     * This collects bytes read from the client until a request is complete.
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+
+    /**
+     * These replies are waiting to be written back to the client, in order.
+     */
+    private final Deque<ByteBuffer> replies = new ArrayDeque<>();
+
+    /**
+     * These are the chunks of streamed replies among the
+     * {@link GreenTreeChannelHandler#replies}, told apart by identity. It is
+     * only used by the I/O thread.
+     */
+    private final Set<ByteBuffer> chunks
+        = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * A worker streaming a reply takes one permit for each chunk it queues,
+     * and each chunk written gives one back, so that no more than
+     * {@link GreenTreeChannelHandler#MAX_QUEUED_CHUNKS} chunks wait in memory
+     * for a slow client.
+     */
+    private final Semaphore chunkRoom = new Semaphore(MAX_QUEUED_CHUNKS);
+
+    /**
+     * This collects the bytes written by
+     * {@link GreenTreeChannelHandler#out}.
+     */
+    private final ByteArrayOutputStream replyBytes = new ByteArrayOutputStream();
+
+    /**
+     * This serializes every reply of the session, so the client can read them
+     * all with a single {@link ObjectInputStream}. It is only used by
+     * whichever thread is replying to the one request pending.
+     */
+    private ObjectOutputStream out;
+
+    /**
+     * This is true once the protocol of the client is known and, for an
+     * {@link ObjectOutputStream}, its stream header has been read.
+     */
+    private boolean started = false;
+
+    /**
+     * This is true when the client speaks {@link GreenTreeBinaryProtocol}.
+     */
+    private boolean binary = false;
+
+    /**
+     * This is how many bytes were collected when parsing a request last ran
+     * out of them, so that the same bytes are not parsed again, or 0.
+     */
+    private int incomplete = 0;
+
+    /**
+     * This is the number of requests read whose replies have not been
+     * written yet.
+     */
+    private int pending = 0;
+
+    /**
+     * This is true once the client has asked to close the connection; it is
+     * closed as soon as every pending reply has been written.
+     */
+    private boolean closing = false;
+
+    /**
+     * This is the time in milliseconds of the last read or write.
+     */
+    private long lastActive = System.currentTimeMillis();
+
+    /**
+     * This builds a handler for a newly accepted connection.
+     *
+     * @param channel {@link SocketChannel} to the client
+     * @param key {@link SelectionKey} of the <code>channel</code>
+     * @param loop {@link GreenTreeSelectorServer.IoLoop} owning the
+     * <code>key</code>
+     * @param workers {@link Executor} which runs requests
+     * @param mngr {@link GreenTreeManager} which handles requests
+     */
+    GreenTreeChannelHandler(SocketChannel channel, SelectionKey key,
+        GreenTreeSelectorServer.IoLoop loop, Executor workers,
+        GreenTreeManager mngr) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+        this.workers = workers;
+        this.mngr = mngr;
+        this.scheduler = new GreenTreeRequestScheduler(workers, session);
+    }
+
+    /**
+     * This is called by the I/O thread whenever the channel is ready to be
+     * read or written.
+     */
+    void ready() {
+        try {
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                write();
+            }
+        } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+            // only this connection is closed; the I/O thread serves the rest
+            LOG.error("ready() threw " + ex.getClass().getSimpleName() + ": "
+                + ex.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * @param now time in milliseconds
+     * @param idleTimeout milliseconds a session may go without a request
+     * @return true, if no request is pending and nothing has been read or
+     * written for longer than <code>idleTimeout</code>
+     */
+    boolean isIdle(long now, long idleTimeout) {
+        return pending == 0 && now - lastActive > idleTimeout;
+    }
+
+    /**
+     * This reads whatever the client has sent and hands every whole request
+     * to a worker thread.
+     */
+    private void read() throws IOException, ClassNotFoundException {
+        if (!readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= MAX_REQUEST) {
+                throw new IOException("request exceeds " + MAX_REQUEST
+                    + " bytes");
+            }
+            ByteBuffer larger = ByteBuffer.allocate(
+                Math.min(readBuffer.capacity() * 2, MAX_REQUEST)
+            );
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+
+        if (channel.read(readBuffer) < 0) {
+            closing = true;
+            closeIfDone();
+            return;
+        }
+        lastActive = System.currentTimeMillis();
+
+        if (!started) {
+            if (readBuffer.position() == 0) {
+                return;
+            }
+            binary = GreenTreeBinaryProtocol.isBinary(readBuffer.get(0));
+            if (!binary) {
+                if (readBuffer.position() < STREAM_HEADER.length) {
+                    return;
+                }
+                for (int i = 0; i < STREAM_HEADER.length; i++) {
+                    if (readBuffer.get(i) != STREAM_HEADER[i]) {
+                        throw new StreamCorruptedException(
+                            "invalid stream header"
+                        );
+                    }
+                }
+                consume(STREAM_HEADER.length);
+            }
+            started = true;
+        }
+
+        next();
+    }
+
+    /**
+     * This parses every whole request among the bytes read so far and hands
+     * each to a worker thread, until the client has as many requests pending
+     * as its protocol allows. An {@link ObjectOutputStream} client may only
+     * have one, since its replies carry no request id.
+     */
+    private void next() throws IOException, ClassNotFoundException {
+        int depth = binary ? GreenTreeBinaryProtocol.MAX_PIPELINE : 1;
+        while (!closing && pending < depth) {
+            GreenTreeRequest request = binary ? decode() : parse();
+            if (request == null) {
+                break;
+            }
+
+            if (request.isClose()) {
+                LOG.debug("next() client closed the session");
+                closing = true;
+            } else if (!request.isRecognized()) {
+                LOG.error("unrecognized command received: "
+                    + request.getCommand());
+                close();
+                return;
+            } else {
+                pending++;
+                if (binary) {
+                    scheduler.submit(request, () -> respond(request),
+                        () -> refuse(request));
+                } else {
+                    try {
+                        workers.execute(() -> respond(request));
+                    } catch (RejectedExecutionException ex) {
+                        refuse(request);
+                    }
+                }
+            }
+        }
+
+        if (closeIfDone()) {
+            return;
+        }
+        interest();
+    }
+
+    /**
+     * This decodes a {@link GreenTreeRequest} from the bytes collected so
+     * far, if the whole frame is here, and drops the frame from the buffer.
+     *
+     * @return the request, or null when more bytes are needed
+     */
+    private GreenTreeRequest decode() throws IOException {
+        ByteBuffer frame = GreenTreeBinaryProtocol.nextFrame(readBuffer);
+        return frame == null ? null
+            : GreenTreeBinaryProtocol.decodeRequest(frame);
+    }
+
+    /**
+     * This tries to read a {@link GreenTreeRequest} from the bytes collected
+     * so far, and drops the bytes of the request from the buffer if it
+     * succeeds. Each request is read with an {@link ObjectInputStream} of its
+     * own, so it cannot refer back to objects of the requests before it; the
+     * client calls {@link ObjectOutputStream#reset()} after each one.
+     *
+     * @return the request, or null when more bytes are needed
+     * @throws IOException when the request is still incomplete after
+     * {@link GreenTreeChannelHandler#MAX_OBJECT_REQUEST} bytes
+     */
+    private GreenTreeRequest parse()
+        throws IOException, ClassNotFoundException {
+        if (readBuffer.position() == 0
+            || readBuffer.position() == incomplete) {
+            return null;
+        }
+
+        ByteArrayInputStream bytes = new ByteArrayInputStream(
+            readBuffer.array(), 0, readBuffer.position()
+        );
+
+        GreenTreeRequest request;
+        try (ObjectInputStream in = new ObjectInputStream(
+            new SequenceInputStream(
+                new ByteArrayInputStream(STREAM_HEADER), bytes
+            ))) {
+            request = GreenTreeRequest.read(in);
+        } catch (EOFException ex) {
+            if (readBuffer.position() > MAX_OBJECT_REQUEST) {
+                throw new IOException("object request exceeds "
+                    + MAX_OBJECT_REQUEST + " bytes; send it as a binary frame");
+            }
+            incomplete = readBuffer.position();
+            return null;
+        }
+
+        consume(readBuffer.position() - bytes.available());
+        incomplete = 0;
+        return request;
+    }
+
+    /**
+     * This drops the given number of bytes from the front of the buffer.
+     *
+     * @param count number of bytes to drop
+     */
+    private void consume(int count) {
+        readBuffer.flip();
+        readBuffer.position(count);
+        readBuffer.compact();
+    }
+
+    /**
+     * This runs on a worker thread. It invokes {@link GreenTreeManager}, then
+     * hands the encoded result back to the I/O thread for writing.
+     *
+     * @param request {@link GreenTreeRequest} parsed from the client
+     */
+    private void respond(GreenTreeRequest request) {
+        String command = request.getCommand();
+        LOG.info("respond(GreenTreeRequest) " + command);
+
+        try {
+            ByteBuffer reply = binary ? encode(request)
+                : serialize(run(request));
+            loop.execute(() -> {
+                replies.add(reply);
+                interest();
+            });
+            LOG.info("returned GreenTreeManager." + command);
+        } catch (IOException | RuntimeException ex) {
+            LOG.error("respond(GreenTreeRequest) threw "
+                + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+            loop.execute(this::close);
+        }
+    }
+
+    /**
+     * This replies that the server is too busy to run a request. A binary
+     * client gets a {@link GreenTreeBinaryProtocol#STATUS_BUSY} frame, and an
+     * {@link ObjectOutputStream} client a {@link RejectedExecutionException}
+     * in place of the result.
+     *
+     * @param request {@link GreenTreeRequest} the worker pool refused
+     */
+    private void refuse(GreenTreeRequest request) {
+        LOG.warn("refuse(GreenTreeRequest) server busy; refused "
+            + request.getCommand());
+
+        try {
+            ByteBuffer reply = binary
+                ? GreenTreeBinaryProtocol.encodeError(request.getId(),
+                    GreenTreeBinaryProtocol.STATUS_BUSY, "server busy")
+                : serialize(new RejectedExecutionException("server busy"));
+            loop.execute(() -> {
+                replies.add(reply);
+                interest();
+            });
+        } catch (IOException ex) {
+            LOG.error("refuse(GreenTreeRequest) threw "
+                + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+            loop.execute(this::close);
+        }
+    }
+
+    /**
+     * This runs a request of a {@link GreenTreeBinaryProtocol} client.
+     *
+     * @param request {@link GreenTreeRequest} to run
+     * @return the reply frame, reporting an error if the request failed
+     */
+    private ByteBuffer encode(GreenTreeRequest request) {
+        try {
+            return GreenTreeBinaryProtocol.encodeResponse(request.getId(),
+                run(request));
+        } catch (RuntimeException ex) {
+            LOG.error("respond(GreenTreeRequest) " + request.getCommand()
+                + " threw " + ex.getClass().getSimpleName() + ": "
+                + ex.getMessage());
+            return GreenTreeBinaryProtocol.encodeError(request.getId(),
+                GreenTreeBinaryProtocol.STATUS_ERROR,
+                ex.getClass().getSimpleName() + ": " + ex.getMessage()
+            );
+        }
+    }
+
+    /**
+     * This runs one request on a worker thread. A streamed request queues
+     * each chunk of its reply for writing as it is read, and returns the
+     * final, empty chunk. Each queued chunk counts as a pending reply of its
+     * own until it is written, so that the connection is neither closed nor
+     * read past its pipeline depth before the chunks have gone out. The
+     * worker waits while {@link GreenTreeChannelHandler#MAX_QUEUED_CHUNKS}
+     * chunks are queued, so a long reply to a slow client is never held in
+     * memory whole.
+     *
+     * @param request {@link GreenTreeRequest} to run
+     * @return the reply, or its final chunk
+     */
+    private Object run(GreenTreeRequest request) {
+        if (!request.isStream()) {
+            return request.execute(mngr, session);
+        }
+        request.stream(mngr, session, chunk -> {
+            ByteBuffer frame;
+            try {
+                frame = binary ? GreenTreeBinaryProtocol.encodePartial(
+                    request.getId(), chunk) : serialize(chunk);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            awaitChunkRoom();
+            loop.execute(() -> {
+                pending++;
+                chunks.add(frame);
+                replies.add(frame);
+                interest();
+            });
+        });
+        return new ArrayList<String>();
+    }
+
+    /**
+     * This waits on a worker thread until another chunk may be queued.
+     *
+     * @throws UncheckedIOException when the connection is closed or the
+     * worker is interrupted meanwhile
+     */
+    private void awaitChunkRoom() {
+        try {
+            while (!chunkRoom.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if (!channel.isOpen()) {
+                    throw new UncheckedIOException(
+                        new ClosedChannelException());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(
+                new InterruptedIOException("interrupted while streaming"));
+        }
+    }
+
+    /**
+     * This serializes the reply to an {@link ObjectOutputStream} client.
+     *
+     * @param result of the request
+     * @return the serialized result
+     * @throws IOException when the result cannot be serialized
+     */
+    private ByteBuffer serialize(Object result) throws IOException {
+        if (out == null) {
+            out = new ObjectOutputStream(replyBytes);
+        }
+        out.writeObject(result);
+        out.reset();
+        out.flush();
+        ByteBuffer reply = ByteBuffer.wrap(replyBytes.toByteArray());
+        replyBytes.reset();
+        return reply;
+    }
+
+    /**
+     * This writes as many replies as the channel accepts. Each reply written
+     * in full makes room for another request, so the bytes already read are
+     * parsed again.
+     */
+    private void write() throws IOException, ClassNotFoundException {
+        while (!replies.isEmpty()) {
+            ByteBuffer reply = replies.peek();
+            channel.write(reply);
+            if (reply.hasRemaining()) {
+                break;
+            }
+            replies.poll();
+            pending--;
+            if (chunks.remove(reply)) {
+                chunkRoom.release();
+            }
+        }
+        lastActive = System.currentTimeMillis();
+        next();
+    }
+
+    /**
+     * This asks the {@link java.nio.channels.Selector} to watch for whatever
+     * the channel is waiting on: more requests, room to write replies, or
+     * both.
+     */
+    private void interest() {
+        if (!key.isValid()) {
+            return;
+        }
+        int depth = binary ? GreenTreeBinaryProtocol.MAX_PIPELINE : 1;
+        int ops = 0;
+        if (!closing && pending < depth) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!replies.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * This closes the connection if the client asked for it and every reply
+     * has been written.
+     *
+     * @return true, if the connection was closed
+     */
+    private boolean closeIfDone() {
+        if (closing && pending == 0) {
+            close();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * This closes the connection to the client.
+     */
+    void close() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            LOG.error("close() threw " + ex.getClass().getSimpleName() + ": "
+                + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.server;
+
+import com.greentree.model.business.manager.GreenTreeManager;
+import com.greentree.model.business.manager.GreenTreeSession;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class holds a single client request: the command string naming one of
+ * the {@link GreenTreeManager} methods plus the arguments sent with it. Both
+ * {@link GreenTreeServerHandler} and {@link GreenTreeChannelHandler} read and
+ * run their commands through this class, so every server mode understands
+ * exactly the same commands. Commands arrive either as
+ * {@link java.io.ObjectOutputStream} objects, read by
+ * {@link GreenTreeRequest#read(ObjectInputStream)}, or as binary frames,
+ * decoded by {@link GreenTreeBinaryProtocol}.
+ * <p>
+ * A connection carries any number of requests until the client sends
+ * {@link GreenTreeRequest#CLOSE}, closes its end, or stays idle past the
+ * configured timeout. A client sending objects and keeping its connection
+ * open must call {@link java.io.ObjectOutputStream#reset()} after each request
+ * so that every request can be read without the ones before it: in "nio"
+ * mode each request is read with an {@link ObjectInputStream} of its own, so
+ * a reference back to an object of an earlier request breaks the
+ * connection, and a request may take at most
+ * {@link GreenTreeChannelHandler#MAX_OBJECT_REQUEST} bytes. A client
+ * sending binary frames may send further requests without waiting for each
+ * reply; every reply carries the {@link GreenTreeRequest#getId()} of its
+ * request, since replies may come back in a different order.
+ * <p>
+ * {@link GreenTreeRequest#STREAM_DATA} is answered in chunks as the blocks
+ * are read, so that neither side holds the whole chain at once. An
+ * <code>ObjectOutputStream</code> client reads an {@link ArrayList} of
+ * {@link String} per chunk until it reads an empty one. A binary client reads
+ * {@link GreenTreeBinaryProtocol#STATUS_MORE} frames until the final frame,
+ * which holds an empty list.
+ *
+ * @author david5MX53G
+ */
+class GreenTreeRequest {
+
+    /**
+     * This {@link org.apache.logging.log4j.Logger} is good for logging!
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /** invokes {@link GreenTreeManager#registerToken(RSAPublicKey, String)} */
+    static final String REGISTER_TOKEN_KEY
+        = "registerToken(RSAPublicKey, String)";
+
+    /** invokes {@link GreenTreeManager#registerService(String)} */
+    static final String REGISTER_SERVICE = "registerService(String)";
+
+    /** invokes {@link GreenTreeManager#registerToken(String)} */
+    static final String REGISTER_TOKEN = "registerToken(String)";
+
+    /** invokes {@link GreenTreeManager#getPublicKey()} */
+    static final String GET_PUBLIC_KEY = "getPublicKey()";
+
+    /** invokes {@link GreenTreeManager#getData(RSAPublicKey)} */
+    static final String GET_DATA = "getData(RSAPublicKey)";
+
+    /**
+     * invokes {@link GreenTreeManager#addBlock(String, RSAPublicKey, long,
+     * long)}
+     */
+    static final String ADD_BLOCK
+        = "addBlock(String, RSAPublicKey, long, long)";
+
+    /**
+     * invokes {@link GreenTreeManager#getDataSince(GreenTreeSession,
+     * RSAPublicKey, String)}
+     */
+    static final String GET_DATA_SINCE
+        = "getDataSince(RSAPublicKey, String)";
+
+    /**
+     * invokes {@link GreenTreeManager#getData(GreenTreeSession, RSAPublicKey,
+     * int, int)}; the offset and page size are sent as <code>long</code>
+     * values, as the name says, and the request fails with an
+     * {@link ArithmeticException} when either does not fit in an
+     * <code>int</code>
+     */
+    static final String GET_DATA_PAGE = "getData(RSAPublicKey, long, long)";
+
+    /**
+     * invokes {@link GreenTreeManager#streamData(GreenTreeSession,
+     * RSAPublicKey, int, Consumer)}, replying with one chunk per
+     * {@link GreenTreeRequest#CHUNK_BLOCKS} blocks
+     */
+    static final String STREAM_DATA = "streamData(RSAPublicKey)";
+
+    /** ends the session; the server closes the connection without a reply */
+    static final String CLOSE = "close()";
+
+    /**
+     * A streamed reply holds the readable data of at most this many blocks
+     * per chunk.
+     */
+    static final int CHUNK_BLOCKS = 64;
+
+    /**
+     * This tags the reply, so the client can match it to the request.
+     */
+    private final long id;
+
+    /**
+     * This names the {@link GreenTreeManager} method to invoke.
+     */
+    private final String command;
+
+    /**
+     * These are passed to the {@link GreenTreeManager} method, in order.
+     */
+    private final Object[] args;
+
+    /**
+     * This is true when {@link GreenTreeRequest#command} is one of the
+     * commands above.
+     */
+    private final boolean recognized;
+
+    /**
+     * This builds a request from a command and its arguments.
+     *
+     * @param id tagging the reply
+     * @param command {@link String} naming the {@link GreenTreeManager} method
+     * @param recognized true, if the command is known to this class
+     * @param args passed to the {@link GreenTreeManager} method
+     */
+    GreenTreeRequest(long id, String command, boolean recognized,
+        Object... args) {
+        this.id = id;
+        this.command = command;
+        this.recognized = recognized;
+        this.args = args;
+    }
+
+    /**
+     * This reads one command string from the given stream, followed by
+     * whichever arguments that command takes.
+     *
+     * @param in {@link ObjectInputStream} from the client
+     * @return the {@link GreenTreeRequest} read from the stream
+     * @throws IOException when the stream fails or ends early
+     * @throws ClassNotFoundException when an argument cannot be deserialized
+     */
+    static GreenTreeRequest read(ObjectInputStream in)
+        throws IOException, ClassNotFoundException {
+        String command = (String) in.readObject();
+        GreenTreeRequest request;
+
+        if (REGISTER_TOKEN_KEY.equals(command)) {
+            RSAPublicKey key = (RSAPublicKey) in.readObject();
+            String ciphertext = (String) in.readObject();
+            request = new GreenTreeRequest(0, command, true, key, ciphertext);
+        }
+
+        else if (REGISTER_SERVICE.equals(command)) {
+            String service = (String) in.readObject();
+            request = new GreenTreeRequest(0, command, true, service);
+        }
+
+        else if (REGISTER_TOKEN.equals(command)) {
+            String plaintext = (String) in.readObject();
+            request = new GreenTreeRequest(0, command, true, plaintext);
+        }
+
+        else if (GET_PUBLIC_KEY.equals(command)) {
+            request = new GreenTreeRequest(0, command, true);
+        }
+
+        else if (GET_DATA.equals(command)) {
+            RSAPublicKey key = (RSAPublicKey) in.readObject();
+            request = new GreenTreeRequest(0, command, true, key);
+        }
+
+        else if (GET_DATA_SINCE.equals(command)) {
+            RSAPublicKey key = (RSAPublicKey) in.readObject();
+            String lastSeenHash = (String) in.readObject();
+            request = new GreenTreeRequest(0, command, true, key, lastSeenHash);
+        }
+
+        else if (GET_DATA_PAGE.equals(command)) {
+            RSAPublicKey key = (RSAPublicKey) in.readObject();
+            long offset = (long) in.readObject();
+            long limit = (long) in.readObject();
+            request = new GreenTreeRequest(0, command, true, key, offset,
+                limit);
+        }
+
+        else if (STREAM_DATA.equals(command)) {
+            RSAPublicKey key = (RSAPublicKey) in.readObject();
+            request = new GreenTreeRequest(0, command, true, key);
+        }
+
+        else if (CLOSE.equals(command)) {
+            request = new GreenTreeRequest(0, command, true);
+        }
+
+        else if (ADD_BLOCK.equals(command)) {
+            String msg = (String) in.readObject();
+            RSAPublicKey key = (RSAPublicKey) in.readObject();
+            long notBefore = (long) in.readObject();
+            long notAfter = (long) in.readObject();
+            request = new GreenTreeRequest(
+                0, command, true, msg, key, notBefore, notAfter
+            );
+        }
+
+        else {
+            request = new GreenTreeRequest(0, command, false);
+        }
+
+        return request;
+    }
+
+    /**
+     * This invokes the {@link GreenTreeManager} method named by this request
+     * on behalf of the given session.
+     *
+     * @param mngr {@link GreenTreeManager} which handles the request
+     * @param session {@link GreenTreeSession} of the connection
+     * @return whatever the <code>GreenTreeManager</code> method returned, or
+     * null when the command is not recognized
+     */
+    Object execute(GreenTreeManager mngr, GreenTreeSession session) {
+        Object result = null;
+
+        if (REGISTER_TOKEN_KEY.equals(command)) {
+            result = mngr.registerToken(session, (RSAPublicKey) args[0],
+                (String) args[1]);
+        } else if (REGISTER_SERVICE.equals(command)) {
+            result = mngr.registerService((String) args[0]);
+        } else if (REGISTER_TOKEN.equals(command)) {
+            result = mngr.registerToken(session, (String) args[0]);
+        } else if (GET_PUBLIC_KEY.equals(command)) {
+            result = mngr.getPublicKey(session);
+        } else if (GET_DATA.equals(command)) {
+            result = mngr.getData(session, (RSAPublicKey) args[0]);
+        } else if (GET_DATA_SINCE.equals(command)) {
+            result = mngr.getDataSince(session, (RSAPublicKey) args[0],
+                (String) args[1]);
+        } else if (GET_DATA_PAGE.equals(command)) {
+            result = mngr.getData(session, (RSAPublicKey) args[0],
+                Math.toIntExact((long) args[1]),
+                Math.toIntExact((long) args[2]));
+        } else if (ADD_BLOCK.equals(command)) {
+            result = mngr.addBlock(session, (String) args[0],
+                (RSAPublicKey) args[1], (long) args[2], (long) args[3]);
+        } else {
+            LOG.error("unrecognized command received: " + command);
+        }
+
+        return result;
+    }
+
+    /**
+     * This runs a {@link GreenTreeRequest#STREAM_DATA} request, handing each
+     * chunk of the reply to the given sink as soon as it is read. The caller
+     * sends the final, empty chunk once this returns.
+     *
+     * @param mngr {@link GreenTreeManager} which handles the request
+     * @param session {@link GreenTreeSession} of the connection
+     * @param sink which sends each chunk to the client
+     */
+    void stream(GreenTreeManager mngr, GreenTreeSession session,
+        Consumer<ArrayList<String>> sink) {
+        mngr.streamData(session, (RSAPublicKey) args[0], CHUNK_BLOCKS, sink);
+    }
+
+    /**
+     * @return true, if this request is answered in chunks by
+     * {@link GreenTreeRequest#stream(GreenTreeManager, GreenTreeSession,
+     * Consumer)} rather than by
+     * {@link GreenTreeRequest#execute(GreenTreeManager, GreenTreeSession)}
+     */
+    boolean isStream() {
+        return STREAM_DATA.equals(this.command);
+    }
+
+    /**
+     * @return the id tagging the reply; 0 for requests read from an
+     * {@link ObjectInputStream}
+     */
+    long getId() {
+        return this.id;
+    }
+
+    /**
+     * @return {@link String} naming the {@link GreenTreeManager} method
+     */
+    String getCommand() {
+        return this.command;
+    }
+
+    /**
+     * @return true, if this request ends the session
+     */
+    boolean isClose() {
+        return CLOSE.equals(this.command);
+    }
+
+    /**
+     * @return true, if this request changes which
+     * {@link com.greentree.model.domain.Token} the session holds, so that it
+     * must not run alongside any other request of the session
+     */
+    boolean isBarrier() {
+        return REGISTER_TOKEN_KEY.equals(command)
+            || REGISTER_SERVICE.equals(command)
+            || REGISTER_TOKEN.equals(command);
+    }
+
+    /**
+     * @return {@link RSAPublicKey} of the
+     * {@link com.greentree.model.domain.Token} this request reads, or null
+     * when it touches the <code>Token</code> of the session
+     */
+    RSAPublicKey getTokenKey() {
+        return GET_DATA.equals(command) || GET_DATA_SINCE.equals(command)
+            || GET_DATA_PAGE.equals(command) || STREAM_DATA.equals(command)
+            ? (RSAPublicKey) args[0] : null;
+    }
+
+    /**
+     * @return true, if the command of this request is known
+     */
+    boolean isRecognized() {
+        return this.recognized;
+    }
+}
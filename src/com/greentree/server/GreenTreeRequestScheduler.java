@@ -0,0 +1,268 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.server;
+
+import com.greentree.model.business.manager.GreenTreeSession;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class runs the pipelined requests of one connection. Requests which
+ * touch different {@link com.greentree.model.domain.Token} objects run at the
+ * same time, while requests touching the same <code>Token</code> run one
+ * after another in the order they arrived. A request which changes the
+ * <code>Token</code> of the session, such as
+ * {@link GreenTreeRequest#REGISTER_TOKEN}, is a barrier: it waits for every
+ * request before it, and every request after it waits for it. When the
+ * {@link Executor} refuses a request, its "busy" task runs instead, once the
+ * lock of the scheduler has been released.
+ *
+ * @author david5MX53G
+ */
+class GreenTreeRequestScheduler {
+
+    /**
+     * This {@link org.apache.logging.log4j.Logger} is good for logging!
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * This stands in for the key of the session when it has no
+     * <code>Token</code>.
+     */
+    private static final Object NO_TOKEN = new Object();
+
+    /**
+     * This runs the requests.
+     */
+    private final Executor executor;
+
+    /**
+     * This {@link GreenTreeSession} holds the <code>Token</code> of the
+     * connection.
+     */
+    private final GreenTreeSession session;
+
+    /**
+     * These requests have not started yet, in the order they arrived.
+     */
+    private final Deque<Entry> waiting = new ArrayDeque<>();
+
+    /**
+     * These keys belong to requests which are running.
+     */
+    private final Set<Object> runningKeys = new HashSet<>();
+
+    /**
+     * This is the number of requests running.
+     */
+    private int running = 0;
+
+    /**
+     * This is true while a barrier is running.
+     */
+    private boolean barrierRunning = false;
+
+    /**
+     * This is the key of the session <code>Token</code>, or null until it is
+     * looked up after the last barrier.
+     */
+    private Object sessionKey;
+
+    /**
+     * This builds a scheduler for one connection.
+     *
+     * @param executor {@link Executor} which runs the requests
+     * @param session {@link GreenTreeSession} of the connection
+     */
+    GreenTreeRequestScheduler(Executor executor, GreenTreeSession session) {
+        this.executor = executor;
+        this.session = session;
+    }
+
+    /**
+     * This queues a request, starting it as soon as the requests it depends
+     * on have finished.
+     *
+     * @param request {@link GreenTreeRequest} deciding what the task waits for
+     * @param task {@link Runnable} which runs the request and replies
+     * @param busy {@link Runnable} which replies that the server is busy, if
+     * the {@link Executor} refuses the request
+     */
+    void submit(GreenTreeRequest request, Runnable task, Runnable busy) {
+        List<Runnable> refused;
+        synchronized (this) {
+            waiting.add(new Entry(request.isBarrier(), request.getTokenKey(),
+                task, busy));
+            refused = dispatch();
+        }
+        refused.forEach(Runnable::run);
+    }
+
+    /**
+     * This starts every waiting request which no longer depends on another.
+     *
+     * @return the "busy" tasks of the requests which the {@link Executor}
+     * refused
+     */
+    private List<Runnable> dispatch() {
+        List<Runnable> refused = new ArrayList<>();
+        Set<Object> blockedKeys = new HashSet<>();
+        Iterator<Entry> it = waiting.iterator();
+        while (it.hasNext() && !barrierRunning) {
+            Entry entry = it.next();
+
+            if (entry.barrier) {
+                if (running > 0 || entry != waiting.peekFirst()) {
+                    break;
+                }
+                it.remove();
+                barrierRunning = true;
+                if (!start(entry, null)) {
+                    barrierRunning = false;
+                    refused.add(entry.busy);
+                }
+                continue;
+            }
+
+            Object key = entry.key != null ? entry.key : sessionKey();
+            if (runningKeys.contains(key) || blockedKeys.contains(key)) {
+                blockedKeys.add(key);
+                continue;
+            }
+            it.remove();
+            runningKeys.add(key);
+            if (!start(entry, key)) {
+                runningKeys.remove(key);
+                refused.add(entry.busy);
+            }
+        }
+        return refused;
+    }
+
+    /**
+     * This runs a request on the {@link Executor}.
+     *
+     * @param entry request to run
+     * @param key the request holds until it finishes, or null for a barrier
+     * @return false, if the <code>Executor</code> refused the request
+     */
+    private boolean start(Entry entry, Object key) {
+        running++;
+        try {
+            executor.execute(() -> {
+                try {
+                    entry.task.run();
+                } catch (RuntimeException ex) {
+                    LOG.error("request threw " + ex.getClass().getSimpleName()
+                        + ": " + ex.getMessage());
+                } finally {
+                    finish(entry, key);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            running--;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * This releases whatever a finished request held and starts the requests
+     * which were waiting on it.
+     *
+     * @param entry request which finished
+     * @param key the request held, or null for a barrier
+     */
+    private void finish(Entry entry, Object key) {
+        List<Runnable> refused;
+        synchronized (this) {
+            running--;
+            if (entry.barrier) {
+                barrierRunning = false;
+                sessionKey = null;
+            } else {
+                runningKeys.remove(key);
+            }
+            refused = dispatch();
+        }
+        refused.forEach(Runnable::run);
+    }
+
+    /**
+     * @return the key of the session <code>Token</code>, which stays the
+     * same until the next barrier
+     */
+    private Object sessionKey() {
+        if (sessionKey == null) {
+            sessionKey = session.getPublicKey();
+            if (sessionKey == null) {
+                sessionKey = NO_TOKEN;
+            }
+        }
+        return sessionKey;
+    }
+
+    /**
+     * This is one request waiting to start.
+     */
+    private static final class Entry {
+
+        /** true, if the request changes the session <code>Token</code> */
+        private final boolean barrier;
+
+        /** key of the <code>Token</code> touched, or null for the session */
+        private final Object key;
+
+        /** runs the request */
+        private final Runnable task;
+
+        /** replies that the server is busy */
+        private final Runnable busy;
+
+        /**
+         * @param barrier true, if the request changes the session
+         * @param key of the <code>Token</code> touched, or null for the
+         * session <code>Token</code>
+         * @param task runs the request
+         * @param busy replies that the server is busy
+         */
+        private Entry(boolean barrier, Object key, Runnable task,
+            Runnable busy) {
+            this.barrier = barrier;
+            this.key = key;
+            this.task = task;
+            this.busy = busy;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.server;
+
+import com.greentree.model.business.manager.GreenTreeManager;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class is the non-blocking alternative to the thread-per-connection
+ * loop in {@link GreenTreeServer}. One thread accepts connections on a
+ * {@link ServerSocketChannel} and hands each of them to one of a small, fixed
+ * set of {@link IoLoop} threads. Each <code>IoLoop</code> multiplexes its
+ * connections over a single {@link Selector}, parsing requests with a
+ * {@link GreenTreeChannelHandler} and passing them to a shared pool of worker
+ * threads, which invoke {@link GreenTreeManager}. No thread ever blocks on a
+ * client, so thousands of connections cost no more threads than a handful.
+ *
+ * @author david5MX53G
+ */
+class GreenTreeSelectorServer implements Runnable, Closeable {
+
+    /**
+     * This {@link org.apache.logging.log4j.Logger} is good for logging!
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * This accepts incoming client connections.
+     */
+    private final ServerSocketChannel serverChannel;
+
+    /**
+     * This {@link Selector} wakes the accepting thread for new connections.
+     */
+    private final Selector acceptSelector;
+
+    /**
+     * These threads do all reads and writes for accepted connections.
+     */
+    private final IoLoop[] loops;
+
+    /**
+     * These threads invoke {@link GreenTreeManager} for parsed requests.
+     */
+    private final Executor workers;
+
+    /**
+     * This {@link GreenTreeManager} interfaces with all other layers of the
+     * application.
+     */
+    private final GreenTreeManager mngr;
+
+    /**
+     * This is how many milliseconds a connection may stay idle between
+     * requests before it is closed.
+     */
+    private final int idleTimeout;
+
+    /**
+     * This is cleared by {@link GreenTreeSelectorServer#close()}.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * This binds a {@link ServerSocketChannel} to the given port and builds
+     * the {@link IoLoop} threads, but does not start accepting connections
+     * until {@link GreenTreeSelectorServer#run()}.
+     *
+     * @param port number on which to listen
+     * @param mngr {@link GreenTreeManager} which handles requests
+     * @param ioThreads number of {@link IoLoop} threads
+     * @param workers {@link Executor} invoking <code>mngr</code>, which may
+     * refuse requests when it is too busy
+     * @param idleTimeout milliseconds a connection may stay idle
+     * @throws IOException when the port cannot be bound
+     */
+    GreenTreeSelectorServer(int port, GreenTreeManager mngr, int ioThreads,
+        Executor workers, int idleTimeout) throws IOException {
+        this.mngr = mngr;
+        this.idleTimeout = idleTimeout;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.serverChannel.configureBlocking(false);
+        this.acceptSelector = Selector.open();
+        this.serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        this.workers = workers;
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            this.loops[i] = new IoLoop(i);
+        }
+    }
+
+    /**
+     * @return the port on which this server is listening
+     */
+    int getPort() {
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * This starts the {@link IoLoop} threads, then accepts connections until
+     * {@link GreenTreeSelectorServer#close()} is called, assigning them to the
+     * <code>IoLoop</code> threads in turn.
+     */
+    @Override
+    public void run() {
+        LOG.info("listening on port " + getPort() + " with " + loops.length
+            + " I/O threads");
+        for (IoLoop loop : loops) {
+            loop.start();
+        }
+
+        int next = 0;
+        while (running) {
+            try {
+                acceptSelector.select();
+                Iterator<SelectionKey> it
+                    = acceptSelector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    it.next();
+                    it.remove();
+                    SocketChannel channel;
+                    while ((channel = serverChannel.accept()) != null) {
+                        channel.configureBlocking(false);
+                        channel.socket().setTcpNoDelay(true);
+                        loops[next].register(channel);
+                        next = (next + 1) % loops.length;
+                    }
+                }
+            } catch (ClosedSelectorException ex) {
+                break;
+            } catch (IOException ex) {
+                if (running) {
+                    LOG.error("run() threw " + ex.getClass().getSimpleName()
+                        + ": " + ex.getMessage());
+                }
+            }
+        }
+        LOG.info("stopped");
+    }
+
+    /**
+     * This stops accepting connections and closes every open connection.
+     */
+    @Override
+    public void close() {
+        running = false;
+        acceptSelector.wakeup();
+        for (IoLoop loop : loops) {
+            loop.shutDown();
+        }
+        try {
+            serverChannel.close();
+            acceptSelector.close();
+        } catch (IOException ex) {
+            LOG.error("close() threw " + ex.getClass().getSimpleName() + ": "
+                + ex.getMessage());
+        }
+    }
+
+    /**
+     * This is one of the I/O threads. It owns a {@link Selector} and every
+     * connection registered with it; other threads hand it work through
+     * {@link IoLoop#execute(Runnable)} so that only this thread touches its
+     * channels and {@link SelectionKey} objects.
+     */
+    class IoLoop extends Thread {
+
+        /**
+         * This {@link Selector} watches every connection of this thread.
+         */
+        private final Selector selector;
+
+        /**
+         * These tasks were queued by other threads to run on this one.
+         */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        /**
+         * This is the time in milliseconds of the last sweep for idle
+         * connections.
+         */
+        private long lastSweep = System.currentTimeMillis();
+
+        /**
+         * This names the thread and opens its {@link Selector}.
+         *
+         * @param index used in the thread name
+         * @throws IOException when the <code>Selector</code> cannot be opened
+         */
+        IoLoop(int index) throws IOException {
+            super("GreenTreeIoLoop-" + index);
+            this.selector = Selector.open();
+        }
+
+        /**
+         * This hands a newly accepted connection to this thread.
+         *
+         * @param channel {@link SocketChannel} in non-blocking mode
+         */
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    SelectionKey key
+                        = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new GreenTreeChannelHandler(
+                        channel, key, this, workers, mngr
+                    ));
+                } catch (IOException ex) {
+                    LOG.error("register(SocketChannel) threw "
+                        + ex.getClass().getSimpleName() + ": "
+                        + ex.getMessage());
+                }
+            });
+        }
+
+        /**
+         * This queues a task to run on this thread and wakes its
+         * {@link Selector}.
+         *
+         * @param task {@link Runnable} to run on this thread
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * This closes the {@link Selector}, which in turn ends
+         * {@link IoLoop#run()}.
+         */
+        void shutDown() {
+            execute(() -> {
+                for (SelectionKey key : selector.keys()) {
+                    Object handler = key.attachment();
+                    if (handler instanceof GreenTreeChannelHandler) {
+                        ((GreenTreeChannelHandler) handler).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ex) {
+                    LOG.error("shutDown() threw "
+                        + ex.getClass().getSimpleName() + ": "
+                        + ex.getMessage());
+                }
+            });
+        }
+
+        /**
+         * This closes every connection which has been idle for longer than
+         * {@link GreenTreeSelectorServer#idleTimeout}.
+         */
+        private void sweep() {
+            long now = System.currentTimeMillis();
+            if (now - lastSweep < Math.min(idleTimeout, 1000)) {
+                return;
+            }
+            lastSweep = now;
+
+            for (SelectionKey key : selector.keys()) {
+                GreenTreeChannelHandler handler
+                    = (GreenTreeChannelHandler) key.attachment();
+                if (handler != null && handler.isIdle(now, idleTimeout)) {
+                    LOG.debug("closed idle connection");
+                    handler.close();
+                }
+            }
+        }
+
+        /**
+         * This waits for ready connections and queued tasks, and processes
+         * both until the {@link Selector} is closed. Idle connections are
+         * closed along the way.
+         */
+        @Override
+        public void run() {
+            while (selector.isOpen()) {
+                try {
+                    selector.select(Math.min(idleTimeout, 1000));
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    if (!selector.isOpen()) {
+                        break;
+                    }
+
+                    Iterator<SelectionKey> it
+                        = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        GreenTreeChannelHandler handler
+                            = (GreenTreeChannelHandler) key.attachment();
+                        if (handler != null) {
+                            handler.ready();
+                        }
+                    }
+
+                    sweep();
+                } catch (IOException ex) {
+                    LOG.error("run() threw " + ex.getClass().getSimpleName()
+                        + ": " + ex.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -28,6 +28,9 @@ import com.greentree.model.services.manager.PropertyManager;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -36,8 +39,9 @@ import org.springframework.context.support.FileSystemXmlApplicationContext;
 import org.xml.sax.SAXException;
 
 /**
- * This class initializes a {@link java.net.ServerSocket} to manage connections
- * from remote clients and pass data between these connections and additional
+ * This class initializes a {@link java.net.ServerSocket}, or a
+ * {@link GreenTreeSelectorServer} in "nio" mode, to manage connections from
+ * remote clients and pass data between these connections and additional
  * layers of the GreenTree application.
  *
  * @author david5MX53G
@@ -57,19 +61,25 @@ public class GreenTreeServer {
     }
 
     /**
-     * This opens a new {@link java.net.ServerSocket}.
+     * This reads the port and server mode from application.properties.xml and
+     * starts serving clients in that mode. The default "thread" mode opens a
+     * new {@link java.net.ServerSocket} and runs a
+     * {@link GreenTreeServerHandler} on a new thread per connection; the
+     * "virtual" mode does the same on virtual threads, and the "nio" mode runs
+     * a {@link GreenTreeSelectorServer} instead. Requests run on a
+     * {@link GreenTreeWorkerPool} of "workerthreads" threads, or in "virtual"
+     * mode on a virtual thread each, at most "virtualrequests" at once, so
+     * that requests blocked on storage do not hold up the others. Either way
+     * the pool refuses requests once "queuedepth" of them are waiting.
      */
     public static void start() {
         LOG.info("started");
-        int i = 1;
-        ServerSocket s;
-        GreenTreeServerHandler handler;
         int port;
+        String mode;
         
         try {
             port = Integer.valueOf(PropertyManager.getProperty("port"));
-            s = new ServerSocket(port);
-            LOG.debug("listening on port " + String.valueOf(port));
+            mode = PropertyManager.getProperty("servermode");
 
             // annotated Spring Inversion of Control (IoC) Container
             //ApplicationContext annoctx = 
@@ -87,13 +97,38 @@ public class GreenTreeServer {
             LOG.debug(" GreenTreeManager " 
                 + (mngr instanceof GreenTreeManager));
 
-            while (true) {
-                Socket socket = s.accept();
-                LOG.debug("Spawning thread " + i);
-                handler = new GreenTreeServerHandler(socket, mngr);
-                handler.start();
-                LOG.debug("GreenTreeServerHandler done");
-                i++;
+            ThreadFactory threads = null;
+            if ("virtual".equalsIgnoreCase(mode)) {
+                threads = virtualThreadFactory();
+                if (threads == null) {
+                    LOG.warn("virtual threads are not supported by this "
+                        + "JVM; using platform threads");
+                }
+            }
+            boolean virtual = threads != null;
+            if (threads == null) {
+                threads = Thread::new;
+            }
+
+            try (GreenTreeWorkerPool workers = virtual
+                ? new GreenTreeWorkerPool(
+                    getIntProperty("virtualrequests", 1000),
+                    getIntProperty("queuedepth", 1000), threads, true)
+                : new GreenTreeWorkerPool(
+                    getIntProperty("workerthreads", 8),
+                    getIntProperty("queuedepth", 1000), threads)) {
+                if ("nio".equalsIgnoreCase(mode)) {
+                    try (GreenTreeSelectorServer server
+                        = new GreenTreeSelectorServer(port, mngr,
+                            getIntProperty("iothreads", 2), workers,
+                            getIntProperty("idletimeout", 60000))) {
+                        server.run();
+                    }
+                } else {
+                    serve(new ServerSocket(port), mngr, threads, workers,
+                        getIntProperty("maxconnections", 10000),
+                        getIntProperty("idletimeout", 60000));
+                }
             }
         } catch (IOException | ParserConfigurationException | SAXException ex) {
             LOG.error("start() threw " + ex.getClass().getSimpleName() + ": "
@@ -102,6 +137,95 @@ public class GreenTreeServer {
         LOG.info("stopped");
     }
 
+    /**
+     * This accepts connections on the given {@link ServerSocket} until it is
+     * closed, running a new {@link GreenTreeServerHandler} for each on a thread
+     * from the given {@link ThreadFactory}. Once <code>maxConnections</code>
+     * handlers are running, new connections wait in the accept backlog until
+     * one of them finishes. Each connection is closed once it has been idle
+     * for <code>idleTimeout</code> milliseconds. The connection threads only
+     * read requests and write replies; the requests themselves run on
+     * <code>workers</code>.
+     *
+     * @param s {@link ServerSocket} on which to accept connections
+     * @param mngr {@link GreenTreeManager} which handles requests
+     * @param threads {@link ThreadFactory} building one thread per connection
+     * @param workers {@link Executor} running the requests, which may refuse
+     * them when it is too busy
+     * @param maxConnections number of connections served at once
+     * @param idleTimeout milliseconds a connection may stay idle
+     * @throws IOException when accepting a connection fails
+     */
+    static void serve(ServerSocket s, GreenTreeManager mngr,
+        ThreadFactory threads, Executor workers, int maxConnections,
+        int idleTimeout) throws IOException {
+        int i = 1;
+        Semaphore permits = new Semaphore(maxConnections);
+        LOG.debug("listening on port " + String.valueOf(s.getLocalPort()));
+
+        while (true) {
+            permits.acquireUninterruptibly();
+            Socket socket;
+            try {
+                socket = s.accept();
+            } catch (IOException ex) {
+                permits.release();
+                throw ex;
+            }
+            LOG.debug("Spawning thread " + i);
+            GreenTreeServerHandler handler = new GreenTreeServerHandler(
+                socket, mngr, workers, idleTimeout
+            );
+            threads.newThread(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    permits.release();
+                }
+            }).start();
+            LOG.debug("GreenTreeServerHandler done");
+            i++;
+        }
+    }
+
+    /**
+     * This looks up <code>Thread.ofVirtual().factory()</code> by reflection,
+     * since virtual threads only exist on Java 21 and later while this project
+     * still builds for Java 8.
+     *
+     * @return {@link ThreadFactory} building virtual threads, or null when the
+     * running JVM does not support them
+     */
+    static ThreadFactory virtualThreadFactory() {
+        ThreadFactory factory = null;
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                .getMethod("factory")
+                .invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+            LOG.debug("virtualThreadFactory() threw "
+                + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+        }
+        return factory;
+    }
+
+    /**
+     * This reads a whole number from application.properties.xml.
+     *
+     * @param name of the property
+     * @param defaultValue returned when the property is not set
+     * @return the value of the property, or <code>defaultValue</code>
+     * @throws IOException when the properties file cannot be read
+     * @throws ParserConfigurationException when the properties file fails
+     * @throws SAXException when the properties file fails
+     */
+    private static int getIntProperty(String name, int defaultValue)
+        throws IOException, ParserConfigurationException, SAXException {
+        String value = PropertyManager.getProperty(name);
+        return value == null ? defaultValue : Integer.valueOf(value);
+    }
+
     /**
      * This runs {@link GreenTreeServer#start()}.
      *
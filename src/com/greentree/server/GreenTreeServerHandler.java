@@ -24,24 +24,37 @@
 package com.greentree.server;
 
 import com.greentree.model.business.manager.GreenTreeManager;
-import com.greentree.model.services.config.AppConfig;
+import com.greentree.model.business.manager.GreenTreeSession;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.Socket;
-import java.security.interfaces.RSAPublicKey;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.net.SocketTimeoutException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.annotation.AnnotationConfigApplicationContext;
-import org.springframework.context.support.FileSystemXmlApplicationContext;
 
 /**
- * This class connects {@link GreenTreeServer} to {@link GreenTreeManager}.
+ * This class connects {@link GreenTreeServer} to {@link GreenTreeManager}. It
+ * is a {@link Runnable} rather than a {@link Thread} so that the server can run
+ * it on either a platform thread or a virtual thread.
  *
  * @author david5MX53G
  */
-class GreenTreeServerHandler extends Thread {
+class GreenTreeServerHandler implements Runnable {
 
     /**
      * This {@link org.apache.logging.log4j.Logger} is good for logging!
@@ -64,117 +77,291 @@ class GreenTreeServerHandler extends Thread {
      */
     private final GreenTreeManager mngr;
 
+    /**
+     * This {@link GreenTreeSession} holds the <code>Token</code> registered
+     * over this connection.
+     */
+    private final GreenTreeSession session = new GreenTreeSession();
+
+    /**
+     * This runs every request of the connection.
+     */
+    private final Executor workers;
+
+    /**
+     * The session ends after this many milliseconds without a request.
+     */
+    private final int idleTimeout;
+
     /**
      * This initializes a {@link GreenTreeManager} to handle requests from 
      * the given {@link Socket}. 
      * 
      * @param socket sending client requests into this handler
+     * @param mngr {@link GreenTreeManager} which handles the requests
+     * @param workers {@link Executor} which runs the requests
+     * @param idleTimeout milliseconds to wait for the next request
      */
-    GreenTreeServerHandler(Socket socket, GreenTreeManager mngr) {
+    GreenTreeServerHandler(Socket socket, GreenTreeManager mngr,
+        Executor workers, int idleTimeout) {
         methodName = "reenTreeServerHandler(Socket)";
         this.socket = socket;
         this.mngr = mngr;
+        this.workers = workers;
+        this.idleTimeout = idleTimeout;
     }
 
     /**
-     * This reads the first line of input from the client as a command string.
-     * This string is checked against a series of conditions, and one of the
-     * {@link GreenTreeManager} methods is invoked accordingly.
+     * This reads each command from the client, in whichever protocol the
+     * first byte of the connection announces. The {@link GreenTreeRequest}
+     * built from the command and its arguments invokes one of the
+     * {@link GreenTreeManager} methods accordingly. This repeats until the
+     * client sends {@link GreenTreeRequest#CLOSE}, closes the connection, or
+     * sends nothing for <code>idleTimeout</code> milliseconds.
      */
     @Override
     public void run() {
         methodName = "void run() ";
         LOG.debug(methodName + "started");
-        ObjectInputStream in = null;
-        ObjectOutputStream out = null;
 
         try {
-            in = new ObjectInputStream(socket.getInputStream());
-            out = new ObjectOutputStream(socket.getOutputStream());
+            socket.setSoTimeout(idleTimeout);
+            socket.setTcpNoDelay(true);
+            BufferedInputStream in
+                = new BufferedInputStream(socket.getInputStream());
+            // buffered, so that each reply goes out in a single segment
+            BufferedOutputStream out
+                = new BufferedOutputStream(socket.getOutputStream());
 
-            if (in instanceof ObjectInputStream
-                && out instanceof ObjectOutputStream) {
-                LOG.debug(methodName
-                    + "ObjectInputStream and ObjectOutputStream acquired");
+            in.mark(1);
+            int first = in.read();
+            if (first < 0) {
+                LOG.debug(methodName + "client closed the connection");
+                return;
+            }
+            in.reset();
+
+            if (GreenTreeBinaryProtocol.isBinary((byte) first)) {
+                serveFrames(new DataInputStream(in), out);
             } else {
-                throw new IOException(methodName
-                    + "failed to acquire ObjectInputStream/ObjectOutputStream");
+                serveObjects(new ObjectInputStream(in),
+                    new ObjectOutputStream(out));
+            }
+        } catch (SocketTimeoutException ex) {
+            LOG.info(methodName + "closed idle connection");
+        } catch (IOException | ClassNotFoundException | RuntimeException ex) {
+            // only this connection is closed
+            LOG.error("run() threw " + ex.getClass().getSimpleName() + ": "
+                + ex.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                LOG.error(methodName + "threw " + ex.getClass().getSimpleName() 
+                    + ": " + ex.getMessage());
             }
+        }
+    }
 
-            String command = (String) in.readObject();
-            LOG.info(methodName + command);
+    /**
+     * This serves requests sent as binary frames, as described by
+     * {@link GreenTreeBinaryProtocol}. This thread only reads requests; a
+     * {@link GreenTreeRequestScheduler} runs them on
+     * {@link GreenTreeServerHandler#workers}, which write the replies as the
+     * requests finish.
+     *
+     * @param in {@link DataInputStream} from the client
+     * @param out {@link OutputStream} to the client
+     * @throws IOException when the connection fails or a frame is malformed
+     */
+    private void serveFrames(DataInputStream in, OutputStream out)
+        throws IOException {
+        GreenTreeRequestScheduler scheduler
+            = new GreenTreeRequestScheduler(workers, session);
+        Semaphore window = new Semaphore(GreenTreeBinaryProtocol.MAX_PIPELINE);
 
-            if ("registerToken(RSAPublicKey, String)".equals(command)) {
-                RSAPublicKey key = (RSAPublicKey) in.readObject();
-                String ciphertext = (String) in.readObject();
-                out.writeObject(mngr.registerToken(key, ciphertext));
-                out.flush();
-                LOG.info(methodName + "returned "
-                    + "GreenTreeManager.registerToken(RSAPublicKey, String)");
+        try {
+            while (true) {
+                ByteBuffer frame;
+                try {
+                    frame = GreenTreeBinaryProtocol.readFrame(in);
+                } catch (EOFException ex) {
+                    LOG.debug(methodName + "client closed the connection");
+                    break;
+                }
+
+                GreenTreeRequest request
+                    = GreenTreeBinaryProtocol.decodeRequest(frame);
+                LOG.info(methodName + request.getCommand());
+                if (request.isClose()) {
+                    break;
+                }
+
+                window.acquireUninterruptibly();
+                scheduler.submit(request, () -> {
+                    try {
+                        reply(request, out);
+                    } finally {
+                        window.release();
+                    }
+                }, () -> {
+                    LOG.warn(methodName + "server busy; refused "
+                        + request.getCommand());
+                    send(GreenTreeBinaryProtocol.encodeError(request.getId(),
+                        GreenTreeBinaryProtocol.STATUS_BUSY, "server busy"),
+                        out);
+                    window.release();
+                });
             }
+        } finally {
+            // let every request already read finish replying
+            window.acquireUninterruptibly(GreenTreeBinaryProtocol.MAX_PIPELINE);
+        }
+    }
 
-            else if ("registerService(String)".equals(command)) {
-                String service = (String) in.readObject();
-                out.writeObject(mngr.registerService(service));
+    /**
+     * This runs one binary request and writes its reply.
+     *
+     * @param request {@link GreenTreeRequest} to run
+     * @param out {@link OutputStream} to the client, shared by every request
+     * of the connection
+     */
+    private void reply(GreenTreeRequest request, OutputStream out) {
+        String command = request.getCommand();
+        ByteBuffer reply;
+        try {
+            reply = GreenTreeBinaryProtocol.encodeResponse(request.getId(),
+                run(request, chunk -> send(GreenTreeBinaryProtocol
+                    .encodePartial(request.getId(), chunk), out)));
+            LOG.info(methodName + "returned GreenTreeManager." + command);
+        } catch (RuntimeException ex) {
+            LOG.error(methodName + command + " threw "
+                + ex.getClass().getSimpleName() + ": " + ex.getMessage());
+            reply = GreenTreeBinaryProtocol.encodeError(request.getId(),
+                GreenTreeBinaryProtocol.STATUS_ERROR,
+                ex.getClass().getSimpleName() + ": " + ex.getMessage());
+        }
+
+        send(reply, out);
+        LOG.info(command + " completed");
+    }
+
+    /**
+     * This runs one request. A streamed request hands each chunk of its
+     * reply to the sink as it is read, and returns the final, empty chunk.
+     *
+     * @param request {@link GreenTreeRequest} to run
+     * @param sink which sends a chunk of a streamed reply to the client
+     * @return the reply, or its final chunk
+     */
+    private Object run(GreenTreeRequest request,
+        Consumer<ArrayList<String>> sink) {
+        if (request.isStream()) {
+            request.stream(mngr, session, sink);
+            return new ArrayList<String>();
+        }
+        return request.execute(mngr, session);
+    }
+
+    /**
+     * This writes one binary reply.
+     *
+     * @param reply {@link ByteBuffer} holding the whole frame
+     * @param out {@link OutputStream} to the client, shared by every request
+     * of the connection
+     */
+    private void send(ByteBuffer reply, OutputStream out) {
+        try {
+            synchronized (out) {
+                out.write(reply.array(), 0, reply.limit());
                 out.flush();
-                LOG.info(methodName + "returned "
-                    + "GreenTreeManager.registerService(String)");
             }
+        } catch (IOException ex) {
+            LOG.error(methodName + "threw " + ex.getClass().getSimpleName()
+                + ": " + ex.getMessage());
+        }
+    }
 
-            else if ("registerToken(String)".equals(command)) {
-                String plaintext = (String) in.readObject();
-                out.writeObject(mngr.registerToken(plaintext));
-                out.flush();
-                LOG.info(methodName + "returned "
-                    + "GreenTreeManager.registerToken(String)");
+    /**
+     * This serves requests sent through an {@link ObjectOutputStream}, one at
+     * a time. Each request still runs on {@link GreenTreeServerHandler#workers}
+     * so that the pool bounds the work of every mode; when the pool refuses
+     * it, the client is sent a {@link RejectedExecutionException} instead of
+     * the result, and when the request throws, the client is sent what it
+     * threw.
+     *
+     * @param in {@link ObjectInputStream} from the client
+     * @param out {@link ObjectOutputStream} to the client
+     * @throws IOException when the connection fails
+     * @throws ClassNotFoundException when an argument cannot be deserialized
+     */
+    private void serveObjects(ObjectInputStream in, ObjectOutputStream out)
+        throws IOException, ClassNotFoundException {
+        LOG.debug(methodName
+            + "ObjectInputStream and ObjectOutputStream acquired");
+
+        while (true) {
+            GreenTreeRequest request;
+            try {
+                request = GreenTreeRequest.read(in);
+            } catch (EOFException ex) {
+                LOG.debug(methodName + "client closed the connection");
+                break;
             }
 
-            else if ("getPublicKey()".equals(command)) {
-                out.writeObject(mngr.getPublicKey());
+            String command = request.getCommand();
+            LOG.info(methodName + command);
+
+            if (request.isClose()) {
+                break;
+            } else if (request.isRecognized()) {
+                // this thread waits for the task, so a streamed reply may be
+                // written to out from the worker
+                FutureTask<Object> task = new FutureTask<>(
+                    () -> run(request, chunk -> {
+                        try {
+                            out.writeObject(chunk);
+                            out.reset();
+                            out.flush();
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    })
+                );
+                Object result;
+                try {
+                    workers.execute(task);
+                    result = task.get();
+                    LOG.info(methodName + "returned GreenTreeManager."
+                        + command);
+                } catch (RejectedExecutionException ex) {
+                    LOG.warn(methodName + "server busy; refused " + command);
+                    result = ex;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    LOG.error(methodName + command + " threw "
+                        + cause.getClass().getSimpleName() + ": "
+                        + cause.getMessage());
+                    if (cause instanceof UncheckedIOException) {
+                        // a chunk could not be written; the stream is broken
+                        break;
+                    }
+                    result = cause;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    LOG.error(methodName + command + " interrupted");
+                    break;
+                }
+                out.writeObject(result);
+                out.reset();
                 out.flush();
-                LOG.info(methodName + "returned "
-                    + "GreenTreeManager.getPublicKey()");
-            }
-            
-            else if ("getData(RSAPublicKey)".equals(command)) {
-                RSAPublicKey key = (RSAPublicKey) in.readObject();
-                out.writeObject(mngr.getData(key));
-                LOG.info(methodName + " returned " 
-                    + "GreenTreeManager.getData(RSAPublicKey)");
-            }
-            
-            else if ("addBlock(String, RSAPublicKey, long, long)".equals(command)) {
-                String msg = (String) in.readObject();
-                RSAPublicKey key = (RSAPublicKey) in.readObject();
-                long notBefore = (long) in.readObject();
-                long notAfter = (long) in.readObject();
-                out.writeObject(mngr.addBlock(msg, key, notBefore, notAfter));
-                LOG.info(methodName + " returned " 
-                    + "GreenTreeManager.addBlock(msg, key, notBefore, notAfter)");
-            }
-            
-            else {
+            } else {
                 LOG.error(methodName + "unrecognized command received: " 
                     + command);
+                break;
             }
 
             LOG.info(command + " completed");
-        } catch (IOException | ClassNotFoundException ex) {
-            LOG.error("run() threw " + ex.getClass().getSimpleName() + ": "
-                + ex.getMessage());
-        } finally {
-            try {
-                if (in != null) {
-                    in.close();
-                }
-
-                if (out != null) {
-                    out.close();
-                }
-            } catch (IOException ex) {
-                LOG.error(methodName + "threw " + ex.getClass().getSimpleName() 
-                    + ": " + ex.getMessage());
-            }
         }
     }
 
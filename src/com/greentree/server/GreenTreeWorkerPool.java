@@ -0,0 +1,270 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.server;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This class runs every request of every server mode on a fixed number of
+ * threads, with a bounded queue of requests waiting for a thread. Once the
+ * queue is full, further requests are refused at once with a
+ * {@link RejectedExecutionException}, so that the server answers "busy"
+ * quickly rather than slowing every request down until it falls over. A pool
+ * built to run each request on a thread of its own, as suits virtual threads,
+ * bounds the requests running at once with a {@link Semaphore} instead, and
+ * the rest wait for a permit on their own thread. The pool registers itself
+ * with the platform {@link MBeanServer} as
+ * {@link GreenTreeWorkerPool#OBJECT_NAME}.
+ *
+ * @author david5MX53G
+ */
+class GreenTreeWorkerPool implements Executor, Closeable,
+    GreenTreeWorkerPoolMXBean {
+
+    /**
+     * This {@link org.apache.logging.log4j.Logger} is good for logging!
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * This names the pool in JMX.
+     */
+    static final String OBJECT_NAME = "com.greentree.server:type=WorkerPool";
+
+    /**
+     * This runs the requests, or is null when each request runs on a thread
+     * of its own.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * This builds the threads, one per request when there is no
+     * {@link GreenTreeWorkerPool#executor}.
+     */
+    private final ThreadFactory factory;
+
+    /**
+     * This is the number of requests which may run at once.
+     */
+    private final int threads;
+
+    /**
+     * These permits are taken by each request while it runs, when each
+     * request runs on a thread of its own.
+     */
+    private final Semaphore running;
+
+    /**
+     * These permits are taken by each request from when it is accepted until
+     * it finishes, when each request runs on a thread of its own.
+     */
+    private final Semaphore accepted;
+
+    /**
+     * This counts the requests run so far on threads of their own.
+     */
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * This is true once the pool has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * This is the number of requests which may wait for a thread.
+     */
+    private final int queueCapacity;
+
+    /**
+     * This counts the requests refused because the queue was full.
+     */
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * This is the name under which the pool was registered, or null if it
+     * could not be.
+     */
+    private ObjectName name;
+
+    /**
+     * This starts the threads of the pool and registers it with JMX.
+     *
+     * @param threads number of threads running requests
+     * @param queueCapacity number of requests which may wait for a thread
+     * @param factory {@link ThreadFactory} building the threads
+     */
+    GreenTreeWorkerPool(int threads, int queueCapacity,
+        ThreadFactory factory) {
+        this(threads, queueCapacity, factory, false);
+    }
+
+    /**
+     * This starts the pool and registers it with JMX. With
+     * <code>perTask</code>, no thread is started ahead: each request gets a
+     * new thread from the factory, and at most <code>threads</code> of them
+     * run a request at once.
+     *
+     * @param threads number of requests running at once
+     * @param queueCapacity number of requests which may wait to run
+     * @param factory {@link ThreadFactory} building the threads
+     * @param perTask true, to run each request on a new thread
+     */
+    GreenTreeWorkerPool(int threads, int queueCapacity,
+        ThreadFactory factory, boolean perTask) {
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.factory = factory;
+        if (perTask) {
+            this.executor = null;
+            this.running = new Semaphore(threads);
+            this.accepted = new Semaphore(threads + queueCapacity);
+        } else {
+            this.running = null;
+            this.accepted = null;
+            this.executor = new ThreadPoolExecutor(threads, threads, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                factory, (task, pool) -> {
+                    rejected.incrementAndGet();
+                    throw new RejectedExecutionException("server busy");
+                });
+            this.executor.prestartAllCoreThreads();
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+                this.name = objectName;
+            }
+        } catch (JMException ex) {
+            LOG.warn("GreenTreeWorkerPool() could not register with JMX: "
+                + ex.getMessage());
+        }
+    }
+
+    /**
+     * This queues a request to run on one of the threads, or starts a thread
+     * of its own which waits for its turn to run it.
+     *
+     * @param task {@link Runnable} running the request
+     * @throws RejectedExecutionException when the queue is full
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (executor != null) {
+            executor.execute(task);
+            return;
+        }
+        if (closed || !accepted.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("server busy");
+        }
+        try {
+            factory.newThread(() -> {
+                running.acquireUninterruptibly();
+                try {
+                    task.run();
+                } finally {
+                    running.release();
+                    accepted.release();
+                    completed.incrementAndGet();
+                }
+            }).start();
+        } catch (RuntimeException | Error ex) {
+            accepted.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public int getThreads() {
+        return threads;
+    }
+
+    @Override
+    public int getActiveThreads() {
+        return executor != null ? executor.getActiveCount()
+            : threads - running.availablePermits();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return executor != null ? executor.getQueue().size()
+            : threads + queueCapacity - accepted.availablePermits()
+            - getActiveThreads();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return executor != null ? executor.getCompletedTaskCount()
+            : completed.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * This lets the queued requests finish, stops the threads and removes
+     * the pool from JMX.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                    .unregisterMBean(name);
+            } catch (JMException ex) {
+                LOG.warn("close() could not unregister from JMX: "
+                    + ex.getMessage());
+            }
+            name = null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 david5MX53G.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.greentree.server;
+
+/**
+ * This is the management interface of {@link GreenTreeWorkerPool}, through
+ * which JMX clients such as JConsole can watch how busy the server is while
+ * tuning <code>workerthreads</code> and <code>queuedepth</code>.
+ *
+ * @author david5MX53G
+ */
+public interface GreenTreeWorkerPoolMXBean {
+
+    /**
+     * @return the number of threads running requests
+     */
+    int getThreads();
+
+    /**
+     * @return the number of threads running a request right now
+     */
+    int getActiveThreads();
+
+    /**
+     * @return the number of requests waiting for a thread
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the number of requests which may wait for a thread before new
+     * ones are refused
+     */
+    int getQueueCapacity();
+
+    /**
+     * @return the number of requests run so far
+     */
+    long getCompletedCount();
+
+    /**
+     * @return the number of requests refused so far because the queue was
+     * full
+     */
+    long getRejectedCount();
+}
@@ -0,0 +1,283 @@
+package com.greentree.model.business.manager;
+
+import com.greentree.model.domain.Block;
+import com.greentree.model.domain.Token;
+import com.greentree.model.services.tokenservice.ITokenService;
+import com.greentree.model.services.tokenservice.InMemoryTokenService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class has methods for testing that blocks added to
+ * <code>{@link Token}</code> objects by many threads at once are neither lost
+ * nor interleaved, and for logging how the rate of additions grows with the
+ * number of threads writing to different <code>Token</code> objects.
+ *
+ * @author david5MX53G
+ */
+public class GreenTreeManagerConcurrencyTest {
+
+    /**
+     * log4j 2 logger
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Each thread adds this many blocks.
+     */
+    private static final int BLOCKS = 20;
+
+    /**
+     * This passphrase protects every <code>Token</code> of the tests.
+     */
+    private static final String PASS = "Curiouser and curiouser!";
+
+    /**
+     * This {@link GreenTreeManager} is shared by every thread.
+     */
+    private final GreenTreeManager mngr = GreenTreeManager.getInstance();
+
+    /**
+     * This is put back on the {@link GreenTreeManager} after each test.
+     */
+    private ITokenService saved;
+
+    /**
+     * This gives the {@link GreenTreeManager} storage in memory.
+     */
+    @Before
+    public void setUp() {
+        saved = mngr.getTokenService();
+        mngr.setTokenService(new InMemoryTokenService());
+    }
+
+    /**
+     * This puts back the storage of the {@link GreenTreeManager}.
+     */
+    @After
+    public void tearDown() {
+        mngr.setTokenService(saved);
+    }
+
+    /**
+     * Tests that sessions adding to the same <code>Token</code> at once keep
+     * every block, each referring to the one before it.
+     */
+    @Test
+    public void testSameToken() throws Exception {
+        int threads = 4;
+        GreenTreeSession owner = new GreenTreeSession();
+        assertTrue(mngr.registerToken(owner, PASS));
+        RSAPublicKey key = mngr.getPublicKey(owner);
+        Token token = mngr.getTokenService().selectToken(key);
+        String ciphertext = token.encrypt(PASS);
+
+        List<GreenTreeSession> sessions = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            GreenTreeSession session = new GreenTreeSession();
+            assertTrue(mngr.registerToken(session, key, ciphertext));
+            sessions.add(session);
+        }
+        int before = token.getBlockChain().size();
+
+        run(sessions, key);
+
+        ArrayList<Block> chain = token.getBlockChain();
+        assertEquals(before + threads * BLOCKS, chain.size());
+        for (int i = 1; i < chain.size(); i++) {
+            assertSame(chain.get(i - 1), chain.get(i).getReferee());
+        }
+    }
+
+    /**
+     * Tests that sessions logging in with the same key share one
+     * <code>Token</code>, and keep every block, when each read from storage
+     * returns a copy of its own, as it does from a database.
+     */
+    @Test
+    public void testSeparateLoads() throws Exception {
+        int threads = 4;
+        Map<String, byte[]> rows = new ConcurrentHashMap<>();
+        ITokenService copies = new ITokenService() {
+            @Override
+            public boolean commit(Token token) {
+                rows.put(token.getKeyId(), serialize(token));
+                return true;
+            }
+
+            @Override
+            public Token selectToken(RSAPublicKey key) {
+                byte[] row = rows.get(Token.keyIdOf(key));
+                return row == null ? null : deserialize(row);
+            }
+        };
+        mngr.setTokenService(copies);
+        GreenTreeSession owner = new GreenTreeSession();
+        assertTrue(mngr.registerToken(owner, PASS));
+        RSAPublicKey key = mngr.getPublicKey(owner);
+        String ciphertext = copies.selectToken(key).encrypt(PASS);
+        GreenTreeSession reader = new GreenTreeSession();
+        assertTrue(mngr.registerToken(reader, PASS));
+
+        List<GreenTreeSession> sessions = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            GreenTreeSession session = new GreenTreeSession();
+            assertTrue(mngr.registerToken(session, key, ciphertext));
+            assertSame(sessions.isEmpty() ? session.getToken()
+                : sessions.get(0).getToken(), session.getToken());
+            sessions.add(session);
+        }
+        int before = copies.selectToken(key).getBlockChain().size();
+
+        run(sessions, mngr.getPublicKey(reader));
+
+        ArrayList<Block> chain = copies.selectToken(key).getBlockChain();
+        assertEquals(before + threads * BLOCKS, chain.size());
+    }
+
+    /**
+     * Tests that the owner of a <code>Token</code> reads its own blocks
+     * without adding a <code>Claim</code> to them, since every session
+     * logged in with the key shares the <code>Token</code>.
+     */
+    @Test
+    public void testOwnerReads() throws Exception {
+        GreenTreeSession owner = new GreenTreeSession();
+        assertTrue(mngr.registerToken(owner, PASS));
+        GreenTreeSession reader = new GreenTreeSession();
+        assertTrue(mngr.registerToken(reader, PASS));
+        RSAPublicKey key = mngr.getPublicKey(owner);
+        long now = System.currentTimeMillis();
+        assertTrue(mngr.addBlock(owner, "shared", mngr.getPublicKey(reader),
+            now - 1000, now + 60000));
+
+        List<Block> chain = mngr.getTokenService().selectToken(key)
+            .getBlockChain();
+        List<Integer> claims = new ArrayList<>();
+        for (Block block : chain) {
+            claims.add(block.getClaims().size());
+        }
+        ArrayList<String> data = mngr.getData(owner, key);
+        assertEquals(chain.size() - 1, data.size());
+        assertTrue(data.contains("shared"));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(data, mngr.getData(owner, key));
+        }
+        for (int i = 0; i < chain.size(); i++) {
+            assertEquals(claims.get(i),
+                (Integer) chain.get(i).getClaims().size());
+        }
+        assertEquals(Arrays.asList("shared"), mngr.getData(reader, key));
+    }
+
+    /**
+     * This logs the blocks added per second by 1, 2, 4 and as many threads
+     * as there are processors, each adding to its own <code>Token</code>.
+     * Since those threads share no lock, the rate should grow with the
+     * threads until the processors run out.
+     */
+    @Test
+    public void testDifferentTokensScale() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] counts = {1, 2, 4, Math.max(4, cores)};
+        for (int threads : counts) {
+            List<GreenTreeSession> sessions = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                GreenTreeSession session = new GreenTreeSession();
+                assertTrue(mngr.registerToken(session, PASS));
+                sessions.add(session);
+            }
+
+            long start = System.nanoTime();
+            run(sessions, null);
+            long nanos = System.nanoTime() - start;
+
+            for (GreenTreeSession session : sessions) {
+                Token token = mngr.getTokenService()
+                    .selectToken(mngr.getPublicKey(session));
+                assertEquals(2 + BLOCKS, token.getBlockChain().size());
+            }
+            LOG.info(threads + " threads on " + cores + " processors: "
+                + (threads * BLOCKS * 1000000000L / nanos)
+                + " blocks/second");
+        }
+    }
+
+    /**
+     * @return the given <code>Token</code> as bytes, as a database stores it
+     */
+    private static byte[] serialize(Token token) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(token);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return a new <code>Token</code> read from the given bytes
+     */
+    private static Token deserialize(byte[] row) {
+        try (ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(row))) {
+            return (Token) in.readObject();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * This has one thread per session add {@link #BLOCKS} blocks to the
+     * <code>Token</code> of its session, and waits for all of them.
+     *
+     * @param sessions one for each thread
+     * @param clientKey key given access to each block, or null for the
+     * <code>Token</code> of the session
+     */
+    private void run(List<GreenTreeSession> sessions, RSAPublicKey clientKey)
+        throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(sessions.size());
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (GreenTreeSession session : sessions) {
+                RSAPublicKey key = clientKey != null
+                    ? clientKey : mngr.getPublicKey(session);
+                long now = System.currentTimeMillis();
+                results.add(pool.submit(() -> {
+                    for (int i = 0; i < BLOCKS; i++) {
+                        assertTrue(mngr.addBlock(session, "block " + i, key,
+                            now, now + 60000));
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.greentree.model.business.manager;
+
+import com.greentree.model.services.tokenservice.ITokenService;
+import com.greentree.model.services.tokenservice.InMemoryTokenService;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class has methods for testing that {@link GreenTreeSession} objects
+ * keep the clients of the shared {@link GreenTreeManager} apart.
+ *
+ * @author david5MX53G
+ */
+public class GreenTreeSessionTest {
+
+    /**
+     * log4j 2 logger
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * This many clients run at once, each with its own <code>Token</code>.
+     */
+    private static final int CLIENTS = 16;
+
+    /**
+     * Each client adds this many blocks to its <code>Token</code>.
+     */
+    private static final int BLOCKS = 25;
+
+    /**
+     * This {@link GreenTreeManager} is shared by every client.
+     */
+    private final GreenTreeManager mngr = GreenTreeManager.getInstance();
+
+    /**
+     * This is put back on the {@link GreenTreeManager} after each test.
+     */
+    private ITokenService saved;
+
+    /**
+     * This gives the {@link GreenTreeManager} storage in memory.
+     */
+    @Before
+    public void setUp() {
+        saved = mngr.getTokenService();
+        mngr.setTokenService(new InMemoryTokenService());
+    }
+
+    /**
+     * This puts back the storage of the {@link GreenTreeManager}.
+     */
+    @After
+    public void tearDown() {
+        mngr.setTokenService(saved);
+    }
+
+    /**
+     * Tests that a session starts without a <code>Token</code> and loses it
+     * on {@link GreenTreeManager#deregisterToken(GreenTreeSession)}.
+     */
+    @Test
+    public void testRegister() {
+        GreenTreeSession session = new GreenTreeSession();
+        assertNull(mngr.getPublicKey(session));
+        assertTrue(mngr.registerToken(session, "Off with their heads!"));
+        assertNotNull(mngr.getPublicKey(session));
+        mngr.deregisterToken(session);
+        assertNull(mngr.getPublicKey(session));
+    }
+
+    /**
+     * Tests that each poll of
+     * {@link GreenTreeManager#getDataSince(GreenTreeSession, RSAPublicKey,
+     * String)} returns only the data added since the last one.
+     */
+    @Test
+    public void testGetDataSince() {
+        GreenTreeSession session = new GreenTreeSession();
+        assertTrue(mngr.registerToken(session, "Who are you?"));
+        RSAPublicKey key = mngr.getPublicKey(session);
+        long now = System.currentTimeMillis();
+        assertTrue(mngr.addBlock(session, "first", key, now - 1000,
+            now + 60000));
+
+        ArrayList<String> poll = mngr.getDataSince(session, key, "");
+        assertTrue(poll.contains("first"));
+        String hash = poll.get(0);
+
+        poll = mngr.getDataSince(session, key, hash);
+        assertEquals(1, poll.size());
+        assertEquals(hash, poll.get(0));
+
+        assertTrue(mngr.addBlock(session, "second", key, now - 1000,
+            now + 60000));
+        poll = mngr.getDataSince(session, key, hash);
+        assertEquals(2, poll.size());
+        assertNotEquals(hash, poll.get(0));
+        assertEquals("second", poll.get(1));
+    }
+
+    /**
+     * Tests that following the offset of each page reads the same data as
+     * one call to getData, and that streaming does too.
+     */
+    @Test
+    public void testGetDataPageAndStream() {
+        GreenTreeSession session = new GreenTreeSession();
+        assertTrue(mngr.registerToken(session, "Why is a raven like a desk?"));
+        RSAPublicKey key = mngr.getPublicKey(session);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < BLOCKS; i++) {
+            assertTrue(mngr.addBlock(session, "block " + i, key, now - 1000,
+                now + 60000));
+        }
+        ArrayList<String> all = mngr.getData(session, key);
+
+        List<String> paged = new ArrayList<>();
+        String offset = "0";
+        int pages = 0;
+        while (!offset.isEmpty()) {
+            ArrayList<String> page = mngr.getData(session, key,
+                Integer.parseInt(offset), 10);
+            offset = page.get(0);
+            paged.addAll(page.subList(1, page.size()));
+            pages++;
+        }
+        assertEquals(all, paged);
+        assertTrue(pages > 1);
+
+        List<String> streamed = new ArrayList<>();
+        List<Integer> chunks = new ArrayList<>();
+        mngr.streamData(session, key, 10, chunk -> {
+            chunks.add(chunk.size());
+            streamed.addAll(chunk);
+        });
+        assertEquals(all, streamed);
+        assertTrue(chunks.size() > 1);
+        assertTrue(mngr.getData(session, key, 0, 0).isEmpty());
+    }
+
+    /**
+     * Tests that many clients adding and reading blocks of their own
+     * <code>Token</code> at the same time each see only their own data.
+     */
+    @Test
+    public void testConcurrentSessions() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            long start = System.nanoTime();
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < CLIENTS; i++) {
+                final int client = i;
+                results.add(pool.submit(() -> client(client)));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(BLOCKS, (int) result.get());
+            }
+            long millis = (System.nanoTime() - start) / 1000000;
+            LOG.info(CLIENTS + " sessions added and read " + BLOCKS
+                + " blocks each in " + millis + " ms");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * This registers a <code>Token</code> for one client, then adds blocks to
+     * it and reads them back.
+     *
+     * @param client number of the client, which tags its data
+     * @return number of blocks added by the client which it could read
+     */
+    private int client(int client) {
+        GreenTreeSession session = new GreenTreeSession();
+        assertTrue(mngr.registerToken(session, "client " + client));
+        RSAPublicKey key = mngr.getPublicKey(session);
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < BLOCKS; i++) {
+            assertTrue(mngr.addBlock(session, client + ":" + i, key,
+                now - 1000, now + 60000));
+        }
+
+        assertEquals(key, mngr.getPublicKey(session));
+        int own = 0;
+        for (String str : mngr.getData(session, key)) {
+            if (str.startsWith(client + ":")) {
+                own++;
+            } else {
+                assertTrue(str, str.startsWith("token instantiated"));
+            }
+        }
+        return own;
+    }
+}
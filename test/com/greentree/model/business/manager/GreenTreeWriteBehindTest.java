@@ -0,0 +1,260 @@
+package com.greentree.model.business.manager;
+
+import com.greentree.model.domain.Token;
+import com.greentree.model.exception.TokenServiceException;
+import com.greentree.model.services.tokenservice.ITokenService;
+import com.greentree.model.services.tokenservice.InMemoryTokenService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * This class has methods for testing the {@link GreenTreeWriteBehind} queue,
+ * alone and behind the {@link GreenTreeManager}.
+ *
+ * @author david5MX53G
+ */
+public class GreenTreeWriteBehindTest {
+
+    /**
+     * This passphrase protects every <code>Token</code> of the tests.
+     */
+    private static final String PASS = "Curiouser and curiouser!";
+
+    /**
+     * These <code>Token</code> objects are queued by the tests.
+     */
+    private static final Token A = new Token(PASS);
+    private static final Token B = new Token(PASS);
+    private static final Token C = new Token(PASS);
+
+    /**
+     * Tests that a <code>Token</code> queued twice is written once, that
+     * another instance with the same key id takes its place, that a full
+     * queue refuses new <code>Token</code> objects, and that queued
+     * <code>Token</code> objects can be found until they are written.
+     */
+    @Test
+    public void testCoalesce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<String>> batches = new ArrayList<>();
+        GreenTreeWriteBehind queue = new GreenTreeWriteBehind(2, tokens -> {
+            List<String> batch = new ArrayList<>();
+            tokens.forEach(token -> batch.add(token.getKeyId()));
+            synchronized (batches) {
+                batches.add(batch);
+            }
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            assertTrue(queue.offer(A));
+            while (true) {
+                synchronized (batches) {
+                    if (!batches.isEmpty()) {
+                        break;
+                    }
+                }
+                Thread.sleep(1);
+            }
+
+            Token copy = copy(B);
+            assertTrue(queue.offer(B));
+            assertTrue(queue.offer(B));
+            assertTrue(queue.offer(C));
+            assertTrue(queue.offer(copy));
+            assertFalse(queue.offer(new Token(PASS)));
+            assertSame(A, queue.get(A.getKeyId()));
+            assertSame(copy, queue.get(B.getKeyId()));
+
+            release.countDown();
+            queue.flush();
+            assertNull(queue.get(B.getKeyId()));
+            assertEquals(2, batches.size());
+            assertEquals(1, batches.get(0).size());
+            assertEquals(2, batches.get(1).size());
+        } finally {
+            queue.close();
+        }
+    }
+
+    /**
+     * Tests that closing the queue writes what it holds, and that a closed
+     * queue refuses new <code>Token</code> objects.
+     */
+    @Test
+    public void testClose() throws Exception {
+        AtomicInteger written = new AtomicInteger();
+        GreenTreeWriteBehind queue = new GreenTreeWriteBehind(16,
+            tokens -> written.addAndGet(tokens.size()));
+        queue.offer(A);
+        queue.offer(B);
+        queue.offer(C);
+        queue.close();
+        assertEquals(3, written.get());
+        assertFalse(queue.offer(A));
+    }
+
+    /**
+     * Tests that the blocks of logins and logouts queued by the
+     * {@link GreenTreeManager} all reach storage, while the block of
+     * <code>addBlock</code> is committed before it returns.
+     */
+    @Test
+    public void testManager() throws Exception {
+        GreenTreeManager mngr = GreenTreeManager.getInstance();
+        ITokenService saved = mngr.getTokenService();
+        Thread caller = Thread.currentThread();
+        AtomicInteger direct = new AtomicInteger();
+        AtomicInteger behind = new AtomicInteger();
+        ITokenService store = new InMemoryTokenService() {
+            @Override
+            public boolean commit(Token token) {
+                (Thread.currentThread() == caller ? direct : behind)
+                    .incrementAndGet();
+                return super.commit(token);
+            }
+        };
+        mngr.setTokenService(store);
+        mngr.setWriteBehind(mngr.newWriteBehind(16));
+        try {
+            GreenTreeSession owner = new GreenTreeSession();
+            assertTrue(mngr.registerToken(owner, PASS));
+            RSAPublicKey key = mngr.getPublicKey(owner);
+            Token token = store.selectToken(key);
+            int before = token.getBlockChain().size();
+            for (int i = 0; i < 3; i++) {
+                GreenTreeSession session = new GreenTreeSession();
+                assertTrue(mngr.registerToken(session, key,
+                    token.encrypt(PASS)));
+                mngr.logOut(session);
+            }
+            assertTrue(mngr.addBlock(owner, "hello", key, 0,
+                Long.MAX_VALUE));
+
+            mngr.flush();
+            Token stored = store.selectToken(key);
+            // three logins, three logouts and hello
+            assertEquals(before + 7, stored.getBlockChain().size());
+            // the new Token and hello were committed by the caller
+            assertEquals(2, direct.get());
+            assertTrue(behind.get() >= 1 && behind.get() <= 6);
+        } finally {
+            mngr.setWriteBehind(null);
+            mngr.setTokenService(saved);
+        }
+    }
+
+    /**
+     * Tests that a batch of the queue holding two <code>Token</code> objects
+     * under different locks commits them a lock at a time, so that
+     * <code>addBlock</code> on the second does not wait for the commit of
+     * the first.
+     */
+    @Test
+    public void testCommitPerLock() throws Exception {
+        GreenTreeManager mngr = GreenTreeManager.getInstance();
+        ITokenService saved = mngr.getTokenService();
+        AtomicInteger calls = new AtomicInteger(-1);
+        CountDownLatch[] entered = {new CountDownLatch(1),
+            new CountDownLatch(1)};
+        CountDownLatch[] leave = {new CountDownLatch(1),
+            new CountDownLatch(1)};
+        ITokenService store = new InMemoryTokenService() {
+            @Override
+            public boolean commitAll(Collection<Token> tokens)
+                throws TokenServiceException {
+                int call = calls.get() < 0 ? -1 : calls.getAndIncrement();
+                if (call == 0 || call == 1) {
+                    entered[call].countDown();
+                    try {
+                        leave[call].await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.commitAll(tokens);
+            }
+        };
+        mngr.setTokenService(store);
+        mngr.setWriteBehind(mngr.newWriteBehind(16));
+        try {
+            // three Tokens under three different locks, the last two in
+            // the order their locks are taken
+            List<GreenTreeSession> sessions = new ArrayList<>();
+            List<Integer> stripes = new ArrayList<>();
+            while (sessions.size() < 3) {
+                GreenTreeSession session = new GreenTreeSession();
+                assertTrue(mngr.registerToken(session, PASS));
+                int stripe = GreenTreeManager.stripeOf(
+                    session.getToken().getKeyId());
+                if (!stripes.contains(stripe)) {
+                    sessions.add(session);
+                    stripes.add(stripe);
+                }
+            }
+            if (stripes.get(1) > stripes.get(2)) {
+                sessions.add(sessions.remove(1));
+            }
+            mngr.flush();
+
+            calls.set(0);
+            login(mngr, sessions.get(0));
+            assertTrue(entered[0].await(10, TimeUnit.SECONDS));
+            login(mngr, sessions.get(1));
+            login(mngr, sessions.get(2));
+            leave[0].countDown();
+            assertTrue(entered[1].await(10, TimeUnit.SECONDS));
+
+            GreenTreeSession last = sessions.get(2);
+            Thread adder = new Thread(() -> mngr.addBlock(last, "hello",
+                mngr.getPublicKey(last), 0, Long.MAX_VALUE));
+            adder.start();
+            adder.join(10000);
+            assertFalse(adder.isAlive());
+        } finally {
+            leave[0].countDown();
+            leave[1].countDown();
+            mngr.setWriteBehind(null);
+            mngr.setTokenService(saved);
+        }
+    }
+
+    /**
+     * This logs in a new session with the <code>Token</code> of the given
+     * one, which queues the block recording the login.
+     */
+    private static void login(GreenTreeManager mngr, GreenTreeSession owner)
+        throws Exception {
+        Token token = owner.getToken();
+        assertTrue(mngr.registerToken(new GreenTreeSession(),
+            token.getPublicKey(), token.encrypt(PASS)));
+    }
+
+    /**
+     * @return a copy of the given <code>Token</code>, with the same key id
+     */
+    private static Token copy(Token token) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(token);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (Token) in.readObject();
+        }
+    }
+}
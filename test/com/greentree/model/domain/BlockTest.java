@@ -1,153 +1,320 @@
-package com.greentree.model.domain;
-
-import org.apache.logging.log4j.Logger;
-import org.apache.logging.log4j.LogManager;
-import static org.junit.Assert.*;
-import org.junit.Before;
-import org.junit.Test;
-
-/**
- * This class defines methods for testing the <code>{@link Block}</code> class.
- * 
- * @author david5MX53G
- *
- */
-public class BlockTest {
-    /** log4j logger for debug output */
-    Logger logger = LogManager.getLogger();
-    
-    /** passphrase used to instantiate objects for testing. */
-    private static final String PASSPHRASE = "We\'re all mad here.";
-
-    /** <code>{@link Token}</code> used to build <code>Block</code> objects */
-    private Token tk;
-
-    /** one of three <code>{@link Block}</code> objects against which tests are run */
-    private Block block0;
-
-    /** identical to <code>block0</code> */
-    private Block block1;
-
-    /** different from <code>block0</code> */
-    private Block block2;
-
-    /**
-     * Instantiates a new factory used by test methods elsewhere in this class.
-     * 
-     * @throws java.lang.Exception
-     */
-    @Before
-    public void setUp() throws Exception {
-        if (tk == null) {
-            tk = new Token(PASSPHRASE);
-        }
-    }
-
-    /** Test method for {@link Block#equals(java.lang.Object)}. */
-    @Test
-    public void testEquals() {
-        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
-        block1 = new Block("Tweedle Dee", Block.ROOT, tk);
-        try {
-            assertTrue("testEquals() FAILED", block0.equals(block1));
-            logger.debug("testEquals() PASSED");
-        } catch (AssertionError e) {
-            fail();
-            logger.debug(e.getMessage());
-        }
-    }
-
-    /** Test method for {@link Block#equals(java.lang.Object)}. */
-    @Test
-    public void testNotEquals() {
-        block1 = new Block("Tweedle Dee", Block.ROOT, tk);
-        block2 = new Block("Tweedle Dum", Block.ROOT, tk);
-        try {
-            assertFalse("testNotEquals() FAILED", block1.equals(block2));
-            logger.debug("testNotEquals() PASSED");
-        } catch (AssertionError e) {
-            fail();
-            logger.debug(e.getMessage());
-        }
-    }
-
-    /** Test method for {@link Block#hashCode()}. */
-    @Test
-    public void testHashCode() {
-        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
-        block1 = new Block("Tweedle Dee", Block.ROOT, tk);
-        try {
-            assertTrue("testHashCode() FAILED", block0.hashCode() == block1.hashCode());
-            logger.debug("testHashCode() PASSED");
-        } catch (AssertionError e) {
-            fail();
-            logger.debug(e.getMessage());
-        }
-    }
-
-    /** Test method for {@link Block#hashCode()}. */
-    @Test
-    public void testNotHashCode() {
-        block1 = new Block("Tweedle Dee", Block.ROOT, tk);
-        block2 = new Block("Tweedle Dum", Block.ROOT, tk);
-        try {
-            assertFalse(block1.hashCode() == block2.hashCode());
-            logger.debug("testNotHashCode() PASSED");
-        } catch (AssertionError e) {
-            fail();
-            logger.debug("testNotHashCode() FAILED");
-        }
-    }
-
-    /** Test method for {@link Block#toString()}. */
-    @Test
-    public void testToString() {
-        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
-        String test = block0.toString();
-        try {
-            assertTrue(test.contains("claims: "));
-            assertTrue(test.contains("hash: " + block0.getHash()));
-            assertTrue(test.contains("issuer: "));
-            assertTrue(test.contains("referee: "));
-            assertTrue(test.contains("timestamp: " + String.valueOf(block0.getTimeStamp())));
-            logger.debug("testToString() PASSED");
-        } catch (AssertionError e) {
-            fail();
-            logger.debug("testToString() FAILED: " + e.getMessage());
-        }
-    }	
-
-    /** Test method for {@link Block#validate()}. */
-    @Test
-    public void testValidate() {
-        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
-        block1 = new Block("Tweedle Dee", Block.ROOT, tk);
-        block2 = new Block("Tweedle Dum", Block.ROOT, tk);
-        try {
-            assertTrue("testValidate() FAILED", block0.validate());
-            assertTrue("testValidate() FAILED", block1.validate());
-            assertTrue("testValidate() FAILED", block2.validate());
-            logger.debug("testValidate() PASSED");
-        } catch (AssertionError e) {
-            fail();
-            logger.debug(e.getMessage());
-        }
-    }
-    
-    /** Test method for {@link Block#CompareTo(Object)}. */
-    @Test
-    public void testCompareTo() {
-        String failmsg = "testCompareTo() FAILED since it did not return ";
-        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
-        block1 = new Block("Tweedle Dum", block0, tk);
-        try {
-            assertTrue(failmsg + "-1", block0.compareTo(Block.ROOT) == -1);
-            assertTrue(failmsg + "-1", block1.compareTo(block0) == -1);
-            assertTrue(failmsg + "0", block0.compareTo(block0) == 0);
-            assertTrue(failmsg + "1", block0.compareTo(block1) == 1);
-        } catch (AssertionError e) {
-            fail();
-            logger.error(e.getMessage());
-        }
-    }
-}
+package com.greentree.model.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class defines methods for testing the <code>{@link Block}</code> class.
+ * 
+ * @author david5MX53G
+ *
+ */
+public class BlockTest {
+    /** log4j logger for debug output */
+    Logger logger = LogManager.getLogger();
+    
+    /** passphrase used to instantiate objects for testing. */
+    private static final String PASSPHRASE = "We\'re all mad here.";
+
+    /** <code>{@link Token}</code> used to build <code>Block</code> objects */
+    private Token tk;
+
+    /** one of three <code>{@link Block}</code> objects against which tests are run */
+    private Block block0;
+
+    /** identical to <code>block0</code> */
+    private Block block1;
+
+    /** different from <code>block0</code> */
+    private Block block2;
+
+    /**
+     * Instantiates a new factory used by test methods elsewhere in this class.
+     * 
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        if (tk == null) {
+            tk = new Token(PASSPHRASE);
+        }
+    }
+
+    /** Test method for {@link Block#equals(java.lang.Object)}. */
+    @Test
+    public void testEquals() {
+        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
+        block1 = new Block("Tweedle Dee", Block.ROOT, tk);
+        try {
+            assertTrue("testEquals() FAILED", block0.equals(block1));
+            logger.debug("testEquals() PASSED");
+        } catch (AssertionError e) {
+            fail();
+            logger.debug(e.getMessage());
+        }
+    }
+
+    /** Test method for {@link Block#equals(java.lang.Object)}. */
+    @Test
+    public void testNotEquals() {
+        block1 = new Block("Tweedle Dee", Block.ROOT, tk);
+        block2 = new Block("Tweedle Dum", Block.ROOT, tk);
+        try {
+            assertFalse("testNotEquals() FAILED", block1.equals(block2));
+            logger.debug("testNotEquals() PASSED");
+        } catch (AssertionError e) {
+            fail();
+            logger.debug(e.getMessage());
+        }
+    }
+
+    /** Test method for {@link Block#hashCode()}. */
+    @Test
+    public void testHashCode() {
+        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
+        block1 = new Block("Tweedle Dee", Block.ROOT, tk);
+        try {
+            assertTrue("testHashCode() FAILED", block0.hashCode() == block1.hashCode());
+            logger.debug("testHashCode() PASSED");
+        } catch (AssertionError e) {
+            fail();
+            logger.debug(e.getMessage());
+        }
+    }
+
+    /** Test method for {@link Block#hashCode()}. */
+    @Test
+    public void testNotHashCode() {
+        block1 = new Block("Tweedle Dee", Block.ROOT, tk);
+        block2 = new Block("Tweedle Dum", Block.ROOT, tk);
+        try {
+            assertFalse(block1.hashCode() == block2.hashCode());
+            logger.debug("testNotHashCode() PASSED");
+        } catch (AssertionError e) {
+            fail();
+            logger.debug("testNotHashCode() FAILED");
+        }
+    }
+
+    /** Test method for {@link Block#toString()}. */
+    @Test
+    public void testToString() {
+        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
+        String test = block0.toString();
+        try {
+            assertTrue(test.contains("claims: "));
+            assertTrue(test.contains("hash: " + block0.getHash()));
+            assertTrue(test.contains("issuer: "));
+            assertTrue(test.contains("referee: "));
+            assertTrue(test.contains("timestamp: " + String.valueOf(block0.getTimeStamp())));
+            logger.debug("testToString() PASSED");
+        } catch (AssertionError e) {
+            fail();
+            logger.debug("testToString() FAILED: " + e.getMessage());
+        }
+    }	
+
+    /** Test method for {@link Block#validate()}. */
+    @Test
+    public void testValidate() {
+        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
+        block1 = new Block("Tweedle Dee", Block.ROOT, tk);
+        block2 = new Block("Tweedle Dum", Block.ROOT, tk);
+        try {
+            assertTrue("testValidate() FAILED", block0.validate());
+            assertTrue("testValidate() FAILED", block1.validate());
+            assertTrue("testValidate() FAILED", block2.validate());
+            logger.debug("testValidate() PASSED");
+        } catch (AssertionError e) {
+            fail();
+            logger.debug(e.getMessage());
+        }
+    }
+    
+    /** Test method for {@link Block#CompareTo(Object)}. */
+    @Test
+    public void testCompareTo() {
+        String failmsg = "testCompareTo() FAILED since it did not return ";
+        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
+        block1 = new Block("Tweedle Dum", block0, tk);
+        try {
+            assertTrue(failmsg + "-1", block0.compareTo(Block.ROOT) == -1);
+            assertTrue(failmsg + "-1", block1.compareTo(block0) == -1);
+            assertTrue(failmsg + "0", block0.compareTo(block0) == 0);
+            assertTrue(failmsg + "1", block0.compareTo(block1) == 1);
+        } catch (AssertionError e) {
+            fail();
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Test method for {@link Block#descendsFrom(Block)}, along a chain long
+     * enough to need the skip pointers and across two forks of it.
+     */
+    @Test
+    public void testDescendsFrom() {
+        List<Block> chain = chain(1000);
+        Block last = chain.get(chain.size() - 1);
+        Block fork = new Block("Off with their heads!", chain.get(499), tk);
+        for (int i = 0; i < chain.size(); i++) {
+            Block block = chain.get(i);
+            assertEquals(i + 1, block.getHeight());
+            assertSame(block, last.getAncestor(i + 1));
+            assertEquals(i < chain.size() - 1, last.descendsFrom(block));
+            assertFalse(block.descendsFrom(last));
+            assertEquals(i < 500, fork.descendsFrom(block));
+        }
+        assertTrue(last.descendsFrom(Block.ROOT));
+        assertFalse(last.descendsFrom(fork));
+        assertNotEquals(0, fork.compareTo(chain.get(500)));
+        assertEquals(-fork.compareTo(chain.get(500)),
+            chain.get(500).compareTo(fork));
+    }
+
+    /**
+     * Tests that a <code>Block</code> read back from a stream knows its
+     * height and ancestors without its skip pointers.
+     */
+    @Test
+    public void testHeightSerialized() throws Exception {
+        List<Block> chain = chain(100);
+        Block last = chain.get(chain.size() - 1);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(last);
+        }
+        Block loaded;
+        try (ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = (Block) in.readObject();
+        }
+        assertEquals(100, loaded.getHeight());
+        assertTrue(loaded.descendsFrom(chain.get(41)));
+        assertEquals(-1, loaded.compareTo(chain.get(98)));
+    }
+
+    /**
+     * Measures sorting shuffled chains of 10,000 and 100,000
+     * <code>Block</code> objects with {@link Block#compareTo(Object)}, and
+     * checks that each <code>Block</code> comes before its referee.
+     */
+    @Test
+    public void testSortChain() {
+        Random random = new Random(42);
+        Comparator<Block> order = (a, b) -> a.compareTo(b);
+        for (int size : new int[]{10000, 100000}) {
+            List<Block> chain = chain(size);
+            List<Block> shuffled = new ArrayList<>(chain);
+            Collections.shuffle(shuffled, random);
+
+            long start = System.nanoTime();
+            shuffled.sort(order);
+            long sortNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            TreeSet<Block> set = new TreeSet<>(shuffled);
+            long setNanos = System.nanoTime() - start;
+
+            Collections.reverse(chain);
+            assertEquals(chain, shuffled);
+            assertEquals(chain, new ArrayList<>(set));
+            logger.info("sorted " + size + " Blocks in "
+                + (sortNanos / 1000000) + " ms, into a TreeSet in "
+                + (setNanos / 1000000) + " ms");
+        }
+    }
+
+    /**
+     * @param size number of <code>Block</code> objects in the chain
+     * @return a chain of new <code>Block</code> objects starting from
+     * {@link Block#ROOT}, in the order they were added
+     */
+    private List<Block> chain(int size) {
+        List<Block> chain = new ArrayList<>(size);
+        Block referee = Block.ROOT;
+        for (int i = 0; i < size; i++) {
+            referee = new Block(String.valueOf(i), referee, tk);
+            chain.add(referee);
+        }
+        return chain;
+    }
+
+    /**
+     * Test method for {@link Block#getData(Token, String)}: only the holder
+     * of an unexpired <code>Claim</code> may read, also after the
+     * <code>Block</code> is loaded again.
+     */
+    @Test
+    public void testGetDataClaims() throws Exception {
+        String ciphertext = tk.encrypt(PASSPHRASE);
+        Token reader = new Token(PASSPHRASE);
+        Token stranger = new Token(PASSPHRASE);
+        long now = System.currentTimeMillis();
+        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
+        block0.addClaim(new Claim(reader, now - 2000, now - 1000), ciphertext);
+        assertNull(block0.getData(reader, reader.encrypt(PASSPHRASE)));
+
+        block0.addClaim(new Claim(reader, now - 1000, now + 60000),
+            ciphertext);
+        assertEquals("Tweedle Dee",
+            block0.getData(reader, reader.encrypt(PASSPHRASE)));
+        assertNull(block0.getData(stranger, stranger.encrypt(PASSPHRASE)));
+        assertNull(block0.getData(tk, ciphertext));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(block0);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()))) {
+            block1 = (Block) in.readObject();
+        }
+        assertEquals("Tweedle Dee",
+            block1.getData(reader, reader.encrypt(PASSPHRASE)));
+        assertNull(block1.getData(stranger, stranger.encrypt(PASSPHRASE)));
+    }
+
+    /**
+     * Measures {@link Block#getData(Token, String)} on a <code>Block</code>
+     * shared with many readers.
+     */
+    @Test
+    public void testGetDataManyReaders() {
+        String ciphertext = tk.encrypt(PASSPHRASE);
+        long now = System.currentTimeMillis();
+        block0 = new Block("Tweedle Dee", Block.ROOT, tk);
+        List<Token> readers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            readers.add(new Token(PASSPHRASE));
+        }
+        for (int i = 0; i < 5000; i++) {
+            block0.addClaim(new Claim(readers.get(i % readers.size()), now,
+                now + 60000), ciphertext);
+        }
+        Token reader = readers.get(readers.size() - 1);
+        String pass = reader.encrypt(PASSPHRASE);
+        assertEquals("Tweedle Dee", block0.getData(reader, pass));
+
+        int reads = 2000;
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            assertNotNull(block0.getData(reader, pass));
+        }
+        long nanos = System.nanoTime() - start;
+        logger.info("getData with 5000 claims: "
+            + (reads * 1000000000L / Math.max(nanos, 1)) + " reads/sec");
+    }
+}
@@ -0,0 +1,125 @@
+package com.greentree.model.domain;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.Callable;
+import javax.crypto.Cipher;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * This class has methods for testing the <code>{@link Crypto}</code> class.
+ * The tests also log the operations per second with a new instance from
+ * <code>getInstance</code> on every call, as the domain classes used to do,
+ * against the instance <code>Crypto</code> keeps for the thread.
+ *
+ * @author david5MX53G
+ */
+public class CryptoTest {
+
+    /**
+     * log4j 2 logger
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Each way is timed over this many operations, after as many to warm up.
+     */
+    private static final int OPS = 20000;
+
+    /**
+     * This is hashed and encrypted by the tests.
+     */
+    private static final byte[] INPUT
+        = "Why, sometimes I've believed as many as six impossible things"
+            .getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * This provides a public key for encryption.
+     */
+    private static final Token TOKEN = new Token("Begin at the beginning.");
+
+    /**
+     * Tests that a reused digest hashes the same as a new one, and logs the
+     * rate of both.
+     */
+    @Test
+    public void testSha256() throws Exception {
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(INPUT),
+            Crypto.sha256().digest(INPUT));
+        Crypto.sha256().update(INPUT);
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(INPUT),
+            Crypto.sha256().digest(INPUT));
+
+        compare("SHA-256", OPS,
+            () -> MessageDigest.getInstance("SHA-256").digest(INPUT),
+            () -> Crypto.sha256().digest(INPUT));
+    }
+
+    /**
+     * Tests that each thread gets its own digest.
+     */
+    @Test
+    public void testPerThread() throws Exception {
+        MessageDigest[] other = new MessageDigest[1];
+        Thread thread = new Thread(() -> other[0] = Crypto.sha256());
+        thread.start();
+        thread.join();
+        assertNotNull(other[0]);
+        assertNotSame(other[0], Crypto.sha256());
+        assertSame(Crypto.sha256(), Crypto.sha256());
+    }
+
+    /**
+     * Tests that the reused cipher still encrypts for the <code>Token</code>,
+     * and logs the rate of RSA encryption both ways.
+     */
+    @Test
+    public void testRsa() throws Exception {
+        String ciphertext = TOKEN.encrypt("Begin at the beginning.");
+        assertTrue(TOKEN.checkPassphrase(ciphertext));
+
+        compare("RSA encrypt", OPS / 10,
+            () -> {
+                Cipher cipher = Cipher.getInstance("RSA");
+                cipher.init(Cipher.ENCRYPT_MODE, TOKEN.getPublicKey());
+                return cipher.doFinal(INPUT);
+            },
+            () -> {
+                Cipher cipher = Crypto.rsa();
+                cipher.init(Cipher.ENCRYPT_MODE, TOKEN.getPublicKey());
+                return cipher.doFinal(INPUT);
+            });
+    }
+
+    /**
+     * This logs the operations per second of both ways of doing the same
+     * thing.
+     *
+     * @param name of the operation
+     * @param ops number of operations to time
+     * @param before new instance on every call
+     * @param after instance reused by the thread
+     */
+    private static void compare(String name, int ops, Callable<?> before,
+        Callable<?> after) throws Exception {
+        LOG.info(name + ": " + rate(ops, before) + " ops/second with "
+            + "getInstance, " + rate(ops, after) + " ops/second with Crypto");
+    }
+
+    /**
+     * @return operations per second, measured after warming up
+     */
+    private static long rate(int ops, Callable<?> op) throws Exception {
+        for (int i = 0; i < ops; i++) {
+            op.call();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            op.call();
+        }
+        return ops * 1000000000L / Math.max(1, System.nanoTime() - start);
+    }
+}
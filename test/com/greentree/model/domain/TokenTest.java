@@ -1,109 +1,280 @@
-package com.greentree.model.domain;
-
-import static org.junit.Assert.*;
-
-import org.junit.Before;
-import org.junit.Test;
-import org.apache.logging.log4j.Logger;
-import org.apache.logging.log4j.LogManager;
-
-/**
- * This class has methods for testing the <code>{@link Token}</code> class.
- *
- * @author david5MX53G
- */
-public class TokenTest {
-
-    /**
-     * log4j 2 logger
-     */
-    Logger logger = LogManager.getLogger();
-
-    /**
-     * passphrase used to instantiate <code>Token</code> objects for testing.
-     */
-    private static final String PASSPHRASE = "We\'re all mad here.";
-    Token token0 = new Token(PASSPHRASE);
-    Token token1 = token0;
-    Token token2 = new Token(PASSPHRASE);
-
-    /**
-     * Tests whether two <code>{@link Token}</code> objects are identical.
-     */
-    @Test
-    public void testEqualsToken() {
-        assertTrue(token0.equals(token1));
-        logger.debug("testEqualsToken() PASSED");
-    }
-
-    /**
-     * Checks whether two <code>Token</code> objects with the same passphrase
-     * are not equal.
-     */
-    @Test
-    public void testNotEqualsToken() {
-        assertFalse("testNotEqualsToken() FAILED", token0.equals(token2));
-        logger.debug("testNotEqualsToken() PASSED");
-    }
-
-    /**
-     * Validates each <code>{@link Token}</code> object returns a consistent,
-     * unique <code>{@link
-     * Object#hashCode()}</code>
-     *
-     */
-    @Test
-    public void testHashCode() {
-        try {
-            Token token0 = new Token(PASSPHRASE);
-            Token token1 = new Token(PASSPHRASE);
-            assertTrue("testHashCode() FAILED", token0.hashCode() == token0.hashCode());
-            assertTrue("testHashCode() FAILED", token0.hashCode() != token2.hashCode());
-            assertTrue("testHashCode() FAILED", token1.hashCode() == token1.hashCode());
-            logger.debug("testHashCode() PASSED");
-        } catch (AssertionError e) {
-            logger.debug(e.getMessage());
-        }
-    }
-
-    /**
-     * Tests the <code>{@link Token#hashCode()}</code> function
-     */
-    @Test
-    public void testNotHashCode() {
-        try {
-            assertFalse("testNotHashCode() FAILED", token0.hashCode() == token2.hashCode());
-            logger.debug("testNotHashCode() PASSED");
-        } catch (AssertionError e) {
-            logger.error(e.getMessage());
-        }
-    }
-
-    /**
-     * Tests the <code>{@link Token#toString()}</code> function
-     */
-    @Test
-    public void testToString() {
-        String tokenString = null;
-        tokenString = token0.toString();
-        try {
-            assertTrue("testToString() FAILED", tokenString != null);
-        } catch (AssertionError e) {
-            logger.error(e.getMessage());
-        }
-    }
-
-    /**
-     * Tests with a valid token passed in. This should evaluate to
-     * <code>True</code>.
-     */
-    @Test
-    public void testValidate() {
-        try {
-            assertTrue("testValidate() FAILED", token0.validate());
-            logger.debug("testValidate() PASSED");
-        } catch (AssertionError e) {
-            logger.error(e.getMessage());
-        }
-    }
-}
+package com.greentree.model.domain;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * This class has methods for testing the <code>{@link Token}</code> class.
+ *
+ * @author david5MX53G
+ */
+public class TokenTest {
+
+    /**
+     * log4j 2 logger
+     */
+    Logger logger = LogManager.getLogger();
+
+    /**
+     * passphrase used to instantiate <code>Token</code> objects for testing.
+     */
+    private static final String PASSPHRASE = "We\'re all mad here.";
+    Token token0 = new Token(PASSPHRASE);
+    Token token1 = token0;
+    Token token2 = new Token(PASSPHRASE);
+
+    /**
+     * Tests whether two <code>{@link Token}</code> objects are identical.
+     */
+    @Test
+    public void testEqualsToken() {
+        assertTrue(token0.equals(token1));
+        logger.debug("testEqualsToken() PASSED");
+    }
+
+    /**
+     * Checks whether two <code>Token</code> objects with the same passphrase
+     * are not equal.
+     */
+    @Test
+    public void testNotEqualsToken() {
+        assertFalse("testNotEqualsToken() FAILED", token0.equals(token2));
+        logger.debug("testNotEqualsToken() PASSED");
+    }
+
+    /**
+     * Validates each <code>{@link Token}</code> object returns a consistent,
+     * unique <code>{@link
+     * Object#hashCode()}</code>
+     *
+     */
+    @Test
+    public void testHashCode() {
+        try {
+            Token token0 = new Token(PASSPHRASE);
+            Token token1 = new Token(PASSPHRASE);
+            assertTrue("testHashCode() FAILED", token0.hashCode() == token0.hashCode());
+            assertTrue("testHashCode() FAILED", token0.hashCode() != token2.hashCode());
+            assertTrue("testHashCode() FAILED", token1.hashCode() == token1.hashCode());
+            logger.debug("testHashCode() PASSED");
+        } catch (AssertionError e) {
+            logger.debug(e.getMessage());
+        }
+    }
+
+    /**
+     * Tests the <code>{@link Token#hashCode()}</code> function
+     */
+    @Test
+    public void testNotHashCode() {
+        try {
+            assertFalse("testNotHashCode() FAILED", token0.hashCode() == token2.hashCode());
+            logger.debug("testNotHashCode() PASSED");
+        } catch (AssertionError e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Tests the <code>{@link Token#toString()}</code> function
+     */
+    @Test
+    public void testToString() {
+        String tokenString = null;
+        tokenString = token0.toString();
+        try {
+            assertTrue("testToString() FAILED", tokenString != null);
+        } catch (AssertionError e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Tests with a valid token passed in. This should evaluate to
+     * <code>True</code>.
+     */
+    @Test
+    public void testValidate() {
+        try {
+            assertTrue("testValidate() FAILED", token0.validate());
+            logger.debug("testValidate() PASSED");
+        } catch (AssertionError e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Tests that {@link Token#getBlocksSince(String)} returns only the blocks
+     * after the given one, and the whole chain for an unknown hash.
+     */
+    @Test
+    public void testGetBlocksSince() {
+        String ciphertext = token0.encrypt(PASSPHRASE);
+        int size = token0.getBlockChain().size();
+        String last = token0.getBlockChain().get(size - 1).getHash();
+
+        assertTrue(token0.getBlocksSince(last).isEmpty());
+        token0.addBlock("one", ciphertext);
+        token0.addBlock("two", ciphertext);
+
+        ArrayList<Block> since = token0.getBlocksSince(last);
+        assertEquals(2, since.size());
+        assertEquals(1, token0.getBlocksSince(since.get(0).getHash()).size());
+        assertEquals(size + 2, token0.getBlocksSince("unknown").size());
+        assertEquals(size + 2, token0.getBlocksSince(null).size());
+    }
+
+    /**
+     * Tests that the key id is a fixed-length fingerprint of the public key.
+     */
+    @Test
+    public void testKeyId() {
+        assertEquals(24, token0.getKeyId().length());
+        assertEquals(token0.getKeyId(), Token.keyIdOf(token0.getPublicKey()));
+        assertNotEquals(token0.getKeyId(), token2.getKeyId());
+        assertTrue(token0.getKeyId().matches("[A-Za-z0-9_-]+"));
+    }
+
+    /**
+     * Tests that a <code>Token</code> written under its legacy key id is read
+     * with the current one.
+     */
+    @Test
+    public void testLegacyKeyId() throws Exception {
+        String legacy = Token.legacyKeyIdOf(token0.getPublicKey());
+        assertEquals(18, legacy.length());
+        assertTrue(legacy.matches("[0-9]+"));
+
+        Token copy = copy(token0);
+        copy.keyId = legacy;
+        copy = copy(copy);
+        assertEquals(token0.getKeyId(), copy.getKeyId());
+        assertEquals(token0, copy);
+    }
+
+    /**
+     * Tests that pages of the chain are clamped to the blocks there are.
+     */
+    @Test
+    public void testGetBlocks() {
+        String ciphertext = token0.encrypt(PASSPHRASE);
+        token0.addBlock("one", ciphertext);
+        token0.addBlock("two", ciphertext);
+        int size = token0.getBlockChain().size();
+
+        assertEquals(2, token0.getBlocks(size - 2, 5).size());
+        assertEquals(token0.getBlockChain().get(size - 1),
+            token0.getBlocks(size - 1, 1).get(0));
+        assertEquals(size, token0.getBlocks(-1, Integer.MAX_VALUE).size());
+        assertTrue(token0.getBlocks(size, 5).isEmpty());
+        assertTrue(token0.getBlocks(0, 0).isEmpty());
+    }
+
+    /**
+     * Tests that a ciphertext accepted once is accepted again from its
+     * ticket, much faster, while another <code>Token</code> and another
+     * passphrase are still refused.
+     */
+    @Test
+    public void testCheckPassphraseTicket() {
+        String ciphertext = token0.encrypt(PASSPHRASE);
+
+        long start = System.nanoTime();
+        assertTrue(token0.checkPassphrase(ciphertext));
+        long first = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(token0.checkPassphrase(ciphertext));
+        }
+        long ticketed = (System.nanoTime() - start) / 1000;
+        logger.info("checkPassphrase(String) took " + first / 1000
+            + " us, then " + ticketed / 1000 + " us with a ticket");
+
+        assertFalse(token2.checkPassphrase(ciphertext));
+        assertFalse(token0.checkPassphrase(token0.encrypt("Not mad at all.")));
+    }
+
+    /**
+     * Tests that a <code>Block</code> added with several <code>Claim</code>
+     * objects can be read by each of their <code>Token</code> objects.
+     */
+    @Test
+    public void testAddBlockClaims() {
+        Token token3 = new Token(PASSPHRASE);
+        long now = System.currentTimeMillis();
+        token0.addBlock("shared", token0.encrypt(PASSPHRASE), Arrays.asList(
+            new Claim(token2, now, now + 60000),
+            new Claim(token3, now, now + 60000)));
+
+        ArrayList<Block> chain = token0.getBlockChain();
+        Block block = chain.get(chain.size() - 1);
+        assertEquals("shared",
+            block.getData(token2, token2.encrypt(PASSPHRASE)));
+        assertEquals("shared",
+            block.getData(token3, token3.encrypt(PASSPHRASE)));
+    }
+
+    /**
+     * Tests that the record of a <code>Block</code> names the
+     * <code>Token</code> of a <code>Claim</code> by its key only, so the
+     * record neither leaks its secrets nor grows with its chain, and that the
+     * <code>Token</code> can still read the restored <code>Block</code>.
+     */
+    @Test
+    public void testEncodeBlockClaimant() throws Exception {
+        Token copy = copy(token0);
+        String ciphertext = token0.encrypt(PASSPHRASE);
+        long now = System.currentTimeMillis();
+        byte[][] records = new byte[2][];
+        for (int i = 0; i < records.length; i++) {
+            for (int j = 0; j < 50; j++) {
+                token2.addBlock("grown " + j, token2.encrypt(PASSPHRASE));
+            }
+            token0.addBlock("shared", ciphertext,
+                new Claim(token2, now, now + 60000));
+            ArrayList<Block> chain = token0.getBlockChain();
+            records[i] = token0.encodeBlock(chain.get(chain.size() - 1));
+        }
+        assertEquals(records[0].length, records[1].length);
+        String secret = new String(token2.privateKey.getEncoded(),
+            StandardCharsets.ISO_8859_1);
+        assertFalse(new String(records[1], StandardCharsets.ISO_8859_1)
+            .contains(secret));
+
+        assertTrue(copy.restoreBlock(records[0]));
+        ArrayList<Block> chain = copy.getBlockChain();
+        Block block = chain.get(chain.size() - 1);
+        assertEquals("shared",
+            block.getData(token2, token2.encrypt(PASSPHRASE)));
+        Claim claim = block.getClaims().iterator().next();
+        assertEquals(token2, claim.getToken());
+        assertNull(claim.getToken().privateKey);
+    }
+
+    /**
+     * @return a copy of the given <code>Token</code>, through serialization
+     */
+    private static Token copy(Token token) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(token);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (Token) in.readObject();
+        }
+    }
+}
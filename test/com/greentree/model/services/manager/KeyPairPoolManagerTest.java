@@ -0,0 +1,96 @@
+package com.greentree.model.services.manager;
+
+import java.lang.management.ManagementFactory;
+import java.security.KeyPair;
+import javax.management.ObjectName;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * KeyPairPoolManagerTest tests the {@link KeyPairPoolManager} class.
+ *
+ * @author david5MX53G
+ */
+public class KeyPairPoolManagerTest {
+
+    /** log4j 2 logger */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * Tests that pairs come from the pool once it has filled, much faster
+     * than generating them, and that no pair is handed out twice.
+     */
+    @Test
+    public void testTake() throws Exception {
+        KeyPairPoolManager pool = new KeyPairPoolManager(2);
+        try {
+            fill(pool);
+            long start = System.nanoTime();
+            KeyPair first = pool.take();
+            KeyPair second = pool.take();
+            long pooled = System.nanoTime() - start;
+
+            assertNotNull(first);
+            assertNotSame(first, second);
+            assertNotEquals(first.getPublic(), second.getPublic());
+            assertEquals(2, pool.getTakenCount());
+            assertEquals(0, pool.getMissCount());
+            assertTrue(pool.getRefillRate() > 0);
+            LOG.info("took 2 pooled key pairs in " + pooled / 1000
+                + " us; the pool refills at " + pool.getRefillRate()
+                + " pairs/second");
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * Tests that a pool of size 0 generates every pair inline.
+     */
+    @Test
+    public void testEmpty() {
+        KeyPairPoolManager pool = new KeyPairPoolManager(0);
+        try {
+            assertNotNull(pool.take());
+            assertEquals(0, pool.getTakenCount());
+            assertEquals(1, pool.getMissCount());
+            assertEquals(0, pool.getGeneratedCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    /**
+     * Tests that the pool publishes its metrics over JMX.
+     */
+    @Test
+    public void testMXBean() throws Exception {
+        KeyPairPoolManager pool = new KeyPairPoolManager(1);
+        try {
+            fill(pool);
+            ObjectName name = new ObjectName(KeyPairPoolManager.OBJECT_NAME);
+            assertEquals(1, ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(name, "Capacity"));
+            assertEquals(1, ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(name, "Size"));
+        } finally {
+            pool.close();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+            new ObjectName(KeyPairPoolManager.OBJECT_NAME)));
+    }
+
+    /**
+     * This waits up to 30 seconds for the pool to fill.
+     */
+    private static void fill(KeyPairPoolManager pool) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (pool.getSize() < pool.getCapacity()) {
+            assertTrue("pool did not fill",
+                System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
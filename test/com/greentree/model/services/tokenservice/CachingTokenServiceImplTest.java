@@ -0,0 +1,138 @@
+package com.greentree.model.services.tokenservice;
+
+import com.greentree.model.domain.Token;
+import com.greentree.model.exception.TokenServiceException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This defines methods for testing the
+ * <code>{@link CachingTokenServiceImpl}</code> class in front of an
+ * {@link InMemoryTokenService} which counts its reads.
+ *
+ * @author david5MX53G
+ */
+public class CachingTokenServiceImplTest {
+
+    /**
+     * This passphrase protects the <code>Token</code> objects of the tests.
+     */
+    private static final String PASS = "Why, sometimes I've believed as many "
+        + "as six impossible things before breakfast.";
+
+    /**
+     * These <code>Token</code> objects are stored by the tests.
+     */
+    private static final Token TOKEN0 = new Token(PASS);
+    private static final Token TOKEN1 = new Token(PASS);
+    private static final Token TOKEN2 = new Token(PASS);
+
+    /**
+     * This counts the reads which reach storage.
+     */
+    private final AtomicInteger reads = new AtomicInteger();
+
+    /**
+     * This stores the <code>Token</code> objects behind the cache.
+     */
+    private ITokenService store;
+
+    /**
+     * This is the cache being tested.
+     */
+    private CachingTokenServiceImpl cache;
+
+    /**
+     * This stores the <code>Token</code> objects, bypassing the cache, and
+     * builds a cache holding chains of up to 5 <code>Block</code> objects.
+     */
+    @Before
+    public void setUp() throws TokenServiceException {
+        store = new InMemoryTokenService() {
+            @Override
+            public Token selectToken(RSAPublicKey key) {
+                reads.incrementAndGet();
+                return super.selectToken(key);
+            }
+        };
+        store.commitAll(Arrays.asList(TOKEN0, TOKEN1, TOKEN2));
+        cache = new CachingTokenServiceImpl(store, 5);
+    }
+
+    /**
+     * This removes the cache from JMX.
+     */
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    /**
+     * Tests that a <code>Token</code> read twice is read from storage once,
+     * and that both readers get the same instance.
+     */
+    @Test
+    public void testSelectTokenHit() throws TokenServiceException {
+        Token first = cache.selectToken(TOKEN0.getPublicKey());
+        Token second = cache.selectToken(TOKEN0.getPublicKey());
+        assertSame(first, second);
+        assertEquals(1, reads.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0.0);
+    }
+
+    /**
+     * Tests that a committed <code>Token</code> is read from the cache.
+     */
+    @Test
+    public void testCommitWriteThrough() throws TokenServiceException {
+        Token token = new Token(PASS);
+        assertTrue(cache.commit(token));
+        assertSame(token, cache.selectToken(token.getPublicKey()));
+        assertSame(token, store.selectToken(token.getPublicKey()));
+        assertEquals(1, reads.get());
+    }
+
+    /**
+     * Tests that the least recently used <code>Token</code> is evicted once
+     * the chains in the cache are longer than its maximum weight.
+     */
+    @Test
+    public void testEviction() throws TokenServiceException {
+        cache.selectToken(TOKEN0.getPublicKey());
+        cache.selectToken(TOKEN1.getPublicKey());
+        cache.selectToken(TOKEN0.getPublicKey());
+        assertEquals(0, cache.getEvictionCount());
+
+        cache.selectToken(TOKEN2.getPublicKey());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getSize());
+        assertTrue(cache.getWeight() <= cache.getMaxWeight());
+
+        cache.selectToken(TOKEN0.getPublicKey());
+        assertEquals(3, reads.get());
+        cache.selectToken(TOKEN1.getPublicKey());
+        assertEquals(4, reads.get());
+    }
+
+    /**
+     * Tests that a bulk read answers from the cache what it can and reads
+     * only the rest from storage.
+     */
+    @Test
+    public void testSelectTokens() throws TokenServiceException {
+        cache.selectToken(TOKEN0.getPublicKey());
+        Map<String, Token> tokens = cache.selectTokens(Arrays.asList(
+            TOKEN0.getPublicKey(), TOKEN1.getPublicKey()));
+        assertEquals(2, tokens.size());
+        assertEquals(2, reads.get());
+        assertEquals(1, cache.getHitCount());
+    }
+}
@@ -1,119 +1,316 @@
-package com.greentree.model.services.tokenservice;
-
-import com.greentree.model.exception.TokenServiceException;
-import static org.junit.Assert.*;
-
-import java.security.interfaces.RSAPublicKey;
-import org.junit.Test;
-
-import com.greentree.model.domain.Token;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-/**
- * This defines methods for testing the
- * <code>{@link FileSystemTokenService}</code> class.
- *
- * @author david5MX53G
- *
- */
-public class FileSystemTokenServiceImplTest {
-
-    /**
-     * log4j 2 logger
-     */
-    static final Logger LOGGER = LogManager.getLogger();
-
-    /**
-     * This {@link Token} variable will be committed and read from file system
-     * storage.
-     */
-    private static Token token;
-
-    /**
-     * This {@link ITokenService} will be used to store and retrieve the Token.
-     */
-    private static ITokenService service;
-
-    /**
-     * This is used to instantiate a new FileSystemTokenServiceImpl instance
-     * using a Class type erasure rather than the Class type specified in the
-     * application properties file.
-     */
-    private static final String CLASSNAME
-        = "com.greentree.model.services.tokenservice.FileSystemTokenServiceImpl";
-
-    /**
-     * static initializer block for static variables
-     */
-    static {
-        try {
-            Class<?> classy = Class.forName(CLASSNAME);
-            service = (ITokenService) classy.newInstance();
-        } catch (ClassNotFoundException | InstantiationException
-            | IllegalAccessException ex) {
-            fail(ex.getClass().getSimpleName() + " " + ex.getMessage());
-        }
-
-        token = new Token("My name is Alice.");
-        if (token instanceof Token) {
-            LOGGER.debug("Token instantiated successfully");
-        } else {
-            LOGGER.error(
-                "static initialization block failed to initialize Token"
-            );
-        }
-    }
-
-    /**
-     * Test method for
-     * <code>{@link FileSystemTokenServiceImpl#commit(Token)}</code>.
-     */
-    @Test
-    public void testCommit() {
-        try {
-            service.commit(token);
-            LOGGER.debug("commit(token) test PASSED");
-        } catch (TokenServiceException e) {
-            fail("testCommit() FAILED: " + e.getMessage());
-        }
-    }
-
-    /**
-     * Test method for
-     * <code>{@link FileSystemTokenServiceImpl#selectToken(RSAPublicKey)}</code>.
-     */
-    @Test
-    public void testSelectToken() {
-        // commit token
-        try {
-            service.commit(token);
-        } catch (TokenServiceException e) {
-            fail(e.getMessage());
-        }
-
-        // get public key and delete token
-        RSAPublicKey key = token.getPublicKey();
-        token = null;
-
-        // re-build token from commit using public key
-        try {
-            token = service.selectToken(key);
-        } catch (TokenServiceException e) {
-            fail(
-                "selectToken(RSAPublicKey) FAILED: "
-                + e.getClass().getName() + ": "
-                + e.getMessage()
-            );
-        }
-
-        if (token.validate()) {
-            assertTrue(true);
-            LOGGER.debug("testSelectToken() PASSED");
-        } else {
-            fail("selectToken(RSAPublicKey) FAILED");
-        }
-
-    }
-
-}
+package com.greentree.model.services.tokenservice;
+
+import com.greentree.model.exception.TokenServiceException;
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import com.greentree.model.domain.Block;
+import com.greentree.model.domain.Claim;
+import com.greentree.model.domain.Token;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * This defines methods for testing the
+ * <code>{@link FileSystemTokenService}</code> class.
+ *
+ * @author david5MX53G
+ *
+ */
+public class FileSystemTokenServiceImplTest {
+
+    /**
+     * log4j 2 logger
+     */
+    static final Logger LOGGER = LogManager.getLogger();
+
+    /**
+     * This {@link Token} variable will be committed and read from file system
+     * storage.
+     */
+    private static Token token;
+
+    /**
+     * This {@link ITokenService} will be used to store and retrieve the Token.
+     */
+    private static ITokenService service;
+
+    /**
+     * This is used to instantiate a new FileSystemTokenServiceImpl instance
+     * using a Class type erasure rather than the Class type specified in the
+     * application properties file.
+     */
+    private static final String CLASSNAME
+        = "com.greentree.model.services.tokenservice.FileSystemTokenServiceImpl";
+
+    /**
+     * static initializer block for static variables
+     */
+    static {
+        try {
+            Class<?> classy = Class.forName(CLASSNAME);
+            service = (ITokenService) classy.newInstance();
+        } catch (ClassNotFoundException | InstantiationException
+            | IllegalAccessException ex) {
+            fail(ex.getClass().getSimpleName() + " " + ex.getMessage());
+        }
+
+        token = new Token("My name is Alice.");
+        if (token instanceof Token) {
+            LOGGER.debug("Token instantiated successfully");
+        } else {
+            LOGGER.error(
+                "static initialization block failed to initialize Token"
+            );
+        }
+    }
+
+    /**
+     * Test method for
+     * <code>{@link FileSystemTokenServiceImpl#commit(Token)}</code>.
+     */
+    @Test
+    public void testCommit() {
+        try {
+            service.commit(token);
+            LOGGER.debug("commit(token) test PASSED");
+        } catch (TokenServiceException e) {
+            fail("testCommit() FAILED: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Test method for
+     * <code>{@link FileSystemTokenServiceImpl#selectToken(RSAPublicKey)}</code>.
+     */
+    @Test
+    public void testSelectToken() {
+        // commit token
+        try {
+            service.commit(token);
+        } catch (TokenServiceException e) {
+            fail(e.getMessage());
+        }
+
+        // get public key and delete token
+        RSAPublicKey key = token.getPublicKey();
+        token = null;
+
+        // re-build token from commit using public key
+        try {
+            token = service.selectToken(key);
+        } catch (TokenServiceException e) {
+            fail(
+                "selectToken(RSAPublicKey) FAILED: "
+                + e.getClass().getName() + ": "
+                + e.getMessage()
+            );
+        }
+
+        if (token.validate()) {
+            assertTrue(true);
+            LOGGER.debug("testSelectToken() PASSED");
+        } else {
+            fail("selectToken(RSAPublicKey) FAILED");
+        }
+
+    }
+
+    /**
+     * Test method for
+     * <code>{@link FileSystemTokenServiceImpl#selectToken(RSAPublicKey)}</code>
+     * rebuilding a <code>Token</code> from its snapshot and log.
+     */
+    @Test
+    public void testSelectTokenFromLog() throws Exception {
+        String pass = "Curiouser and curiouser!";
+        Token owner = new Token(pass);
+        Token reader = new Token(pass);
+        String ciphertext = owner.encrypt(pass);
+        long now = System.currentTimeMillis();
+        service.commit(owner);
+
+        owner.addBlock("plain", ciphertext);
+        service.commit(owner);
+        owner.addBlock("shared", ciphertext,
+            new Claim(reader, now - 1000, now + 60000));
+        owner.addBlock("mine", ciphertext,
+            new Claim(owner, now - 1000, now + 60000));
+        service.commit(owner);
+
+        String filename = ((FileSystemTokenServiceImpl) service)
+            .getFilename(owner.getPublicKey());
+        assertTrue(new File(((FileSystemTokenServiceImpl) service)
+            .getLogFilename(filename)).exists());
+
+        Token loaded = service.selectToken(owner.getPublicKey());
+        ArrayList<Block> expected = owner.getBlockChain();
+        ArrayList<Block> actual = loaded.getBlockChain();
+        assertEquals(expected, actual);
+        assertEquals(expected.get(2).getTimeStamp(),
+            actual.get(2).getTimeStamp());
+        Block shared = actual.get(actual.size() - 2);
+        assertEquals("shared", shared.getData(reader, reader.encrypt(pass)));
+        assertEquals("mine", actual.get(actual.size() - 1)
+            .getData(loaded, loaded.encrypt(pass)));
+
+        loaded.addBlock("after reload", loaded.encrypt(pass));
+        service.commit(loaded);
+        assertEquals(loaded.getBlockChain(),
+            service.selectToken(owner.getPublicKey()).getBlockChain());
+    }
+
+    /**
+     * Test method for
+     * <code>{@link FileSystemTokenServiceImpl#selectToken(RSAPublicKey)}</code>
+     * and <code>{@link FileSystemTokenServiceImpl#selectTokens(Collection)}
+     * </code> loading a <code>Token</code> stored under its legacy key id,
+     * which is then stored under its key id.
+     */
+    @Test
+    public void testSelectTokenLegacyKeyId() throws Exception {
+        String pass = "Curiouser and curiouser!";
+        FileSystemTokenServiceImpl files = (FileSystemTokenServiceImpl) service;
+        for (boolean many : new boolean[]{false, true}) {
+            Token owner = new Token(pass);
+            RSAPublicKey key = owner.getPublicKey();
+            service.commit(owner);
+            File file = new File(files.getFilename(key));
+            File legacy = new File(file.getParentFile(),
+                Token.legacyKeyIdOf(key) + ".token");
+            assertTrue(file.renameTo(legacy));
+
+            Token loaded = many
+                ? service.selectTokens(Arrays.asList(key))
+                    .get(owner.getKeyId())
+                : service.selectToken(key);
+            assertEquals(owner, loaded);
+            assertEquals(owner.getKeyId(), loaded.getKeyId());
+            assertEquals(owner.getBlockChain(), loaded.getBlockChain());
+            assertTrue(file.exists());
+            assertFalse(legacy.exists());
+            assertEquals(owner.getBlockChain(),
+                service.selectToken(key).getBlockChain());
+        }
+    }
+
+    /**
+     * Test method for
+     * <code>{@link FileSystemTokenServiceImpl#selectToken(RSAPublicKey)}</code>
+     * cutting off a log whose tail holds a length which does not fit in the
+     * file, whether too long or negative.
+     */
+    @Test
+    public void testSelectTokenTornLog() throws Exception {
+        String pass = "Curiouser and curiouser!";
+        for (int length : new int[]{Integer.MAX_VALUE, -1}) {
+            Token owner = new Token(pass);
+            service.commit(owner);
+            owner.addBlock("logged", owner.encrypt(pass));
+            service.commit(owner);
+
+            String filename = ((FileSystemTokenServiceImpl) service)
+                .getFilename(owner.getPublicKey());
+            try (DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(((FileSystemTokenServiceImpl) service)
+                    .getLogFilename(filename), true))) {
+                out.writeInt(length);
+                out.write(new byte[]{1, 2, 3});
+            }
+
+            assertEquals(owner.getBlockChain(), service.selectToken(
+                owner.getPublicKey()).getBlockChain());
+        }
+    }
+
+    /**
+     * Test method for
+     * <code>{@link FileSystemTokenServiceImpl#commitAll(Collection)}</code>,
+     * committing new <code>Token</code> objects and then the
+     * <code>Block</code> objects added to them.
+     */
+    @Test
+    public void testCommitAll() throws TokenServiceException {
+        String pass = "Curiouser and curiouser!";
+        List<Token> tokens = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tokens.add(new Token(pass));
+        }
+        assertTrue(service.commitAll(tokens));
+
+        for (Token tk : tokens) {
+            for (int i = 0; i < 3; i++) {
+                tk.addBlock("block " + i, tk.encrypt(pass));
+            }
+        }
+        assertTrue(service.commitAll(tokens));
+
+        for (Token tk : tokens) {
+            assertEquals(tk.getBlockChain(),
+                service.selectToken(tk.getPublicKey()).getBlockChain());
+        }
+    }
+
+    /**
+     * Test method for
+     * <code>{@link FileSystemTokenServiceImpl#selectTokens(Collection)}</code>,
+     * which leaves out keys without a <code>Token</code>.
+     */
+    @Test
+    public void testSelectTokens() throws TokenServiceException {
+        List<Token> tokens = new ArrayList<>();
+        List<RSAPublicKey> keys = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Token tk = new Token("Who are you?");
+            tokens.add(tk);
+            keys.add(tk.getPublicKey());
+        }
+        assertTrue(service.commitAll(tokens));
+        keys.add(new Token("Nobody.").getPublicKey());
+
+        Map<String, Token> selected = service.selectTokens(keys);
+        assertEquals(tokens.size(), selected.size());
+        for (Token tk : tokens) {
+            assertEquals(tk.getBlockChain(),
+                selected.get(tk.getKeyId()).getBlockChain());
+        }
+    }
+
+    /**
+     * Measures the latency of
+     * <code>{@link FileSystemTokenServiceImpl#commit(Token)}</code> as the
+     * chain grows, one <code>Block</code> per commit.
+     */
+    @Test
+    public void testCommitLatency() throws Exception {
+        String pass = "Off with their heads!";
+        Token tk = new Token(pass);
+        String ciphertext = tk.encrypt(pass);
+        service.commit(tk);
+        int blocks = 2000;
+        int window = 200;
+        long start = System.nanoTime();
+        for (int i = 1; i <= blocks; i++) {
+            tk.addBlock("block " + i, ciphertext);
+            assertTrue(service.commit(tk));
+            if (i % window == 0) {
+                long nanos = System.nanoTime() - start;
+                LOGGER.info("commit at " + tk.getBlockChain().size()
+                    + " blocks: " + (nanos / window / 1000) + " us");
+                start = System.nanoTime();
+            }
+        }
+        assertEquals(tk.getBlockChain().size(),
+            service.selectToken(tk.getPublicKey()).getBlockChain().size());
+    }
+}
@@ -0,0 +1,32 @@
+package com.greentree.model.services.tokenservice;
+
+import com.greentree.model.domain.Token;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This <code>{@link ITokenService}</code> keeps <code>{@link Token}</code>
+ * objects in memory, so that tests of the layers above storage run quickly
+ * and without touching the file system or a database.
+ *
+ * @author david5MX53G
+ */
+public class InMemoryTokenService implements ITokenService {
+
+    /**
+     * This maps the key id of each committed <code>Token</code> to it.
+     */
+    private final Map<String, Token> tokens = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean commit(Token token) {
+        tokens.put(token.getKeyId(), token);
+        return true;
+    }
+
+    @Override
+    public Token selectToken(RSAPublicKey key) {
+        return tokens.get(Token.keyIdOf(key));
+    }
+}
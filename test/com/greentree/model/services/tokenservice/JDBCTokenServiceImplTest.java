@@ -25,11 +25,19 @@ package com.greentree.model.services.tokenservice;
 
 import com.greentree.model.exception.TokenServiceException;
 import com.greentree.model.domain.Token;
+import com.greentree.model.services.manager.JDBCPoolManager;
 import java.security.interfaces.RSAPublicKey;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import org.junit.Assume;
 import org.junit.Test;
 
 /**
@@ -126,4 +134,93 @@ public class JDBCTokenServiceImplTest {
         assertTrue("selectToken(RSAPublicKey) FAILED", token.validate());
         LOGGER.debug("testSelectToken() PASSED");
     }
+
+    /**
+     * Tests that {@link com.greentree.model.domain.Block} objects committed
+     * after the first commit are read back in order.
+     *
+     * @throws com.greentree.model.exception.TokenServiceException when the
+     *         database cannot be reached
+     */
+    @Test
+    public void testSelectTokenBlocks() throws TokenServiceException {
+        String pass = "Ride of the Valkyries by Richard Wagner";
+        Token token = new Token(pass);
+        service.commit(token);
+
+        for (int i = 0; i < 5; i++) {
+            token.addBlock("block " + i, token.encrypt(pass));
+            assertTrue(service.commit(token));
+        }
+        service.commit(token);
+
+        Token selected = service.selectToken(token.getPublicKey());
+        assertTrue(selected.validate());
+        assertEquals(token.getBlockChain(), selected.getBlockChain());
+    }
+
+    /**
+     * Test method for {@link JDBCTokenServiceImpl#commitAll(Collection)},
+     * committing new <code>Token</code> objects and then the
+     * {@link com.greentree.model.domain.Block} objects added to them.
+     *
+     * @throws com.greentree.model.exception.TokenServiceException when the
+     *         database cannot be reached
+     */
+    @Test
+    public void testCommitAll() throws TokenServiceException {
+        String pass = "Peer Gynt Suite No. 1 by Edvard Grieg";
+        List<Token> tokens = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tokens.add(new Token(pass));
+        }
+        assertTrue(service.commitAll(tokens));
+
+        for (Token token : tokens) {
+            token.addBlock("In the Hall of the Mountain King",
+                token.encrypt(pass));
+        }
+        assertTrue(service.commitAll(tokens));
+
+        for (Token token : tokens) {
+            assertEquals(token.getBlockChain(),
+                service.selectToken(token.getPublicKey()).getBlockChain());
+        }
+    }
+
+    /**
+     * Measures how many commits per second
+     * {@link JDBCTokenServiceImpl#commit(Token)} makes, one
+     * {@link com.greentree.model.domain.Block} per commit. This is skipped
+     * when the database of the application properties cannot be reached.
+     *
+     * @throws Exception when the database fails part way
+     */
+    @Test
+    public void testCommitThroughput() throws Exception {
+        try (Connection conn = JDBCPoolManager.getConn()) {
+            LOGGER.debug("database reached at "
+                + conn.getMetaData().getURL());
+        } catch (SQLException ex) {
+            Assume.assumeNoException(ex);
+        }
+
+        String pass = "Symphony No. 9 by Antonin Dvorak";
+        Token token = new Token(pass);
+        String ciphertext = token.encrypt(pass);
+        assertTrue(service.commit(token));
+
+        int commits = 1000;
+        long start = System.nanoTime();
+        for (int i = 0; i < commits; i++) {
+            token.addBlock("block " + i, ciphertext);
+            assertTrue(service.commit(token));
+        }
+        long nanos = System.nanoTime() - start;
+        LOGGER.info("JDBC commit: " + (commits * 1000000000L / nanos)
+            + " commits/s, " + (nanos / commits / 1000) + " us each");
+
+        assertEquals(token.getBlockChain().size(),
+            service.selectToken(token.getPublicKey()).getBlockChain().size());
+    }
 }
@@ -0,0 +1,220 @@
+package com.greentree.model.services.tokenservice;
+
+import com.greentree.model.domain.Block;
+import com.greentree.model.domain.Claim;
+import com.greentree.model.domain.Token;
+import com.greentree.model.exception.TokenServiceException;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This defines methods for testing the
+ * <code>{@link MappedSegmentTokenServiceImpl}</code> class, mirroring
+ * {@link FileSystemTokenServiceImplTest}.
+ *
+ * @author david5MX53G
+ */
+public class MappedSegmentTokenServiceImplTest {
+
+    /**
+     * log4j 2 logger
+     */
+    static final Logger LOGGER = LogManager.getLogger();
+
+    /**
+     * This passphrase protects the <code>Token</code> objects of the tests.
+     */
+    private static final String PASS = "Curiouser and curiouser!";
+
+    /**
+     * This is used to instantiate the service the way the
+     * {@link com.greentree.model.services.factory.ServiceFactory} does.
+     */
+    private static final String CLASSNAME
+        = "com.greentree.model.services.tokenservice."
+        + "MappedSegmentTokenServiceImpl";
+
+    /**
+     * This directory holds the segments of the tests which choose their own.
+     */
+    private File directory;
+
+    /**
+     * This makes an empty directory for the segments.
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("greentree").toFile();
+    }
+
+    /**
+     * This deletes the segments.
+     */
+    @After
+    public void tearDown() throws Exception {
+        MappedSegmentTokenServiceImpl.close(directory);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Test method for
+     * <code>{@link MappedSegmentTokenServiceImpl#commit(Token)}</code> and
+     * <code>{@link MappedSegmentTokenServiceImpl#selectToken(RSAPublicKey)}</code>
+     * on a service configured by the application properties.
+     */
+    @Test
+    public void testSelectToken() throws Exception {
+        ITokenService service
+            = (ITokenService) Class.forName(CLASSNAME).newInstance();
+        Token token = new Token("My name is Alice.");
+        assertTrue(service.commit(token));
+
+        RSAPublicKey key = token.getPublicKey();
+        Token loaded = service.selectToken(key);
+        assertTrue(loaded.validate());
+        assertEquals(token, loaded);
+        assertEquals(token.getBlockChain(), loaded.getBlockChain());
+    }
+
+    /**
+     * Tests that an unknown key is reported as the file system service
+     * reports a missing file.
+     */
+    @Test(expected = TokenServiceException.class)
+    public void testSelectUnknown() throws Exception {
+        new MappedSegmentTokenServiceImpl(directory, 4096, 256)
+            .selectToken(new Token(PASS).getPublicKey());
+    }
+
+    /**
+     * Tests rebuilding a <code>Token</code> from its snapshot and the records
+     * of the <code>Block</code> objects added after it, by this service and
+     * by a new one reading the same segments after a restart.
+     */
+    @Test
+    public void testSelectTokenFromRecords() throws Exception {
+        ITokenService service
+            = new MappedSegmentTokenServiceImpl(directory, 1 << 20, 256);
+        Token owner = new Token(PASS);
+        Token reader = new Token(PASS);
+        String ciphertext = owner.encrypt(PASS);
+        long now = System.currentTimeMillis();
+        assertTrue(service.commit(owner));
+        assertTrue(service.commit(reader));
+
+        owner.addBlock("plain", ciphertext);
+        assertTrue(service.commit(owner));
+        owner.addBlock("shared", ciphertext,
+            new Claim(reader, now - 1000, now + 60000));
+        assertTrue(service.commit(owner));
+
+        MappedSegmentTokenServiceImpl.close(directory);
+        for (ITokenService s : new ITokenService[] {service,
+            new MappedSegmentTokenServiceImpl(directory, 1 << 20, 256)}) {
+            Token loaded = s.selectToken(owner.getPublicKey());
+            ArrayList<Block> chain = loaded.getBlockChain();
+            assertEquals(owner.getBlockChain(), chain);
+            assertEquals("shared", chain.get(chain.size() - 1)
+                .getData(reader, reader.encrypt(PASS)));
+            assertEquals(reader, s.selectToken(reader.getPublicKey()));
+        }
+    }
+
+    /**
+     * Tests that entries spill into new segments, that snapshots are
+     * written again after the compaction threshold, and that the segments
+     * read back after a restart.
+     */
+    @Test
+    public void testSegments() throws Exception {
+        ITokenService service
+            = new MappedSegmentTokenServiceImpl(directory, 8192, 16);
+        Token token = new Token(PASS);
+        String ciphertext = token.encrypt(PASS);
+        assertTrue(service.commit(token));
+        for (int i = 0; i < 100; i++) {
+            token.addBlock("block " + i, ciphertext);
+            assertTrue(service.commit(token));
+        }
+        assertTrue(directory.listFiles().length > 1);
+
+        MappedSegmentTokenServiceImpl.close(directory);
+        Token loaded = new MappedSegmentTokenServiceImpl(directory, 8192, 16)
+            .selectToken(token.getPublicKey());
+        assertEquals(token.getBlockChain(), loaded.getBlockChain());
+    }
+
+    /**
+     * Tests that two instances using the same directory, as the
+     * {@link com.greentree.model.services.factory.ServiceFactory} builds
+     * them, see each other's commits and do not write over each other's
+     * entries.
+     */
+    @Test
+    public void testSharedDirectory() throws Exception {
+        ITokenService first
+            = new MappedSegmentTokenServiceImpl(directory, 1 << 20, 256);
+        ITokenService second
+            = new MappedSegmentTokenServiceImpl(directory, 1 << 20, 256);
+        Token a = new Token(PASS);
+        Token b = new Token(PASS);
+        Token c = new Token(PASS);
+        assertTrue(first.commit(a));
+        assertEquals(a, second.selectToken(a.getPublicKey()));
+        assertTrue(first.commit(b));
+        assertTrue(second.commit(c));
+        assertEquals(b, second.selectToken(b.getPublicKey()));
+        assertEquals(c, first.selectToken(c.getPublicKey()));
+
+        MappedSegmentTokenServiceImpl.close(directory);
+        ITokenService restarted
+            = new MappedSegmentTokenServiceImpl(directory, 1 << 20, 256);
+        for (Token token : new Token[] {a, b, c}) {
+            assertEquals(token.getBlockChain(),
+                restarted.selectToken(token.getPublicKey()).getBlockChain());
+        }
+    }
+
+    /**
+     * Measures the latency of
+     * <code>{@link MappedSegmentTokenServiceImpl#commit(Token)}</code> as the
+     * chain grows, one <code>Block</code> per commit.
+     */
+    @Test
+    public void testCommitLatency() throws Exception {
+        ITokenService service
+            = new MappedSegmentTokenServiceImpl(directory, 64 << 20, 256);
+        Token tk = new Token(PASS);
+        String ciphertext = tk.encrypt(PASS);
+        service.commit(tk);
+        int blocks = 2000;
+        int window = 200;
+        long start = System.nanoTime();
+        for (int i = 1; i <= blocks; i++) {
+            tk.addBlock("block " + i, ciphertext);
+            assertTrue(service.commit(tk));
+            if (i % window == 0) {
+                long nanos = System.nanoTime() - start;
+                LOGGER.info("commit at " + tk.getBlockChain().size()
+                    + " blocks: " + (nanos / window / 1000) + " us");
+                start = System.nanoTime();
+            }
+        }
+        assertEquals(tk.getBlockChain().size(),
+            service.selectToken(tk.getPublicKey()).getBlockChain().size());
+    }
+}
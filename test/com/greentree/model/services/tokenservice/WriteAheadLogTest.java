@@ -0,0 +1,273 @@
+package com.greentree.model.services.tokenservice;
+
+import com.greentree.model.domain.Token;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This defines methods for testing the <code>{@link WriteAheadLog}</code>
+ * class and the recovery of {@link FileSystemTokenServiceImpl} from it.
+ *
+ * @author david5MX53G
+ */
+public class WriteAheadLogTest {
+
+    /**
+     * log4j 2 logger
+     */
+    static final Logger LOGGER = LogManager.getLogger();
+
+    /**
+     * This many threads commit at once in the throughput test.
+     */
+    private static final int THREADS = 16;
+
+    /**
+     * Each thread of the throughput test commits this many records.
+     */
+    private static final int RECORDS = 50;
+
+    /**
+     * This directory holds the files of each test.
+     */
+    private File directory;
+
+    /**
+     * This is the write-ahead log of each test.
+     */
+    private File file;
+
+    /**
+     * This makes an empty directory for the files.
+     */
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("greentree").toFile();
+        file = new File(directory, "tokens.wal");
+    }
+
+    /**
+     * This deletes the files.
+     */
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Tests that appended entries are read back in order after the log is
+     * reopened, and that a checkpoint empties it.
+     */
+    @Test
+    public void testReplay() throws Exception {
+        AtomicInteger checkpoints = new AtomicInteger();
+        try (WriteAheadLog wal = new WriteAheadLog(file, 8, 1, 1 << 20,
+            checkpoints::incrementAndGet)) {
+            assertTrue(wal.replay().isEmpty());
+            wal.append(entries("one", "two"));
+            wal.append(entries("three"));
+        }
+        try (WriteAheadLog wal = new WriteAheadLog(file, 8, 1, 64,
+            checkpoints::incrementAndGet)) {
+            assertEquals(strings(entries("one", "two", "three")),
+                strings(wal.replay()));
+            wal.append(entries(new String(new char[100])));
+            assertEquals(1, checkpoints.get());
+            assertEquals(0, file.length());
+        }
+    }
+
+    /**
+     * Tests that an entry cut short by a crash is dropped along with
+     * anything after it.
+     */
+    @Test
+    public void testTornEntry() throws Exception {
+        try (WriteAheadLog wal = new WriteAheadLog(file, 8, 1, 1 << 20,
+            () -> { })) {
+            wal.replay();
+            wal.append(entries("kept", "cut"));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        try (WriteAheadLog wal = new WriteAheadLog(file, 8, 1, 1 << 20,
+            () -> { })) {
+            assertEquals(strings(entries("kept")), strings(wal.replay()));
+            wal.append(entries("next"));
+        }
+        try (WriteAheadLog wal = new WriteAheadLog(file, 8, 1, 1 << 20,
+            () -> { })) {
+            assertEquals(strings(entries("kept", "next")),
+                strings(wal.replay()));
+        }
+    }
+
+    /**
+     * Tests that records left in the write-ahead log by a crash are appended
+     * to the log of their <code>Token</code>, after an incomplete record is
+     * cut off it.
+     */
+    @Test
+    public void testRecover() throws Exception {
+        String pass = "Who in the world am I?";
+        Token token = new Token(pass);
+        try (ObjectOutputStream out = new ObjectOutputStream(
+            new FileOutputStream(new File(directory,
+                token.getKeyId() + ".token")))) {
+            out.writeObject(token);
+        }
+        token.addBlock("lost in a crash", token.encrypt(pass));
+        byte[] record = token.encodeBlock(
+            token.getBlockChain().get(token.getBlockChain().size() - 1));
+
+        File log = new File(directory, token.getKeyId() + ".log");
+        try (DataOutputStream out = new DataOutputStream(
+            new FileOutputStream(log))) {
+            out.writeInt(record.length);
+            out.write(record, 0, 10);
+        }
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(entry)) {
+            out.writeUTF(token.getKeyId());
+            out.write(record);
+        }
+        try (WriteAheadLog wal = new WriteAheadLog(file, 8, 1, 1 << 20,
+            () -> { })) {
+            wal.replay();
+            wal.append(Collections.singletonList(entry.toByteArray()));
+        }
+
+        FileSystemTokenServiceImpl.recover(directory).close();
+        assertEquals(0, file.length());
+
+        Token loaded;
+        try (ObjectInputStream in = new ObjectInputStream(
+            new FileInputStream(new File(directory,
+                token.getKeyId() + ".token")))) {
+            loaded = (Token) in.readObject();
+        }
+        try (DataInputStream in = new DataInputStream(
+            new FileInputStream(log))) {
+            byte[] read = new byte[in.readInt()];
+            in.readFully(read);
+            assertTrue(loaded.restoreBlock(read));
+            assertEquals(0, in.available());
+        }
+        assertEquals(token.getBlockChain(), loaded.getBlockChain());
+    }
+
+    /**
+     * Measures records made durable per second by many threads through the
+     * write-ahead log, against each thread forcing its own file to disk.
+     */
+    @Test
+    public void testGroupCommit() throws Exception {
+        byte[] record = new byte[256];
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            long start = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                File own = new File(directory, "own-" + t);
+                futures.add(pool.submit(() -> {
+                    try (FileChannel channel = FileChannel.open(own.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                        for (int i = 0; i < RECORDS; i++) {
+                            channel.write(ByteBuffer.wrap(record));
+                            channel.force(false);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long alone = System.nanoTime() - start;
+
+            try (WriteAheadLog wal = new WriteAheadLog(file, 64, 2, 1 << 30,
+                () -> { })) {
+                wal.replay();
+                start = System.nanoTime();
+                futures.clear();
+                for (int t = 0; t < THREADS; t++) {
+                    futures.add(pool.submit(() -> {
+                        for (int i = 0; i < RECORDS; i++) {
+                            wal.append(Collections.singletonList(record));
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                long grouped = System.nanoTime() - start;
+
+                long total = (long) THREADS * RECORDS;
+                assertEquals(total, wal.getEntryCount());
+                assertTrue(wal.getSyncCount() < total);
+                LOGGER.info("fsync per record: "
+                    + (total * 1000000000L / alone) + " records/sec");
+                LOGGER.info("group commit: "
+                    + (total * 1000000000L / grouped) + " records/sec in "
+                    + wal.getSyncCount() + " fsyncs");
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the given strings as entries
+     */
+    private static List<byte[]> entries(String... strings) {
+        List<byte[]> result = new ArrayList<>();
+        for (String string : strings) {
+            result.add(string.getBytes(StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /**
+     * @return the given entries as strings, so they can be compared
+     */
+    private static List<String> strings(List<byte[]> entries) {
+        List<String> result = new ArrayList<>();
+        for (byte[] entry : entries) {
+            result.add(new String(entry, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,23 @@
+package com.greentree.server;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * This aggregates JUnit test cases for <code>{@link com.greentree.server}</code>.
+ *
+ * @author david5MX53G
+ *
+ */
+@RunWith(Suite.class)
+@SuiteClasses({
+    GreenTreeBinaryProtocolTest.class,
+    GreenTreeRequestSchedulerTest.class,
+    GreenTreeStreamTest.class,
+    GreenTreeWorkerPoolTest.class
+    //GreenTreeServerLoadTest.class, // benchmark of about 20 s; "ant loadtest"
+})
+public class AllServerTests {
+
+}
@@ -0,0 +1,201 @@
+package com.greentree.server;
+
+import com.greentree.model.domain.Token;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * This class has methods for testing the
+ * <code>{@link GreenTreeBinaryProtocol}</code> class.
+ *
+ * @author david5MX53G
+ */
+public class GreenTreeBinaryProtocolTest {
+
+    /**
+     * This key is sent as an argument.
+     */
+    private static final RSAPublicKey KEY
+        = new Token("We're all mad here.").getPublicKey();
+
+    /**
+     * Tests that a request survives encoding and decoding.
+     */
+    @Test
+    public void testRequest() throws Exception {
+        GreenTreeRequest request = GreenTreeBinaryProtocol.decodeRequest(
+            body(GreenTreeBinaryProtocol.encodeRequest(
+                300, GreenTreeRequest.ADD_BLOCK, "hello", KEY, -1L,
+                Long.MAX_VALUE
+            ))
+        );
+        assertEquals(300, request.getId());
+        assertEquals(GreenTreeRequest.ADD_BLOCK, request.getCommand());
+        assertTrue(request.isRecognized());
+    }
+
+    /**
+     * Tests that a command added after the first ones keeps its own opcode
+     * and arguments.
+     */
+    @Test
+    public void testGetDataSince() throws Exception {
+        GreenTreeRequest request = GreenTreeBinaryProtocol.decodeRequest(
+            body(GreenTreeBinaryProtocol.encodeRequest(
+                7, GreenTreeRequest.GET_DATA_SINCE, KEY, "abc"
+            ))
+        );
+        assertEquals(GreenTreeRequest.GET_DATA_SINCE, request.getCommand());
+        assertEquals(KEY, request.getTokenKey());
+        assertFalse(request.isBarrier());
+    }
+
+    /**
+     * Tests that the close command decodes as such.
+     */
+    @Test
+    public void testClose() throws Exception {
+        GreenTreeRequest request = GreenTreeBinaryProtocol.decodeRequest(
+            body(GreenTreeBinaryProtocol.encodeRequest(
+                1, GreenTreeRequest.CLOSE
+            ))
+        );
+        assertTrue(request.isClose());
+    }
+
+    /**
+     * Tests that each kind of result survives encoding and decoding.
+     */
+    @Test
+    public void testResponse() throws Exception {
+        ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "é"));
+        Object[] results = {null, true, false, 0L, -300L, "", "déjà",
+            KEY, list};
+        for (Object result : results) {
+            ByteBuffer frame = body(
+                GreenTreeBinaryProtocol.encodeResponse(Long.MAX_VALUE, result)
+            );
+            assertEquals(Long.MAX_VALUE,
+                GreenTreeBinaryProtocol.responseId(frame));
+            assertEquals(result, GreenTreeBinaryProtocol.decodeResponse(frame));
+        }
+    }
+
+    /**
+     * Tests that an error response is raised by the client.
+     */
+    @Test(expected = IOException.class)
+    public void testError() throws Exception {
+        GreenTreeBinaryProtocol.decodeResponse(body(
+            GreenTreeBinaryProtocol.encodeError(
+                1, GreenTreeBinaryProtocol.STATUS_ERROR, "failed"
+            )
+        ));
+    }
+
+    /**
+     * Tests that a frame is only taken from a buffer once all of it is there,
+     * and that bytes of the next frame are kept.
+     */
+    @Test
+    public void testNextFrame() throws Exception {
+        ByteBuffer frame = GreenTreeBinaryProtocol.encodeRequest(
+            1, GreenTreeRequest.REGISTER_SERVICE, "TokenService"
+        );
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.put(frame.array(), 0, frame.limit() - 1);
+        assertNull(GreenTreeBinaryProtocol.nextFrame(buffer));
+
+        buffer.put(frame.array(), frame.limit() - 1, 1);
+        buffer.put(frame.array(), 0, 2);
+        assertNotNull(GreenTreeBinaryProtocol.nextFrame(buffer));
+        assertEquals(2, buffer.position());
+        assertNull(GreenTreeBinaryProtocol.nextFrame(buffer));
+    }
+
+    /**
+     * Tests that arguments of the wrong type are refused.
+     */
+    @Test(expected = ProtocolException.class)
+    public void testWrongArgument() throws Exception {
+        GreenTreeBinaryProtocol.decodeRequest(body(
+            GreenTreeBinaryProtocol.encodeRequest(1,
+                GreenTreeRequest.GET_DATA, "not a key")
+        ));
+    }
+
+    /**
+     * Tests that the two protocols are told apart by their first byte.
+     */
+    @Test
+    public void testIsBinary() {
+        assertFalse(GreenTreeBinaryProtocol.isBinary((byte) 0xAC));
+        assertTrue(GreenTreeBinaryProtocol.isBinary(
+            GreenTreeBinaryProtocol.encodeRequest(
+                1, GreenTreeRequest.GET_PUBLIC_KEY
+            ).get(0)
+        ));
+    }
+
+    /**
+     * Tests that a string whose 10-byte varint length is negative is
+     * refused.
+     */
+    @Test(expected = ProtocolException.class)
+    public void testNegativeLength() throws Exception {
+        GreenTreeBinaryProtocol.decodeRequest(ByteBuffer.wrap(new byte[]{
+            0, 2, 3, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1
+        }));
+    }
+
+    /**
+     * Tests that a list whose 10-byte varint count is negative is refused.
+     */
+    @Test(expected = ProtocolException.class)
+    public void testNegativeCount() throws Exception {
+        GreenTreeBinaryProtocol.decodeResponse(ByteBuffer.wrap(new byte[]{
+            0, GreenTreeBinaryProtocol.STATUS_OK, 5, -1, -1, -1, -1, -1, -1,
+            -1, -1, -1, 1
+        }));
+    }
+
+    /**
+     * Tests that a result too long for one frame is replaced by an error
+     * pointing to paging and streaming, which the client can read.
+     */
+    @Test
+    public void testResponseTooLong() throws Exception {
+        char[] data = new char[1024];
+        Arrays.fill(data, 'x');
+        ArrayList<String> list = new ArrayList<>();
+        for (int i = 0; i <= GreenTreeBinaryProtocol.MAX_FRAME / data.length;
+            i++) {
+            list.add(new String(data));
+        }
+        ByteBuffer frame = GreenTreeBinaryProtocol.encodeResponse(9, list);
+        assertTrue(frame.limit() - 4 <= GreenTreeBinaryProtocol.MAX_FRAME);
+        frame = body(frame);
+        assertEquals(9, GreenTreeBinaryProtocol.responseId(frame));
+        try {
+            GreenTreeBinaryProtocol.decodeResponse(frame);
+            fail("testResponseTooLong() FAILED");
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains(
+                GreenTreeRequest.GET_DATA_PAGE));
+        }
+    }
+
+    /**
+     * @return the body of a whole frame
+     */
+    private static ByteBuffer body(ByteBuffer frame) {
+        assertEquals(frame.limit() - 4, frame.getInt(0));
+        return ByteBuffer.wrap(frame.array(), 4, frame.limit() - 4).slice();
+    }
+}
@@ -0,0 +1,164 @@
+package com.greentree.server;
+
+import com.greentree.model.business.manager.GreenTreeSession;
+import com.greentree.model.domain.Token;
+import java.security.interfaces.RSAPublicKey;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * This class has methods for testing the
+ * <code>{@link GreenTreeRequestScheduler}</code> class.
+ *
+ * @author david5MX53G
+ */
+public class GreenTreeRequestSchedulerTest {
+
+    /**
+     * These keys identify two different tokens.
+     */
+    private static final RSAPublicKey KEY0
+        = new Token("We're all mad here.").getPublicKey();
+    private static final RSAPublicKey KEY1
+        = new Token("We're all mad here.").getPublicKey();
+
+    /**
+     * This is run if a request is refused, which these tests never expect.
+     */
+    private static final Runnable NOT_BUSY = () -> {
+        throw new AssertionError("request refused");
+    };
+
+    /**
+     * This runs the requests.
+     */
+    private final ExecutorService workers = Executors.newFixedThreadPool(8);
+
+    /**
+     * This is the scheduler under test.
+     */
+    private final GreenTreeRequestScheduler scheduler
+        = new GreenTreeRequestScheduler(workers, new GreenTreeSession());
+
+    /**
+     * This stops the worker threads.
+     */
+    @After
+    public void tearDown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Tests that requests for different tokens run at the same time.
+     */
+    @Test
+    public void testDifferentKeysRunConcurrently() throws Exception {
+        CountDownLatch both = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+        for (RSAPublicKey key : new RSAPublicKey[]{KEY0, KEY1}) {
+            scheduler.submit(getData(key), () -> {
+                both.countDown();
+                try {
+                    assertTrue(both.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException ex) {
+                    fail();
+                }
+                done.countDown();
+            }, NOT_BUSY);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Tests that requests for the same token run one at a time, in order.
+     */
+    @Test
+    public void testSameKeyRunsInOrder() throws Exception {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++) {
+            int n = i;
+            scheduler.submit(getData(KEY0), () -> {
+                order.add(n);
+                done.countDown();
+            }, NOT_BUSY);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    /**
+     * Tests that a barrier waits for the requests before it, and the
+     * requests after it wait for the barrier.
+     */
+    @Test
+    public void testBarrier() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        scheduler.submit(getData(KEY0), () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                fail();
+            }
+            order.add("before");
+            done.countDown();
+        }, NOT_BUSY);
+        scheduler.submit(new GreenTreeRequest(2,
+            GreenTreeRequest.REGISTER_SERVICE, true, "TokenService"), () -> {
+                order.add("barrier");
+                done.countDown();
+            }, NOT_BUSY);
+        scheduler.submit(getData(KEY1), () -> {
+            order.add("after");
+            done.countDown();
+        }, NOT_BUSY);
+
+        Thread.sleep(100);
+        assertTrue(order.isEmpty());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("before", order.get(0));
+        assertEquals("barrier", order.get(1));
+        assertEquals("after", order.get(2));
+    }
+
+    /**
+     * Tests that a refused request runs its "busy" task and releases its
+     * token for the requests after it.
+     */
+    @Test
+    public void testRefused() throws Exception {
+        GreenTreeRequestScheduler refusing = new GreenTreeRequestScheduler(
+            task -> {
+                throw new RejectedExecutionException("server busy");
+            }, new GreenTreeSession());
+        List<String> busy = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            refusing.submit(getData(KEY0), () -> fail("request ran"),
+                () -> busy.add("busy"));
+        }
+        refusing.submit(new GreenTreeRequest(2,
+            GreenTreeRequest.REGISTER_SERVICE, true, "TokenService"),
+            () -> fail("request ran"), () -> busy.add("busy"));
+        assertEquals(4, busy.size());
+    }
+
+    /**
+     * @return a request reading the token of the given key
+     */
+    private static GreenTreeRequest getData(RSAPublicKey key) {
+        return new GreenTreeRequest(1, GreenTreeRequest.GET_DATA, true, key);
+    }
+}
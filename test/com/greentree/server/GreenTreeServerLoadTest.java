@@ -0,0 +1,446 @@
+package com.greentree.server;
+
+import com.greentree.model.business.manager.GreenTreeManager;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import static org.junit.Assert.assertEquals;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * This class runs the same burst of client connections against each
+ * {@link GreenTreeServer} mode and logs the connections per second and the
+ * 99th percentile latency of each, so the modes can be compared on the same
+ * machine. Each connection sends "registerService(String)", which exercises
+ * the whole request path without touching storage. The session tests send
+ * the same number of commands, but over one connection per client thread,
+ * either through an {@link ObjectOutputStream} or as
+ * {@link GreenTreeBinaryProtocol} frames, which may also be pipelined.
+ *
+ * @author david5MX53G
+ */
+public class GreenTreeServerLoadTest {
+
+    /**
+     * log4j 2 logger
+     */
+    private static final Logger LOG = LogManager.getLogger();
+
+    /**
+     * This many connections are made against each mode.
+     */
+    private static final int CONNECTIONS = 2000;
+
+    /**
+     * This many client threads make the connections.
+     */
+    private static final int CLIENTS = 64;
+
+    /**
+     * Connections are closed after this many milliseconds without a request.
+     */
+    private static final int IDLE_TIMEOUT = 60000;
+
+    /**
+     * This {@link GreenTreeManager} handles requests in every mode.
+     */
+    private final GreenTreeManager mngr = GreenTreeManager.getInstance();
+
+    /**
+     * This runs the requests in every mode.
+     */
+    private final GreenTreeWorkerPool workers
+        = new GreenTreeWorkerPool(8, 1000, Thread::new);
+
+    /**
+     * This stops the worker threads.
+     */
+    @After
+    public void tearDown() {
+        workers.close();
+    }
+
+    /**
+     * Tests the default thread-per-connection mode.
+     */
+    @Test
+    public void threadModeTest() throws Exception {
+        ServerSocket s = new ServerSocket(0);
+        Thread server = new Thread(() -> serve(s, Thread::new));
+        server.start();
+        try {
+            report("thread", load(s.getLocalPort()));
+        } finally {
+            s.close();
+            server.join();
+        }
+    }
+
+    /**
+     * Tests the "virtual" mode, which runs each request on a virtual thread
+     * of its own, as {@link GreenTreeServer#start()} does, and falls back to
+     * platform threads and the pooled workers on a JVM without virtual
+     * threads.
+     */
+    @Test
+    public void virtualModeTest() throws Exception {
+        ThreadFactory threads = GreenTreeServer.virtualThreadFactory();
+        String mode = "virtual";
+        GreenTreeWorkerPool requests = workers;
+        if (threads == null) {
+            threads = Thread::new;
+            mode = "virtual (unsupported; platform threads)";
+        } else {
+            requests = new GreenTreeWorkerPool(1000, 1000, threads, true);
+        }
+
+        ServerSocket s = new ServerSocket(0);
+        ThreadFactory factory = threads;
+        Executor executor = requests;
+        Thread server = new Thread(() -> serve(s, factory, executor));
+        server.start();
+        try {
+            report(mode, load(s.getLocalPort()));
+        } finally {
+            s.close();
+            server.join();
+            if (requests != workers) {
+                requests.close();
+            }
+        }
+    }
+
+    /**
+     * Tests the "nio" mode.
+     */
+    @Test
+    public void nioModeTest() throws Exception {
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 2, workers, IDLE_TIMEOUT)) {
+            Thread server = new Thread(s);
+            server.start();
+            report("nio", load(s.getPort()));
+        }
+    }
+
+    /**
+     * Tests sessions in the default thread-per-connection mode.
+     */
+    @Test
+    public void threadSessionTest() throws Exception {
+        ServerSocket s = new ServerSocket(0);
+        Thread server = new Thread(() -> serve(s, Thread::new));
+        server.start();
+        try {
+            report("thread session", sessions(s.getLocalPort(), false, 1));
+        } finally {
+            s.close();
+            server.join();
+        }
+    }
+
+    /**
+     * Tests sessions in the "nio" mode.
+     */
+    @Test
+    public void nioSessionTest() throws Exception {
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 2, workers, IDLE_TIMEOUT)) {
+            Thread server = new Thread(s);
+            server.start();
+            report("nio session", sessions(s.getPort(), false, 1));
+        }
+    }
+
+    /**
+     * Tests binary sessions in the default thread-per-connection mode.
+     */
+    @Test
+    public void threadBinarySessionTest() throws Exception {
+        ServerSocket s = new ServerSocket(0);
+        Thread server = new Thread(() -> serve(s, Thread::new));
+        server.start();
+        try {
+            report("thread binary session", sessions(s.getLocalPort(), true, 1));
+        } finally {
+            s.close();
+            server.join();
+        }
+    }
+
+    /**
+     * Tests binary sessions in the "nio" mode.
+     */
+    @Test
+    public void nioBinarySessionTest() throws Exception {
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 2, workers, IDLE_TIMEOUT)) {
+            Thread server = new Thread(s);
+            server.start();
+            report("nio binary session", sessions(s.getPort(), true, 1));
+        }
+    }
+
+    /**
+     * Tests pipelined binary sessions in the default thread-per-connection
+     * mode.
+     */
+    @Test
+    public void threadPipelineTest() throws Exception {
+        ServerSocket s = new ServerSocket(0);
+        Thread server = new Thread(() -> serve(s, Thread::new));
+        server.start();
+        try {
+            report("thread pipelined session", sessions(s.getLocalPort(), true,
+                GreenTreeBinaryProtocol.MAX_PIPELINE));
+        } finally {
+            s.close();
+            server.join();
+        }
+    }
+
+    /**
+     * Tests pipelined binary sessions in the "nio" mode.
+     */
+    @Test
+    public void nioPipelineTest() throws Exception {
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 2, workers, IDLE_TIMEOUT)) {
+            Thread server = new Thread(s);
+            server.start();
+            report("nio pipelined session", sessions(s.getPort(), true,
+                GreenTreeBinaryProtocol.MAX_PIPELINE));
+        }
+    }
+
+    /**
+     * Tests that the "nio" mode closes a connection which stays idle.
+     */
+    @Test
+    public void nioIdleTimeoutTest() throws Exception {
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 1, workers, 100)) {
+            Thread server = new Thread(s);
+            server.start();
+            try (Socket socket = new Socket("localhost", s.getPort())) {
+                socket.setSoTimeout(5000);
+                assertEquals(-1, socket.getInputStream().read());
+            }
+        }
+    }
+
+    /**
+     * This runs {@link GreenTreeServer#serve} until the socket is closed.
+     */
+    private void serve(ServerSocket s, ThreadFactory threads) {
+        serve(s, threads, workers);
+    }
+
+    /**
+     * This runs {@link GreenTreeServer#serve} with the given requests
+     * {@link Executor} until the socket is closed.
+     */
+    private void serve(ServerSocket s, ThreadFactory threads,
+        Executor requests) {
+        try {
+            GreenTreeServer.serve(s, mngr, threads, requests, 10000,
+                IDLE_TIMEOUT);
+        } catch (IOException ex) {
+            LOG.debug("serve() stopped: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * This makes {@link GreenTreeServerLoadTest#CONNECTIONS} connections from
+     * {@link GreenTreeServerLoadTest#CLIENTS} threads.
+     *
+     * @param port on which the server listens
+     * @return the latency in nanoseconds of every connection, followed by the
+     * elapsed time in nanoseconds of the whole run
+     */
+    private long[] load(int port) throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<Long>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            futures.add(clients.submit(() -> connect(port)));
+        }
+
+        long[] results = new long[CONNECTIONS + 1];
+        for (int i = 0; i < CONNECTIONS; i++) {
+            results[i] = futures.get(i).get();
+        }
+        results[CONNECTIONS] = System.nanoTime() - start;
+        clients.shutdown();
+        return results;
+    }
+
+    /**
+     * This opens one session from each of
+     * {@link GreenTreeServerLoadTest#CLIENTS} threads and sends
+     * {@link GreenTreeServerLoadTest#CONNECTIONS} commands across all of them.
+     *
+     * @param port on which the server listens
+     * @param binary true, to send {@link GreenTreeBinaryProtocol} frames
+     * @param window number of binary requests sent ahead of their replies
+     * @return the latency in nanoseconds of every command, followed by the
+     * elapsed time in nanoseconds of the whole run
+     */
+    private long[] sessions(int port, boolean binary, int window)
+        throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        List<Future<long[]>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < CLIENTS; i++) {
+            int commands = CONNECTIONS / CLIENTS
+                + (i < CONNECTIONS % CLIENTS ? 1 : 0);
+            futures.add(clients.submit(() -> binary
+                ? binarySession(port, commands, window)
+                : session(port, commands)));
+        }
+
+        long[] results = new long[CONNECTIONS + 1];
+        int i = 0;
+        for (Future<long[]> future : futures) {
+            for (long latency : future.get()) {
+                results[i++] = latency;
+            }
+        }
+        results[CONNECTIONS] = System.nanoTime() - start;
+        clients.shutdown();
+        return results;
+    }
+
+    /**
+     * This opens one connection and sends the given number of commands over
+     * it before closing the session.
+     *
+     * @return the latency of every command in nanoseconds
+     */
+    private long[] session(int port, int commands) throws Exception {
+        long[] latencies = new long[commands];
+        try (Socket socket = new Socket("localhost", port)) {
+            ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(socket.getOutputStream())
+            );
+            out.flush();
+            ObjectInputStream in = null;
+            for (int i = 0; i < commands; i++) {
+                long start = System.nanoTime();
+                out.writeObject("registerService(String)");
+                out.writeObject("TokenService");
+                out.reset();
+                out.flush();
+                if (in == null) {
+                    in = new ObjectInputStream(socket.getInputStream());
+                }
+                assertEquals(Boolean.class, in.readObject().getClass());
+                latencies[i] = System.nanoTime() - start;
+            }
+            out.writeObject("close()");
+            out.flush();
+        }
+        return latencies;
+    }
+
+    /**
+     * This opens one connection and sends the given number of commands over
+     * it as {@link GreenTreeBinaryProtocol} frames before closing the
+     * session. Up to <code>window</code> commands are sent before waiting for
+     * a reply.
+     *
+     * @return the latency of every command in nanoseconds
+     */
+    private long[] binarySession(int port, int commands, int window)
+        throws Exception {
+        long[] sent = new long[commands];
+        long[] latencies = new long[commands];
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out
+                = new BufferedOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream())
+            );
+
+            int sending = 0;
+            for (int received = 0; received < commands; received++) {
+                while (sending < commands && sending - received < window) {
+                    ByteBuffer request = GreenTreeBinaryProtocol.encodeRequest(
+                        sending, GreenTreeRequest.REGISTER_SERVICE,
+                        "TokenService"
+                    );
+                    sent[sending++] = System.nanoTime();
+                    out.write(request.array(), 0, request.limit());
+                }
+                out.flush();
+
+                ByteBuffer reply = GreenTreeBinaryProtocol.readFrame(in);
+                int id = (int) GreenTreeBinaryProtocol.responseId(reply);
+                assertEquals(Boolean.class, GreenTreeBinaryProtocol
+                    .decodeResponse(reply).getClass());
+                latencies[received] = System.nanoTime() - sent[id];
+            }
+
+            ByteBuffer close = GreenTreeBinaryProtocol.encodeRequest(
+                commands, GreenTreeRequest.CLOSE
+            );
+            out.write(close.array(), 0, close.limit());
+            out.flush();
+        }
+        return latencies;
+    }
+
+    /**
+     * This makes one connection and sends one command.
+     *
+     * @return the latency of the connection in nanoseconds
+     */
+    private long connect(int port) throws Exception {
+        long start = System.nanoTime();
+        try (Socket socket = new Socket("localhost", port)) {
+            ObjectOutputStream out
+                = new ObjectOutputStream(socket.getOutputStream());
+            out.writeObject("registerService(String)");
+            out.writeObject("TokenService");
+            out.flush();
+            ObjectInputStream in
+                = new ObjectInputStream(socket.getInputStream());
+            assertEquals(Boolean.class, in.readObject().getClass());
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * This logs requests per second and p99 latency for a run.
+     */
+    private void report(String mode, long[] results) {
+        long elapsed = results[CONNECTIONS];
+        long[] latencies = Arrays.copyOf(results, CONNECTIONS);
+        Arrays.sort(latencies);
+        long p99 = latencies[(int) Math.ceil(CONNECTIONS * 0.99) - 1];
+
+        LOG.info(String.format("%s mode: %d requests in %d ms, "
+            + "%.0f requests/second, p99 latency %.2f ms", mode,
+            CONNECTIONS, elapsed / 1000000,
+            CONNECTIONS / (elapsed / 1e9), p99 / 1e6));
+    }
+}
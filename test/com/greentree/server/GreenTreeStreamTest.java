@@ -0,0 +1,454 @@
+package com.greentree.server;
+
+import com.greentree.model.business.manager.GreenTreeManager;
+import com.greentree.model.business.manager.GreenTreeSession;
+import com.greentree.model.domain.Token;
+import com.greentree.model.services.tokenservice.ITokenService;
+import com.greentree.model.services.tokenservice.InMemoryTokenService;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * This class tests that {@link GreenTreeRequest#STREAM_DATA} replies arrive
+ * in chunks, and {@link GreenTreeRequest#GET_DATA_PAGE} replies in pages, in
+ * both server modes and both protocols.
+ *
+ * @author david5MX53G
+ */
+public class GreenTreeStreamTest {
+
+    /**
+     * The <code>Token</code> read by the tests has this many blocks added to
+     * it, enough for several chunks.
+     */
+    private static final int BLOCKS = 3 * GreenTreeRequest.CHUNK_BLOCKS / 2
+        + GreenTreeRequest.CHUNK_BLOCKS;
+
+    /**
+     * This passphrase protects the <code>Token</code>.
+     */
+    private static final String PASS = "Sentence first, verdict afterwards.";
+
+    /**
+     * This {@link GreenTreeManager} handles requests.
+     */
+    private final GreenTreeManager mngr = GreenTreeManager.getInstance();
+
+    /**
+     * This runs the requests.
+     */
+    private final GreenTreeWorkerPool workers
+        = new GreenTreeWorkerPool(4, 100, Thread::new);
+
+    /**
+     * This is put back on the {@link GreenTreeManager} after each test.
+     */
+    private ITokenService saved;
+
+    /**
+     * This identifies the <code>Token</code> read by the tests.
+     */
+    private RSAPublicKey key;
+
+    /**
+     * This is the passphrase of the <code>Token</code>, encrypted.
+     */
+    private String ciphertext;
+
+    /**
+     * This is the number of readable blocks in the <code>Token</code> once
+     * the client has read it, before logging out adds another.
+     */
+    private int expected;
+
+    /**
+     * The binary client waits this many milliseconds after sending its
+     * requests before reading any reply.
+     */
+    private long readDelay = 0;
+
+    /**
+     * This stores a <code>Token</code> with {@link GreenTreeStreamTest#BLOCKS}
+     * blocks in memory.
+     */
+    @Before
+    public void setUp() throws Exception {
+        saved = mngr.getTokenService();
+        mngr.setTokenService(new InMemoryTokenService());
+
+        GreenTreeSession session = new GreenTreeSession();
+        assertTrue(mngr.registerToken(session, PASS));
+        key = mngr.getPublicKey(session);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < BLOCKS; i++) {
+            assertTrue(mngr.addBlock(session, "block " + i, key, now - 1000,
+                now + 60000));
+        }
+        ciphertext = token().encrypt(PASS);
+    }
+
+    /**
+     * This stops the workers and puts back the storage.
+     */
+    @After
+    public void tearDown() {
+        workers.close();
+        mngr.setTokenService(saved);
+    }
+
+    /**
+     * Tests streaming to an {@link ObjectOutputStream} client in the
+     * thread-per-connection mode.
+     */
+    @Test
+    public void threadObjectStreamTest() throws Exception {
+        try (ServerSocket s = new ServerSocket(0)) {
+            new Thread(() -> serve(s)).start();
+            check(objectStream(s.getLocalPort()));
+        }
+    }
+
+    /**
+     * Tests streaming to a binary client in the thread-per-connection mode.
+     */
+    @Test
+    public void threadBinaryStreamTest() throws Exception {
+        try (ServerSocket s = new ServerSocket(0)) {
+            new Thread(() -> serve(s)).start();
+            check(binaryStream(s.getLocalPort()));
+        }
+    }
+
+    /**
+     * Tests streaming to an {@link ObjectOutputStream} client in the "nio"
+     * mode.
+     */
+    @Test
+    public void nioObjectStreamTest() throws Exception {
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 1, workers, 60000)) {
+            new Thread(s).start();
+            check(objectStream(s.getPort()));
+        }
+    }
+
+    /**
+     * Tests streaming to a binary client in the "nio" mode.
+     */
+    @Test
+    public void nioBinaryStreamTest() throws Exception {
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 1, workers, 60000)) {
+            new Thread(s).start();
+            check(binaryStream(s.getPort()));
+        }
+    }
+
+    /**
+     * Tests streaming in the "nio" mode to a binary client which reads
+     * late, so the server must wait for queued chunks to be written before
+     * reading more of the chain.
+     */
+    @Test
+    public void nioSlowBinaryStreamTest() throws Exception {
+        readDelay = 500;
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 1, workers, 60000)) {
+            new Thread(s).start();
+            List<List<String>> chunks = binaryStream(s.getPort());
+            assertTrue(chunks.size()
+                > GreenTreeChannelHandler.MAX_QUEUED_CHUNKS);
+            check(chunks);
+        }
+    }
+
+    /**
+     * Tests reading the whole chain a page at a time.
+     */
+    @Test
+    public void pageTest() throws Exception {
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 1, workers, 60000);
+            Socket socket = new Socket("localhost", s.getPort())) {
+            new Thread(s).start();
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream())
+            );
+            write(out, GreenTreeBinaryProtocol.encodeRequest(1,
+                GreenTreeRequest.REGISTER_TOKEN_KEY, key, ciphertext));
+            assertEquals(true, GreenTreeBinaryProtocol.decodeResponse(
+                GreenTreeBinaryProtocol.readFrame(in)));
+
+            List<List<String>> pages = new ArrayList<>();
+            String offset = "0";
+            while (!offset.isEmpty()) {
+                write(out, GreenTreeBinaryProtocol.encodeRequest(2,
+                    GreenTreeRequest.GET_DATA_PAGE, key,
+                    Long.parseLong(offset), 50L));
+                @SuppressWarnings("unchecked")
+                List<String> page = (List<String>) GreenTreeBinaryProtocol
+                    .decodeResponse(GreenTreeBinaryProtocol.readFrame(in));
+                offset = page.get(0);
+                pages.add(page.subList(1, page.size()));
+            }
+            expected = token().getBlockChain().size() - 1;
+            check(pages);
+        }
+    }
+
+    /**
+     * Tests that a malformed frame closes only the connection which sent it,
+     * while the one I/O thread goes on serving the others.
+     */
+    @Test
+    public void nioMalformedFrameTest() throws Exception {
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 1, workers, 60000);
+            Socket bad = new Socket("localhost", s.getPort());
+            Socket good = new Socket("localhost", s.getPort())) {
+            bad.setSoTimeout(10000);
+            good.setSoTimeout(10000);
+            new Thread(s).start();
+            // a string argument whose 10-byte varint length is negative
+            byte[] frame = {0, 0, 0, 13, 0, 2, 3, -1, -1, -1, -1, -1, -1, -1,
+                -1, -1, 1};
+            bad.getOutputStream().write(frame);
+            bad.getOutputStream().flush();
+            assertEquals(-1, bad.getInputStream().read());
+
+            OutputStream out = good.getOutputStream();
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(good.getInputStream())
+            );
+            write(out, GreenTreeBinaryProtocol.encodeRequest(1,
+                GreenTreeRequest.REGISTER_TOKEN_KEY, key, ciphertext));
+            assertEquals(true, GreenTreeBinaryProtocol.decodeResponse(
+                GreenTreeBinaryProtocol.readFrame(in)));
+        }
+    }
+
+    /**
+     * Tests that an {@link ObjectOutputStream} request arriving a few bytes
+     * at a time is read once it is whole, and that one still incomplete
+     * after {@link GreenTreeChannelHandler#MAX_OBJECT_REQUEST} bytes closes
+     * the connection, in the "nio" mode.
+     */
+    @Test
+    public void nioObjectTrickleTest() throws Exception {
+        try (GreenTreeSelectorServer s
+            = new GreenTreeSelectorServer(0, mngr, 1, workers, 60000);
+            Socket slow = new Socket("localhost", s.getPort());
+            Socket large = new Socket("localhost", s.getPort())) {
+            slow.setSoTimeout(10000);
+            large.setSoTimeout(10000);
+            new Thread(s).start();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(GreenTreeRequest.REGISTER_TOKEN_KEY);
+                out.writeObject(key);
+                out.writeObject(ciphertext);
+                out.reset();
+            }
+            byte[] request = bytes.toByteArray();
+            OutputStream out = slow.getOutputStream();
+            for (int i = 0; i < request.length; i += 16) {
+                out.write(request, i, Math.min(16, request.length - i));
+                out.flush();
+                Thread.sleep(1);
+            }
+            ObjectInputStream in = new ObjectInputStream(slow.getInputStream());
+            assertEquals(true, in.readObject());
+
+            char[] data = new char[GreenTreeChannelHandler.MAX_OBJECT_REQUEST];
+            Arrays.fill(data, 'x');
+            try {
+                ObjectOutputStream big = new ObjectOutputStream(
+                    large.getOutputStream());
+                // the key and times which should follow are never sent
+                big.writeObject(GreenTreeRequest.ADD_BLOCK);
+                big.writeObject(new String(data));
+                big.flush();
+                assertEquals(-1, large.getInputStream().read());
+            } catch (SocketException ex) {
+                // the server closed the connection while it was written
+            }
+        }
+    }
+
+    /**
+     * Tests that a request which throws on its worker in the
+     * thread-per-connection mode sends an {@link ObjectOutputStream} client
+     * what it threw, and leaves the connection open for the next request.
+     */
+    @Test
+    public void threadObjectErrorTest() throws Exception {
+        try (ServerSocket s = new ServerSocket(0);
+            Socket socket = new Socket("localhost", s.getLocalPort())) {
+            socket.setSoTimeout(10000);
+            new Thread(() -> serve(s)).start();
+            ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(socket.getOutputStream())
+            );
+            // no Token is registered yet, so adding a block throws
+            out.writeObject(GreenTreeRequest.ADD_BLOCK);
+            out.writeObject("orphan");
+            out.writeObject(key);
+            out.writeObject(0L);
+            out.writeObject(Long.MAX_VALUE);
+            out.reset();
+            out.flush();
+            ObjectInputStream in
+                = new ObjectInputStream(socket.getInputStream());
+            assertTrue(in.readObject() instanceof RuntimeException);
+
+            out.writeObject(GreenTreeRequest.REGISTER_TOKEN_KEY);
+            out.writeObject(key);
+            out.writeObject(ciphertext);
+            out.reset();
+            out.flush();
+            assertEquals(true, in.readObject());
+        }
+    }
+
+    /**
+     * This checks that the chunks hold the data of every block but the root,
+     * in order, split over more than one chunk.
+     */
+    private void check(List<List<String>> chunks) throws Exception {
+        assertTrue(chunks.size() > 1);
+        List<String> data = new ArrayList<>();
+        chunks.forEach(data::addAll);
+        assertEquals(expected, data.size());
+        int next = 0;
+        for (String str : data) {
+            if (str.startsWith("block ")) {
+                assertEquals("block " + next++, str);
+            }
+        }
+        assertEquals(BLOCKS, next);
+    }
+
+    /**
+     * This authenticates over an {@link ObjectOutputStream} and streams the
+     * data of the <code>Token</code>.
+     *
+     * @return every non-empty chunk received
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<String>> objectStream(int port) throws Exception {
+        List<List<String>> chunks = new ArrayList<>();
+        try (Socket socket = new Socket("localhost", port)) {
+            ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(socket.getOutputStream())
+            );
+            out.writeObject(GreenTreeRequest.REGISTER_TOKEN_KEY);
+            out.writeObject(key);
+            out.writeObject(ciphertext);
+            out.reset();
+            out.flush();
+            ObjectInputStream in
+                = new ObjectInputStream(socket.getInputStream());
+            assertEquals(true, in.readObject());
+
+            out.writeObject(GreenTreeRequest.STREAM_DATA);
+            out.writeObject(key);
+            out.reset();
+            out.flush();
+            List<String> chunk;
+            while (!(chunk = (List<String>) in.readObject()).isEmpty()) {
+                chunks.add(chunk);
+            }
+            expected = token().getBlockChain().size() - 1;
+            out.writeObject(GreenTreeRequest.CLOSE);
+            out.flush();
+        }
+        return chunks;
+    }
+
+    /**
+     * This authenticates with binary frames and streams the data of the
+     * <code>Token</code>, sending both requests before reading either reply.
+     *
+     * @return every partial chunk received
+     */
+    @SuppressWarnings("unchecked")
+    private List<List<String>> binaryStream(int port) throws Exception {
+        List<List<String>> chunks = new ArrayList<>();
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream())
+            );
+            write(out, GreenTreeBinaryProtocol.encodeRequest(1,
+                GreenTreeRequest.REGISTER_TOKEN_KEY, key, ciphertext));
+            write(out, GreenTreeBinaryProtocol.encodeRequest(2,
+                GreenTreeRequest.STREAM_DATA, key));
+            Thread.sleep(readDelay);
+
+            assertEquals(true, GreenTreeBinaryProtocol.decodeResponse(
+                GreenTreeBinaryProtocol.readFrame(in)));
+            while (true) {
+                ByteBuffer frame = GreenTreeBinaryProtocol.readFrame(in);
+                assertEquals(2, GreenTreeBinaryProtocol.responseId(frame));
+                boolean partial = GreenTreeBinaryProtocol.isPartial(frame);
+                List<String> chunk = (List<String>) GreenTreeBinaryProtocol
+                    .decodeResponse(frame);
+                if (!partial) {
+                    assertTrue(chunk.isEmpty());
+                    break;
+                }
+                chunks.add(chunk);
+            }
+            expected = token().getBlockChain().size() - 1;
+            write(out, GreenTreeBinaryProtocol.encodeRequest(3,
+                GreenTreeRequest.CLOSE));
+        }
+        return chunks;
+    }
+
+    /**
+     * This writes one frame.
+     */
+    private static void write(OutputStream out, ByteBuffer frame)
+        throws Exception {
+        out.write(frame.array(), 0, frame.limit());
+        out.flush();
+    }
+
+    /**
+     * @return the <code>Token</code> read by the tests, as stored
+     */
+    private Token token() throws Exception {
+        return mngr.getTokenService().selectToken(key);
+    }
+
+    /**
+     * This runs {@link GreenTreeServer#serve} until the socket is closed.
+     */
+    private void serve(ServerSocket s) {
+        try {
+            GreenTreeServer.serve(s, mngr, Thread::new, workers, 100, 60000);
+        } catch (Exception ex) {
+            // the socket was closed
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.greentree.server;
+
+import com.greentree.model.business.manager.GreenTreeManager;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * This class has methods for testing the
+ * <code>{@link GreenTreeWorkerPool}</code> class.
+ *
+ * @author david5MX53G
+ */
+public class GreenTreeWorkerPoolTest {
+
+    /**
+     * This pool has one thread and room for one waiting request.
+     */
+    private final GreenTreeWorkerPool pool
+        = new GreenTreeWorkerPool(1, 1, Thread::new);
+
+    /**
+     * This holds the one thread of the pool until it is counted down.
+     */
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /**
+     * This stops the pool.
+     */
+    @After
+    public void tearDown() {
+        release.countDown();
+        pool.close();
+    }
+
+    /**
+     * Tests that requests are refused once the queue is full, and that the
+     * refusals are counted.
+     */
+    @Test
+    public void testRejected() throws Exception {
+        fill();
+        try {
+            pool.execute(() -> {});
+            fail("testRejected() FAILED");
+        } catch (RejectedExecutionException ex) {
+            assertEquals(1, pool.getRejectedCount());
+        }
+        assertEquals(1, pool.getQueueDepth());
+        assertEquals(1, pool.getQueueCapacity());
+    }
+
+    /**
+     * Tests that the pool can be watched through JMX.
+     */
+    @Test
+    public void testMXBean() throws Exception {
+        fill();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(GreenTreeWorkerPool.OBJECT_NAME);
+        assertEquals(1, server.getAttribute(name, "QueueDepth"));
+        assertEquals(1, server.getAttribute(name, "Threads"));
+        assertEquals(0L, server.getAttribute(name, "RejectedCount"));
+    }
+
+    /**
+     * Tests that a binary client is told the server is busy rather than kept
+     * waiting.
+     */
+    @Test
+    public void testBusyReply() throws Exception {
+        fill();
+        try (GreenTreeSelectorServer s = new GreenTreeSelectorServer(0,
+            GreenTreeManager.getInstance(), 1, pool, 60000)) {
+            new Thread(s).start();
+            try (Socket socket = new Socket("localhost", s.getPort())) {
+                OutputStream out = socket.getOutputStream();
+                ByteBuffer request = GreenTreeBinaryProtocol.encodeRequest(7,
+                    GreenTreeRequest.REGISTER_SERVICE, "TokenService");
+                out.write(request.array(), 0, request.limit());
+
+                ByteBuffer reply = GreenTreeBinaryProtocol.readFrame(
+                    new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream())
+                    )
+                );
+                assertEquals(7, GreenTreeBinaryProtocol.responseId(reply));
+                try {
+                    GreenTreeBinaryProtocol.decodeResponse(reply);
+                    fail("testBusyReply() FAILED");
+                } catch (IOException ex) {
+                    assertTrue(ex.getMessage().contains("server busy"));
+                }
+            }
+        }
+        assertEquals(1, pool.getRejectedCount());
+    }
+
+    /**
+     * Tests that a pool running each request on a thread of its own runs as
+     * many blocked requests at once as it allows, queues the next ones and
+     * refuses the rest.
+     */
+    @Test
+    public void testPerTask() throws Exception {
+        int threads = 16;
+        GreenTreeWorkerPool perTask
+            = new GreenTreeWorkerPool(threads, 1, Thread::new, true);
+        try {
+            CountDownLatch started = new CountDownLatch(threads);
+            for (int i = 0; i < threads; i++) {
+                perTask.execute(() -> {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            perTask.execute(() -> {});
+            assertEquals(threads, perTask.getActiveThreads());
+            assertEquals(1, perTask.getQueueDepth());
+            try {
+                perTask.execute(() -> {});
+                fail("testPerTask() FAILED");
+            } catch (RejectedExecutionException ex) {
+                assertEquals(1, perTask.getRejectedCount());
+            }
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (perTask.getCompletedCount() < threads + 1
+                && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(threads + 1, perTask.getCompletedCount());
+            assertEquals(0, perTask.getActiveThreads());
+        } finally {
+            perTask.close();
+        }
+    }
+
+    /**
+     * This occupies the thread of the pool and fills its queue.
+     */
+    private void fill() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        pool.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        pool.execute(() -> {});
+    }
+}